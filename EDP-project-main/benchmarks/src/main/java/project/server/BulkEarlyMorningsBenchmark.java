@@ -0,0 +1,56 @@
+package project.server;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// IMPLEMENTATION OF THE BULK EARLY MORNINGS BENCHMARK
+// 'Early Mornings' over many schedules in one call, on an engine with one thread (always sequential) and on one with a
+// thread per core (forks once the estimated work is large enough). The schedules are kept in memory, so no journal is written.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BulkEarlyMorningsBenchmark {
+
+    private final List<String> tenantIds = new ArrayList<>();
+    private ScheduleRegistry sequentialRegistry;
+    private ScheduleRegistry parallelRegistry;
+
+    @Param({"1", "100", "10000"})
+    public int numberOfSchedules;
+
+    @Param({"20"})
+    public int classesPerDay;
+
+    @Setup
+    public void fillSchedules() {
+
+        sequentialRegistry = new ScheduleRegistry(null, new EarlyMorningsEngine(1));
+        parallelRegistry = new ScheduleRegistry(null, new EarlyMorningsEngine(EarlyMorningsEngine.DEFAULT_PARALLELISM));
+        for (int i = 0; i < numberOfSchedules; i++) {
+            String tenantId = "tenant-" + i;
+            tenantIds.add(tenantId);
+            for (ScheduleRegistry scheduleRegistry : List.of(sequentialRegistry, parallelRegistry)) {
+                scheduleRegistry.withSchedule(tenantId, schedule -> {
+                    ScheduleContentionBenchmark.fill(schedule, classesPerDay, 0);
+                    return null;
+                });
+            }
+        }
+    }
+
+    @Benchmark
+    public EarlyMorningsStatistics sequentialEngine() {
+        return sequentialRegistry.performEarlyMornings(tenantIds);
+    }
+
+    @Benchmark
+    public EarlyMorningsStatistics parallelEngine() {
+        return parallelRegistry.performEarlyMornings(tenantIds);
+    }
+}
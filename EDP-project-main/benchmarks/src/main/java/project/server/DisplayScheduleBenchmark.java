@@ -0,0 +1,59 @@
+package project.server;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.time.LocalTime;
+import java.util.concurrent.TimeUnit;
+
+// IMPLEMENTATION OF THE DISPLAY BENCHMARK
+// 'Display Schedule' at growing schedule sizes: when nothing has changed since the last display, after a change to one day
+// (only that day is formatted again), and after a change to every day.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DisplayScheduleBenchmark {
+
+    private final Schedule schedule = new Schedule();
+    private final Class classToChange = new Class(LocalTime.of(23, 0), LocalTime.of(23, 30), ScheduleContentionBenchmark.MODULES[0], "Room 1"); // after the last class of the largest schedule
+
+    @Param({"10", "100", "600"})
+    public int classesPerDay;
+
+    @Setup
+    public void fillSchedule() {
+        ScheduleContentionBenchmark.fill(schedule, classesPerDay, 0);
+    }
+
+    @Benchmark
+    public String unchanged() {
+        return schedule.getAllClassesInfoAsString();
+    }
+
+    @Benchmark
+    public EncodedMessage unchangedAsSentToClients() {
+        return schedule.getAllClassesInfoEncoded();
+    }
+
+    @Benchmark
+    public String afterChangeOfOneDay() {
+        changeDay("Wednesday");
+        return schedule.getAllClassesInfoAsString();
+    }
+
+    @Benchmark
+    public String afterChangeOfEveryDay() {
+        for (String dayOfWeek : Schedule.DAYS_OF_WEEK) {
+            changeDay(dayOfWeek);
+        }
+        return schedule.getAllClassesInfoAsString();
+    }
+
+    // the class is added and removed again, so the day is formatted again but looks the same
+    private void changeDay(String dayOfWeek) {
+        schedule.addClass(dayOfWeek, classToChange);
+        schedule.removeClass(dayOfWeek, classToChange.getName(), classToChange.getStartTime());
+    }
+}
@@ -0,0 +1,84 @@
+package project.server;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+
+// IMPLEMENTATION OF THE EARLY MORNINGS BENCHMARK
+// One schedule: a task forked for every day (what the server did before EarlyMorningsEngine) against the plain loop it
+// uses now, and the whole operation as a client triggers it (locks, cached displays, change listeners).
+// After the first call the classes are already in the morning, which does not matter: every call moves every class again.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EarlyMorningsBenchmark {
+
+    private final Schedule schedule = new Schedule();
+    private final PackedDay[] days = new PackedDay[Schedule.DAYS_OF_WEEK.size()];
+
+    @Param({"10", "100", "600"})
+    public int classesPerDay;
+
+    @Setup
+    public void fillSchedule() {
+
+        ScheduleContentionBenchmark.fill(schedule, classesPerDay, 0);
+        for (int dayIndex = 0; dayIndex < days.length; dayIndex++) {
+            days[dayIndex] = new PackedDay();
+            for (int i = 0; i < classesPerDay; i++) {
+                days[dayIndex].insert(PackedDay.pack(i * 2, i * 2 + 1, dayIndex, i % ScheduleContentionBenchmark.MODULES.length, i % 40));
+            }
+        }
+    }
+
+    @Benchmark
+    public PackedDay[] forkJoinPerDay() {
+        ForkJoinPool.commonPool().invoke(new ShiftDaysTask(days, 0, days.length));
+        return days;
+    }
+
+    @Benchmark
+    public EarlyMorningsStatistics sequentialLoop() {
+        EarlyMorningsRun run = new EarlyMorningsRun();
+        run.shift(days);
+        return run.finish();
+    }
+
+    @Benchmark
+    public Schedule wholeOperation() {
+        schedule.performEarlyMorningsOperation();
+        return schedule;
+    }
+
+    // splits down to single days whatever their size, like the task used to
+    private static class ShiftDaysTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final PackedDay[] days;
+        private final int start;
+        private final int end;
+
+        ShiftDaysTask(PackedDay[] days, int start, int end) {
+            this.days = days;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+
+            if (end - start == 1) {
+                days[start].shiftToMorning(EarlyMorningsEngine.FIRST_START_MINUTE);
+            } else {
+                int middle = (start + end) / 2;
+                invokeAll(new ShiftDaysTask(days, start, middle), new ShiftDaysTask(days, middle, end));
+            }
+        }
+    }
+}
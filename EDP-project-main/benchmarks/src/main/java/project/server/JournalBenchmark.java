@@ -0,0 +1,93 @@
+package project.server;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalTime;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+// IMPLEMENTATION OF THE JOURNAL BENCHMARK
+// Durable changes per second through a ScheduleRegistry with a storage directory: every operation is one change that
+// returns only once it is on disk. Group commit shows as a rate that grows with the thread count, so run it like
+// ScheduleContentionBenchmark with -t 1, -t 8, -t 64, ... The result depends on the disk much more than on the code.
+// The directory is created under java.io.tmpdir unless -Dbenchmark.storageDirectory points at the disk to measure.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JournalBenchmark {
+
+    private static final int NUMBER_OF_TENANTS = 16;
+
+    private final AtomicInteger numberOfThreads = new AtomicInteger();
+    private Path storageDirectory;
+    private ScheduleRegistry scheduleRegistry;
+
+    @Setup
+    public void openRegistry() throws IOException {
+        storageDirectory = createStorageDirectory();
+        scheduleRegistry = new ScheduleRegistry(storageDirectory);
+    }
+
+    @TearDown
+    public void closeRegistry() {
+        scheduleRegistry.close();
+        deleteStorageDirectory(storageDirectory);
+    }
+
+    @State(Scope.Thread)
+    public static class ChangesOfThread {
+
+        String tenantId;
+        Class classOfThread;
+        boolean classIsInSchedule; // the thread adds and removes its class in turn
+
+        @Setup
+        public void chooseSlot(JournalBenchmark benchmark) {
+
+            int threadIndex = benchmark.numberOfThreads.getAndIncrement();
+            tenantId = "tenant-" + threadIndex % NUMBER_OF_TENANTS;
+            LocalTime startTime = LocalTime.MIDNIGHT.plusMinutes(threadIndex / NUMBER_OF_TENANTS * 2L);
+            classOfThread = new Class(startTime, startTime.plusMinutes(1), ScheduleContentionBenchmark.MODULES[0], "Room 1");
+        }
+    }
+
+    @Benchmark
+    public Object durableChange(ChangesOfThread changes) {
+
+        changes.classIsInSchedule = !changes.classIsInSchedule;
+        if (changes.classIsInSchedule) {
+            return scheduleRegistry.withSchedule(changes.tenantId, schedule -> schedule.addClass("Monday", changes.classOfThread));
+        }
+        return scheduleRegistry.withSchedule(changes.tenantId,
+                schedule -> schedule.removeClass("Monday", changes.classOfThread.getName(), changes.classOfThread.getStartTime()));
+    }
+
+    static Path createStorageDirectory() throws IOException {
+
+        String parentDirectory = System.getProperty("benchmark.storageDirectory");
+        if (parentDirectory == null) {
+            return Files.createTempDirectory("schedule-benchmark");
+        }
+        return Files.createTempDirectory(Files.createDirectories(Path.of(parentDirectory)), "schedule-benchmark");
+    }
+
+    static void deleteStorageDirectory(Path storageDirectory) {
+
+        try (Stream<Path> files = Files.walk(storageDirectory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) { // the files before the directories they are in
+                Files.delete(file);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
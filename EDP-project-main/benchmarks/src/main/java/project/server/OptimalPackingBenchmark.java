@@ -0,0 +1,64 @@
+package project.server;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Duration;
+import java.time.LocalTime;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+// IMPLEMENTATION OF THE OPTIMAL PACKING BENCHMARK
+// The search for one schedule from the same snapshot every time, with the candidate moves evaluated by the calling thread
+// and on a pool with a thread per core. The budget is long enough for the search to finish on its own.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class OptimalPackingBenchmark {
+
+    private static final Duration TIME_BUDGET = Duration.ofSeconds(30);
+    private static final RoomOccupancyIndex ROOMS_OF_NO_OTHER_SCHEDULE = new RoomOccupancyIndex(); // the search alone, without clashes to avoid
+
+    private final ForkJoinPool sequentialPool = new ForkJoinPool(1);
+    private final ForkJoinPool parallelPool = new ForkJoinPool(EarlyMorningsEngine.DEFAULT_PARALLELISM);
+    private List<List<Class>> classes;
+
+    @Param({"10", "100", "300"})
+    public int classesPerDay;
+
+    // the later in the week, the more classes, of one or two minutes, so there is something to even out
+    @Setup
+    public void fillSchedule() {
+
+        Schedule schedule = new Schedule();
+        for (int dayIndex = 0; dayIndex < Schedule.DAYS_OF_WEEK.size(); dayIndex++) {
+            LocalTime startTime = LocalTime.MIDNIGHT;
+            for (int i = 0; i < classesPerDay * (dayIndex + 1) / 3; i++) {
+                LocalTime finishTime = startTime.plusMinutes(1 + (i * 7 + dayIndex) % 2);
+                schedule.addClass(Schedule.DAYS_OF_WEEK.get(dayIndex), new Class(startTime, finishTime,
+                        ScheduleContentionBenchmark.MODULES[i % ScheduleContentionBenchmark.MODULES.length], "Room " + (i % 40)));
+                startTime = finishTime.plusMinutes(1);
+            }
+        }
+        classes = schedule.snapshot().classesPerDay;
+    }
+
+    @TearDown
+    public void shutDownPools() {
+        sequentialPool.shutdown();
+        parallelPool.shutdown();
+    }
+
+    @Benchmark
+    public List<ScheduleOperation> sequentialSearch() {
+        return new OptimalPacking(classes, ROOMS_OF_NO_OTHER_SCHEDULE, "benchmark", sequentialPool).solve(TIME_BUDGET);
+    }
+
+    @Benchmark
+    public List<ScheduleOperation> parallelSearch() {
+        return new OptimalPacking(classes, ROOMS_OF_NO_OTHER_SCHEDULE, "benchmark", parallelPool).solve(TIME_BUDGET);
+    }
+}
@@ -0,0 +1,73 @@
+package project.server;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+// IMPLEMENTATION OF THE PACKED DAY BENCHMARK
+// One change to the middle of a day, as Schedule makes it: the class is inserted or removed and the day is copied for the
+// version that is published to readers. PackedDay shifts the longs after the class with System.arraycopy(), O(n); the
+// TreeMap of Class objects it replaced finds the place in O(log n), but a published version copies the day either way.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PackedDayBenchmark {
+
+    private final PackedDay packedDay = new PackedDay();
+    private final TreeMap<Integer, Class> treeDay = new TreeMap<>();
+    private long classInTheMiddle;
+
+    @Param({"10", "100", "720"}) // a day holds at most 720 classes: each lasts a minute or more and may not touch the next
+    public int classesPerDay;
+
+    @Setup
+    public void fillDay() {
+
+        for (int i = 0; i < classesPerDay; i++) {
+            int startMinute = i * 2;
+            packedDay.insert(PackedDay.pack(startMinute, startMinute + 1, 0, i % ScheduleContentionBenchmark.MODULES.length, i % 40));
+            treeDay.put(startMinute, new Class(CompactScheduleFile.timeOf(startMinute), CompactScheduleFile.timeOf(startMinute + 1),
+                    ScheduleContentionBenchmark.MODULES[i % ScheduleContentionBenchmark.MODULES.length], "Room " + i % 40));
+        }
+        classInTheMiddle = packedDay.get(classesPerDay / 2);
+    }
+
+    @Benchmark
+    public void packedRemoveAndInsert(Blackhole publishedVersions) {
+
+        packedDay.removeAt(packedDay.indexOfStart(PackedDay.startOf(classInTheMiddle)));
+        publishedVersions.consume(packedDay.toArray());
+        packedDay.insert(classInTheMiddle);
+        publishedVersions.consume(packedDay.toArray());
+    }
+
+    @Benchmark
+    public void treeRemoveAndInsert(Blackhole publishedVersions) {
+
+        Class removedClass = treeDay.remove(PackedDay.startOf(classInTheMiddle));
+        publishedVersions.consume(new ArrayList<>(treeDay.values()));
+        treeDay.put(PackedDay.startOf(classInTheMiddle), removedClass);
+        publishedVersions.consume(new ArrayList<>(treeDay.values()));
+    }
+
+    // the changes alone, as if nothing were published
+    @Benchmark
+    public long packedRemoveAndInsertOnly() {
+
+        packedDay.removeAt(packedDay.indexOfStart(PackedDay.startOf(classInTheMiddle)));
+        return packedDay.insert(classInTheMiddle);
+    }
+
+    @Benchmark
+    public Class treeRemoveAndInsertOnly() {
+
+        Class removedClass = treeDay.remove(PackedDay.startOf(classInTheMiddle));
+        return treeDay.put(PackedDay.startOf(classInTheMiddle), removedClass);
+    }
+}
@@ -0,0 +1,53 @@
+package project.server;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+// IMPLEMENTATION OF THE PROTOCOL BENCHMARK
+// Parsing alone (the CSV line of 'Add New Class' into a Class), and a request going all the way through RequestProcessor
+// in the text protocol and in the binary one. The round trips add a class and remove it again.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ProtocolParsingBenchmark {
+
+    private static final String ADD_NEW_CLASS_LINE = "Add New Class,Monday,9,0,10,30,CS4076,CSG-001";
+    private static final String REMOVE_CLASS_LINE = "Remove Class,Monday,9,0,CS4076";
+    private static final String COUNT_OF_LINE = "Count Of,CS4076";
+
+    private final RequestProcessor requestProcessor = new RequestProcessor(new ScheduleRegistry());
+    private final ByteBuffer addClassFrame = frameOf(BinaryProtocol.encodeAddClassRequest(1, 0, 9 * 60, 10 * 60 + 30, "CS4076", "CSG-001"));
+    private final ByteBuffer removeClassFrame = frameOf(BinaryProtocol.encodeRemoveClassRequest(2, 0, 9 * 60, "CS4076"));
+
+    // what the connection hands over: the request without its length prefix
+    private static ByteBuffer frameOf(ByteBuffer request) {
+        return request.position(4).slice();
+    }
+
+    @Benchmark
+    public Class parseAddNewClassLine() {
+        return RequestProcessor.createAClassUsingDataProvidedByClient(ADD_NEW_CLASS_LINE.split(","));
+    }
+
+    @Benchmark
+    public EncodedMessage countOfLine() {
+        return requestProcessor.processMessageFromClient(COUNT_OF_LINE);
+    }
+
+    @Benchmark
+    public EncodedMessage addAndRemoveLines() {
+        requestProcessor.processMessageFromClient(ADD_NEW_CLASS_LINE);
+        return requestProcessor.processMessageFromClient(REMOVE_CLASS_LINE);
+    }
+
+    @Benchmark
+    public ByteBuffer addAndRemoveFrames() {
+        BinaryProtocol.processRequestFrame(addClassFrame.duplicate(), requestProcessor, BinaryProtocol.VERSION);
+        return BinaryProtocol.processRequestFrame(removeClassFrame.duplicate(), requestProcessor, BinaryProtocol.VERSION);
+    }
+}
@@ -0,0 +1,97 @@
+package project.server;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+// IMPLEMENTATION OF THE RECOVERY BENCHMARK
+// How long a restart takes when the journal holds a given number of changes since the last checkpoint: the journal is
+// written once, then every operation opens a new ScheduleRegistry on the same directory, which replays all of it.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RecoveryBenchmark {
+
+    private static final int NUMBER_OF_TENANTS = 50;
+
+    private Path storageDirectory;
+
+    @Param({"10000", "100000"})
+    public int numberOfChanges;
+
+    // one thread per tenant, so the changes share their fsyncs and the setup does not take minutes
+    @Setup
+    public void writeJournal() throws Exception {
+
+        storageDirectory = JournalBenchmark.createStorageDirectory();
+        ExecutorService writers = Executors.newFixedThreadPool(NUMBER_OF_TENANTS);
+        try (ScheduleRegistry scheduleRegistry = new ScheduleRegistry(storageDirectory)) {
+            List<Future<?>> tenantsBeingWritten = new ArrayList<>();
+            for (int tenantIndex = 0; tenantIndex < NUMBER_OF_TENANTS; tenantIndex++) {
+                String tenantId = "tenant-" + tenantIndex;
+                tenantsBeingWritten.add(writers.submit(() -> writeChangesOf(scheduleRegistry, tenantId, numberOfChanges / NUMBER_OF_TENANTS)));
+            }
+            for (Future<?> tenantBeingWritten : tenantsBeingWritten) {
+                tenantBeingWritten.get();
+            }
+        } finally {
+            writers.shutdown();
+        }
+    }
+
+    // every class is added, then removed by the next change
+    private static void writeChangesOf(ScheduleRegistry scheduleRegistry, String tenantId, int numberOfChanges) {
+
+        for (int i = 0; i < numberOfChanges; i++) {
+            LocalTime startTime = LocalTime.MIDNIGHT.plusMinutes(i / 2 % 720 * 2L);
+            String className = ScheduleContentionBenchmark.MODULES[i / 2 % ScheduleContentionBenchmark.MODULES.length];
+            if (i % 2 == 0) {
+                Class classToAdd = new Class(startTime, startTime.plusMinutes(1), className, "Room 1");
+                scheduleRegistry.withSchedule(tenantId, schedule -> schedule.addClass("Monday", classToAdd));
+            } else {
+                scheduleRegistry.withSchedule(tenantId, schedule -> schedule.removeClass("Monday", className, startTime));
+            }
+        }
+    }
+
+    @TearDown
+    public void deleteJournal() {
+        JournalBenchmark.deleteStorageDirectory(storageDirectory);
+    }
+
+    // every recovery starts an empty segment of its own; they would pile up in the journal without this
+    @TearDown(Level.Invocation)
+    public void deleteEmptySegments() {
+
+        try (Stream<Path> segments = Files.list(storageDirectory.resolve("journal"))) {
+            for (Path segment : segments.toList()) {
+                if (Files.size(segment) == 0) {
+                    Files.delete(segment);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Benchmark
+    public long recover() {
+        try (ScheduleRegistry scheduleRegistry = new ScheduleRegistry(storageDirectory)) {
+            return scheduleRegistry.numberOfReplayedChanges();
+        }
+    }
+}
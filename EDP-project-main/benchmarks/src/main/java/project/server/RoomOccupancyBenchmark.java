@@ -0,0 +1,57 @@
+package project.server;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.time.LocalTime;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// IMPLEMENTATION OF THE ROOM OCCUPANCY BENCHMARK
+// Lookups in the room index of a registry whose schedules book a given number of rooms, each for an hour a day.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RoomOccupancyBenchmark {
+
+    private static final LocalTime SLOT_START = LocalTime.of(10, 0);
+    private static final LocalTime SLOT_FINISH = LocalTime.of(11, 0);
+
+    private RoomOccupancyIndex roomOccupancy;
+    private String[] roomNames;
+    private int nextRoom;
+
+    @Param({"100", "1000", "10000"})
+    public int numberOfRooms;
+
+    // every room is taken at a different hour of the day, so about one in ten is busy during the slot
+    @Setup
+    public void bookRooms() {
+
+        ScheduleRegistry scheduleRegistry = new ScheduleRegistry();
+        roomNames = new String[numberOfRooms];
+        for (int i = 0; i < numberOfRooms; i++) {
+            roomNames[i] = "Room " + i;
+            LocalTime startTime = LocalTime.of(8 + i % 10, 0);
+            Class classToAdd = new Class(startTime, startTime.plusMinutes(59), ScheduleContentionBenchmark.MODULES[0], roomNames[i]);
+            scheduleRegistry.withSchedule("tenant-" + i, schedule -> {
+                Schedule.DAYS_OF_WEEK.forEach(dayOfWeek -> schedule.addClass(dayOfWeek, classToAdd));
+                return null;
+            });
+        }
+        roomOccupancy = scheduleRegistry.roomOccupancy();
+    }
+
+    @Benchmark
+    public boolean isRoomFree() {
+        nextRoom = (nextRoom + 1) % numberOfRooms;
+        return roomOccupancy.isFree(roomNames[nextRoom], "Wednesday", SLOT_START, SLOT_FINISH);
+    }
+
+    @Benchmark
+    public List<String> freeRooms() {
+        return roomOccupancy.freeRooms("Wednesday", SLOT_START, SLOT_FINISH);
+    }
+}
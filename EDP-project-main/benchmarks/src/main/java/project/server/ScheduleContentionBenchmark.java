@@ -0,0 +1,80 @@
+package project.server;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.time.LocalTime;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// IMPLEMENTATION OF THE CONTENTION BENCHMARK
+// Every operation adds a class and removes it again, so the schedule keeps its size however long the benchmark runs.
+// Run it once per thread count to see how it scales:
+//   java -jar target/benchmarks.jar ScheduleContentionBenchmark -t 1     (then -t 2, -t 4, ... up to the number of cores)
+// In 'sameDay' every thread needs the lock of Monday, in 'ownDay' the threads are spread over the week.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ScheduleContentionBenchmark {
+
+    static final String[] MODULES = {"CS4076", "CS4115", "CS4006", "CS4416", "MA4402"}; // no more different names than a schedule allows
+    private static final int FIRST_MINUTE_OF_THREADS = 6 * 60; // the classes that are always there finish before this
+
+    final Schedule schedule = new Schedule();
+    final AtomicInteger numberOfThreads = new AtomicInteger();
+
+    @Param({"180"})
+    public int classesPerDay;
+
+    @Setup
+    public void fillSchedule() {
+        fill(schedule, classesPerDay, 0);
+    }
+
+    // one-minute classes with a minute between them (touching classes count as overlapping), starting at firstMinute
+    static void fill(Schedule schedule, int classesPerDay, int firstMinute) {
+
+        for (String dayOfWeek : Schedule.DAYS_OF_WEEK) {
+            for (int i = 0; i < classesPerDay; i++) {
+                LocalTime startTime = LocalTime.MIDNIGHT.plusMinutes(firstMinute + i * 2L);
+                schedule.addClass(dayOfWeek, new Class(startTime, startTime.plusMinutes(1), MODULES[i % MODULES.length], "Room " + (i % 40)));
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ClassesOfThread {
+
+        Class classOnMonday; // a minute of Monday no other thread uses
+        String ownDay;
+        Class classOnOwnDay;
+
+        @Setup
+        public void chooseSlots(ScheduleContentionBenchmark benchmark) {
+
+            int threadIndex = benchmark.numberOfThreads.getAndIncrement();
+            classOnMonday = oneMinuteClassAt(FIRST_MINUTE_OF_THREADS + threadIndex * 2);
+            ownDay = Schedule.DAYS_OF_WEEK.get(threadIndex % Schedule.DAYS_OF_WEEK.size());
+            classOnOwnDay = oneMinuteClassAt(FIRST_MINUTE_OF_THREADS + threadIndex / Schedule.DAYS_OF_WEEK.size() * 2);
+        }
+
+        private static Class oneMinuteClassAt(int minuteOfDay) {
+            LocalTime startTime = LocalTime.MIDNIGHT.plusMinutes(minuteOfDay);
+            return new Class(startTime, startTime.plusMinutes(1), MODULES[0], "Room 1");
+        }
+    }
+
+    @Benchmark
+    public Class sameDay(ClassesOfThread classes) {
+        schedule.addClass("Monday", classes.classOnMonday);
+        return schedule.removeClass("Monday", MODULES[0], classes.classOnMonday.getStartTime());
+    }
+
+    @Benchmark
+    public Class ownDay(ClassesOfThread classes) {
+        schedule.addClass(classes.ownDay, classes.classOnOwnDay);
+        return schedule.removeClass(classes.ownDay, MODULES[0], classes.classOnOwnDay.getStartTime());
+    }
+}
@@ -11,6 +11,10 @@ module project.fxpart {
     requires eu.hansolo.tilesfx;
     requires com.almasb.fxgl.all;
 
+    requires java.management; // the server's metrics are MXBeans
+    requires jdk.httpserver;  // and are scraped from MetricsEndpoint
+
     opens project.fxpart to javafx.fxml;
     exports project.fxpart;
+    exports project.server.metrics; // JMX reads the metrics through their MXBean interfaces, from outside any module
 }
\ No newline at end of file
@@ -1,7 +1,7 @@
 package project.fxpart;
 
 import javafx.application.Application;
-import javafx.concurrent.Task;
+import javafx.application.Platform;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
 import javafx.scene.Scene;
@@ -9,27 +9,36 @@ import javafx.scene.control.*;
 import javafx.scene.layout.*;
 import javafx.stage.Stage;
 
-import java.io.*;
-import java.net.Socket;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class ClassSchedulerApplication extends Application {
 
     private static String HOST_IP = "localhost";
     private final static int PORT = 1234;
 
-    private final Socket socket;
-    private final BufferedReader in;
-    private final PrintWriter out;
+    private final ServerConnection serverConnection;
+
+    // the timetable window, made the first time the schedule is displayed; only used on the GUI thread
+    private Stage timetableStage;
+    private TimetableView timetableView;
+    private boolean timetableDownloading;
+
+    // changes pushed by the server wait here, and the GUI thread applies all that have come each time it runs
+    private final Queue<String> pushedChanges = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean pushedChangesScheduled = new AtomicBoolean();
 
     public ClassSchedulerApplication() {
 
-        try {
-            socket = new Socket(HOST_IP, PORT);
-            in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-            out = new PrintWriter(socket.getOutputStream(), true);
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
+        // a new connection is not subscribed, and changes may have been missed: the timetable is downloaded again
+        serverConnection = new ServerConnection(HOST_IP, PORT, this::receivePushedChange, () -> Platform.runLater(this::downloadTimetable));
+        serverConnection.connect();
 
     }
 
@@ -37,10 +46,7 @@ public class ClassSchedulerApplication extends Application {
     public void start(Stage primaryStage) {
 
         // when client closes the application window, disconnect from the server
-        primaryStage.setOnCloseRequest(event -> {
-            out.println("DISCONNECT");
-            closeResources();
-        });
+        primaryStage.setOnCloseRequest(event -> closeResources());
 
         primaryStage.setTitle("Class Scheduler");
 
@@ -136,40 +142,23 @@ public class ClassSchedulerApplication extends Application {
         actionMenuChoiceBox.setValue("Add New Class"); // sets the default value for the choice box
 
         performActionButton.setOnAction(event -> {
-            // IMPLEMENTATION OF THE JAVAFX.CONCURRENT
-            Task<Void> task = new Task<>() {
-                @Override
-                protected Void call() {
-                    switch (actionMenuChoiceBox.getValue()) {
-                        case "Display Schedule" -> out.println("Display Schedule");
-                        case "Add New Class" -> out.println(String.format("Add New Class,%s,%d,%d,%d,%d,%s,%s",
-                                dayOfWeekChoiceBox.getValue(),
-                                startHoursDropdown.getValue(), startMinutesDropdown.getValue(),
-                                finishHoursDropdown.getValue(), finishMinutesDropdown.getValue(),
-                                classNameTextField.getText(), roomNumberTextField.getText()));
-                        case "Remove Class" -> out.println(String.format("Remove Class,%s,%d,%d,%s",
-                                dayOfWeekChoiceBox.getValue(),
-                                startHoursDropdown.getValue(), startMinutesDropdown.getValue(),
-                                classNameTextField.getText()));
-                    }
-                    return null;
-                }
+            if (actionMenuChoiceBox.getValue().equals("Display Schedule")) {
+                showTimetable(primaryStage);
+                return;
+            }
+            // the controls are read here, on the GUI thread; the request is written and answered without blocking it
+            String request = switch (actionMenuChoiceBox.getValue()) {
+                case "Add New Class" -> String.format("Add New Class,%s,%d,%d,%d,%d,%s,%s",
+                        dayOfWeekChoiceBox.getValue(),
+                        startHoursDropdown.getValue(), startMinutesDropdown.getValue(),
+                        finishHoursDropdown.getValue(), finishMinutesDropdown.getValue(),
+                        classNameTextField.getText(), roomNumberTextField.getText());
+                default -> String.format("Remove Class,%s,%d,%d,%s",
+                        dayOfWeekChoiceBox.getValue(),
+                        startHoursDropdown.getValue(), startMinutesDropdown.getValue(),
+                        classNameTextField.getText());
             };
-            // everything below will be executed on the GUI thread, so there is no need to use Platform.runLater() for updating GUI components
-            task.setOnSucceeded(e -> {
-                String messageFromServer = getMessageFromServer();
-                Alert alert;
-                if (messageFromServer.startsWith("ERROR MESSAGE")) {
-                    alert = createAlert(Alert.AlertType.ERROR, "Error Occurred",
-                            messageFromServer.substring(messageFromServer.indexOf(":") + 1));
-                } else {
-                    alert = createAlert(Alert.AlertType.INFORMATION, "Operation Successful", messageFromServer);
-                }
-                System.out.println(messageFromServer);
-                alert.show();
-            });
-
-            new Thread(task).start();
+            showAnswerWhenItComes(serverConnection.send(request));
         });
 
         VBox root = new VBox();
@@ -202,22 +191,7 @@ public class ClassSchedulerApplication extends Application {
             confirmTheActionAlert.showAndWait().ifPresent(response -> {
                 if (response == ButtonType.OK) {
                     System.out.println("They chose OK.");
-                    // IMPLEMENTATION OF THE JAVAFX.CONCURRENT
-                    Task<Void> task = new Task<>() {
-                        @Override
-                        protected Void call() {
-                            out.println("Early Mornings");
-                            return null;
-                        }
-
-                    };
-                    task.setOnSucceeded(e -> {
-                        String messageFromServer = getMessageFromServer();
-                        System.out.println(messageFromServer);
-                        Alert alert = createAlert(Alert.AlertType.INFORMATION, "Operation Successful", messageFromServer);
-                        alert.show();
-                    });
-                    new Thread(task).start();
+                    showAnswerWhenItComes(serverConnection.send("Early Mornings"));
 
                 } else {
                     System.out.println("Canceled");
@@ -238,34 +212,90 @@ public class ClassSchedulerApplication extends Application {
         return alert;
     }
 
-    private String getMessageFromServer() {
+    // the answer comes on the connection's reader thread, the alert is shown on the GUI thread
+    private void showAnswerWhenItComes(CompletableFuture<String> answerFromServer) {
+
+        answerFromServer.whenComplete((messageFromServer, failure) -> Platform.runLater(() -> {
+            Alert alert;
+            if (failure != null) {
+                Throwable cause = failure instanceof CompletionException ? failure.getCause() : failure;
+                alert = createAlert(Alert.AlertType.ERROR, "Connection Problem", cause.getMessage());
+            } else if (messageFromServer.startsWith("ERROR MESSAGE")) {
+                alert = createAlert(Alert.AlertType.ERROR, "Error Occurred",
+                        messageFromServer.substring(messageFromServer.indexOf(":") + 1));
+            } else {
+                alert = createAlert(Alert.AlertType.INFORMATION, "Operation Successful", messageFromServer);
+            }
+            alert.show();
+        }));
+    }
 
-        StringBuilder fullMessageFromServer = new StringBuilder();
+    private void showTimetable(Stage owner) {
 
-        try {
-            String m = in.readLine();
-            System.out.println(m);
-            int messageLength = Integer.parseInt(m);
+        if (timetableStage == null) {
+            timetableView = new TimetableView();
+            timetableStage = new Stage();
+            timetableStage.initOwner(owner);
+            timetableStage.setTitle("Timetable");
+            timetableStage.setScene(new Scene(timetableView.root(), 560, 600));
+            downloadTimetable();
+        }
+        timetableStage.show();
+        timetableStage.toFront();
+    }
+
+    // subscribes first, so no change made after the download is missed; the changes pushed in the meantime wait and are
+    // applied on top of it
+    private void downloadTimetable() {
 
-            for (int i = 0; i < messageLength; i++) {
-                fullMessageFromServer.append((char) in.read());
+        if (timetableView == null || timetableDownloading) {
+            return;
+        }
+        timetableDownloading = true;
+        pushedChanges.clear(); // changes pushed before the schedule is asked for are in it
+        timetableView.showStatus("Loading the schedule...");
+        serverConnection.send("Subscribe"); // the server answers the requests of a connection in order, so it is subscribed before it renders the schedule
+        serverConnection.send("Display Schedule").whenComplete((messageFromServer, failure) -> Platform.runLater(() -> {
+            timetableDownloading = false;
+            if (failure != null) {
+                Throwable cause = failure instanceof CompletionException ? failure.getCause() : failure;
+                timetableView.showStatus("The schedule could not be downloaded: " + cause.getMessage());
+            } else if (messageFromServer.startsWith("ERROR MESSAGE")) {
+                timetableView.showStatus(messageFromServer.substring(messageFromServer.indexOf(":") + 1));
+            } else {
+                timetableView.showWholeSchedule(messageFromServer);
+                applyPushedChanges();
             }
-            in.readLine();
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+        }));
+    }
+
+    // called on the connection's reader thread
+    private void receivePushedChange(String pushedMessage) {
+
+        pushedChanges.add(pushedMessage);
+        if (pushedChangesScheduled.compareAndSet(false, true)) {
+            Platform.runLater(this::applyPushedChanges);
         }
+    }
+
+    private void applyPushedChanges() {
 
-        return fullMessageFromServer.toString();
+        pushedChangesScheduled.set(false);
+        if (timetableView == null || timetableDownloading) { // they are applied once the download is in
+            return;
+        }
+        String pushedMessage;
+        while ((pushedMessage = pushedChanges.poll()) != null) {
+            if (!timetableView.applyChange(pushedMessage)) {
+                pushedChanges.clear();
+                downloadTimetable();
+                return;
+            }
+        }
     }
 
     public void closeResources() {
-        try {
-            socket.close();
-            in.close();
-            out.close();
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
+        serverConnection.close(); // says DISCONNECT to the server first
     }
 
     private static void setHostIp() { // Change it to be a gui thing or something
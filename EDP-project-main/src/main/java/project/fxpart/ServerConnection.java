@@ -0,0 +1,266 @@
+package project.fxpart;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+// IMPLEMENTATION OF THE CONNECTION TO THE SERVER
+// One connection for the whole application, whatever the number of requests on their way. send() never blocks: the request is
+// written by the connection's own thread, in the order send() was called, and the answers are read by a reader thread. The
+// server answers the requests of a connection one after the other, so every answer completes the oldest request still waiting
+// for one. Messages starting with "UPDATE " are not answers but changes the server pushes, and go to the push listener.
+// The futures complete and the listener is called on the reader thread, not on the JavaFX thread.
+// When the connection is lost, the requests waiting for an answer fail (they may or may not have been applied) and it is made
+// again in the background, waiting longer after each failed attempt. The server forgets a connection's subscription when it
+// closes, so whoever subscribed is told when a new connection is made.
+final class ServerConnection implements Closeable {
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 5_000;
+    private static final long FIRST_RECONNECT_DELAY_MILLIS = 250;
+    private static final long MAX_RECONNECT_DELAY_MILLIS = 8_000;
+    private static final String PUSH_PREFIX = "UPDATE ";
+
+    private final String host;
+    private final int port;
+    private final Consumer<String> pushListener;
+    private final Runnable reconnectListener;
+    private final ScheduledExecutorService connectionThread = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "server-connection");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // only used on the connection thread
+    private Link link; // null while disconnected
+    private long reconnectDelayMillis = FIRST_RECONNECT_DELAY_MILLIS;
+    private boolean reconnectScheduled;
+    private boolean connectedBefore;
+    private IOException connectFailure; // why the last attempt to connect failed, told to the requests that cannot be sent
+
+    private volatile boolean closed;
+
+    // both listeners are called on the connection's threads
+    ServerConnection(String host, int port, Consumer<String> pushListener, Runnable reconnectListener) {
+        this.host = host;
+        this.port = port;
+        this.pushListener = pushListener;
+        this.reconnectListener = reconnectListener;
+    }
+
+    // connects in the background; a request sent before the connection is made waits for it
+    void connect() {
+        runOnConnectionThread(this::connectIfDisconnected);
+    }
+
+    // the answer of the server, which may be an "ERROR MESSAGE:"; fails with an IOException if the server cannot be reached
+    CompletableFuture<String> send(String request) {
+
+        CompletableFuture<String> answer = new CompletableFuture<>();
+        try {
+            connectionThread.execute(() -> write(request, answer));
+        } catch (RejectedExecutionException e) {
+            answer.completeExceptionally(new IOException("The connection to the server is closed."));
+        }
+        return answer;
+    }
+
+    @Override
+    public void close() {
+
+        closed = true;
+        runOnConnectionThread(() -> {
+            if (link != null) {
+                try {
+                    link.out.write("DISCONNECT\n");
+                    link.out.flush();
+                } catch (IOException ignored) {
+                    // the server is gone already
+                }
+                link.lose(new IOException("The connection to the server is closed."));
+            }
+        });
+        connectionThread.shutdown();
+    }
+
+    private void write(String request, CompletableFuture<String> answer) {
+
+        if (!connectIfDisconnected()) {
+            answer.completeExceptionally(new IOException("The server " + host + ":" + port + " cannot be reached"
+                    + (connectFailure == null ? "" : " (" + connectFailure.getMessage() + ")") + ". Trying to reconnect...", connectFailure));
+            return;
+        }
+        Link linkUsed = link;
+        linkUsed.answersAwaited.add(answer);
+        if (linkUsed.lost) { // the reader may have failed the waiting requests before this one was added
+            linkUsed.failAnswersAwaited();
+            return;
+        }
+        try {
+            linkUsed.out.write(request);
+            linkUsed.out.write('\n');
+            linkUsed.out.flush();
+        } catch (IOException e) {
+            linkUsed.lose(e);
+        }
+    }
+
+    // true if connected; on failure a new attempt is scheduled
+    private boolean connectIfDisconnected() {
+
+        if (link != null && !link.lost) {
+            return true;
+        }
+        link = null;
+        if (closed) {
+            return false;
+        }
+        Socket socket = new Socket();
+        Link newLink;
+        try {
+            socket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MILLIS);
+            socket.setTcpNoDelay(true); // small requests that wait for their answer
+            newLink = new Link(socket);
+        } catch (IOException e) {
+            closeQuietly(socket);
+            connectFailure = e;
+            scheduleReconnect();
+            return false;
+        }
+        link = newLink;
+        connectFailure = null;
+        reconnectDelayMillis = FIRST_RECONNECT_DELAY_MILLIS;
+        Thread reader = new Thread(() -> readAnswers(newLink), "server-connection-reader");
+        reader.setDaemon(true);
+        reader.start();
+        if (connectedBefore) {
+            reconnectListener.run(); // requests it sends are queued behind the one being written, on this thread
+        } else {
+            connectedBefore = true;
+        }
+        return true;
+    }
+
+    private void scheduleReconnect() {
+
+        if (reconnectScheduled || closed) {
+            return;
+        }
+        reconnectScheduled = true;
+        connectionThread.schedule(() -> {
+            reconnectScheduled = false;
+            connectIfDisconnected();
+        }, reconnectDelayMillis, TimeUnit.MILLISECONDS);
+        reconnectDelayMillis = Math.min(reconnectDelayMillis * 2, MAX_RECONNECT_DELAY_MILLIS);
+    }
+
+    private void readAnswers(Link readLink) {
+
+        try {
+            while (true) {
+                String message = readMessage(readLink.in);
+                if (message.startsWith(PUSH_PREFIX)) {
+                    pushListener.accept(message);
+                    continue;
+                }
+                CompletableFuture<String> answer = readLink.answersAwaited.poll();
+                if (answer != null) {
+                    answer.complete(message);
+                }
+            }
+        } catch (IOException | RuntimeException e) { // a length line that is not a number means the stream can no longer be followed
+            // the requests waiting for an answer fail with the reason, and their alerts show it
+            readLink.lose(new IOException(e instanceof IOException ? "The connection to the server was lost: " + e.getMessage() : "The server sent a message that could not be read.", e));
+            if (!closed) {
+                runOnConnectionThread(this::connectIfDisconnected);
+            }
+        }
+    }
+
+    // "<length>\n<message>\n", where the length counts the chars of the message
+    private static String readMessage(BufferedReader in) throws IOException {
+
+        String lengthLine = in.readLine();
+        if (lengthLine == null) {
+            throw new EOFException("The server closed the connection.");
+        }
+        int messageLength = Integer.parseInt(lengthLine);
+
+        char[] fullMessageFromServer = new char[messageLength];
+        int numberOfCharsRead = 0;
+        while (numberOfCharsRead < messageLength) { // read() may return fewer chars than asked for, so keep going until the whole message is in
+            int n = in.read(fullMessageFromServer, numberOfCharsRead, messageLength - numberOfCharsRead);
+            if (n == -1) {
+                throw new EOFException("The server closed the connection in the middle of a message.");
+            }
+            numberOfCharsRead += n;
+        }
+        in.readLine();
+
+        return new String(fullMessageFromServer);
+    }
+
+    private void runOnConnectionThread(Runnable action) {
+        try {
+            connectionThread.execute(action);
+        } catch (RejectedExecutionException ignored) {
+            // closed
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+            // nothing more to release
+        }
+    }
+
+    // one socket and the requests written to it that are still waiting for their answer
+    private static final class Link {
+
+        final Socket socket;
+        final BufferedReader in;
+        final BufferedWriter out;
+        final Queue<CompletableFuture<String>> answersAwaited = new ConcurrentLinkedQueue<>();
+        volatile boolean lost;
+        private volatile IOException cause;
+
+        Link(Socket socket) throws IOException {
+            this.socket = socket;
+            this.in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            this.out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+        }
+
+        // set before the waiting requests are failed, and checked by the writer after it adds one, so none is left waiting
+        void lose(IOException lossCause) {
+            if (cause == null) {
+                cause = lossCause;
+            }
+            lost = true;
+            closeQuietly(socket);
+            failAnswersAwaited();
+        }
+
+        void failAnswersAwaited() {
+            CompletableFuture<String> answer;
+            while ((answer = answersAwaited.poll()) != null) {
+                answer.completeExceptionally(cause != null ? cause : new IOException("The connection to the server was lost."));
+            }
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package project.fxpart;
+
+import javafx.beans.property.ReadOnlyStringWrapper;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import javafx.scene.control.Label;
+import javafx.scene.control.TableColumn;
+import javafx.scene.control.TableView;
+import javafx.scene.layout.BorderPane;
+
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Function;
+
+// IMPLEMENTATION OF THE TIMETABLE VIEW
+// The classes of the schedule as rows of a TableView, sorted by day and start time. A TableView only creates cells for the
+// rows on screen, so a schedule of 10,000 classes scrolls like one of ten. The whole schedule is downloaded once; after that
+// the changes the server pushes are applied to the list one row at a time, and only the cells of the rows that changed are
+// laid out again. Must be used on the JavaFX thread.
+final class TimetableView {
+
+    static final List<String> DAYS_OF_WEEK = List.of("Monday", "Tuesday", "Wednesday", "Thursday", "Friday");
+    private static final LocalTime FIRST_START_TIME = LocalTime.of(9, 0); // where 'Early Mornings' starts every day
+
+    private final ObservableList<TimetableEntry> entries = FXCollections.observableArrayList();
+    private final TableView<TimetableEntry> table = new TableView<>(entries);
+    private final Label statusLabel = new Label("Loading the schedule...");
+    private final BorderPane root = new BorderPane();
+
+    TimetableView() {
+
+        table.getColumns().add(column("Day", 90, entry -> DAYS_OF_WEEK.get(entry.dayIndex)));
+        table.getColumns().add(column("Starts at", 80, entry -> entry.startTime.toString()));
+        table.getColumns().add(column("Finishes at", 80, entry -> entry.finishTime.toString()));
+        table.getColumns().add(column("Class", 150, entry -> entry.name));
+        table.getColumns().add(column("Room", 100, entry -> entry.room));
+        table.setPlaceholder(new Label("The schedule does not contain any classes so far."));
+        table.setColumnResizePolicy(TableView.CONSTRAINED_RESIZE_POLICY);
+        table.setFixedCellSize(24); // rows of one height: the table does not measure each row to work out where a scroll lands
+
+        root.setCenter(table);
+        root.setBottom(statusLabel);
+    }
+
+    BorderPane root() {
+        return root;
+    }
+
+    void showStatus(String status) {
+        statusLabel.setText(status);
+    }
+
+    // the answer to 'Display Schedule': the name of a day, then a line per class, as Schedule renders them
+    void showWholeSchedule(String displayAnswer) {
+
+        long startNanos = System.nanoTime();
+        List<TimetableEntry> downloadedEntries = new ArrayList<>();
+        int dayIndex = -1;
+        for (String line : displayAnswer.split("\n")) {
+            if (DAYS_OF_WEEK.contains(line)) {
+                dayIndex = DAYS_OF_WEEK.indexOf(line);
+            } else if (dayIndex >= 0 && !line.isBlank()) {
+                downloadedEntries.add(TimetableEntry.parse(dayIndex, line));
+            }
+        }
+        downloadedEntries.sort(TimetableEntry.ORDER);
+        entries.setAll(downloadedEntries); // one change for the table, however many rows
+        showStatus(entries.size() + " classes, downloaded in " + millisSince(startNanos) + " ms.");
+    }
+
+    // a message pushed by the server, "UPDATE <schedule> <version>" and a line per change; false when the schedule
+    // has to be downloaded again: changes were missed, or one could not be followed here
+    boolean applyChange(String pushedMessage) {
+
+        long startNanos = System.nanoTime();
+        String[] lines = pushedMessage.split("\n");
+        if (lines[0].equals("UPDATE MISSED")) {
+            return false;
+        }
+        try {
+            for (int i = 1; i < lines.length; i++) {
+                if (!applyChangeLine(lines[i])) {
+                    return false;
+                }
+            }
+        } catch (RuntimeException e) { // a line in a format this client does not know
+            return false;
+        }
+        showStatus(entries.size() + " classes, " + lines[0].substring("UPDATE ".length()) + " applied in " + millisSince(startNanos) + " ms.");
+        return true;
+    }
+
+    // a single add, remove or shift gives the same result when it is applied again, so a change that was already in the
+    // downloaded schedule when its push came does no harm
+    private boolean applyChangeLine(String line) {
+
+        if (line.startsWith("Added on ")) {
+            int colon = line.indexOf(": ");
+            TimetableEntry added = TimetableEntry.parse(DAYS_OF_WEEK.indexOf(line.substring("Added on ".length(), colon)), line.substring(colon + 2));
+            int index = indexOf(added.dayIndex, added.startTime);
+            if (index >= 0) {
+                entries.set(index, added); // a class starting at the same time is replaced, as on the server
+            } else {
+                entries.add(-index - 1, added);
+            }
+            return true;
+        }
+        if (line.startsWith("Removed from ")) {
+            int colon = line.indexOf(": ");
+            int at = line.lastIndexOf(" at ");
+            int dayIndex = DAYS_OF_WEEK.indexOf(line.substring("Removed from ".length(), colon));
+            int index = indexOf(dayIndex, LocalTime.parse(line.substring(at + " at ".length())));
+            if (index >= 0 && entries.get(index).name.equals(line.substring(colon + 2, at))) {
+                entries.remove(index);
+            }
+            return true;
+        }
+        if (line.startsWith("Shifted:")) {
+            return shiftToTheMorning();
+        }
+        return line.startsWith("Recurring class "); // the timetable shows the classes held every week, the recurring ones are not in it
+    }
+
+    // every day back to back from 09:00 in the same order; a class that would run past midnight is left to a download
+    private boolean shiftToTheMorning() {
+
+        List<TimetableEntry> shiftedEntries = new ArrayList<>(entries.size());
+        LocalTime startTime = FIRST_START_TIME;
+        int dayIndex = -1;
+        for (TimetableEntry entry : entries) {
+            if (entry.dayIndex != dayIndex) {
+                dayIndex = entry.dayIndex;
+                startTime = FIRST_START_TIME;
+            }
+            LocalTime finishTime = startTime.plusMinutes(entry.durationInMinutes());
+            if (finishTime.isBefore(startTime)) {
+                return false;
+            }
+            shiftedEntries.add(new TimetableEntry(dayIndex, entry.name, startTime, finishTime, entry.room));
+            startTime = finishTime;
+        }
+        for (int i = 0; i < shiftedEntries.size(); i++) { // only the rows that moved are changed
+            if (!shiftedEntries.get(i).equals(entries.get(i))) {
+                entries.set(i, shiftedEntries.get(i));
+            }
+        }
+        return true;
+    }
+
+    // as Collections.binarySearch: the index of the class, or -(insertion point) - 1
+    private int indexOf(int dayIndex, LocalTime startTime) {
+        return Collections.binarySearch(entries, new TimetableEntry(dayIndex, "", startTime, startTime, ""), TimetableEntry.ORDER);
+    }
+
+    private static TableColumn<TimetableEntry, String> column(String title, double preferredWidth, Function<TimetableEntry, String> value) {
+
+        TableColumn<TimetableEntry, String> column = new TableColumn<>(title);
+        column.setPrefWidth(preferredWidth);
+        column.setSortable(false); // the rows are kept in the order the changes are applied in
+        column.setCellValueFactory(features -> new ReadOnlyStringWrapper(value.apply(features.getValue())));
+        return column;
+    }
+
+    private static long millisSince(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1_000_000;
+    }
+}
+
+// one row of the timetable; rows are replaced, never changed
+final class TimetableEntry {
+
+    static final Comparator<TimetableEntry> ORDER = Comparator.<TimetableEntry>comparingInt(entry -> entry.dayIndex).thenComparing(entry -> entry.startTime);
+
+    final int dayIndex;
+    final String name;
+    final LocalTime startTime;
+    final LocalTime finishTime;
+    final String room;
+
+    TimetableEntry(int dayIndex, String name, LocalTime startTime, LocalTime finishTime, String room) {
+        this.dayIndex = dayIndex;
+        this.name = name;
+        this.startTime = startTime;
+        this.finishTime = finishTime;
+        this.room = room;
+    }
+
+    // "<name>: from <start> to <finish>, in <room>", as the server's Class.toString()
+    static TimetableEntry parse(int dayIndex, String description) {
+
+        int from = description.lastIndexOf(": from ");
+        int to = description.indexOf(" to ", from);
+        int in = description.indexOf(", in ", to);
+        if (dayIndex < 0 || from < 0 || to < 0 || in < 0) {
+            throw new IllegalArgumentException("Not a class: " + description);
+        }
+        return new TimetableEntry(dayIndex, description.substring(0, from), LocalTime.parse(description.substring(from + ": from ".length(), to)),
+                LocalTime.parse(description.substring(to + " to ".length(), in)), description.substring(in + ", in ".length()));
+    }
+
+    long durationInMinutes() {
+        return Math.floorMod(finishTime.toSecondOfDay() / 60 - startTime.toSecondOfDay() / 60, 24 * 60);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof TimetableEntry entry && dayIndex == entry.dayIndex && name.equals(entry.name)
+                && startTime.equals(entry.startTime) && finishTime.equals(entry.finishTime) && room.equals(entry.room);
+    }
+
+    @Override
+    public int hashCode() {
+        return (dayIndex * 31 + startTime.hashCode()) * 31 + name.hashCode();
+    }
+}
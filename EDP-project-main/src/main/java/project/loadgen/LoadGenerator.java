@@ -0,0 +1,128 @@
+package project.loadgen;
+
+import project.server.LatencyHistogram;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+// IMPLEMENTATION OF A HEADLESS LOAD GENERATOR
+// Opens many connections to a running server and sends a mix of requests at a fixed total rate, the way a campus of
+// ClassSchedulerApplication clients would, but from one process and without a screen:
+//   java project.loadgen.LoadGenerator --connections=2000 --rate=5000 --duration=30 --mix=add:40,remove:30,display:25,early:5
+// The load is open: requests are sent when they are due, whether or not the earlier ones were answered, and a latency is
+// measured from the moment its request was due. A server that stalls therefore shows up in the percentiles instead of
+// quietly slowing the generator down (the coordinated omission HdrHistogram warns about).
+// Every connection works on a schedule of its own by default and remembers the classes it added, so most removes hit a class
+// and most adds fit; errors the server answers with are counted per command, not hidden.
+public class LoadGenerator {
+
+    enum Command {
+        ADD("Add New Class"),
+        REMOVE("Remove Class"),
+        DISPLAY("Display Schedule"),
+        EARLY_MORNINGS("Early Mornings");
+
+        final String label;
+
+        Command(String label) {
+            this.label = label;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+
+        LoadOptions options;
+        try {
+            options = LoadOptions.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            System.out.println(LoadOptions.USAGE);
+            System.exit(2);
+            return;
+        }
+        System.exit(run(options) ? 0 : 1);
+    }
+
+    // false if the connections could not be opened
+    static boolean run(LoadOptions options) throws InterruptedException {
+
+        System.out.println("Opening " + options.numberOfConnections + " " + (options.binaryProtocol ? "binary" : "text") + " connections to "
+                + options.host + ":" + options.port + " on " + options.numberOfThreads + " thread(s), over " + options.numberOfSchedules + " schedule(s)...");
+        LoadStatistics statistics = new LoadStatistics();
+        CountDownLatch connected = new CountDownLatch(options.numberOfThreads);
+        CountDownLatch started = new CountDownLatch(1);
+        List<LoadWorker> workers = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        InetSocketAddress address = new InetSocketAddress(options.host, options.port);
+        for (int w = 0; w < options.numberOfThreads; w++) {
+            LoadWorker worker = new LoadWorker(w, address, options, statistics, connected, started);
+            workers.add(worker);
+            Thread thread = new Thread(worker, "load-" + w);
+            thread.start();
+            threads.add(thread);
+        }
+
+        connected.await();
+        for (LoadWorker worker : workers) {
+            if (worker.failure() != null) {
+                System.out.println("The connections could not be opened: " + worker.failure().getMessage());
+                started.countDown();
+                for (Thread thread : threads) {
+                    thread.join();
+                }
+                return false;
+            }
+        }
+
+        long startNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+        long measurementStartNanos = startNanos + TimeUnit.SECONDS.toNanos(options.warmupSeconds);
+        long endNanos = measurementStartNanos + TimeUnit.SECONDS.toNanos(options.durationSeconds);
+        workers.forEach(worker -> worker.schedule(startNanos, measurementStartNanos, endNanos));
+        System.out.println("Sending " + options.requestsPerSecond + " requests/s for " + options.durationSeconds + " s after a warm-up of "
+                + options.warmupSeconds + " s, mix: " + options.describeMix() + ".");
+        started.countDown();
+
+        printProgressUntil(endNanos, startNanos, measurementStartNanos, statistics, threads);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        for (LoadWorker worker : workers) {
+            if (worker.failure() != null) { // its connections stopped sending, the report covers what they did before
+                System.out.println("A load thread stopped early: " + worker.failure().getMessage());
+            }
+        }
+        statistics.printReport(options, workers.stream().mapToLong(LoadWorker::numberOfRequestsLeftUnanswered).sum());
+        return true;
+    }
+
+    private static void printProgressUntil(long endNanos, long startNanos, long measurementStartNanos, LoadStatistics statistics, List<Thread> threads) throws InterruptedException {
+
+        long nextReportNanos = startNanos + TimeUnit.SECONDS.toNanos(1);
+        long sentBefore = 0;
+        long answeredBefore = 0;
+        long errorsBefore = 0;
+        while (threads.stream().anyMatch(Thread::isAlive) && nextReportNanos <= endNanos + TimeUnit.SECONDS.toNanos(1)) {
+            TimeUnit.NANOSECONDS.sleep(Math.max(0, nextReportNanos - System.nanoTime()));
+            LatencyHistogram lastSecond = statistics.startNextInterval();
+            long sent = statistics.numberOfSent.sum();
+            long answered = statistics.numberOfAnswered.sum();
+            long errors = statistics.numberOfErrors.sum();
+            System.out.printf(Locale.ROOT, "%4d s%s: %7d sent/s %7d answered/s %6d errors, p50 %8.3f ms, p99 %8.3f ms, max %8.3f ms%n",
+                    TimeUnit.NANOSECONDS.toSeconds(nextReportNanos - startNanos), nextReportNanos <= measurementStartNanos ? " (warm-up)" : "",
+                    sent - sentBefore, answered - answeredBefore, errors - errorsBefore,
+                    millis(lastSecond.valueAtPercentile(50)), millis(lastSecond.valueAtPercentile(99)), millis(lastSecond.max()));
+            sentBefore = sent;
+            answeredBefore = answered;
+            errorsBefore = errors;
+            nextReportNanos += TimeUnit.SECONDS.toNanos(1);
+        }
+    }
+
+    static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+}
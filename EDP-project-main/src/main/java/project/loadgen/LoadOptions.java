@@ -0,0 +1,120 @@
+package project.loadgen;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// the command line; every option is --name=value
+final class LoadOptions {
+
+    static final String USAGE = """
+            Usage: java project.loadgen.LoadGenerator [--option=value]...
+              --host=127.0.0.1     the server to load
+              --port=1234
+              --connections=100    connections kept open for the whole run
+              --schedules=N        schedules the connections work on, one per connection by default; connections that share
+                                   a schedule do not see each other's classes, so their clashes are counted as errors
+              --rate=1000          requests per second over all connections
+              --duration=30        seconds that are measured
+              --warmup=5           seconds of load before the measurement starts
+              --mix=add:40,remove:30,display:25,early:5
+                                   relative weights of Add New Class, Remove Class, Display Schedule and Early Mornings
+              --protocol=binary    binary (version 2 of BinaryProtocol) or text, the CSV lines of the JavaFX client
+              --threads=N          threads sending and receiving, one per core by default""";
+
+    String host = "127.0.0.1";
+    int port = 1234;
+    int numberOfConnections = 100;
+    int numberOfSchedules = -1;
+    int requestsPerSecond = 1_000;
+    int durationSeconds = 30;
+    int warmupSeconds = 5;
+    boolean binaryProtocol = true;
+    int numberOfThreads = Runtime.getRuntime().availableProcessors();
+    final int[] mixWeights = {40, 30, 25, 5}; // in the order of LoadGenerator.Command
+    final String runId = Long.toString(System.currentTimeMillis(), 36); // so a second run does not find the classes of the first
+
+    static LoadOptions parse(String[] args) {
+
+        LoadOptions options = new LoadOptions();
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            if (!arg.startsWith("--") || equals < 0) {
+                throw new IllegalArgumentException("Options are written --name=value, not '" + arg + "'.");
+            }
+            String name = arg.substring(2, equals);
+            String value = arg.substring(equals + 1);
+            switch (name) {
+                case "host" -> options.host = value;
+                case "port" -> options.port = positive(name, value);
+                case "connections" -> options.numberOfConnections = positive(name, value);
+                case "schedules" -> options.numberOfSchedules = positive(name, value);
+                case "rate" -> options.requestsPerSecond = positive(name, value);
+                case "duration" -> options.durationSeconds = positive(name, value);
+                case "warmup" -> options.warmupSeconds = Integer.parseInt(value);
+                case "mix" -> options.parseMix(value);
+                case "protocol" -> {
+                    if (!value.equals("binary") && !value.equals("text")) {
+                        throw new IllegalArgumentException("The protocol is binary or text.");
+                    }
+                    options.binaryProtocol = value.equals("binary");
+                }
+                case "threads" -> options.numberOfThreads = positive(name, value);
+                default -> throw new IllegalArgumentException("There is no option --" + name + ".");
+            }
+        }
+        if (options.numberOfSchedules < 0) {
+            options.numberOfSchedules = options.numberOfConnections;
+        }
+        options.numberOfThreads = Math.min(options.numberOfThreads, options.numberOfConnections);
+        return options;
+    }
+
+    String describeMix() {
+
+        int total = totalMixWeight();
+        List<String> parts = new ArrayList<>();
+        for (LoadGenerator.Command command : LoadGenerator.Command.values()) {
+            parts.add(command.label + " " + Math.round(100.0 * mixWeights[command.ordinal()] / total) + "%");
+        }
+        return String.join(", ", parts);
+    }
+
+    int totalMixWeight() {
+        return mixWeights[0] + mixWeights[1] + mixWeights[2] + mixWeights[3];
+    }
+
+    private void parseMix(String value) {
+
+        Arrays.fill(mixWeights, 0);
+        for (String part : value.split(",")) {
+            String[] nameAndWeight = part.split(":");
+            if (nameAndWeight.length != 2) {
+                throw new IllegalArgumentException("The mix is written add:40,remove:30,display:25,early:5.");
+            }
+            int weight = Integer.parseInt(nameAndWeight[1]);
+            switch (nameAndWeight[0]) {
+                case "add" -> mixWeights[LoadGenerator.Command.ADD.ordinal()] = weight;
+                case "remove" -> mixWeights[LoadGenerator.Command.REMOVE.ordinal()] = weight;
+                case "display" -> mixWeights[LoadGenerator.Command.DISPLAY.ordinal()] = weight;
+                case "early" -> mixWeights[LoadGenerator.Command.EARLY_MORNINGS.ordinal()] = weight;
+                default -> throw new IllegalArgumentException("The mix knows add, remove, display and early, not '" + nameAndWeight[0] + "'.");
+            }
+            if (weight < 0) {
+                throw new IllegalArgumentException("A weight of the mix cannot be negative.");
+            }
+        }
+        if (totalMixWeight() == 0) {
+            throw new IllegalArgumentException("At least one weight of the mix must be positive.");
+        }
+    }
+
+    private static int positive(String name, String value) {
+
+        int number = Integer.parseInt(value);
+        if (number < 1) {
+            throw new IllegalArgumentException("--" + name + " must be at least 1.");
+        }
+        return number;
+    }
+}
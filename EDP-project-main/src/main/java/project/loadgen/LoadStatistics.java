@@ -0,0 +1,80 @@
+package project.loadgen;
+
+import project.server.LatencyHistogram;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+// what every worker records; histograms and counters take concurrent updates without locks
+final class LoadStatistics {
+
+    final LongAdder numberOfSent = new LongAdder();
+    final LongAdder numberOfAnswered = new LongAdder();
+    final LongAdder numberOfErrors = new LongAdder();
+    private final Map<LoadGenerator.Command, LatencyHistogram> latencies = new EnumMap<>(LoadGenerator.Command.class);
+    private final Map<LoadGenerator.Command, LongAdder> errors = new EnumMap<>(LoadGenerator.Command.class);
+    private final LatencyHistogram allLatencies = new LatencyHistogram();
+    private final LatencyHistogram sendLags = new LatencyHistogram(); // how late the generator itself sent the requests
+    private final AtomicReference<LatencyHistogram> currentInterval = new AtomicReference<>(new LatencyHistogram());
+    private final LongAdder numberOfMeasured = new LongAdder();
+
+    LoadStatistics() {
+        for (LoadGenerator.Command command : LoadGenerator.Command.values()) {
+            latencies.put(command, new LatencyHistogram());
+            errors.put(command, new LongAdder());
+        }
+    }
+
+    void sent(long lagNanos, boolean measured) {
+        numberOfSent.increment();
+        if (measured) {
+            sendLags.record(lagNanos);
+        }
+    }
+
+    void answered(LoadGenerator.Command command, long latencyNanos, boolean succeeded, boolean measured) {
+
+        numberOfAnswered.increment();
+        currentInterval.get().record(latencyNanos);
+        if (!succeeded) {
+            numberOfErrors.increment();
+        }
+        if (measured) {
+            numberOfMeasured.increment();
+            latencies.get(command).record(latencyNanos);
+            allLatencies.record(latencyNanos);
+            if (!succeeded) {
+                errors.get(command).increment();
+            }
+        }
+    }
+
+    // the histogram of the interval that just ended
+    LatencyHistogram startNextInterval() {
+        return currentInterval.getAndSet(new LatencyHistogram());
+    }
+
+    void printReport(LoadOptions options, long numberOfUnanswered) {
+
+        System.out.println();
+        System.out.printf(Locale.ROOT, "%d requests answered in the %d s measured: %.1f requests/s (target %d), %d unanswered at the end.%n",
+                numberOfMeasured.sum(), options.durationSeconds, (double) numberOfMeasured.sum() / options.durationSeconds, options.requestsPerSecond, numberOfUnanswered);
+        System.out.println("Latency from the moment a request was due, in ms:");
+        System.out.printf(Locale.ROOT, "  %-18s %9s %8s %9s %9s %9s %9s%n", "", "requests", "errors", "p50", "p99", "p999", "max");
+        for (LoadGenerator.Command command : LoadGenerator.Command.values()) {
+            printRow(command.label, latencies.get(command), errors.get(command).sum());
+        }
+        printRow("all", allLatencies, errors.values().stream().mapToLong(LongAdder::sum).sum());
+        System.out.printf(Locale.ROOT, "The generator sent its requests late by p99 %.3f ms, max %.3f ms; if that grows, the generator is the bottleneck, not the server.%n",
+                LoadGenerator.millis(sendLags.valueAtPercentile(99)), LoadGenerator.millis(sendLags.max()));
+    }
+
+    private static void printRow(String label, LatencyHistogram histogram, long numberOfErrors) {
+        System.out.printf(Locale.ROOT, "  %-18s %9d %8d %9.3f %9.3f %9.3f %9.3f%n", label, histogram.count(), numberOfErrors,
+                LoadGenerator.millis(histogram.valueAtPercentile(50)), LoadGenerator.millis(histogram.valueAtPercentile(99)),
+                LoadGenerator.millis(histogram.valueAtPercentile(99.9)), LoadGenerator.millis(histogram.max()));
+    }
+}
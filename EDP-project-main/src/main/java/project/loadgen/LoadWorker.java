@@ -0,0 +1,511 @@
+package project.loadgen;
+
+import project.server.BinaryProtocol;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+// One thread and one selector for its share of the connections and of the rate, like the server's SelectorEventLoop.
+// Requests are pipelined: a connection may have many in flight, and since the server answers a connection's requests in
+// order, the oldest request in flight is the one an answer belongs to.
+final class LoadWorker implements Runnable {
+
+    private static final int MAX_PENDING_CONNECTS = 200; // more would overflow the server's accept backlog and wait for SYN retries
+    private static final long CONNECT_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(30);
+    private static final long DRAIN_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(10); // after the end, for the answers still on their way
+    private static final long PACING_SLICE_NANOS = TimeUnit.MICROSECONDS.toNanos(20); // below a millisecond the selector cannot wait, so the thread parks this long
+
+    private final int workerIndex;
+    private final InetSocketAddress address;
+    private final LoadOptions options;
+    private final LoadStatistics statistics;
+    private final CountDownLatch connected;
+    private final CountDownLatch started;
+    private final List<LoadConnection> connections = new ArrayList<>();
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(64 * 1024);
+    private final SplittableRandom random;
+    private Selector selector;
+    private volatile IOException failure;
+    private volatile long startNanos;
+    private volatile long measurementStartNanos;
+    private volatile long endNanos;
+    private long numberOfRequestsInFlight;
+    private int nextConnection;
+
+    LoadWorker(int workerIndex, InetSocketAddress address, LoadOptions options, LoadStatistics statistics, CountDownLatch connected, CountDownLatch started) {
+        this.workerIndex = workerIndex;
+        this.address = address;
+        this.options = options;
+        this.statistics = statistics;
+        this.connected = connected;
+        this.started = started;
+        this.random = new SplittableRandom(workerIndex);
+    }
+
+    IOException failure() {
+        return failure;
+    }
+
+    void schedule(long startNanos, long measurementStartNanos, long endNanos) {
+        this.startNanos = startNanos;
+        this.measurementStartNanos = measurementStartNanos;
+        this.endNanos = endNanos;
+    }
+
+    long numberOfRequestsLeftUnanswered() {
+        return numberOfRequestsInFlight;
+    }
+
+    @Override
+    public void run() {
+
+        try (Selector selector = Selector.open()) {
+            this.selector = selector;
+            try {
+                openConnections();
+            } catch (IOException e) {
+                failure = e;
+            }
+            connected.countDown();
+            started.await();
+            if (failure == null) {
+                sendAtTheTargetRate();
+            }
+        } catch (IOException e) {
+            failure = e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            connected.countDown(); // in case opening the selector failed; counting down twice is harmless once the main thread went on
+            for (LoadConnection connection : connections) {
+                try {
+                    connection.channel.close();
+                } catch (IOException ignored) { // the run is over
+                }
+            }
+        }
+    }
+
+    // connections are numbered over all workers; connection i works on schedule i modulo the number of schedules
+    private void openConnections() throws IOException {
+
+        List<Integer> numbers = new ArrayList<>();
+        for (int number = workerIndex; number < options.numberOfConnections; number += options.numberOfThreads) {
+            numbers.add(number);
+        }
+        long deadline = System.nanoTime() + CONNECT_TIMEOUT_NANOS;
+        int numberOpened = 0;
+        int numberPending = 0;
+        int numberReady = 0;
+        while (numberReady < numbers.size()) {
+            while (numberOpened < numbers.size() && numberPending < MAX_PENDING_CONNECTS) {
+                int number = numbers.get(numberOpened++);
+                SocketChannel channel = SocketChannel.open();
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                LoadConnection connection = new LoadConnection(channel, number, "load-" + options.runId + "-" + number % options.numberOfSchedules, options.binaryProtocol);
+                connections.add(connection);
+                channel.connect(address);
+                channel.register(selector, SelectionKey.OP_CONNECT, connection);
+                numberPending++;
+            }
+            if (System.nanoTime() - deadline > 0) {
+                throw new IOException("only " + numberReady + " of " + numbers.size() + " connections of thread " + workerIndex + " were ready after "
+                        + TimeUnit.NANOSECONDS.toSeconds(CONNECT_TIMEOUT_NANOS) + " s");
+            }
+            selector.select(100);
+            for (SelectionKey key : selector.selectedKeys()) {
+                LoadConnection connection = (LoadConnection) key.attachment();
+                if (key.isConnectable()) {
+                    connection.channel.finishConnect();
+                    numberPending--;
+                    key.interestOps(SelectionKey.OP_READ);
+                    connection.startSetup();
+                    write(key, connection);
+                } else {
+                    boolean wasReady = connection.isReady();
+                    read(key, connection);
+                    if (!wasReady && connection.isReady()) {
+                        numberReady++;
+                    }
+                }
+            }
+            selector.selectedKeys().clear();
+        }
+    }
+
+    // open loop: every request has its due time and is sent then, answered or not; the worker's share of the rate is spread evenly
+    private void sendAtTheTargetRate() throws IOException {
+
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) * options.numberOfThreads / options.requestsPerSecond;
+        long nextDueNanos = startNanos + intervalNanos * workerIndex / options.numberOfThreads; // the workers take turns
+        while (true) {
+            long now = System.nanoTime();
+            while (nextDueNanos - now <= 0 && nextDueNanos - endNanos < 0) {
+                sendNextRequest(nextDueNanos, now);
+                nextDueNanos += intervalNanos;
+            }
+            boolean allSent = nextDueNanos - endNanos >= 0;
+            if (allSent && (numberOfRequestsInFlight == 0 || now - endNanos > DRAIN_TIMEOUT_NANOS)) {
+                return;
+            }
+
+            long waitNanos = allSent ? TimeUnit.MILLISECONDS.toNanos(10) : nextDueNanos - System.nanoTime();
+            if (waitNanos >= TimeUnit.MILLISECONDS.toNanos(2)) {
+                selector.select(TimeUnit.NANOSECONDS.toMillis(waitNanos) - 1); // wakes up as soon as an answer arrives
+            } else if (selector.selectNow() == 0 && waitNanos > 0) {
+                LockSupport.parkNanos(Math.min(waitNanos, PACING_SLICE_NANOS));
+            }
+            for (SelectionKey key : selector.selectedKeys()) {
+                LoadConnection connection = (LoadConnection) key.attachment();
+                if (key.isValid() && key.isWritable()) {
+                    write(key, connection);
+                }
+                if (key.isValid() && key.isReadable()) {
+                    read(key, connection);
+                }
+            }
+            selector.selectedKeys().clear();
+        }
+    }
+
+    private void sendNextRequest(long dueNanos, long now) throws IOException {
+
+        LoadConnection connection = connections.get(nextConnection);
+        nextConnection = (nextConnection + 1) % connections.size();
+        int pick = random.nextInt(options.totalMixWeight());
+        LoadGenerator.Command command = LoadGenerator.Command.values()[0];
+        for (LoadGenerator.Command candidate : LoadGenerator.Command.values()) {
+            pick -= options.mixWeights[candidate.ordinal()];
+            if (pick < 0) {
+                command = candidate;
+                break;
+            }
+        }
+        connection.send(command, dueNanos, random);
+        numberOfRequestsInFlight++;
+        statistics.sent(now - dueNanos, dueNanos - measurementStartNanos >= 0);
+        write(connection.channel.keyFor(selector), connection);
+    }
+
+    private void write(SelectionKey key, LoadConnection connection) throws IOException {
+
+        if (connection.pendingWrites.isEmpty()) {
+            return;
+        }
+        connection.channel.write(connection.pendingWrites.toArray(new ByteBuffer[0]));
+        while (!connection.pendingWrites.isEmpty() && !connection.pendingWrites.peek().hasRemaining()) {
+            connection.pendingWrites.poll();
+        }
+        // the server is not reading fast enough: wait until the socket is writable, the requests stay due when they were
+        key.interestOps(connection.pendingWrites.isEmpty() ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+    }
+
+    private void read(SelectionKey key, LoadConnection connection) throws IOException {
+
+        readBuffer.clear();
+        int numberOfBytesRead = connection.channel.read(readBuffer);
+        if (numberOfBytesRead < 0) {
+            throw new IOException("the server closed connection " + connection.number);
+        }
+        readBuffer.flip();
+        long now = System.nanoTime();
+        while (readBuffer.hasRemaining()) {
+            if (!connection.readAnswer(readBuffer)) {
+                continue; // the rest of the answer is still coming
+            }
+            LoadRequest request = connection.takeAnsweredRequest();
+            if (request.command != null) { // null for the requests that set the connection up
+                numberOfRequestsInFlight--;
+                statistics.answered(request.command, now - request.dueNanos, connection.lastAnswerSucceeded(), request.dueNanos - measurementStartNanos >= 0);
+            } else if (!connection.lastAnswerSucceeded()) {
+                throw new IOException("connection " + connection.number + " could not select its schedule");
+            }
+        }
+        if (!connection.pendingWrites.isEmpty()) {
+            write(key, connection);
+        }
+    }
+}
+
+// a request in flight; command is null for the ones that set the connection up
+final class LoadRequest {
+
+    final LoadGenerator.Command command;
+    final long dueNanos;
+    final int dayIndex;
+    final int hour;
+    final int layoutVersion; // of the connection's picture of its schedule when the request was sent
+
+    LoadRequest(LoadGenerator.Command command, long dueNanos, int dayIndex, int hour, int layoutVersion) {
+        this.command = command;
+        this.dueNanos = dueNanos;
+        this.dayIndex = dayIndex;
+        this.hour = hour;
+        this.layoutVersion = layoutVersion;
+    }
+}
+
+// One connection, its requests in flight and the classes it believes its schedule has: every class it adds lasts an hour,
+// so per day a bit per hour is enough. A slot is taken when the add is sent and given back if the server refuses it.
+final class LoadConnection {
+
+    private static final String[] DAYS = {"Monday", "Tuesday", "Wednesday", "Thursday", "Friday"};
+    private static final String[] CLASS_NAMES = {"LG101", "LG102", "LG103", "LG104", "LG105"}; // a schedule accepts 5 different modules
+    private static final int FIRST_HOUR = 8;
+    private static final int LAST_HOUR = 20; // classes start from 08:00 to 19:00
+    private static final int HOURS_CLASSES_START_AT = (1 << LAST_HOUR) - (1 << FIRST_HOUR);
+    private static final byte[] ERROR_PREFIX = "ERROR MESSAGE:".getBytes(StandardCharsets.US_ASCII);
+
+    final SocketChannel channel;
+    final int number;
+    final ArrayDeque<ByteBuffer> pendingWrites = new ArrayDeque<>();
+    private final String tenantId;
+    private final String room;
+    private final boolean binaryProtocol;
+    private final ArrayDeque<LoadRequest> requestsInFlight = new ArrayDeque<>();
+    private final int[] occupiedHoursPerDay = new int[5]; // bit h: a class from h:00 to h+1:00
+    private final int[][] classNameOfHour = new int[5][24];
+    private int layoutVersion;
+    private int nextCorrelationId = 1;
+    private boolean ready;
+
+    // the answer being read: binary frames are skipped after their status, text answers after their first bytes
+    private boolean awaitingHandshake;
+    private final byte[] header = new byte[9]; // binary: length, correlation id, status
+    private int headerLength;
+    private long bytesLeftInAnswer = -1; // -1 while the header (binary) or the length line (text) is read
+    private long textLength;
+    private int textBytesMatchingErrorPrefix;
+    private boolean answerIsError;
+    private boolean lastAnswerSucceeded;
+
+    LoadConnection(SocketChannel channel, int number, String tenantId, boolean binaryProtocol) {
+        this.channel = channel;
+        this.number = number;
+        this.tenantId = tenantId;
+        this.room = "LG-" + number; // rooms are shared by all schedules, so every connection books its own
+        this.binaryProtocol = binaryProtocol;
+    }
+
+    boolean isReady() {
+        return ready;
+    }
+
+    void startSetup() {
+
+        if (binaryProtocol) {
+            pendingWrites.add(BinaryProtocol.createHandshake(BinaryProtocol.VERSION));
+            awaitingHandshake = true;
+            pendingWrites.add(BinaryProtocol.encodeSelectScheduleRequest(nextCorrelationId++, tenantId));
+        } else {
+            pendingWrites.add(line("Select Schedule," + tenantId));
+        }
+        requestsInFlight.add(new LoadRequest(null, 0, 0, 0, 0));
+    }
+
+    // an add needs a free hour and a remove a class; without one the other is sent instead
+    void send(LoadGenerator.Command command, long dueNanos, SplittableRandom random) {
+
+        if (command == LoadGenerator.Command.ADD && !hasFreeSlot()) {
+            command = LoadGenerator.Command.REMOVE;
+        } else if (command == LoadGenerator.Command.REMOVE && !hasClass()) {
+            command = LoadGenerator.Command.ADD;
+        }
+        int dayIndex = 0;
+        int hour = 0;
+        switch (command) {
+            case ADD -> {
+                do {
+                    dayIndex = random.nextInt(5);
+                } while (freeHoursOn(dayIndex) == 0);
+                do {
+                    hour = FIRST_HOUR + random.nextInt(LAST_HOUR - FIRST_HOUR);
+                } while ((freeHoursOn(dayIndex) & 1 << hour) == 0);
+                int nameIndex = random.nextInt(CLASS_NAMES.length);
+                occupiedHoursPerDay[dayIndex] |= 1 << hour;
+                classNameOfHour[dayIndex][hour] = nameIndex;
+                pendingWrites.add(binaryProtocol
+                        ? BinaryProtocol.encodeAddClassRequest(nextCorrelationId++, dayIndex, hour * 60, hour * 60 + 60, CLASS_NAMES[nameIndex], room)
+                        : line("Add New Class," + DAYS[dayIndex] + "," + hour + ",0," + (hour + 1) + ",0," + CLASS_NAMES[nameIndex] + "," + room));
+            }
+            case REMOVE -> {
+                do {
+                    dayIndex = random.nextInt(5);
+                } while (occupiedHoursPerDay[dayIndex] == 0);
+                int occupiedHours = occupiedHoursPerDay[dayIndex];
+                for (int skip = random.nextInt(Integer.bitCount(occupiedHours)); skip > 0; skip--) {
+                    occupiedHours &= occupiedHours - 1;
+                }
+                hour = Integer.numberOfTrailingZeros(occupiedHours);
+                occupiedHoursPerDay[dayIndex] &= ~(1 << hour);
+                String name = CLASS_NAMES[classNameOfHour[dayIndex][hour]];
+                pendingWrites.add(binaryProtocol
+                        ? BinaryProtocol.encodeRemoveClassRequest(nextCorrelationId++, dayIndex, hour * 60, name)
+                        : line("Remove Class," + DAYS[dayIndex] + "," + hour + ",0," + name));
+            }
+            case DISPLAY -> pendingWrites.add(binaryProtocol
+                    ? BinaryProtocol.encodeSimpleRequest(nextCorrelationId++, BinaryProtocol.OPCODE_DISPLAY_SCHEDULE)
+                    : line("Display Schedule"));
+            case EARLY_MORNINGS -> {
+                shiftToTheMorning(); // what the server will do before it reads the next request of this connection
+                pendingWrites.add(binaryProtocol
+                        ? BinaryProtocol.encodeSimpleRequest(nextCorrelationId++, BinaryProtocol.OPCODE_EARLY_MORNINGS)
+                        : line("Early Mornings"));
+            }
+        }
+        requestsInFlight.add(new LoadRequest(command, dueNanos, dayIndex, hour, layoutVersion));
+    }
+
+    // true once a whole answer has been read from the buffer
+    boolean readAnswer(ByteBuffer buffer) {
+
+        if (awaitingHandshake) {
+            header[headerLength++] = buffer.get();
+            if (headerLength == 2) {
+                headerLength = 0;
+                awaitingHandshake = false;
+            }
+            return false;
+        }
+        return binaryProtocol ? readFrame(buffer) : readText(buffer);
+    }
+
+    LoadRequest takeAnsweredRequest() {
+
+        LoadRequest request = requestsInFlight.poll();
+        if (request.command == null) {
+            ready = true;
+        } else if (!lastAnswerSucceeded && request.layoutVersion == layoutVersion) { // after 'Early Mornings' the slot is not where it was
+            if (request.command == LoadGenerator.Command.ADD) {
+                occupiedHoursPerDay[request.dayIndex] &= ~(1 << request.hour);
+            } else if (request.command == LoadGenerator.Command.REMOVE) {
+                occupiedHoursPerDay[request.dayIndex] |= 1 << request.hour;
+            }
+        }
+        return request;
+    }
+
+    boolean lastAnswerSucceeded() {
+        return lastAnswerSucceeded;
+    }
+
+    private boolean readFrame(ByteBuffer buffer) {
+
+        if (bytesLeftInAnswer < 0) {
+            while (headerLength < header.length && buffer.hasRemaining()) {
+                header[headerLength++] = buffer.get();
+            }
+            if (headerLength < header.length) {
+                return false;
+            }
+            ByteBuffer wrappedHeader = ByteBuffer.wrap(header);
+            bytesLeftInAnswer = wrappedHeader.getInt() - 5L; // the correlation id and the status are read
+            lastAnswerSucceeded = header[8] == BinaryProtocol.STATUS_OK;
+            headerLength = 0;
+        }
+        int skipped = (int) Math.min(bytesLeftInAnswer, buffer.remaining());
+        buffer.position(buffer.position() + skipped);
+        bytesLeftInAnswer -= skipped;
+        if (bytesLeftInAnswer > 0) {
+            return false;
+        }
+        bytesLeftInAnswer = -1;
+        return true;
+    }
+
+    // the length line counts chars, so the bytes of the message are counted as UTF-8 chars: every byte that does not
+    // continue a character starts one, and a 4-byte character is two Java chars
+    private boolean readText(ByteBuffer buffer) {
+
+        while (buffer.hasRemaining()) {
+            byte b = buffer.get();
+            if (bytesLeftInAnswer < 0) {
+                if (b == '\n') {
+                    bytesLeftInAnswer = textLength; // from now on: the chars still to come
+                    textLength = 0;
+                    textBytesMatchingErrorPrefix = 0;
+                    answerIsError = bytesLeftInAnswer >= ERROR_PREFIX.length;
+                } else {
+                    textLength = textLength * 10 + (b - '0');
+                }
+                continue;
+            }
+            if (bytesLeftInAnswer == 0) { // the message is complete, skip what is left of its last char up to the line break
+                if (b == '\n') {
+                    bytesLeftInAnswer = -1;
+                    lastAnswerSucceeded = !answerIsError;
+                    return true;
+                }
+                continue;
+            }
+            if (textBytesMatchingErrorPrefix < ERROR_PREFIX.length) {
+                answerIsError &= b == ERROR_PREFIX[textBytesMatchingErrorPrefix++];
+            }
+            if ((b & 0xC0) != 0x80) {
+                bytesLeftInAnswer -= (b & 0xF8) == 0xF0 ? 2 : 1;
+            }
+        }
+        return false;
+    }
+
+    private boolean hasFreeSlot() {
+        for (int dayIndex = 0; dayIndex < 5; dayIndex++) {
+            if (freeHoursOn(dayIndex) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // touching counts as overlapping on the server, so the hours next to a class are not free either; at most 6 classes a day
+    // fit, and after 'Early Mornings' they finish by 15:00
+    private int freeHoursOn(int dayIndex) {
+        int occupiedHours = occupiedHoursPerDay[dayIndex];
+        return HOURS_CLASSES_START_AT & ~(occupiedHours | occupiedHours << 1 | occupiedHours >>> 1);
+    }
+
+    private boolean hasClass() {
+        for (int occupiedHours : occupiedHoursPerDay) {
+            if (occupiedHours != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // the classes of every day run back to back from 09:00 in the same order, as the server arranges them
+    private void shiftToTheMorning() {
+
+        for (int dayIndex = 0; dayIndex < 5; dayIndex++) {
+            int occupiedHours = occupiedHoursPerDay[dayIndex];
+            int[] names = new int[Integer.bitCount(occupiedHours)];
+            for (int i = 0; occupiedHours != 0; i++, occupiedHours &= occupiedHours - 1) {
+                names[i] = classNameOfHour[dayIndex][Integer.numberOfTrailingZeros(occupiedHours)];
+            }
+            occupiedHoursPerDay[dayIndex] = 0;
+            for (int i = 0; i < names.length; i++) {
+                occupiedHoursPerDay[dayIndex] |= 1 << (9 + i);
+                classNameOfHour[dayIndex][9 + i] = names[i];
+            }
+        }
+        layoutVersion++;
+    }
+
+    private static ByteBuffer line(String message) {
+        return ByteBuffer.wrap((message + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,520 @@
+package project.server;
+
+import java.io.UncheckedIOException;
+import java.net.ProtocolException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+
+// IMPLEMENTATION OF A COMPACT BINARY PROTOCOL NEXT TO THE CSV LINE PROTOCOL
+// A client opts in by sending MAGIC_BYTE and the version it wants as the very first two bytes of the connection,
+// the server answers with MAGIC_BYTE and the version both sides will use.
+// No text command starts with MAGIC_BYTE, so old clients keep talking CSV exactly as before.
+//
+// Every frame is an int length followed by that many bytes.
+//   request:  [version 2+: int correlation id] opcode byte, then the fields of the operation
+//   response: [version 2+: the correlation id of the request] status byte, then the message as UTF-8 up to the end of the frame
+// With correlation ids a client can pipeline requests and match the responses without waiting for each one.
+// A version 2 client that subscribed also receives pushes: frames with correlation id 0 and status STATUS_PUSH, followed by
+// the schedule's name, its version (a long) and the operations of the change as in a batch (EARLY_MORNINGS has no fields),
+// or STATUS_PUSH_MISSED and a message when changes were dropped because the client did not keep up.
+// A day is one byte (0 = Monday), a time is a short with the minute of the day, a string is an unsigned short length plus UTF-8 bytes,
+// a date is an int with its epoch day.
+public final class BinaryProtocol {
+
+    public static final byte MAGIC_BYTE = (byte) 0xB5;
+    public static final byte VERSION = 2; // the newest version the server speaks
+    public static final int MAX_FRAME_LENGTH = 1024 * 1024;
+    public static final int MAX_BATCH_SIZE = 10_000;
+    public static final int MAX_STRING_LENGTH = Short.MAX_VALUE; // in UTF-8 bytes; longer names and rooms are refused, never cut
+
+    public static final byte OPCODE_DISCONNECT = 0;
+    public static final byte OPCODE_DISPLAY_SCHEDULE = 1;
+    public static final byte OPCODE_ADD_CLASS = 2;       // day, start minute, finish minute, name, room
+    public static final byte OPCODE_REMOVE_CLASS = 3;    // day, start minute, name
+    public static final byte OPCODE_EARLY_MORNINGS = 4;
+    public static final byte OPCODE_COUNT_OF = 5;        // name
+    public static final byte OPCODE_BATCH = 6;           // unsigned short count, then that many ADD_CLASS / REMOVE_CLASS opcodes with their fields
+    public static final byte OPCODE_SELECT_SCHEDULE = 7; // tenant id; later requests on the connection go to that schedule
+    public static final byte OPCODE_EARLY_MORNINGS_FOR_ALL_SCHEDULES = 8;
+    public static final byte OPCODE_OPTIMAL_PACKING = 9;
+    public static final byte OPCODE_IS_ROOM_FREE = 10;   // day, start minute, finish minute, room
+    public static final byte OPCODE_FREE_ROOMS = 11;     // day, start minute, finish minute
+    public static final byte OPCODE_SUBSCRIBE = 12;      // version 2+; the changes of the selected schedule are pushed until UNSUBSCRIBE
+    public static final byte OPCODE_UNSUBSCRIBE = 13;
+    // series id (0 in a request, the server gives it), first date, unsigned short number of occurrences, byte interval in weeks,
+    // start minute, finish minute, name, room
+    public static final byte OPCODE_ADD_RECURRING_CLASS = 14;
+    public static final byte OPCODE_REMOVE_RECURRING_CLASS = 15; // series id
+    public static final byte OPCODE_CANCEL_OCCURRENCE = 16;      // series id, date
+    public static final byte OPCODE_DISPLAY_TERM = 17;           // first date, last date
+    public static final byte OPCODE_RECURRING_CLASSES = 18;
+    // unsigned short duration in minutes, first day, last day, earliest start minute, latest finish minute, room (empty for none)
+    public static final byte OPCODE_FIND_FREE_SLOT = 19;
+    public static final byte OPCODE_FIND_FREE_SLOT_FOR_ALL_SCHEDULES = 20; // the same fields
+    public static final byte OPCODE_VERSION = 21;
+    // long expected version, then the opcode and fields of ADD_CLASS, REMOVE_CLASS, BATCH, ADD_RECURRING_CLASS,
+    // REMOVE_RECURRING_CLASS or CANCEL_OCCURRENCE: the change is made only if the schedule is still at that version
+    public static final byte OPCODE_IF_VERSION = 22;
+
+    public static final byte STATUS_OK = 0;
+    public static final byte STATUS_ERROR = 1;
+    public static final byte STATUS_PUSH = 2;
+    public static final byte STATUS_PUSH_MISSED = 3;
+
+    private BinaryProtocol() {
+    }
+
+    static byte negotiateVersion(int requestedVersion) {
+        return (byte) Math.max(1, Math.min(requestedVersion, VERSION));
+    }
+
+    public static ByteBuffer createHandshake(byte version) {
+        return ByteBuffer.wrap(new byte[]{MAGIC_BYTE, version});
+    }
+
+    // a frame without room for its header cannot even be answered, so the connection that sent it is closed
+    static byte opcodeOf(ByteBuffer frame, byte version) throws ProtocolException {
+
+        int headerLength = version >= 2 ? 4 + 1 : 1;
+        if (frame.remaining() < headerLength) {
+            throw new ProtocolException("A request frame of " + frame.remaining() + " bytes is shorter than the " + headerLength
+                    + " bytes of its header in version " + version + " of the binary protocol.");
+        }
+        return frame.get(frame.position() + headerLength - 1);
+    }
+
+    // the request is read straight from the frame, no String[] and no number parsing; the returned frame is ready to be written
+    static ByteBuffer processRequestFrame(ByteBuffer frame, RequestProcessor requestProcessor, byte version) {
+
+        int correlationId = 0;
+        try {
+            if (version >= 2) {
+                correlationId = frame.getInt();
+            }
+            byte opcode = frame.get();
+            if (opcode == OPCODE_DISPLAY_SCHEDULE) {
+                return encodeResponse(version, correlationId, STATUS_OK, requestProcessor.displaySchedule()); // copied as it is cached, never re-encoded
+            }
+            String message = switch (opcode) {
+                case OPCODE_ADD_CLASS, OPCODE_REMOVE_CLASS, OPCODE_BATCH, OPCODE_ADD_RECURRING_CLASS, OPCODE_REMOVE_RECURRING_CLASS, OPCODE_CANCEL_OCCURRENCE ->
+                        processChange(opcode, frame, requestProcessor);
+                case OPCODE_IF_VERSION -> {
+                    long expectedVersion = frame.getLong();
+                    byte opcodeOfChange = frame.get();
+                    yield requestProcessor.ifVersionIs(expectedVersion, () -> processChange(opcodeOfChange, frame, requestProcessor));
+                }
+                case OPCODE_VERSION -> requestProcessor.version();
+                case OPCODE_EARLY_MORNINGS -> requestProcessor.performEarlyMornings();
+                case OPCODE_EARLY_MORNINGS_FOR_ALL_SCHEDULES -> requestProcessor.performEarlyMorningsForAllSchedules();
+                case OPCODE_OPTIMAL_PACKING -> requestProcessor.performOptimalPacking();
+                case OPCODE_COUNT_OF -> requestProcessor.countOf(readString(frame));
+                case OPCODE_IS_ROOM_FREE -> requestProcessor.isRoomFree(readDay(frame), readTime(frame), readTime(frame), readString(frame));
+                case OPCODE_FREE_ROOMS -> requestProcessor.freeRooms(readDay(frame), readTime(frame), readTime(frame));
+                case OPCODE_SELECT_SCHEDULE -> requestProcessor.selectSchedule(readString(frame));
+                case OPCODE_SUBSCRIBE -> {
+                    if (version < 2) { // a push could not be told apart from a response without correlation ids
+                        throw new IncorrectActionException("Subscriptions need version 2 of the binary protocol.");
+                    }
+                    yield requestProcessor.subscribe();
+                }
+                case OPCODE_UNSUBSCRIBE -> requestProcessor.unsubscribe();
+                case OPCODE_DISPLAY_TERM -> requestProcessor.displayTerm(readDate(frame), readDate(frame));
+                case OPCODE_RECURRING_CLASSES -> requestProcessor.recurringClasses();
+                case OPCODE_FIND_FREE_SLOT, OPCODE_FIND_FREE_SLOT_FOR_ALL_SCHEDULES -> {
+                    int durationInMinutes = Short.toUnsignedInt(frame.getShort());
+                    String firstDayOfWeek = readDay(frame);
+                    String lastDayOfWeek = readDay(frame);
+                    LocalTime earliestStartTime = readTime(frame);
+                    LocalTime latestFinishTime = readTime(frame);
+                    String room = readString(frame);
+                    yield opcode == OPCODE_FIND_FREE_SLOT
+                            ? requestProcessor.findFreeSlot(durationInMinutes, firstDayOfWeek, lastDayOfWeek, earliestStartTime, latestFinishTime, room.isBlank() ? null : room)
+                            : requestProcessor.findFreeSlotInAllSchedules(durationInMinutes, firstDayOfWeek, lastDayOfWeek, earliestStartTime, latestFinishTime, room.isBlank() ? null : room);
+                }
+                default -> throw new IncorrectActionException("The operation code " + opcode + " is not supported by the server.");
+            };
+            return encodeResponse(version, correlationId, STATUS_OK, message);
+        } catch (IncorrectActionException iae) {
+            return encodeResponse(version, correlationId, STATUS_ERROR, iae.getMessage());
+        } catch (BufferUnderflowException e) {
+            return encodeResponse(version, correlationId, STATUS_ERROR, "The request is shorter than its operation requires.");
+        } catch (UncheckedIOException e) { // the storage failed, e.g. the journal; a change that is not on disk was not made
+            return encodeResponse(version, correlationId, STATUS_ERROR, e.getMessage());
+        }
+    }
+
+    // the requests that change the schedule, the ones that can follow OPCODE_IF_VERSION
+    private static String processChange(byte opcode, ByteBuffer frame, RequestProcessor requestProcessor) {
+
+        return switch (opcode) {
+            case OPCODE_ADD_CLASS -> {
+                ScheduleOperation operation = readAddClass(frame);
+                yield requestProcessor.addClass(operation.getDayOfWeek(), operation.getClassToAdd());
+            }
+            case OPCODE_REMOVE_CLASS -> {
+                ScheduleOperation operation = readRemoveClass(frame);
+                yield requestProcessor.removeClass(operation.getDayOfWeek(), operation.getNameOfClassToRemove(), operation.getStartTimeOfClassToRemove());
+            }
+            case OPCODE_BATCH -> requestProcessor.applyBatch(readBatch(frame));
+            case OPCODE_ADD_RECURRING_CLASS -> {
+                frame.getInt();
+                LocalDate firstDate = readDate(frame);
+                int numberOfOccurrences = Short.toUnsignedInt(frame.getShort());
+                int intervalInWeeks = frame.get();
+                LocalTime startTime = readTime(frame);
+                LocalTime finishTime = readTime(frame);
+                String className = readString(frame);
+                String roomNumber = readString(frame);
+                if (!canBeStored(className) || !canBeStored(roomNumber)) {
+                    throw new IncorrectActionException();
+                }
+                yield requestProcessor.addRecurringClass(firstDate, numberOfOccurrences, intervalInWeeks, new Class(startTime, finishTime, className, roomNumber));
+            }
+            case OPCODE_REMOVE_RECURRING_CLASS -> requestProcessor.removeRecurringClass(frame.getInt());
+            case OPCODE_CANCEL_OCCURRENCE -> requestProcessor.cancelOccurrence(frame.getInt(), readDate(frame));
+            default -> throw new IncorrectActionException("The operation code " + opcode + " cannot be made conditional.");
+        };
+    }
+
+    // client side: requests are always written in the newest version, with a correlation id chosen by the client
+
+    public static ByteBuffer encodeSimpleRequest(int correlationId, byte opcode) {
+        return startRequest(correlationId, opcode, 0).flip();
+    }
+
+    public static ByteBuffer encodeAddClassRequest(int correlationId, int dayIndex, int startMinuteOfDay, int finishMinuteOfDay, String className, String roomNumber) {
+
+        byte[] name = className.getBytes(StandardCharsets.UTF_8);
+        byte[] room = roomNumber.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = startRequest(correlationId, OPCODE_ADD_CLASS, addClassFieldsLength(name, room));
+        writeAddClassFields(buffer, dayIndex, startMinuteOfDay, finishMinuteOfDay, name, room);
+        return buffer.flip();
+    }
+
+    public static ByteBuffer encodeRemoveClassRequest(int correlationId, int dayIndex, int startMinuteOfDay, String className) {
+
+        byte[] name = className.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = startRequest(correlationId, OPCODE_REMOVE_CLASS, removeClassFieldsLength(name));
+        writeRemoveClassFields(buffer, dayIndex, startMinuteOfDay, name);
+        return buffer.flip();
+    }
+
+    public static ByteBuffer encodeAddRecurringClassRequest(int correlationId, LocalDate firstDate, int numberOfOccurrences, int intervalInWeeks,
+                                                            int startMinuteOfDay, int finishMinuteOfDay, String className, String roomNumber) {
+
+        byte[] name = className.getBytes(StandardCharsets.UTF_8);
+        byte[] room = roomNumber.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = startRequest(correlationId, OPCODE_ADD_RECURRING_CLASS, addRecurringClassFieldsLength(name, room));
+        writeAddRecurringClassFields(buffer, 0, firstDate, numberOfOccurrences, intervalInWeeks, startMinuteOfDay, finishMinuteOfDay, name, room);
+        return buffer.flip();
+    }
+
+    // an empty room for any room
+    public static ByteBuffer encodeFindFreeSlotRequest(int correlationId, byte opcode, int durationInMinutes, int firstDayIndex, int lastDayIndex,
+                                                       int earliestStartMinuteOfDay, int latestFinishMinuteOfDay, String roomNumber) {
+
+        byte[] room = roomNumber.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = startRequest(correlationId, opcode, 2 + 1 + 1 + 2 + 2 + 2 + room.length);
+        buffer.putShort((short) durationInMinutes).put((byte) firstDayIndex).put((byte) lastDayIndex)
+                .putShort((short) earliestStartMinuteOfDay).putShort((short) latestFinishMinuteOfDay);
+        writeString(buffer, room);
+        return buffer.flip();
+    }
+
+    // any encoded request that changes the schedule, made conditional: it is applied only if the schedule is at expectedVersion
+    public static ByteBuffer encodeIfVersionRequest(long expectedVersion, ByteBuffer changeRequest) {
+
+        int length = changeRequest.getInt(changeRequest.position());
+        ByteBuffer buffer = ByteBuffer.allocate(4 + length + 1 + 8).putInt(length + 1 + 8)
+                .putInt(changeRequest.getInt(changeRequest.position() + 4)).put(OPCODE_IF_VERSION).putLong(expectedVersion);
+        buffer.put(changeRequest.slice(changeRequest.position() + 8, length - 4));
+        return buffer.flip();
+    }
+
+    public static ByteBuffer encodeCountOfRequest(int correlationId, String className) {
+
+        byte[] name = className.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = startRequest(correlationId, OPCODE_COUNT_OF, 2 + name.length);
+        writeString(buffer, name);
+        return buffer.flip();
+    }
+
+    public static ByteBuffer encodeSelectScheduleRequest(int correlationId, String tenantId) {
+
+        byte[] tenant = tenantId.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = startRequest(correlationId, OPCODE_SELECT_SCHEDULE, 2 + tenant.length);
+        writeString(buffer, tenant);
+        return buffer.flip();
+    }
+
+    public static ByteBuffer encodeBatchRequest(int correlationId, List<ScheduleOperation> operations) {
+
+        List<byte[][]> encodedStrings = encodeStringsOf(operations);
+        ByteBuffer buffer = startRequest(correlationId, OPCODE_BATCH, operationsLength(operations, encodedStrings));
+        writeOperations(buffer, operations, encodedStrings);
+        return buffer.flip();
+    }
+
+    // server side: a version 2 frame, the same for every subscriber of the schedule
+    static ByteBuffer encodePush(ScheduleChange change) {
+
+        if (change == ScheduleChange.MISSED) {
+            return encodeResponse((byte) 2, 0, STATUS_PUSH_MISSED, "Some changes could not be sent in time. Please display the schedule again.");
+        }
+        byte[] tenant = change.tenantId.getBytes(StandardCharsets.UTF_8);
+        List<byte[][]> encodedStrings = encodeStringsOf(change.operations);
+        int length = 4 + 1 + 2 + tenant.length + 8 + operationsLength(change.operations, encodedStrings);
+        ByteBuffer buffer = ByteBuffer.allocate(4 + length).putInt(length).putInt(0).put(STATUS_PUSH);
+        writeString(buffer, tenant);
+        buffer.putLong(change.version);
+        writeOperations(buffer, change.operations, encodedStrings);
+        return buffer.flip();
+    }
+
+    // every name and room is encoded once, for the length and for the copy
+    private static List<byte[][]> encodeStringsOf(List<ScheduleOperation> operations) {
+
+        List<byte[][]> encodedStrings = new ArrayList<>(operations.size());
+        for (ScheduleOperation operation : operations) {
+            switch (operation.getType()) {
+                case ADD -> encodedStrings.add(new byte[][]{operation.getClassToAdd().getName().getBytes(StandardCharsets.UTF_8),
+                        operation.getClassToAdd().getRoom().getBytes(StandardCharsets.UTF_8)});
+                case REMOVE -> encodedStrings.add(new byte[][]{operation.getNameOfClassToRemove().getBytes(StandardCharsets.UTF_8)});
+                case ADD_RECURRING -> encodedStrings.add(new byte[][]{operation.getSeriesToAdd().name.getBytes(StandardCharsets.UTF_8),
+                        operation.getSeriesToAdd().room.getBytes(StandardCharsets.UTF_8)});
+                case EARLY_MORNINGS, REMOVE_RECURRING, CANCEL_OCCURRENCE -> encodedStrings.add(null);
+            }
+        }
+        return encodedStrings;
+    }
+
+    private static int operationsLength(List<ScheduleOperation> operations, List<byte[][]> encodedStrings) {
+
+        int length = 2;
+        for (int i = 0; i < operations.size(); i++) {
+            length += 1 + switch (operations.get(i).getType()) {
+                case ADD -> addClassFieldsLength(encodedStrings.get(i)[0], encodedStrings.get(i)[1]);
+                case REMOVE -> removeClassFieldsLength(encodedStrings.get(i)[0]);
+                case EARLY_MORNINGS -> 0;
+                case ADD_RECURRING -> addRecurringClassFieldsLength(encodedStrings.get(i)[0], encodedStrings.get(i)[1]);
+                case REMOVE_RECURRING -> 4;
+                case CANCEL_OCCURRENCE -> 4 + 4;
+            };
+        }
+        return length;
+    }
+
+    // an unsigned short count, then every operation as its opcode and its fields
+    private static void writeOperations(ByteBuffer buffer, List<ScheduleOperation> operations, List<byte[][]> encodedStrings) {
+
+        buffer.putShort((short) operations.size());
+        for (int i = 0; i < operations.size(); i++) {
+            ScheduleOperation operation = operations.get(i);
+            switch (operation.getType()) {
+                case ADD -> {
+                    Class classToAdd = operation.getClassToAdd();
+                    buffer.put(OPCODE_ADD_CLASS);
+                    writeAddClassFields(buffer, Schedule.DAYS_OF_WEEK.indexOf(operation.getDayOfWeek()), classToAdd.getStartTime().toSecondOfDay() / 60, classToAdd.getFinishTime().toSecondOfDay() / 60,
+                            encodedStrings.get(i)[0], encodedStrings.get(i)[1]);
+                }
+                case REMOVE -> {
+                    buffer.put(OPCODE_REMOVE_CLASS);
+                    writeRemoveClassFields(buffer, Schedule.DAYS_OF_WEEK.indexOf(operation.getDayOfWeek()), operation.getStartTimeOfClassToRemove().toSecondOfDay() / 60, encodedStrings.get(i)[0]);
+                }
+                case EARLY_MORNINGS -> buffer.put(OPCODE_EARLY_MORNINGS);
+                case ADD_RECURRING -> {
+                    RecurringSeries series = operation.getSeriesToAdd();
+                    buffer.put(OPCODE_ADD_RECURRING_CLASS);
+                    writeAddRecurringClassFields(buffer, series.id, series.firstDate, series.numberOfOccurrences, series.intervalInWeeks, series.startMinute, series.finishMinute,
+                            encodedStrings.get(i)[0], encodedStrings.get(i)[1]);
+                }
+                case REMOVE_RECURRING -> buffer.put(OPCODE_REMOVE_RECURRING_CLASS).putInt(operation.getSeriesId());
+                case CANCEL_OCCURRENCE -> buffer.put(OPCODE_CANCEL_OCCURRENCE).putInt(operation.getSeriesId()).putInt((int) operation.getDateOfOccurrence().toEpochDay());
+            }
+        }
+    }
+
+    // client side: the response frame without its length prefix
+
+    public static int readResponseCorrelationId(ByteBuffer frame) {
+        return frame.getInt(frame.position());
+    }
+
+    public static boolean isSuccessfulResponse(ByteBuffer frame) {
+        return frame.get(frame.position() + 4) == STATUS_OK;
+    }
+
+    // a push rather than the response to a request
+    public static boolean isPush(ByteBuffer frame) {
+        byte status = frame.get(frame.position() + 4);
+        return status == STATUS_PUSH || status == STATUS_PUSH_MISSED;
+    }
+
+    public static String readResponseMessage(ByteBuffer frame) {
+        return new String(frame.array(), frame.arrayOffset() + frame.position() + 5, frame.remaining() - 5, StandardCharsets.UTF_8);
+    }
+
+    static ByteBuffer encodeResponse(byte version, int correlationId, byte status, String message) {
+        return encodeResponse(version, correlationId, status, message.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static ByteBuffer encodeResponse(byte version, int correlationId, byte status, EncodedMessage message) {
+        return encodeResponse(version, correlationId, status, message.bytes());
+    }
+
+    private static ByteBuffer encodeResponse(byte version, int correlationId, byte status, byte[] messageBytes) {
+
+        int headerLength = version >= 2 ? 4 + 1 : 1;
+        ByteBuffer buffer = ByteBuffer.allocate(4 + headerLength + messageBytes.length).putInt(headerLength + messageBytes.length);
+        if (version >= 2) {
+            buffer.putInt(correlationId);
+        }
+        return buffer.put(status).put(messageBytes).flip();
+    }
+
+    private static ByteBuffer startRequest(int correlationId, byte opcode, int payloadLength) {
+        int length = 4 + 1 + payloadLength;
+        return ByteBuffer.allocate(4 + length).putInt(length).putInt(correlationId).put(opcode);
+    }
+
+    private static int addClassFieldsLength(byte[] name, byte[] room) {
+        return 1 + 2 + 2 + 2 + name.length + 2 + room.length;
+    }
+
+    private static int removeClassFieldsLength(byte[] name) {
+        return 1 + 2 + 2 + name.length;
+    }
+
+    private static int addRecurringClassFieldsLength(byte[] name, byte[] room) {
+        return 4 + 4 + 2 + 1 + 2 + 2 + 2 + name.length + 2 + room.length;
+    }
+
+    private static void writeAddClassFields(ByteBuffer buffer, int dayIndex, int startMinuteOfDay, int finishMinuteOfDay, byte[] name, byte[] room) {
+        buffer.put((byte) dayIndex).putShort((short) startMinuteOfDay).putShort((short) finishMinuteOfDay);
+        writeString(buffer, name);
+        writeString(buffer, room);
+    }
+
+    private static void writeRemoveClassFields(ByteBuffer buffer, int dayIndex, int startMinuteOfDay, byte[] name) {
+        buffer.put((byte) dayIndex).putShort((short) startMinuteOfDay);
+        writeString(buffer, name);
+    }
+
+    private static void writeAddRecurringClassFields(ByteBuffer buffer, int seriesId, LocalDate firstDate, int numberOfOccurrences, int intervalInWeeks,
+                                                     int startMinuteOfDay, int finishMinuteOfDay, byte[] name, byte[] room) {
+        buffer.putInt(seriesId).putInt((int) firstDate.toEpochDay()).putShort((short) numberOfOccurrences).put((byte) intervalInWeeks)
+                .putShort((short) startMinuteOfDay).putShort((short) finishMinuteOfDay);
+        writeString(buffer, name);
+        writeString(buffer, room);
+    }
+
+    // A name or room is shown, journaled and replicated as a field of a text line, so it may not hold a comma or a line break.
+    // The text protocol cannot carry them either: it splits the request there and refuses it for its fields, as is done here.
+    private static boolean canBeStored(String field) {
+        return !field.isBlank() && field.indexOf(',') < 0 && field.indexOf('\r') < 0 && field.indexOf('\n') < 0;
+    }
+
+    private static ScheduleOperation readAddClass(ByteBuffer frame) {
+
+        String dayOfClass = readDay(frame);
+        LocalTime startTime = readTime(frame);
+        LocalTime finishTime = readTime(frame);
+        String className = readString(frame);
+        String roomNumber = readString(frame);
+        if (!canBeStored(className) || !canBeStored(roomNumber)) {
+            throw new IncorrectActionException();
+        }
+        if (startTime.isAfter(finishTime)) {
+            throw new IncorrectActionException("Start time of a class cannot be after finish time.");
+        }
+        return ScheduleOperation.add(dayOfClass, new Class(startTime, finishTime, className, roomNumber));
+    }
+
+    private static ScheduleOperation readRemoveClass(ByteBuffer frame) {
+
+        String dayOfClass = readDay(frame);
+        LocalTime startTime = readTime(frame);
+        String className = readString(frame);
+        return ScheduleOperation.remove(dayOfClass, className, startTime);
+    }
+
+    private static List<ScheduleOperation> readBatch(ByteBuffer frame) {
+
+        int numberOfOperations = Short.toUnsignedInt(frame.getShort());
+        if (numberOfOperations == 0 || numberOfOperations > MAX_BATCH_SIZE) {
+            throw new IncorrectActionException("A batch must contain from 1 to " + MAX_BATCH_SIZE + " operations.");
+        }
+        List<ScheduleOperation> operations = new ArrayList<>(numberOfOperations);
+        for (int i = 0; i < numberOfOperations; i++) {
+            byte opcode = frame.get();
+            operations.add(switch (opcode) {
+                case OPCODE_ADD_CLASS -> readAddClass(frame);
+                case OPCODE_REMOVE_CLASS -> readRemoveClass(frame);
+                default -> throw new IncorrectActionException("Operation " + (i + 1) + " of the batch is neither adding nor removing a class.");
+            });
+        }
+        return operations;
+    }
+
+    private static String readDay(ByteBuffer frame) {
+
+        int dayIndex = frame.get();
+        if (dayIndex < 0 || dayIndex >= Schedule.DAYS_OF_WEEK.size()) {
+            throw new IncorrectActionException("There is no day number " + dayIndex + " in the schedule. Please choose a day from 0 (Monday) to 4 (Friday).");
+        }
+        return Schedule.DAYS_OF_WEEK.get(dayIndex);
+    }
+
+    private static LocalTime readTime(ByteBuffer frame) {
+
+        int minuteOfDay = frame.getShort();
+        if (minuteOfDay < 0 || minuteOfDay >= 24 * 60) {
+            throw new IncorrectActionException("The time provided is not valid.");
+        }
+        return LocalTime.of(minuteOfDay / 60, minuteOfDay % 60);
+    }
+
+    private static LocalDate readDate(ByteBuffer frame) {
+
+        int epochDay = frame.getInt();
+        if (epochDay < 0 || epochDay > LocalDate.of(9999, 12, 31).toEpochDay()) {
+            throw new IncorrectActionException("The date provided is not valid.");
+        }
+        return LocalDate.ofEpochDay(epochDay);
+    }
+
+    private static String readString(ByteBuffer frame) {
+
+        int length = Short.toUnsignedInt(frame.getShort());
+        if (length > frame.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        if (length > MAX_STRING_LENGTH) {
+            throw new IncorrectActionException("A name or a room can be at most " + MAX_STRING_LENGTH + " bytes long.");
+        }
+        String value = new String(frame.array(), frame.arrayOffset() + frame.position(), length, StandardCharsets.UTF_8);
+        frame.position(frame.position() + length);
+        return value;
+    }
+
+    private static void writeString(ByteBuffer buffer, byte[] value) {
+
+        if (value.length > MAX_STRING_LENGTH) {
+            throw new IllegalArgumentException("A string of " + value.length + " bytes is longer than the " + MAX_STRING_LENGTH + " bytes the protocol allows.");
+        }
+        buffer.putShort((short) value.length).put(value);
+    }
+
+    // names and rooms are checked when they enter a schedule, so every change can be pushed to binary clients
+    static void checkLengthOf(String value) {
+
+        if (value.length() > MAX_STRING_LENGTH / 3 && value.getBytes(StandardCharsets.UTF_8).length > MAX_STRING_LENGTH) { // 3 bytes per char at most
+            throw new IncorrectActionException("A name or a room can be at most " + MAX_STRING_LENGTH + " bytes long.");
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package project.server;
+
+import java.util.List;
+import java.util.concurrent.RecursiveTask;
+
+// the blocked minutes of a range of tenants merged into one index, for the days from firstDayIndex to lastDayIndex
+class BulkBlockedMinutesTask extends RecursiveTask<long[][]> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final ScheduleRegistry scheduleRegistry;
+    private final List<String> tenantIds;
+    private final int firstDayIndex;
+    private final int lastDayIndex;
+    private final int start;
+    private final int end;
+
+    BulkBlockedMinutesTask(ScheduleRegistry scheduleRegistry, List<String> tenantIds, int firstDayIndex, int lastDayIndex, int start, int end) {
+        this.scheduleRegistry = scheduleRegistry;
+        this.tenantIds = tenantIds;
+        this.firstDayIndex = firstDayIndex;
+        this.lastDayIndex = lastDayIndex;
+        this.start = start;
+        this.end = end;
+    }
+
+    @Override
+    protected long[][] compute() {
+
+        if (end - start < 2 * FreeSlotSearch.MIN_SCHEDULES_PER_TASK) {
+            return mergeSchedules();
+        }
+        int middle = (start + end) / 2;
+        BulkBlockedMinutesTask secondHalf = new BulkBlockedMinutesTask(scheduleRegistry, tenantIds, firstDayIndex, lastDayIndex, middle, end);
+        secondHalf.fork();
+        long[][] blockedMinutesPerDay = new BulkBlockedMinutesTask(scheduleRegistry, tenantIds, firstDayIndex, lastDayIndex, start, middle).compute();
+        long[][] blockedMinutesPerDayOfSecondHalf = secondHalf.join();
+        for (int dayIndex = firstDayIndex; dayIndex <= lastDayIndex; dayIndex++) {
+            MinuteBitmaps.addAll(blockedMinutesPerDay[dayIndex], blockedMinutesPerDayOfSecondHalf[dayIndex]);
+        }
+        return blockedMinutesPerDay;
+    }
+
+    long[][] mergeSchedules() {
+
+        long[][] blockedMinutesPerDay = new long[Schedule.DAYS_OF_WEEK.size()][];
+        for (int dayIndex = 0; dayIndex < blockedMinutesPerDay.length; dayIndex++) {
+            blockedMinutesPerDay[dayIndex] = MinuteBitmaps.newDay();
+        }
+        for (int i = start; i < end; i++) {
+            scheduleRegistry.withScheduleLeavingJournalToCaller(tenantIds.get(i), schedule -> {
+                for (int dayIndex = firstDayIndex; dayIndex <= lastDayIndex; dayIndex++) {
+                    MinuteBitmaps.addAll(blockedMinutesPerDay[dayIndex], schedule.blockedMinutesOn(dayIndex));
+                }
+                return null;
+            });
+        }
+        return blockedMinutesPerDay;
+    }
+}
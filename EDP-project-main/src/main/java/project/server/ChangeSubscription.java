@@ -0,0 +1,71 @@
+package project.server;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+
+// the bounded queue of one connection; offer() never blocks, whoever sends the changes polls or takes them
+final class ChangeSubscription {
+
+    private final int capacity;
+    private final Runnable onChangeQueued;
+    private final ArrayDeque<ScheduleChange> queuedChanges = new ArrayDeque<>();
+    private long numberOfMissedChanges;
+
+    ChangeSubscription(int capacity, Runnable onChangeQueued) {
+        this.capacity = capacity;
+        this.onChangeQueued = onChangeQueued;
+    }
+
+    void offer(ScheduleChange change) {
+
+        boolean wasEmpty;
+        synchronized (this) {
+            wasEmpty = queuedChanges.isEmpty();
+            if (queuedChanges.size() >= capacity) {
+                numberOfMissedChanges += queuedChanges.peek() == ScheduleChange.MISSED ? queuedChanges.size() - 1 : queuedChanges.size();
+                queuedChanges.clear();
+                queuedChanges.add(ScheduleChange.MISSED); // the changes after it are queued as usual
+            }
+            queuedChanges.add(change);
+            notifyAll();
+        }
+        if (wasEmpty) {
+            onChangeQueued.run();
+        }
+    }
+
+    // null when nothing is queued
+    synchronized ScheduleChange poll() {
+        return queuedChanges.poll();
+    }
+
+    // null when nothing was queued within the timeout
+    synchronized ScheduleChange poll(long timeoutMillis) throws InterruptedException {
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        while (queuedChanges.isEmpty()) {
+            long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remainingMillis <= 0) {
+                return null;
+            }
+            wait(remainingMillis);
+        }
+        return queuedChanges.poll();
+    }
+
+    synchronized ScheduleChange take() throws InterruptedException {
+
+        while (queuedChanges.isEmpty()) {
+            wait();
+        }
+        return queuedChanges.poll();
+    }
+
+    synchronized int numberOfQueuedChanges() {
+        return queuedChanges.size();
+    }
+
+    synchronized long numberOfMissedChanges() {
+        return numberOfMissedChanges;
+    }
+}
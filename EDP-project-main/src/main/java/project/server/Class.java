@@ -5,10 +5,10 @@ import java.time.LocalTime;
 
 public class Class implements Comparable<Class> {
 
-    private LocalTime startTime;
-    private LocalTime finishTime;
-    private String name;
-    private String room;
+    private final LocalTime startTime;
+    private final LocalTime finishTime;
+    private final String name;
+    private final String room;
 
     public Class(LocalTime startTime, LocalTime finishTime, String name, String room) {
         this.startTime = startTime;
@@ -28,7 +28,12 @@ public class Class implements Comparable<Class> {
 
     @Override
     public String toString() {
-        return "%s: from %s to %s, in %s".formatted(name, startTime, finishTime, room);
+        return describe(name, startTime, finishTime, room);
+    }
+
+    // also used for classes that are read straight from a stored schedule and never become objects
+    static String describe(String name, LocalTime startTime, LocalTime finishTime, String room) {
+        return name + ": from " + startTime + " to " + finishTime + ", in " + room; // plain concatenation, formatted() has to parse its pattern every time
     }
 
     public Duration getDuration() {
@@ -39,6 +44,10 @@ public class Class implements Comparable<Class> {
         return name;
     }
 
+    public String getRoom() {
+        return room;
+    }
+
     public LocalTime getStartTime() {
         return startTime;
     }
@@ -46,12 +55,4 @@ public class Class implements Comparable<Class> {
     public LocalTime getFinishTime() {
         return finishTime;
     }
-
-    public void setStartTime(LocalTime startTime) {
-        this.startTime = startTime;
-    }
-
-    public void setFinishTime(LocalTime finishTime) {
-        this.finishTime = finishTime;
-    }
 }
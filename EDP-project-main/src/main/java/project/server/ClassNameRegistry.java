@@ -0,0 +1,79 @@
+package project.server;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Case-insensitive count of how many classes carry each name, kept up to date on every add and remove.
+// Existence, limit and count queries are O(1) and never look at the classes themselves.
+class ClassNameRegistry {
+
+    private final ConcurrentHashMap<String, Integer> numberOfClassesWithName = new ConcurrentHashMap<>(); // lower-case name -> occurrences, names with no classes are dropped
+    private final AtomicInteger numberOfDistinctNames = new AtomicInteger();
+    private final int maxNumberOfDistinctNames;
+
+    public ClassNameRegistry(int maxNumberOfDistinctNames) {
+        this.maxNumberOfDistinctNames = maxNumberOfDistinctNames;
+    }
+
+    // throws if the name is new and the limit of different names has been reached
+    public void register(String className) {
+        register(className, true);
+    }
+
+    // for classes that were accepted once already (stored, replayed from the journal or put back by an undo)
+    public void registerWithoutLimit(String className) {
+        register(className, false);
+    }
+
+    public void registerWithoutLimit(String className, int numberOfClasses) {
+
+        numberOfClassesWithName.compute(key(className), (name, count) -> {
+            if (count == null) {
+                numberOfDistinctNames.incrementAndGet();
+                return numberOfClasses;
+            }
+            return count + numberOfClasses;
+        });
+    }
+
+    private void register(String className, boolean enforceLimit) {
+
+        numberOfClassesWithName.compute(key(className), (name, count) -> {
+            if (count != null) {
+                return count + 1;
+            }
+            if (numberOfDistinctNames.incrementAndGet() > maxNumberOfDistinctNames && enforceLimit) { // reserve a slot first, so two new names racing for the last one cannot both win
+                numberOfDistinctNames.decrementAndGet();
+                throw new IncorrectActionException("You have reached the limit (" + maxNumberOfDistinctNames + ") of different classes (modules) you can have in your schedule. You cannot add more at the moment.");
+            }
+            return 1;
+        });
+    }
+
+    public void unregister(String className) {
+
+        numberOfClassesWithName.computeIfPresent(key(className), (name, count) -> {
+            if (count > 1) {
+                return count - 1;
+            }
+            numberOfDistinctNames.decrementAndGet();
+            return null; // returning null drops the name
+        });
+    }
+
+    public boolean contains(String className) {
+        return numberOfClassesWithName.containsKey(key(className));
+    }
+
+    public int countOf(String className) {
+        return numberOfClassesWithName.getOrDefault(key(className), 0);
+    }
+
+    public int numberOfDistinctNames() {
+        return numberOfDistinctNames.get();
+    }
+
+    private static String key(String className) {
+        return className.toLowerCase();
+    }
+}
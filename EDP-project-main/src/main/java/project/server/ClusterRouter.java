@@ -0,0 +1,853 @@
+package project.server;
+
+import java.io.*;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalTime;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+// IMPLEMENTATION OF A CLUSTER OF SERVERS SHARING THE SCHEDULES
+// Several Server processes (each with a storage directory of its own) hold a share of the schedules each, and this router,
+// which clients connect to instead, speaks the text protocol and forwards every request to the server that owns the
+// selected schedule. It talks to the servers on their administration ports (server.adminPort), the only ones that take
+// the requests moving schedules between servers. The owner is found on a HashRing by the schedule's name up to its first '.': 'physics.year1'
+// and 'physics.year2' live on the same server, so their rooms are checked against each other, while rooms of schedules on
+// different servers are not. Requests about every schedule (Early Mornings For All Schedules, Is Room Free, Free Rooms and
+// Find Free Slot For All Schedules) are asked of every server and their answers combined.
+// When a server joins or leaves ('Add Server', 'Remove Server'), the schedules whose owner changes are moved one by one:
+// the requests for a schedule wait while it moves (a lock per group of names), the others go on. A moved schedule is
+// exported from its old server and imported into the new one at the same version, and dropped from the old one at the end.
+// Binary clients are not routed; they connect to a server directly.
+public class ClusterRouter {
+
+    static final String PUSH_PREFIX = "UPDATE ";
+    private static final int NUMBER_OF_TENANT_LOCKS = 64;
+    private static final int MAX_SCHEDULES_DROPPED_PER_MESSAGE = 256; // names of up to 128 characters, well below a message's limit
+    private static final int BASE64_CHARACTERS_PER_IMPORT_PART = 48 * 1024; // whole 4-character groups, below the 64 KiB a server reads per message
+
+    private final int port;
+    private volatile HashRing ring;
+    // schedules that are not on the server the ring gives them: moved during a rebalance, or left behind by a move that failed
+    private final Map<String, String> placedOffTheRing = new ConcurrentHashMap<>();
+    private volatile Set<String> nodesInUse; // the ring's and those above, every server a request about every schedule asks
+    private final ReentrantReadWriteLock[] tenantLocks = new ReentrantReadWriteLock[NUMBER_OF_TENANT_LOCKS];
+    private final Set<RouterSession> sessions = ConcurrentHashMap.newKeySet();
+    private final Map<String, NodeConnection> rebalancingConnections = new HashMap<>(); // used only while holding the monitor of the router
+
+    ClusterRouter(int port, HashRing ring) {
+        this.port = port;
+        this.ring = ring;
+        this.nodesInUse = Collections.unmodifiableSet(new LinkedHashSet<>(ring.nodes()));
+        for (int i = 0; i < NUMBER_OF_TENANT_LOCKS; i++) {
+            tenantLocks[i] = new ReentrantReadWriteLock();
+        }
+    }
+
+    void launch() {
+
+        try (ServerSocket serverSocket = new ServerSocket(port)) {
+            while (true) {
+                RouterSession session = new RouterSession(serverSocket.accept(), this);
+                sessions.add(session);
+                new Thread(session, "router-session").start();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // the names a server is found by, up to the first '.', so a group of schedules never spreads over several servers
+    static String shardKeyOf(String tenantId) {
+
+        int firstDot = tenantId.indexOf('.');
+        return firstDot < 0 ? tenantId : tenantId.substring(0, firstDot);
+    }
+
+    String ownerOf(String tenantId) {
+
+        String node = placedOffTheRing.get(tenantId);
+        return node != null ? node : ring.nodeFor(shardKeyOf(tenantId));
+    }
+
+    Set<String> nodesInUse() {
+        return nodesInUse;
+    }
+
+    // held for reading while a request for the schedule is forwarded, for writing while the schedule moves
+    ReentrantReadWriteLock lockOf(String tenantId) {
+        return tenantLocks[Math.floorMod(shardKeyOf(tenantId).hashCode(), NUMBER_OF_TENANT_LOCKS)];
+    }
+
+    // always in the same order, so two threads locking every schedule never wait for each other
+    List<Lock> lockEverySchedule(boolean forWriting) {
+
+        List<Lock> locks = new ArrayList<>(NUMBER_OF_TENANT_LOCKS);
+        for (ReentrantReadWriteLock tenantLock : tenantLocks) {
+            Lock lock = forWriting ? tenantLock.writeLock() : tenantLock.readLock();
+            lock.lock();
+            locks.add(lock);
+        }
+        return locks;
+    }
+
+    static void unlock(List<Lock> locks) {
+        for (int i = locks.size() - 1; i >= 0; i--) {
+            locks.get(i).unlock();
+        }
+    }
+
+    void sessionClosed(RouterSession session) {
+        sessions.remove(session);
+    }
+
+    synchronized String addNode(String node) {
+
+        if (ring.nodes().contains(node)) {
+            throw new IncorrectActionException("The server " + node + " is already in the cluster.");
+        }
+        try {
+            rebalancingConnectionTo(node);
+        } catch (IOException e) {
+            throw new IncorrectActionException(e.getMessage() + " Please start it before adding it to the cluster.");
+        }
+        return rebalance(ring.with(node));
+    }
+
+    synchronized String removeNode(String node) {
+
+        if (!ring.nodes().contains(node)) {
+            throw new IncorrectActionException("The server " + node + " is not in the cluster.");
+        }
+        if (ring.nodes().size() == 1) {
+            throw new IncorrectActionException("The last server of the cluster cannot be removed.");
+        }
+        return rebalance(ring.without(node));
+    }
+
+    // Moves every schedule that is not on the server the new ring gives it, then switches to the new ring. The schedules are
+    // moved one at a time while requests for the others go on; the ones created on their old servers meanwhile are moved
+    // with every request waiting, just before the switch. Also run when the router starts, for schedules that a cluster started
+    // with other servers left behind; a server no longer listed in router.nodes is not looked at, 'Remove Server' empties it.
+    synchronized String rebalance(HashRing newRing) {
+
+        Set<String> nodesToLookAt = new LinkedHashSet<>(ring.nodes());
+        nodesToLookAt.addAll(newRing.nodes());
+        nodesToLookAt.addAll(placedOffTheRing.values());
+        nodesInUse = Collections.unmodifiableSet(new LinkedHashSet<>(nodesToLookAt)); // a schedule may be on any of them until the end
+        Rebalancing rebalancing = new Rebalancing();
+        moveMisplacedSchedules(nodesToLookAt, newRing, rebalancing);
+        List<Lock> locks = lockEverySchedule(true);
+        try {
+            moveMisplacedSchedules(nodesToLookAt, newRing, rebalancing);
+            ring = newRing;
+            placedOffTheRing.entrySet().removeIf(placement -> placement.getValue().equals(newRing.nodeFor(shardKeyOf(placement.getKey()))));
+        } finally {
+            unlock(locks);
+        }
+        rebalancing.dropMovedSchedules();
+
+        Set<String> nodesStillInUse = new LinkedHashSet<>(newRing.nodes());
+        nodesStillInUse.addAll(placedOffTheRing.values());
+        nodesInUse = Collections.unmodifiableSet(nodesStillInUse);
+        for (String node : nodesToLookAt) {
+            if (!nodesStillInUse.contains(node)) {
+                Optional.ofNullable(rebalancingConnections.remove(node)).ifPresent(NodeConnection::close);
+                sessions.forEach(session -> session.forgetNode(node));
+            }
+        }
+        String message = "The cluster has " + newRing.nodes().size() + " servers: " + String.join(", ", newRing.nodes()) + ". " + rebalancing;
+        ServerLog.info(message);
+        return message;
+    }
+
+    private void moveMisplacedSchedules(Set<String> nodesToLookAt, HashRing newRing, Rebalancing rebalancing) {
+
+        for (String node : nodesToLookAt) {
+            List<String> tenantIds;
+            try {
+                tenantIds = schedulesOn(rebalancingConnectionTo(node));
+            } catch (IOException | IncorrectActionException e) {
+                ServerLog.warn("The schedules on " + node + " stay where they are: " + e.getMessage());
+                rebalancing.numberOfServersNotReached++;
+                continue;
+            }
+            for (String tenantId : tenantIds) {
+                String newOwner = newRing.nodeFor(shardKeyOf(tenantId));
+                if (!newOwner.equals(node) && !rebalancing.isMovedAway(tenantId, node)) {
+                    moveSchedule(tenantId, node, newOwner, rebalancing);
+                }
+            }
+        }
+    }
+
+    private void moveSchedule(String tenantId, String from, String to, Rebalancing rebalancing) {
+
+        Lock lock = lockOf(tenantId).writeLock();
+        lock.lock();
+        try {
+            NodeConnection source = rebalancingConnectionTo(from);
+            NodeConnection target = rebalancingConnectionTo(to);
+            long sourceVersion = versionOf(tenantId, source);
+            long targetVersion = versionOf(tenantId, target);
+            if (targetVersion > 0 && targetVersion < sourceVersion) {
+                throw new IncorrectActionException("it has been changed on " + to + " as well, at version " + targetVersion + ".");
+            }
+            if (targetVersion == 0) { // otherwise a copy left behind by a move that did not finish, the one on the new server is the newer
+                String export = answerOf(source.request("Export Schedule"));
+                String base64 = export.substring(export.lastIndexOf(' ') + 1);
+                for (int start = 0; start < base64.length(); start += BASE64_CHARACTERS_PER_IMPORT_PART) {
+                    answerOf(target.request("Import Schedule Part," + base64.substring(start, Math.min(base64.length(), start + BASE64_CHARACTERS_PER_IMPORT_PART))));
+                }
+                answerOf(target.request("Import Schedule"));
+            }
+            placedOffTheRing.put(tenantId, to);
+            rebalancing.moved(tenantId, from);
+            sessions.forEach(session -> session.followMovedSchedule(tenantId, to));
+        } catch (IOException | IncorrectActionException e) {
+            ServerLog.warn("The schedule '" + tenantId + "' stays on " + from + ", it could not be moved to " + to + ": " + e.getMessage());
+            placedOffTheRing.put(tenantId, from);
+            rebalancing.numberOfSchedulesNotMoved++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static List<String> schedulesOn(NodeConnection connection) throws IOException {
+
+        String[] lines = answerOf(connection.request("Schedules")).split("\n");
+        return Arrays.asList(lines).subList(1, lines.length); // the first line counts them
+    }
+
+    private static long versionOf(String tenantId, NodeConnection connection) throws IOException {
+
+        answerOf(connection.request("Select Schedule," + tenantId));
+        String answer = answerOf(connection.request("Version")); // "The schedule '...' is at version N."
+        return Long.parseLong(answer.substring(answer.lastIndexOf(' ') + 1, answer.length() - 1));
+    }
+
+    // the answer of a server, or what went wrong as an IncorrectActionException
+    static String answerOf(String answer) {
+
+        if (answer.startsWith(RouterSession.ERROR_PREFIX)) {
+            throw new IncorrectActionException(answer.substring(RouterSession.ERROR_PREFIX.length()));
+        }
+        return answer;
+    }
+
+    private NodeConnection rebalancingConnectionTo(String node) throws IOException {
+
+        NodeConnection connection = rebalancingConnections.get(node);
+        if (connection == null || connection.isClosed()) {
+            connection = new NodeConnection(node, null);
+            rebalancingConnections.put(node, connection);
+        }
+        return connection;
+    }
+
+    // "host:port", as servers are listed in router.nodes and named in answers
+    static String nodeOf(String host, String port) {
+
+        int portNumber;
+        try {
+            portNumber = Integer.parseInt(port.trim());
+        } catch (NumberFormatException e) {
+            portNumber = -1;
+        }
+        if (host.isBlank() || portNumber < 1 || portNumber > 65535) {
+            throw new IncorrectActionException("A server is given by its host and a port from 1 to 65535.");
+        }
+        return host.trim() + ":" + portNumber;
+    }
+
+    public static void main(String[] args) {
+        int port = Integer.getInteger("router.port", Server.DEFAULT_PORT);
+        String nodes = System.getProperty("router.nodes", ""); // administration ports, e.g. localhost:1335,localhost:1336,localhost:1337
+        int virtualNodesPerServer = Integer.getInteger("router.virtualNodesPerServer", HashRing.DEFAULT_VIRTUAL_NODES_PER_NODE);
+        ServerLog.setLevel(ServerLog.Level.valueOf(System.getProperty("router.logLevel", ServerLog.Level.INFO.name()).toUpperCase()));
+
+        List<String> nodeList = new ArrayList<>();
+        for (String node : nodes.split(",")) {
+            if (!node.isBlank()) {
+                int lastColon = node.lastIndexOf(':');
+                nodeList.add(nodeOf(node.substring(0, Math.max(lastColon, 0)), node.substring(lastColon + 1)));
+            }
+        }
+        if (nodeList.isEmpty()) {
+            throw new IllegalArgumentException("Please list the servers of the cluster, e.g. -Drouter.nodes=localhost:1335,localhost:1336 (their administration ports)");
+        }
+        HashRing ring = new HashRing(nodeList, virtualNodesPerServer);
+        ClusterRouter router = new ClusterRouter(port, ring);
+        router.rebalance(ring);
+        ServerLog.info("The router is listening on port " + port + "...");
+        ServerLog.info("Schedules are shared by " + nodeList.size() + " servers, " + virtualNodesPerServer + " points each on the ring.");
+        router.launch();
+    }
+
+    // what a rebalance did; the schedules moved away from a server are dropped from it at the end, a message per few hundred of them
+    private final class Rebalancing {
+
+        private final Map<String, Set<String>> schedulesMovedAwayFrom = new LinkedHashMap<>();
+        private int numberOfSchedulesMoved;
+        private int numberOfSchedulesNotMoved;
+        private int numberOfServersNotReached;
+
+        void moved(String tenantId, String from) {
+            schedulesMovedAwayFrom.computeIfAbsent(from, node -> new LinkedHashSet<>()).add(tenantId);
+            numberOfSchedulesMoved++;
+        }
+
+        boolean isMovedAway(String tenantId, String from) {
+            return schedulesMovedAwayFrom.getOrDefault(from, Set.of()).contains(tenantId);
+        }
+
+        void dropMovedSchedules() {
+
+            schedulesMovedAwayFrom.forEach((node, tenantIds) -> {
+                List<String> tenantIdsToDrop = new ArrayList<>(tenantIds);
+                for (int start = 0; start < tenantIdsToDrop.size(); start += MAX_SCHEDULES_DROPPED_PER_MESSAGE) {
+                    List<String> part = tenantIdsToDrop.subList(start, Math.min(tenantIdsToDrop.size(), start + MAX_SCHEDULES_DROPPED_PER_MESSAGE));
+                    try {
+                        answerOf(rebalancingConnectionTo(node).request("Drop Schedules," + String.join(",", part)));
+                    } catch (IOException | IncorrectActionException e) { // harmless, the router no longer sends their requests there
+                        ServerLog.warn("Old copies of " + part.size() + " moved schedules are left on " + node + ": " + e.getMessage());
+                    }
+                }
+            });
+        }
+
+        @Override
+        public String toString() {
+            return numberOfSchedulesMoved + " schedules were moved" + (numberOfSchedulesNotMoved == 0 ? "" : ", " + numberOfSchedulesNotMoved + " could not be and stay where they were")
+                    + (numberOfServersNotReached == 0 ? "" : ", " + numberOfServersNotReached + " servers could not be reached") + ".";
+        }
+    }
+}
+
+// one client of the router; its requests go to the servers through connections of its own, opened when first needed
+class RouterSession implements Runnable {
+
+    static final String ERROR_PREFIX = "ERROR MESSAGE: ";
+    private static final Set<String> ACTIONS_FOR_SERVERS_ONLY = Set.of("Schedules", "Export Schedule", "Import Schedule", "Import Schedule Part", "Drop Schedules");
+
+    private final Socket clientSocket;
+    private final ClusterRouter router;
+    private final BufferedInputStream in;
+    private final BufferedOutputStream out; // written by the session's thread and by the threads relaying pushes, always under its monitor
+    private final Map<String, NodeConnection> nodeConnections = new ConcurrentHashMap<>();
+    private volatile String tenantId = ScheduleRegistry.DEFAULT_TENANT_ID;
+    private volatile boolean subscribed;
+
+    RouterSession(Socket clientSocket, ClusterRouter router) throws IOException {
+        this.clientSocket = clientSocket;
+        this.router = router;
+        in = new BufferedInputStream(clientSocket.getInputStream());
+        out = new BufferedOutputStream(clientSocket.getOutputStream());
+    }
+
+    @Override
+    public void run() {
+
+        try {
+            in.mark(1);
+            if (in.read() == Byte.toUnsignedInt(BinaryProtocol.MAGIC_BYTE)) {
+                ServerLog.warn("A binary client at " + clientSocket.getRemoteSocketAddress() + " was turned away, the router speaks the text protocol only.");
+                return;
+            }
+            in.reset();
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+            while (true) {
+                String messageFromClient = reader.readLine();
+                if (messageFromClient == null || messageFromClient.equals("DISCONNECT")) {
+                    return;
+                }
+                String messageToSendToClient;
+                int numberOfBatchLines = RequestProcessor.numberOfBatchLinesAnnouncedBy(messageFromClient);
+                if (numberOfBatchLines > 0) { // the whole batch is forwarded at once, so a schedule never moves half-way through it
+                    List<String> batch = new ArrayList<>(numberOfBatchLines + 1);
+                    batch.add(messageFromClient);
+                    for (int i = 0; i < numberOfBatchLines; i++) {
+                        String line = reader.readLine();
+                        if (line == null || line.equals("DISCONNECT")) {
+                            return;
+                        }
+                        batch.add(line);
+                    }
+                    messageToSendToClient = forwardToOwner(batch);
+                } else {
+                    messageToSendToClient = process(messageFromClient);
+                }
+                synchronized (out) {
+                    out.write(EncodedMessage.of(messageToSendToClient).toTextFrame().array());
+                    if (!reader.ready()) {
+                        out.flush();
+                    }
+                }
+            }
+        } catch (IOException e) { // the client is gone
+        } finally {
+            router.sessionClosed(this);
+            nodeConnections.values().forEach(NodeConnection::close);
+            try {
+                clientSocket.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    private String process(String messageFromClient) {
+
+        try {
+            if (messageFromClient.equals("Servers")) {
+                return servers();
+            }
+            if (messageFromClient.equals("Subscribe")) {
+                return subscribe();
+            }
+            if (messageFromClient.equals("Unsubscribe")) {
+                return unsubscribe();
+            }
+            if (messageFromClient.equals("Early Mornings For All Schedules")) {
+                return performEarlyMorningsEverywhere(messageFromClient);
+            }
+            String[] arguments = messageFromClient.split(",");
+            String actionToPerform = arguments.length == 0 ? "" : arguments[0];
+            if (ACTIONS_FOR_SERVERS_ONLY.contains(messageFromClient) || ACTIONS_FOR_SERVERS_ONLY.contains(actionToPerform)) {
+                throw new IncorrectActionException("'" + actionToPerform + "' is sent by the router to the servers of the cluster, not by its clients.");
+            }
+            switch (actionToPerform) {
+                case "Add Server", "Remove Server" -> { // host, port
+                    if (arguments.length != 3) {
+                        throw new IncorrectActionException("Please write it as '" + actionToPerform + ",<host>,<port>'.");
+                    }
+                    String node = ClusterRouter.nodeOf(arguments[1], arguments[2]);
+                    return actionToPerform.equals("Add Server") ? router.addNode(node) : router.removeNode(node);
+                }
+                case "Select Schedule" -> {
+                    return arguments.length == 2 ? selectSchedule(messageFromClient, arguments[1]) : forwardToOwner(List.of(messageFromClient));
+                }
+                case "Is Room Free" -> {
+                    return isRoomFreeEverywhere(messageFromClient);
+                }
+                case "Free Rooms" -> {
+                    return freeRoomsEverywhere(messageFromClient, arguments);
+                }
+                case "Find Free Slot For All Schedules" -> {
+                    return findFreeSlotEverywhere(messageFromClient, arguments);
+                }
+                default -> {
+                    return forwardToOwner(List.of(messageFromClient));
+                }
+            }
+        } catch (IncorrectActionException iae) {
+            return ERROR_PREFIX + iae.getMessage();
+        } catch (IOException e) { // the client stays connected, the next request opens a new connection to the server
+            return ERROR_PREFIX + e.getMessage() + " Please try again.";
+        }
+    }
+
+    // the lines go to the server of the selected schedule, which answers the last one
+    private String forwardToOwner(List<String> lines) throws IOException {
+
+        Lock lock = router.lockOf(tenantId).readLock();
+        lock.lock();
+        try {
+            NodeConnection connection = connectionTo(router.ownerOf(tenantId));
+            boolean newlySubscribed;
+            String answer;
+            synchronized (connection) {
+                newlySubscribed = prepare(connection);
+                answer = connection.request(lines);
+            }
+            if (newlySubscribed) {
+                unsubscribeOthers(connection);
+            }
+            return answer;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private String selectSchedule(String messageFromClient, String tenantIdToSelect) throws IOException {
+
+        Lock lock = router.lockOf(tenantIdToSelect).readLock();
+        lock.lock();
+        try {
+            NodeConnection connection = connectionTo(router.ownerOf(tenantIdToSelect));
+            String answer;
+            boolean newlySubscribed = false;
+            synchronized (connection) {
+                answer = connection.request(List.of(messageFromClient)); // the server checks the name; a subscription there follows it
+                if (!answer.startsWith(ERROR_PREFIX)) {
+                    connection.selectedTenantId = tenantIdToSelect;
+                    tenantId = tenantIdToSelect;
+                    newlySubscribed = prepare(connection);
+                }
+            }
+            if (newlySubscribed) {
+                unsubscribeOthers(connection);
+            }
+            return answer;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private String subscribe() throws IOException {
+
+        subscribed = true;
+        try {
+            return forwardToOwner(List.of("Subscribe")); // the owner is subscribed before, the answer is the same
+        } catch (IOException e) {
+            subscribed = false;
+            throw e;
+        }
+    }
+
+    private String unsubscribe() throws IOException {
+
+        subscribed = false;
+        String answer = forwardToOwner(List.of("Unsubscribe"));
+        unsubscribeOthers(null);
+        return answer;
+    }
+
+    // the server is made to work with the selected schedule, and to push its changes if the client subscribed; holds its monitor
+    // returns true when it was subscribed here, the client's other servers must not push any more then
+    private boolean prepare(NodeConnection connection) throws IOException {
+
+        if (!tenantId.equals(connection.selectedTenantId)) {
+            ClusterRouter.answerOf(connection.request("Select Schedule," + tenantId));
+            connection.selectedTenantId = tenantId;
+        }
+        if (subscribed != connection.subscribed) {
+            ClusterRouter.answerOf(connection.request(subscribed ? "Subscribe" : "Unsubscribe"));
+            connection.subscribed = subscribed;
+            return subscribed;
+        }
+        return false;
+    }
+
+    private void unsubscribeOthers(NodeConnection connectionToKeep) throws IOException {
+
+        for (NodeConnection connection : nodeConnections.values()) {
+            if (connection != connectionToKeep) {
+                synchronized (connection) {
+                    if (connection.subscribed) {
+                        connection.request("Unsubscribe");
+                        connection.subscribed = false;
+                    }
+                }
+            }
+        }
+    }
+
+    // called by the router, holding the schedule's lock for writing, once the schedule is on its new server
+    void followMovedSchedule(String movedTenantId, String node) {
+
+        if (!subscribed || !movedTenantId.equals(tenantId)) {
+            return;
+        }
+        try {
+            NodeConnection connection = connectionTo(node);
+            synchronized (connection) {
+                prepare(connection);
+            }
+            unsubscribeOthers(connection);
+        } catch (IOException | IncorrectActionException e) {
+            ServerLog.warn("A client subscribed to '" + movedTenantId + "' is no longer pushed its changes: " + e.getMessage());
+        }
+    }
+
+    // the server has left the cluster
+    void forgetNode(String node) {
+        Optional.ofNullable(nodeConnections.remove(node)).ifPresent(NodeConnection::close);
+    }
+
+    private NodeConnection connectionTo(String node) throws IOException {
+
+        NodeConnection connection = nodeConnections.get(node);
+        if (connection != null && !connection.isClosed()) {
+            return connection;
+        }
+        synchronized (nodeConnections) {
+            connection = nodeConnections.get(node);
+            if (connection == null || connection.isClosed()) {
+                connection = new NodeConnection(node, this::push);
+                nodeConnections.put(node, connection);
+            }
+            return connection;
+        }
+    }
+
+    private void push(String update) {
+
+        try {
+            synchronized (out) {
+                out.write(EncodedMessage.of(update).toTextFrame().array());
+                out.flush();
+            }
+        } catch (IOException e) { // the client is gone, its session ends on its own
+        }
+    }
+
+    // the same request to every server, in the order of the ring; every schedule is held in place meanwhile
+    private Map<String, String> askEveryServer(List<String> messages) throws IOException {
+
+        List<Lock> locks = router.lockEverySchedule(false);
+        try {
+            Map<String, String> answers = new LinkedHashMap<>();
+            for (String node : router.nodesInUse()) {
+                for (String message : messages) {
+                    answers.put(node + "\n" + message, askServer(node, message));
+                }
+            }
+            return answers;
+        } finally {
+            ClusterRouter.unlock(locks);
+        }
+    }
+
+    private String askServer(String node, String message) throws IOException {
+
+        NodeConnection connection = connectionTo(node);
+        synchronized (connection) {
+            return connection.request(message);
+        }
+    }
+
+    private static String firstError(Collection<String> answers) {
+        return answers.stream().filter(answer -> answer.startsWith(ERROR_PREFIX)).findFirst().orElse(null);
+    }
+
+    private String servers() throws IOException {
+
+        Map<String, String> answers = askEveryServer(List.of("Schedules"));
+        StringBuilder message = new StringBuilder("The cluster has " + answers.size() + " servers:");
+        answers.forEach((request, answer) -> {
+            String node = request.substring(0, request.indexOf('\n'));
+            message.append("\n").append(node).append(": ")
+                    .append(answer.startsWith(ERROR_PREFIX) ? answer : answer.split("\n")[0].substring(answer.indexOf(": ") + 2) + " schedules");
+        });
+        return message.toString();
+    }
+
+    private String performEarlyMorningsEverywhere(String messageFromClient) throws IOException {
+
+        Map<String, String> answers = askEveryServer(List.of(messageFromClient));
+        String error = firstError(answers.values());
+        if (error != null) {
+            return error;
+        }
+        StringBuilder message = new StringBuilder("The 'Early Mornings' request has been processed on every server:");
+        answers.forEach((request, answer) -> message.append("\n").append(request, 0, request.indexOf('\n')).append(": ").append(answer));
+        return message.toString();
+    }
+
+    // a room is free if no server has it taken
+    private String isRoomFreeEverywhere(String messageFromClient) throws IOException {
+
+        Collection<String> answers = askEveryServer(List.of(messageFromClient)).values();
+        String error = firstError(answers);
+        if (error != null) {
+            return error;
+        }
+        return answers.stream().filter(answer -> answer.contains(" is taken on ")).findFirst().orElse(answers.iterator().next());
+    }
+
+    // the rooms free on some server that no other server has taken; a server that does not know a room has not taken it
+    private String freeRoomsEverywhere(String messageFromClient, String[] arguments) throws IOException {
+
+        List<Lock> locks = router.lockEverySchedule(false);
+        try {
+            Map<String, String> answers = askEveryServer(List.of(messageFromClient));
+            String error = firstError(answers.values());
+            if (error != null || answers.size() == 1) {
+                return error != null ? error : answers.values().iterator().next();
+            }
+            Map<String, Set<String>> freeRoomsPerNode = new LinkedHashMap<>();
+            Set<String> candidateRooms = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+            answers.forEach((request, answer) -> {
+                Set<String> freeRooms = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+                if (answer.startsWith("Free rooms on ")) { // "Free rooms on <day> from <time> to <time>: A, B."
+                    freeRooms.addAll(Arrays.asList(answer.substring(answer.indexOf(": ") + 2, answer.length() - 1).split(", ")));
+                }
+                freeRoomsPerNode.put(request.substring(0, request.indexOf('\n')), freeRooms);
+                candidateRooms.addAll(freeRooms);
+            });
+            List<String> freeRooms = new ArrayList<>();
+            for (String room : candidateRooms) {
+                boolean free = true;
+                for (Map.Entry<String, Set<String>> node : freeRoomsPerNode.entrySet()) {
+                    if (free && !node.getValue().contains(room)) {
+                        free = !askServer(node.getKey(), String.join(",", "Is Room Free", arguments[1], arguments[2], arguments[3], arguments[4], arguments[5], room)).contains(" is taken on ");
+                    }
+                }
+                if (free) {
+                    freeRooms.add(room);
+                }
+            }
+            String slot = arguments[1] + " from " + LocalTime.of(Integer.parseInt(arguments[2]), Integer.parseInt(arguments[3]))
+                    + " to " + LocalTime.of(Integer.parseInt(arguments[4]), Integer.parseInt(arguments[5]));
+            return freeRooms.isEmpty() ? "No known room is free on " + slot + "." : "Free rooms on " + slot + ": " + String.join(", ", freeRooms) + ".";
+        } finally {
+            ClusterRouter.unlock(locks);
+        }
+    }
+
+    // Per day, the earliest start that every server finds free in all of its schedules: a server that answers a later start
+    // than the others moves the search on to it, until they all answer the same one. Starts only grow, so this ends.
+    private String findFreeSlotEverywhere(String messageFromClient, String[] arguments) throws IOException {
+
+        List<Lock> locks = router.lockEverySchedule(false);
+        try {
+            Map<String, String> answers = askEveryServer(List.of(messageFromClient)); // checks the query too
+            String error = firstError(answers.values());
+            if (error != null || answers.size() == 1) {
+                return error != null ? error : answers.values().iterator().next();
+            }
+            List<String> nodes = new ArrayList<>(router.nodesInUse());
+            int durationInMinutes = Integer.parseInt(arguments[1]);
+            LocalTime earliestStartTime = LocalTime.of(Integer.parseInt(arguments[4]), Integer.parseInt(arguments[5]));
+            LocalTime latestFinishTime = LocalTime.of(Integer.parseInt(arguments[6]), Integer.parseInt(arguments[7]));
+            String room = arguments.length == 9 ? arguments[8] : null;
+            List<String> freeSlots = new ArrayList<>();
+            for (int dayIndex = Schedule.DAYS_OF_WEEK.indexOf(arguments[2]); dayIndex <= Schedule.DAYS_OF_WEEK.indexOf(arguments[3]); dayIndex++) {
+                String dayOfWeek = Schedule.DAYS_OF_WEEK.get(dayIndex);
+                LocalTime startTime = earliestStartTime;
+                int numberOfServersAgreeing = 0;
+                for (int i = 0; startTime != null && numberOfServersAgreeing < nodes.size(); i++) {
+                    String answer = ClusterRouter.answerOf(askServer(nodes.get(i % nodes.size()), String.join(",", "Find Free Slot For All Schedules", arguments[1],
+                            dayOfWeek, dayOfWeek, String.valueOf(startTime.getHour()), String.valueOf(startTime.getMinute()), arguments[6], arguments[7])
+                            + (room == null ? "" : "," + room)));
+                    LocalTime slotStartTime = answer.startsWith("There is no free slot") ? null : LocalTime.parse(answer.substring(answer.indexOf(" from ") + 6, answer.indexOf(" to ")));
+                    numberOfServersAgreeing = startTime.equals(slotStartTime) ? numberOfServersAgreeing + 1 : 1;
+                    startTime = slotStartTime;
+                }
+                if (startTime != null) {
+                    freeSlots.add(dayOfWeek + " from " + startTime + " to " + startTime.plusMinutes(durationInMinutes));
+                }
+            }
+            String slotDescription = durationInMinutes + " minutes" + (room == null ? "" : " in " + room);
+            if (freeSlots.isEmpty()) {
+                return "There is no free slot of " + slotDescription + " from " + arguments[2] + " to " + arguments[3] + " between " + earliestStartTime + " and " + latestFinishTime + ".";
+            }
+            return "Free slots in every schedule of " + slotDescription + ": " + String.join(", ", freeSlots) + ".";
+        } finally {
+            ClusterRouter.unlock(locks);
+        }
+    }
+}
+
+// a connection from the router to one server; a thread reads what the server sends, answers are queued for the
+// request waiting for them and pushes are passed on to the client at once
+final class NodeConnection implements Closeable {
+
+    private static final String CONNECTION_CLOSED = new String("the connection is closed"); // compared by identity, no answer is this object
+
+    final String node;
+    private final Socket socket;
+    private final Writer out;
+    private final BlockingQueue<String> answers = new LinkedBlockingQueue<>();
+    // as far as the router knows; like every request, read and changed under the monitor of the connection
+    String selectedTenantId = ScheduleRegistry.DEFAULT_TENANT_ID;
+    boolean subscribed;
+
+    // without a push listener the connection never subscribes, like those that move schedules
+    NodeConnection(String node, Consumer<String> pushListener) throws IOException {
+
+        this.node = node;
+        int lastColon = node.lastIndexOf(':');
+        try {
+            socket = new Socket(node.substring(0, lastColon), Integer.parseInt(node.substring(lastColon + 1)));
+        } catch (IOException e) {
+            throw new IOException("The server " + node + " cannot be reached.", e);
+        }
+        socket.setTcpNoDelay(true);
+        out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+        BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        Thread reader = new Thread(() -> readMessages(in, pushListener), "router-to-" + node);
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    // the lines are sent together and the server answers the last one only, the others being the lines of a batch
+    String request(List<String> lines) throws IOException {
+
+        try {
+            for (String line : lines) {
+                out.write(line);
+                out.write('\n');
+            }
+            out.flush();
+        } catch (IOException e) {
+            close();
+            throw new IOException("The server " + node + " cannot be reached.", e);
+        }
+        String answer;
+        try {
+            answer = answers.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+        if (answer == CONNECTION_CLOSED) {
+            answers.add(CONNECTION_CLOSED); // for a request that comes after
+            throw new IOException("The server " + node + " closed the connection.");
+        }
+        return answer;
+    }
+
+    String request(String line) throws IOException {
+        return request(List.of(line));
+    }
+
+    boolean isClosed() {
+        return socket.isClosed();
+    }
+
+    @Override
+    public void close() {
+        try {
+            socket.close();
+        } catch (IOException e) { // closed either way
+        }
+    }
+
+    // the text protocol's framing: the length in chars on its own line, then the message and a line break
+    private void readMessages(BufferedReader in, Consumer<String> pushListener) {
+
+        try {
+            String lengthLine;
+            while ((lengthLine = in.readLine()) != null) {
+                char[] message = new char[Integer.parseInt(lengthLine.trim())];
+                int numberOfCharsRead = 0;
+                while (numberOfCharsRead < message.length) {
+                    int read = in.read(message, numberOfCharsRead, message.length - numberOfCharsRead);
+                    if (read < 0) {
+                        return;
+                    }
+                    numberOfCharsRead += read;
+                }
+                in.read(); // the line break after the message
+                String messageFromServer = new String(message);
+                if (!messageFromServer.startsWith(ClusterRouter.PUSH_PREFIX)) {
+                    answers.add(messageFromServer);
+                } else if (pushListener != null) {
+                    pushListener.accept(messageFromServer);
+                }
+            }
+        } catch (IOException | NumberFormatException e) { // the server went away, or sent something that is not a message
+        } finally {
+            answers.add(CONNECTION_CLOSED);
+            close();
+        }
+    }
+}
@@ -0,0 +1,327 @@
+package project.server;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.*;
+
+// IMPLEMENTATION OF THE STORED SCHEDULE FORMAT
+// Fixed-size records and an interned string table, so a stored schedule can be mapped into memory with
+// FileChannel.map() and read where it is: nothing is decoded until a query needs it, and nothing at all is put on the heap per class.
+//
+//   header (56 bytes): magic, format version, schedule version, number of classes, offset of the string table,
+//                      offset of the name counts, offset of the recurring classes (0 if there are none, as in files written
+//                      before there were any), index of the first record of each day (6 ints, the last one is the total)
+//   records (12 bytes each, sorted by day and start time): day, reserved, start minute, finish minute, name id, room id
+//   string table: number of strings, offset of each string, then the strings (unsigned short length and UTF-8 bytes)
+//   name counts: number of names, then the id of each name and how many classes carry it
+//   recurring classes: length of the section, number of series, then each series as RecurringSeries.writeTo() writes it,
+//                      the number of its cancelled dates and their epoch days (a long each); read once, when the schedule is loaded
+final class CompactScheduleFile {
+
+    private static final int MAGIC = 0x45445053; // "EDPS"
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_LENGTH = 56;
+    private static final int RECORD_LENGTH = 12;
+    private static final int RECURRING_SERIES_OFFSET = 28;
+    private static final int FIRST_RECORD_OF_DAY_OFFSET = 32;
+    static final int MAX_LENGTH = 16 * 1024 * 1024; // of a schedule sent by another server; far more than a week of classes takes
+    private static final int MAX_NUMBER_OF_CLASSES = Schedule.DAYS_OF_WEEK.size() * 24 * 60; // classes do not overlap and last a minute at least
+
+    private final ByteBuffer buffer; // may be a MappedByteBuffer; only absolute reads are used, so it is never modified
+    private final String[] decodedStrings; // filled in on first use
+
+    CompactScheduleFile(ByteBuffer buffer) throws IOException {
+        if (buffer.remaining() < HEADER_LENGTH || buffer.getInt(0) != MAGIC || buffer.getInt(4) != FORMAT_VERSION) {
+            throw new IOException("This is not a schedule stored by this version of the server.");
+        }
+        int stringTableOffset = buffer.getInt(20);
+        if (stringTableOffset < HEADER_LENGTH || stringTableOffset > buffer.limit() - 4) {
+            throw new IOException("The string table of the stored schedule is outside of it.");
+        }
+        int numberOfStrings = buffer.getInt(stringTableOffset);
+        if (numberOfStrings < 0 || numberOfStrings > (buffer.limit() - stringTableOffset - 4) / 4) {
+            throw new IOException("The stored schedule does not have room for its " + numberOfStrings + " strings.");
+        }
+        this.buffer = buffer;
+        decodedStrings = new String[numberOfStrings];
+    }
+
+    // Files written by this server are trusted as they are read, but a schedule sent by another one (Import Schedule, a
+    // replica's snapshot) is checked as a whole first: every count and offset a query may follow has to stay inside the file.
+    void checkStructure() throws IOException {
+
+        int limit = buffer.limit();
+        if (limit > MAX_LENGTH) {
+            throw new IOException("A stored schedule is at most " + MAX_LENGTH + " bytes long.");
+        }
+        int numberOfClasses = numberOfClasses();
+        if (numberOfClasses < 0 || numberOfClasses > MAX_NUMBER_OF_CLASSES || buffer.getInt(20) != HEADER_LENGTH + numberOfClasses * RECORD_LENGTH) {
+            throw new IOException("The stored schedule does not have room for its " + numberOfClasses + " classes.");
+        }
+        if (firstRecordOf(0) != 0 || firstRecordOf(Schedule.DAYS_OF_WEEK.size()) != numberOfClasses) {
+            throw new IOException("The days of the stored schedule do not hold its " + numberOfClasses + " classes.");
+        }
+        int numberOfStrings = decodedStrings.length;
+        int stringsOffset = buffer.getInt(20) + 4 + numberOfStrings * 4;
+        for (int stringId = 0; stringId < numberOfStrings; stringId++) {
+            int stringOffset = buffer.getInt(buffer.getInt(20) + 4 + stringId * 4);
+            if (stringOffset < stringsOffset || stringOffset > limit - 2 || stringOffset + 2 + (buffer.getShort(stringOffset) & 0xFFFF) > limit) {
+                throw new IOException("String " + stringId + " of the stored schedule is outside of it.");
+            }
+        }
+        for (int dayIndex = 0; dayIndex < Schedule.DAYS_OF_WEEK.size(); dayIndex++) {
+            if (firstRecordOf(dayIndex + 1) < firstRecordOf(dayIndex)) {
+                throw new IOException("The classes of " + Schedule.DAYS_OF_WEEK.get(dayIndex) + " in the stored schedule are out of order.");
+            }
+            int previousFinishMinute = 0;
+            for (int i = 0; i < numberOfClassesOn(dayIndex); i++) {
+                int recordOffset = recordOffset(dayIndex, i);
+                int startMinute = startMinuteOf(dayIndex, i);
+                int finishMinute = finishMinuteOf(dayIndex, i);
+                int nameId = buffer.getShort(recordOffset + 6) & 0xFFFF;
+                int roomId = buffer.getInt(recordOffset + 8);
+                if (buffer.get(recordOffset) != dayIndex || startMinute < previousFinishMinute || finishMinute <= startMinute || finishMinute >= 24 * 60
+                        || nameId >= numberOfStrings || roomId < 0 || roomId >= numberOfStrings) {
+                    throw new IOException("Class " + (i + 1) + " on " + Schedule.DAYS_OF_WEEK.get(dayIndex) + " in the stored schedule is not valid.");
+                }
+                previousFinishMinute = finishMinute;
+            }
+        }
+        int nameCountsOffset = buffer.getInt(24);
+        if (nameCountsOffset < stringsOffset || nameCountsOffset > limit - 4) {
+            throw new IOException("The name counts of the stored schedule are outside of it.");
+        }
+        int numberOfNames = buffer.getInt(nameCountsOffset);
+        if (numberOfNames < 0 || numberOfNames > (limit - nameCountsOffset - 4) / 8) {
+            throw new IOException("The stored schedule does not have room for its " + numberOfNames + " name counts.");
+        }
+        for (int i = 0; i < numberOfNames; i++) {
+            int nameId = buffer.getInt(nameCountsOffset + 4 + i * 8);
+            if (nameId < 0 || nameId >= numberOfStrings || buffer.getInt(nameCountsOffset + 8 + i * 8) < 1) {
+                throw new IOException("Name count " + (i + 1) + " of the stored schedule is not valid.");
+            }
+        }
+        int recurringSeriesOffset = buffer.getInt(RECURRING_SERIES_OFFSET);
+        if (recurringSeriesOffset != 0) {
+            int endOfNameCounts = nameCountsOffset + 4 + numberOfNames * 8;
+            if (recurringSeriesOffset < endOfNameCounts || recurringSeriesOffset > limit - 4
+                    || buffer.getInt(recurringSeriesOffset) < 0 || buffer.getInt(recurringSeriesOffset) > limit - recurringSeriesOffset - 4) {
+                throw new IOException("The recurring classes of the stored schedule are outside of it.");
+            }
+            try {
+                for (RecurringSeries series : recurringSeries()) {
+                    RecurringSeries.validate(series.firstDate, series.numberOfOccurrences, series.intervalInWeeks, series.startMinute, series.finishMinute);
+                    if (series.startMinute < 0 || series.finishMinute >= 24 * 60) {
+                        throw new IncorrectActionException("it is not held within one day.");
+                    }
+                }
+            } catch (IncorrectActionException | DateTimeException e) {
+                throw new IOException("A recurring class of the stored schedule is not valid: " + e.getMessage());
+            }
+        }
+    }
+
+    public long scheduleVersion() {
+        return buffer.getLong(8);
+    }
+
+    public int numberOfClasses() {
+        return buffer.getInt(16);
+    }
+
+    public int numberOfClassesOn(int dayIndex) {
+        return firstRecordOf(dayIndex + 1) - firstRecordOf(dayIndex);
+    }
+
+    public int startMinuteOf(int dayIndex, int i) {
+        return buffer.getShort(recordOffset(dayIndex, i) + 2);
+    }
+
+    public int finishMinuteOf(int dayIndex, int i) {
+        return buffer.getShort(recordOffset(dayIndex, i) + 4);
+    }
+
+    public String nameOf(int dayIndex, int i) {
+        return stringWithId(buffer.getShort(recordOffset(dayIndex, i) + 6) & 0xFFFF);
+    }
+
+    public String roomOf(int dayIndex, int i) {
+        return stringWithId(buffer.getInt(recordOffset(dayIndex, i) + 8));
+    }
+
+    // the classes of one day as objects, for a day that is about to be changed
+    public List<Class> classesOn(int dayIndex) {
+
+        int numberOfClasses = numberOfClassesOn(dayIndex);
+        List<Class> classesOfTheDay = new ArrayList<>(numberOfClasses);
+        for (int i = 0; i < numberOfClasses; i++) {
+            classesOfTheDay.add(new Class(timeOf(startMinuteOf(dayIndex, i)), timeOf(finishMinuteOf(dayIndex, i)), nameOf(dayIndex, i), roomOf(dayIndex, i)));
+        }
+        return classesOfTheDay;
+    }
+
+    // how many classes carry each name, stored so that loading does not have to go through the records
+    public Map<String, Integer> numberOfClassesPerName() {
+
+        int nameCountsOffset = buffer.getInt(24);
+        int numberOfNames = buffer.getInt(nameCountsOffset);
+        Map<String, Integer> numberOfClassesPerName = new HashMap<>();
+        for (int i = 0; i < numberOfNames; i++) {
+            int entryOffset = nameCountsOffset + 4 + i * 8;
+            numberOfClassesPerName.put(stringWithId(buffer.getInt(entryOffset)), buffer.getInt(entryOffset + 4));
+        }
+        return numberOfClassesPerName;
+    }
+
+    // the recurring classes with their cancelled dates, as new objects
+    public List<RecurringSeries> recurringSeries() throws IOException {
+
+        int recurringSeriesOffset = buffer.getInt(RECURRING_SERIES_OFFSET);
+        if (recurringSeriesOffset == 0) {
+            return List.of();
+        }
+        byte[] section = new byte[buffer.getInt(recurringSeriesOffset)];
+        buffer.get(recurringSeriesOffset + 4, section);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(section));
+        int numberOfSeries = in.readInt();
+        if (numberOfSeries < 0 || numberOfSeries > section.length) {
+            throw new IOException("The stored schedule does not have room for its " + numberOfSeries + " recurring classes.");
+        }
+        List<RecurringSeries> recurringSeries = new ArrayList<>(numberOfSeries);
+        for (int i = 0; i < numberOfSeries; i++) {
+            RecurringSeries series = RecurringSeries.readFrom(in);
+            int numberOfCancelledDates = in.readShort();
+            for (int j = 0; j < numberOfCancelledDates; j++) {
+                series.cancelledDates.add(LocalDate.ofEpochDay(in.readLong()));
+            }
+            recurringSeries.add(series);
+        }
+        return recurringSeries;
+    }
+
+    static LocalTime timeOf(int minuteOfDay) {
+        return LocalTime.of(minuteOfDay / 60, minuteOfDay % 60);
+    }
+
+    static int minuteOf(LocalTime time) {
+        return time.toSecondOfDay() / 60;
+    }
+
+    // classesPerDay holds the classes of every day of DAYS_OF_WEEK, each list sorted by start time
+    public static void write(DataOutput out, long scheduleVersion, List<? extends Collection<Class>> classesPerDay) throws IOException {
+        write(out, scheduleVersion, classesPerDay, List.of());
+    }
+
+    public static void write(DataOutput out, long scheduleVersion, List<? extends Collection<Class>> classesPerDay, Collection<RecurringSeries> recurringSeries) throws IOException {
+
+        Map<String, Integer> stringIds = new LinkedHashMap<>(); // every name and room is stored once, however many classes use it
+        Map<Integer, Integer> numberOfClassesPerNameId = new LinkedHashMap<>();
+        int numberOfClasses = 0;
+        for (Collection<Class> classesOfTheDay : classesPerDay) {
+            for (Class aClass : classesOfTheDay) {
+                int nameId = stringIds.computeIfAbsent(aClass.getName(), string -> stringIds.size());
+                numberOfClassesPerNameId.merge(nameId, 1, Integer::sum);
+                stringIds.computeIfAbsent(aClass.getRoom(), string -> stringIds.size());
+                numberOfClasses++;
+            }
+        }
+        List<byte[]> encodedStrings = new ArrayList<>(stringIds.size());
+        for (String string : stringIds.keySet()) {
+            encodedStrings.add(string.getBytes(StandardCharsets.UTF_8));
+        }
+
+        int stringTableOffset = HEADER_LENGTH + numberOfClasses * RECORD_LENGTH;
+        int stringsOffset = stringTableOffset + 4 + encodedStrings.size() * 4;
+        int nameCountsOffset = stringsOffset;
+        for (byte[] encodedString : encodedStrings) {
+            nameCountsOffset += 2 + encodedString.length;
+        }
+
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeLong(scheduleVersion);
+        out.writeInt(numberOfClasses);
+        out.writeInt(stringTableOffset);
+        out.writeInt(nameCountsOffset);
+        out.writeInt(recurringSeries.isEmpty() ? 0 : nameCountsOffset + 4 + numberOfClassesPerNameId.size() * 8);
+        int firstRecordOfDay = 0;
+        for (Collection<Class> classesOfTheDay : classesPerDay) {
+            out.writeInt(firstRecordOfDay);
+            firstRecordOfDay += classesOfTheDay.size();
+        }
+        out.writeInt(firstRecordOfDay);
+
+        for (int dayIndex = 0; dayIndex < classesPerDay.size(); dayIndex++) {
+            for (Class aClass : classesPerDay.get(dayIndex)) {
+                out.writeByte(dayIndex);
+                out.writeByte(0);
+                out.writeShort(minuteOf(aClass.getStartTime()));
+                out.writeShort(minuteOf(aClass.getFinishTime()));
+                out.writeShort(stringIds.get(aClass.getName()));
+                out.writeInt(stringIds.get(aClass.getRoom()));
+            }
+        }
+
+        out.writeInt(encodedStrings.size());
+        int stringOffset = stringsOffset;
+        for (byte[] encodedString : encodedStrings) {
+            out.writeInt(stringOffset);
+            stringOffset += 2 + encodedString.length;
+        }
+        for (byte[] encodedString : encodedStrings) {
+            out.writeShort(encodedString.length);
+            out.write(encodedString);
+        }
+
+        out.writeInt(numberOfClassesPerNameId.size());
+        for (Map.Entry<Integer, Integer> nameCount : numberOfClassesPerNameId.entrySet()) {
+            out.writeInt(nameCount.getKey());
+            out.writeInt(nameCount.getValue());
+        }
+
+        if (!recurringSeries.isEmpty()) {
+            ByteArrayOutputStream section = new ByteArrayOutputStream();
+            DataOutputStream sectionOut = new DataOutputStream(section);
+            sectionOut.writeInt(recurringSeries.size());
+            for (RecurringSeries series : recurringSeries) {
+                series.writeTo(sectionOut);
+                sectionOut.writeShort(series.cancelledDates.size());
+                for (LocalDate cancelledDate : series.cancelledDates) {
+                    sectionOut.writeLong(cancelledDate.toEpochDay());
+                }
+            }
+            out.writeInt(section.size());
+            out.write(section.toByteArray());
+        }
+    }
+
+    private int firstRecordOf(int dayIndex) {
+        return buffer.getInt(FIRST_RECORD_OF_DAY_OFFSET + dayIndex * 4);
+    }
+
+    private int recordOffset(int dayIndex, int i) {
+        return HEADER_LENGTH + (firstRecordOf(dayIndex) + i) * RECORD_LENGTH;
+    }
+
+    private String stringWithId(int stringId) {
+
+        String string = decodedStrings[stringId];
+        if (string == null) { // two readers may decode the same string at the same time, they get equal strings
+            int stringOffset = buffer.getInt(buffer.getInt(20) + 4 + stringId * 4);
+            byte[] encodedString = new byte[buffer.getShort(stringOffset) & 0xFFFF];
+            buffer.get(stringOffset + 2, encodedString);
+            string = new String(encodedString, StandardCharsets.UTF_8);
+            decodedStrings[stringId] = string;
+        }
+        return string;
+    }
+}
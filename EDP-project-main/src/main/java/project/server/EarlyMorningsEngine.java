@@ -0,0 +1,151 @@
+package project.server;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+
+// IMPLEMENTATION OF THE ADAPTIVE 'EARLY MORNINGS' ENGINE
+// Forking only pays off when there is enough work behind each task. Moving a class takes a few nanoseconds and handing a
+// task to another thread a few microseconds, so EarlyMorningsBenchmark finds a plain loop faster than a task per day even
+// for a full schedule: a schedule holds at most 3,600 classes (720 one-minute classes a day). One schedule is therefore
+// always shifted by a loop, and the parallelism comes from shifting many schedules in one call: the call estimates its cost
+// as a number of classes to move and splits the tenants only while each task keeps at least MIN_CLASSES_PER_TASK of them.
+// The tasks run on a pool of their own (server.earlyMorningsThreads), so a bulk run never takes the common pool.
+// Optimal Packing uses the same pool to evaluate its candidate moves, within server.packingTimeBudgetMillis per schedule,
+// and a free slot searched in every schedule to merge their gap indexes.
+class EarlyMorningsEngine {
+
+    static final int DEFAULT_PARALLELISM = Runtime.getRuntime().availableProcessors();
+    static final int FIRST_START_MINUTE = 9 * 60;
+    static final int MIN_CLASSES_PER_TASK = 4096;
+    // locking a schedule, journaling the change and forgetting its rendering cost about as much as moving this many classes
+    static final int COST_OF_A_SCHEDULE_IN_CLASSES = 512;
+    static final Duration DEFAULT_PACKING_TIME_BUDGET = Duration.ofSeconds(2);
+
+    private final ForkJoinPool pool;
+    private final Duration packingTimeBudget;
+
+    EarlyMorningsEngine(int parallelism) {
+        this(parallelism, DEFAULT_PACKING_TIME_BUDGET);
+    }
+
+    EarlyMorningsEngine(int parallelism, Duration packingTimeBudget) {
+        pool = new ForkJoinPool(parallelism, EarlyMorningsEngine::newWorkerThread, null, false);
+        this.packingTimeBudget = packingTimeBudget;
+    }
+
+    private static ForkJoinWorkerThread newWorkerThread(ForkJoinPool pool) {
+        ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool); // a daemon thread
+        thread.setName("early-mornings-" + thread.getPoolIndex());
+        return thread;
+    }
+
+    int parallelism() {
+        return pool.getParallelism();
+    }
+
+    Duration packingTimeBudget() {
+        return packingTimeBudget;
+    }
+
+    // The week is worked out from a snapshot without holding any lock, so the schedule stays usable meanwhile;
+    // if it changes before the plan is applied, the plan is dropped and the client is asked to try again.
+    OptimalPackingResult pack(ScheduleRegistry scheduleRegistry, String tenantId) {
+
+        long startNanos = System.nanoTime();
+        ScheduleSnapshot snapshot = scheduleRegistry.withScheduleLeavingJournalToCaller(tenantId, Schedule::snapshot);
+        OptimalPacking packing = new OptimalPacking(snapshot.classesPerDay, scheduleRegistry.roomOccupancy(), tenantId, pool);
+        List<ScheduleOperation> operations = packing.solve(packingTimeBudget);
+        if (!operations.isEmpty()) {
+            scheduleRegistry.withSchedule(tenantId, schedule -> {
+                schedule.applyPlan(snapshot.version, operations);
+                return null;
+            });
+        }
+        return new OptimalPackingResult(CompactScheduleFile.timeOf(Math.min(packing.latestFinishBefore(), OptimalPacking.LATEST_FINISH_MINUTE)),
+                CompactScheduleFile.timeOf(packing.latestFinish()), CompactScheduleFile.timeOf(packing.lowerBoundOfLatestFinish()), packing.numberOfClasses(),
+                packing.numberOfMovedClasses(), packing.numberOfMovesEvaluated(), System.nanoTime() - startNanos);
+    }
+
+    // the minutes blocked in at least one of the tenants' schedules, per day from firstDayIndex to lastDayIndex (the others are left empty)
+    long[][] blockedMinutesOfAll(ScheduleRegistry scheduleRegistry, List<String> tenantIds, int firstDayIndex, int lastDayIndex) {
+
+        BulkBlockedMinutesTask task = new BulkBlockedMinutesTask(scheduleRegistry, tenantIds, firstDayIndex, lastDayIndex, 0, tenantIds.size());
+        if (tenantIds.size() >= 2 * FreeSlotSearch.MIN_SCHEDULES_PER_TASK && pool.getParallelism() > 1 && !ForkJoinTask.inForkJoinPool()) {
+            return pool.invoke(task);
+        }
+        return task.mergeSchedules();
+    }
+
+    // Shifts every tenant's schedule. Each schedule is locked, changed and journaled on its own, and the call returns
+    // once all the changes are on disk.
+    EarlyMorningsStatistics shiftAll(ScheduleRegistry scheduleRegistry, List<String> tenantIds) {
+
+        EarlyMorningsRun run = new EarlyMorningsRun();
+        long[] costUpTo = new long[tenantIds.size() + 1]; // sums of the estimates, so the cost of any range of tenants is one subtraction
+        for (int i = 0; i < tenantIds.size(); i++) {
+            costUpTo[i + 1] = costUpTo[i] + COST_OF_A_SCHEDULE_IN_CLASSES + scheduleRegistry.estimatedNumberOfClassesOf(tenantIds.get(i));
+        }
+        BulkEarlyMorningsTask task = new BulkEarlyMorningsTask(run, scheduleRegistry, tenantIds, costUpTo, 0, tenantIds.size());
+        if (tenantIds.size() > 1 && costUpTo[tenantIds.size()] >= 2L * MIN_CLASSES_PER_TASK && pool.getParallelism() > 1 && !ForkJoinTask.inForkJoinPool()) {
+            pool.invoke(task);
+        } else {
+            task.shiftSchedules();
+        }
+        return run.finish();
+    }
+}
+
+// IMPLEMENTATION OF FORK-JOIN RULE USING DIVIDE AND CONQUER
+// the tenants are split by their estimated cost; a task waits for the journal once, after all of its schedules
+class BulkEarlyMorningsTask extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    private final EarlyMorningsRun run;
+    private final ScheduleRegistry scheduleRegistry;
+    private final List<String> tenantIds;
+    private final long[] costUpTo;
+    private final int start;
+    private final int end;
+
+    BulkEarlyMorningsTask(EarlyMorningsRun run, ScheduleRegistry scheduleRegistry, List<String> tenantIds, long[] costUpTo, int start, int end) {
+        this.run = run;
+        this.scheduleRegistry = scheduleRegistry;
+        this.tenantIds = tenantIds;
+        this.costUpTo = costUpTo;
+        this.start = start;
+        this.end = end;
+    }
+
+    @Override
+    protected void compute() {
+
+        if (end - start < 2 || costUpTo[end] - costUpTo[start] < 2L * EarlyMorningsEngine.MIN_CLASSES_PER_TASK) {
+            shiftSchedules();
+        } else {
+            int middle = (start + end) / 2;
+            invokeAll(new BulkEarlyMorningsTask(run, scheduleRegistry, tenantIds, costUpTo, start, middle),
+                    new BulkEarlyMorningsTask(run, scheduleRegistry, tenantIds, costUpTo, middle, end));
+        }
+    }
+
+    void shiftSchedules() {
+
+        for (int i = start; i < end; i++) {
+            try {
+                scheduleRegistry.withScheduleLeavingJournalToCaller(tenantIds.get(i), schedule -> {
+                    schedule.performEarlyMorningsOperation(run);
+                    return null;
+                });
+            } catch (IncorrectActionException iae) { // the other schedules are shifted all the same
+                run.scheduleLeftAsItWas(iae.getMessage());
+            }
+        }
+        scheduleRegistry.awaitJournalOfCurrentThread(); // group commit: the changes of all the schedules above share the fsyncs
+        run.taskFinished();
+    }
+}
@@ -0,0 +1,44 @@
+package project.server;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+// what one call to the engine did, collected from every thread that worked on it
+final class EarlyMorningsRun {
+
+    private final long startNanos = System.nanoTime();
+    private final LongAdder numberOfSchedules = new LongAdder();
+    private final LongAdder numberOfClasses = new LongAdder();
+    private final LongAdder numberOfTasks = new LongAdder();
+    private final Set<Thread> threads = ConcurrentHashMap.newKeySet();
+    private final LongAdder numberOfSchedulesLeftAsTheyWere = new LongAdder();
+    private volatile String reasonAScheduleWasLeftAsItWas;
+
+    // one schedule, whose days are all write-locked by the caller
+    void shift(PackedDay[] days) {
+
+        for (PackedDay day : days) {
+            day.shiftToMorning(EarlyMorningsEngine.FIRST_START_MINUTE); // in place, the order of the classes does not change
+            numberOfClasses.add(day.size());
+        }
+        numberOfSchedules.increment();
+        threads.add(Thread.currentThread());
+    }
+
+    // a schedule that refused to be shifted, a class would have landed on one of its recurring classes
+    void scheduleLeftAsItWas(String reason) {
+        numberOfSchedulesLeftAsTheyWere.increment();
+        reasonAScheduleWasLeftAsItWas = reason;
+    }
+
+    // a range of tenants that was shifted by one thread, whether it was forked or not
+    void taskFinished() {
+        numberOfTasks.increment();
+    }
+
+    EarlyMorningsStatistics finish() {
+        return new EarlyMorningsStatistics(numberOfSchedules.intValue(), numberOfClasses.sum(), numberOfTasks.intValue(), threads.size(), System.nanoTime() - startNanos,
+                numberOfSchedulesLeftAsTheyWere.intValue(), reasonAScheduleWasLeftAsItWas);
+    }
+}
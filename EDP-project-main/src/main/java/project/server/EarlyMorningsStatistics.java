@@ -0,0 +1,71 @@
+package project.server;
+
+// what an 'Early Mornings' run over one or many schedules did and how long it took
+public final class EarlyMorningsStatistics {
+
+    private final int numberOfSchedules;
+    private final long numberOfClasses;
+    private final int numberOfTasks;
+    private final int numberOfThreads;
+    private final long elapsedNanos;
+    private final int numberOfSchedulesLeftAsTheyWere;
+    private final String reasonAScheduleWasLeftAsItWas; // one of them, null if every schedule was shifted
+
+    EarlyMorningsStatistics(int numberOfSchedules, long numberOfClasses, int numberOfTasks, int numberOfThreads, long elapsedNanos) {
+        this(numberOfSchedules, numberOfClasses, numberOfTasks, numberOfThreads, elapsedNanos, 0, null);
+    }
+
+    EarlyMorningsStatistics(int numberOfSchedules, long numberOfClasses, int numberOfTasks, int numberOfThreads, long elapsedNanos,
+                            int numberOfSchedulesLeftAsTheyWere, String reasonAScheduleWasLeftAsItWas) {
+        this.numberOfSchedules = numberOfSchedules;
+        this.numberOfClasses = numberOfClasses;
+        this.numberOfTasks = numberOfTasks;
+        this.numberOfThreads = numberOfThreads;
+        this.elapsedNanos = elapsedNanos;
+        this.numberOfSchedulesLeftAsTheyWere = numberOfSchedulesLeftAsTheyWere;
+        this.reasonAScheduleWasLeftAsItWas = reasonAScheduleWasLeftAsItWas;
+    }
+
+    public int getNumberOfSchedules() {
+        return numberOfSchedules;
+    }
+
+    public long getNumberOfClasses() {
+        return numberOfClasses;
+    }
+
+    public int getNumberOfTasks() {
+        return numberOfTasks;
+    }
+
+    public int getNumberOfThreads() {
+        return numberOfThreads;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    public int getNumberOfSchedulesLeftAsTheyWere() {
+        return numberOfSchedulesLeftAsTheyWere;
+    }
+
+    public String getReasonAScheduleWasLeftAsItWas() {
+        return reasonAScheduleWasLeftAsItWas;
+    }
+
+    public boolean ranInParallel() {
+        return numberOfThreads > 1;
+    }
+
+    @Override
+    public String toString() {
+        return countOf(numberOfSchedules, "schedule") + ", " + countOf(numberOfClasses, "class") + " shifted in " + String.format("%.3f", elapsedNanos / 1_000_000.0)
+                + " ms by " + countOf(numberOfTasks, "task") + " on " + countOf(numberOfThreads, "thread")
+                + (numberOfSchedulesLeftAsTheyWere == 0 ? "" : "; " + countOf(numberOfSchedulesLeftAsTheyWere, "schedule") + " left unchanged (" + reasonAScheduleWasLeftAsItWas + ")");
+    }
+
+    private static String countOf(long number, String noun) {
+        return number + " " + (number == 1 ? noun : noun.endsWith("s") ? noun + "es" : noun + "s");
+    }
+}
@@ -0,0 +1,41 @@
+package project.server;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// a response that is already encoded in UTF-8, so one that is sent many times (like a cached schedule) is encoded once
+// The length is counted in chars, as the text protocol announces it before the message.
+final class EncodedMessage {
+
+    private final byte[] utf8;
+    private final int length;
+
+    EncodedMessage(byte[] utf8, int length) {
+        this.utf8 = utf8;
+        this.length = length;
+    }
+
+    static EncodedMessage of(String message) {
+        return new EncodedMessage(message.getBytes(StandardCharsets.UTF_8), message.length());
+    }
+
+    byte[] bytes() {
+        return utf8; // shared, must not be modified
+    }
+
+    int length() {
+        return length;
+    }
+
+    // the text protocol's framing: the length on its own line, then the message and a line break
+    ByteBuffer toTextFrame() {
+
+        byte[] lengthLine = (length + "\n").getBytes(StandardCharsets.US_ASCII);
+        return ByteBuffer.allocate(lengthLine.length + utf8.length + 1).put(lengthLine).put(utf8).put((byte) '\n').flip();
+    }
+
+    @Override
+    public String toString() {
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+}
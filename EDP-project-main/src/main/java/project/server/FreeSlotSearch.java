@@ -0,0 +1,33 @@
+package project.server;
+
+// IMPLEMENTATION OF THE FREE SLOT SEARCH
+// A slot is searched in the gap index of a schedule (Schedule.blockedMinutesOn()), or in those of many schedules merged
+// with ORs. The search jumps from a minute in the way to the minute after it, so it takes as many steps as there are
+// classes in the way, not minutes in the day.
+final class FreeSlotSearch {
+
+    // merging the index of a schedule costs a few hundred nanoseconds, handing a task to another thread a few microseconds
+    static final int MIN_SCHEDULES_PER_TASK = 256;
+
+    private FreeSlotSearch() {
+    }
+
+    // The earliest start, from earliestStartMinute on, of a class of durationInMinutes that finishes by latestFinishMinute and
+    // uses no blocked minute, both its ends included; if roomMinutes is not null, the room must not be booked either, where
+    // back to back is fine. -1 if there is no such start.
+    static int earliestFreeStart(long[] blockedMinutes, long[] roomMinutes, int durationInMinutes, int earliestStartMinute, int latestFinishMinute) {
+
+        int startMinute = earliestStartMinute;
+        while (startMinute + durationInMinutes <= latestFinishMinute) {
+            int lastMinuteInTheWay = MinuteBitmaps.lastMinuteSet(blockedMinutes, startMinute, startMinute + durationInMinutes + 1);
+            if (roomMinutes != null) {
+                lastMinuteInTheWay = Math.max(lastMinuteInTheWay, MinuteBitmaps.lastMinuteSet(roomMinutes, startMinute, startMinute + durationInMinutes));
+            }
+            if (lastMinuteInTheWay < 0) {
+                return startMinute;
+            }
+            startMinute = lastMinuteInTheWay + 1;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,75 @@
+package project.server;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+// IMPLEMENTATION OF CONSISTENT HASHING
+// Every server of a cluster is placed on a ring of 64-bit hashes at many points (virtual nodes), and a key belongs to the
+// first point at or after its own hash. A server that joins takes over only the keys just before its points, a server
+// that leaves hands over only its own, so about 1/n of the schedules move instead of nearly all of them with hash % n;
+// the many points keep the shares of the servers within a few percent of each other. Immutable: a change makes a new ring.
+final class HashRing {
+
+    static final int DEFAULT_VIRTUAL_NODES_PER_NODE = 160;
+
+    private final List<String> nodes;
+    private final int virtualNodesPerNode;
+    private final NavigableMap<Long, String> nodesByPoint = new TreeMap<>();
+
+    HashRing(Collection<String> nodes, int virtualNodesPerNode) {
+
+        if (nodes.isEmpty()) {
+            throw new IllegalArgumentException("A cluster needs at least one server.");
+        }
+        this.nodes = List.copyOf(nodes);
+        this.virtualNodesPerNode = virtualNodesPerNode;
+        for (String node : this.nodes) {
+            for (int i = 0; i < virtualNodesPerNode; i++) {
+                nodesByPoint.putIfAbsent(hashOf(node + "#" + i), node); // two points on the same hash are all but impossible, the first one keeps it
+            }
+        }
+    }
+
+    HashRing with(String node) {
+
+        List<String> newNodes = new ArrayList<>(nodes);
+        newNodes.add(node);
+        return new HashRing(newNodes, virtualNodesPerNode);
+    }
+
+    HashRing without(String node) {
+
+        List<String> newNodes = new ArrayList<>(nodes);
+        newNodes.remove(node);
+        return new HashRing(newNodes, virtualNodesPerNode);
+    }
+
+    List<String> nodes() {
+        return nodes;
+    }
+
+    String nodeFor(String key) {
+
+        Map.Entry<Long, String> point = nodesByPoint.ceilingEntry(hashOf(key));
+        return point != null ? point.getValue() : nodesByPoint.firstEntry().getValue(); // past the last point the ring starts again
+    }
+
+    // the first 8 bytes of SHA-256: slower than String.hashCode(), but spread evenly even for names that differ in one character
+    private static long hashOf(String key) {
+
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+            return ByteBuffer.wrap(digest).getLong();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // every Java platform has SHA-256
+        }
+    }
+}
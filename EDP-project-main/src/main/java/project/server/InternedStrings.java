@@ -0,0 +1,91 @@
+package project.server;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+// Gives every different string in use a small id, so a packed class can refer to its name and room. Every class that uses
+// a string holds it once; when the last one lets go, the id is freed and given to the next new string. A published version
+// of a day keeps the table its ids were given from (see table()): a freed id is given again in a copy of the table, never
+// in the one readers may still hold, and lookups in a table take no lock. Ids are acquired and released under the monitor.
+final class InternedStrings {
+
+    private final Map<String, Integer> idsOfStrings = new HashMap<>();
+    private final ArrayDeque<Integer> freeIds = new ArrayDeque<>();
+    private final int maxNumberOfStrings;
+    private final String kindOfStrings;
+    private volatile String[] strings = new String[8]; // written again after every addition, which publishes the new entry
+    private int[] numbersOfUses = new int[8];
+    private int numberOfStrings; // including the freed ones
+
+    InternedStrings(int maxNumberOfStrings, String kindOfStrings) {
+        this.maxNumberOfStrings = maxNumberOfStrings;
+        this.kindOfStrings = kindOfStrings;
+    }
+
+    synchronized int acquire(String string) {
+
+        Integer id = idsOfStrings.get(string);
+        if (id == null) {
+            id = newId(string);
+        }
+        numbersOfUses[id]++;
+        return id;
+    }
+
+    synchronized void release(int id) {
+
+        if (--numbersOfUses[id] == 0) {
+            idsOfStrings.remove(strings[id]);
+            freeIds.push(id);
+        }
+    }
+
+    // counts the uses again, after classes were dropped without being released one by one
+    synchronized void recount(IntStream idsInUse) {
+
+        int[] numbersOfUsesCounted = new int[numbersOfUses.length];
+        idsInUse.forEach(id -> numbersOfUsesCounted[id]++);
+        for (int id = 0; id < numberOfStrings; id++) {
+            if (numbersOfUses[id] > 0 && numbersOfUsesCounted[id] == 0) {
+                idsOfStrings.remove(strings[id]);
+                freeIds.push(id);
+            }
+        }
+        numbersOfUses = numbersOfUsesCounted;
+    }
+
+    // the current strings, for ids in use; never changed at an id a version holding the table uses
+    String get(int id) {
+        return strings[id];
+    }
+
+    String[] table() {
+        return strings;
+    }
+
+    private int newId(String string) {
+
+        String[] currentStrings = strings;
+        int id;
+        if (!freeIds.isEmpty()) {
+            id = freeIds.pop();
+            currentStrings = currentStrings.clone(); // a version published before may still show the freed string
+        } else {
+            if (numberOfStrings == maxNumberOfStrings) {
+                throw new IncorrectActionException("This schedule has used too many different " + kindOfStrings + ".");
+            }
+            if (numberOfStrings == currentStrings.length) {
+                currentStrings = Arrays.copyOf(currentStrings, currentStrings.length * 2);
+                numbersOfUses = Arrays.copyOf(numbersOfUses, currentStrings.length);
+            }
+            id = numberOfStrings++;
+        }
+        currentStrings[id] = string;
+        strings = currentStrings;
+        idsOfStrings.put(string, id);
+        return id;
+    }
+}
@@ -0,0 +1,93 @@
+package project.server;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// IMPLEMENTATION OF LATENCY HISTOGRAMS IN THE STYLE OF HDRHISTOGRAM
+// Every value up to 127 ns has a bucket of its own; above that every power of two is split into 64 buckets, so a recorded
+// value is off by less than 1/64 (1.6 %) whatever its size, from nanoseconds to the 18 minutes the buckets reach.
+// Recording is one increment of an atomic counter and never allocates, so it can sit on every request; percentiles are
+// computed from the counts when they are read. Values are in nanoseconds, larger ones count as the largest bucket.
+// Public because the load generator reports its latencies the same way the server records them.
+public final class LatencyHistogram {
+
+    private static final int SIGNIFICANT_BITS = 7; // 1 + log2 of the 64 buckets per power of two
+    private static final int SUB_BUCKETS = 1 << SIGNIFICANT_BITS;
+    private static final int HALF_SUB_BUCKETS = SUB_BUCKETS / 2;
+    private static final int HIGHEST_BIT = 40; // 2^40 ns, about 18 minutes
+    private static final int NUMBER_OF_BUCKETS = SUB_BUCKETS + (HIGHEST_BIT - SIGNIFICANT_BITS) * HALF_SUB_BUCKETS;
+    private static final long HIGHEST_TRACKABLE_VALUE = (1L << HIGHEST_BIT) - 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(NUMBER_OF_BUCKETS);
+    private final LongAdder totalCount = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long nanos) {
+
+        long value = Math.min(Math.max(nanos, 0), HIGHEST_TRACKABLE_VALUE);
+        counts.incrementAndGet(bucketOf(value));
+        totalCount.increment();
+        sum.add(value);
+        long currentMax = max.get();
+        while (value > currentMax && !max.compareAndSet(currentMax, value)) { // contended only while the maximum is still rising
+            currentMax = max.get();
+        }
+    }
+
+    public long count() {
+        return totalCount.sum();
+    }
+
+    public long sum() {
+        return sum.sum();
+    }
+
+    public long max() {
+        return max.get();
+    }
+
+    public double mean() {
+        long count = count();
+        return count == 0 ? 0 : (double) sum() / count;
+    }
+
+    // the highest value that counts as equal to the one below which `percentile` % of the values lie, never above the maximum
+    // Read while others record, it is exact for some moment during the read, which is all a monitoring tool asks for.
+    public long valueAtPercentile(double percentile) {
+
+        long count = count();
+        if (count == 0) {
+            return 0;
+        }
+        long countAtPercentile = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long countSoFar = 0;
+        for (int bucket = 0; bucket < NUMBER_OF_BUCKETS; bucket++) {
+            countSoFar += counts.get(bucket);
+            if (countSoFar >= countAtPercentile) {
+                return Math.min(highestValueOf(bucket), max());
+            }
+        }
+        return max();
+    }
+
+    static int bucketOf(long value) {
+
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - (SIGNIFICANT_BITS - 1); // keeps the 7 highest bits of the value
+        return SUB_BUCKETS + (shift - 1) * HALF_SUB_BUCKETS + (int) (value >>> shift) - HALF_SUB_BUCKETS;
+    }
+
+    static long highestValueOf(int bucket) {
+
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = (bucket - SUB_BUCKETS) / HALF_SUB_BUCKETS + 1;
+        long highBits = (bucket - SUB_BUCKETS) % HALF_SUB_BUCKETS + HALF_SUB_BUCKETS;
+        return ((highBits + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,58 @@
+package project.server;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+
+// IMPLEMENTATION OF THE METRICS SCRAPE ENDPOINT
+// GET /metrics on a port of its own answers with ServerMetrics.toPrometheusText(), so Prometheus (or curl) can read the
+// server without a JMX client. It runs on one daemon thread of its own and never touches a schedule.
+class MetricsEndpoint implements Closeable {
+
+    private final HttpServer httpServer;
+
+    MetricsEndpoint(int port, ServerMetrics metrics) throws IOException {
+
+        httpServer = HttpServer.create(new InetSocketAddress(port), 0);
+        httpServer.createContext("/metrics", exchange -> {
+            try (exchange) {
+                if (!exchange.getRequestMethod().equals("GET")) {
+                    respond(exchange, 405, "Only GET is supported.\n");
+                    return;
+                }
+                respond(exchange, 200, metrics.toPrometheusText());
+            }
+        });
+        httpServer.setExecutor(Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "metrics-endpoint");
+            thread.setDaemon(true);
+            return thread;
+        }));
+        httpServer.start();
+    }
+
+    int port() {
+        return httpServer.getAddress().getPort();
+    }
+
+    @Override
+    public void close() {
+        httpServer.stop(0);
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream responseBody = exchange.getResponseBody()) {
+            responseBody.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package project.server;
+
+// IMPLEMENTATION OF MINUTE BITMAPS
+// A day as a bit per minute, 1,440 bits in 23 longs: whether a range of minutes is free is a few ANDs, and the bitmaps of
+// many timetables are merged with ORs. Ranges are [startMinute, finishMinute) and wrap past midnight when they finish
+// before they start, as classes do after 'Early Mornings'.
+final class MinuteBitmaps {
+
+    static final int MINUTES_PER_DAY = 24 * 60;
+    static final int WORDS_PER_DAY = (MINUTES_PER_DAY + 63) / 64;
+
+    private MinuteBitmaps() {
+    }
+
+    static long[] newDay() {
+        return new long[WORDS_PER_DAY];
+    }
+
+    static boolean anyMinuteSet(long[] minutes, int startMinute, int finishMinute) {
+
+        if (finishMinute < startMinute) {
+            return anyMinuteSet(minutes, startMinute, MINUTES_PER_DAY) || anyMinuteSet(minutes, 0, finishMinute);
+        }
+        for (int word = startMinute >>> 6; word <= (finishMinute - 1) >>> 6 && finishMinute > startMinute; word++) {
+            if ((minutes[word] & maskOf(word, startMinute, finishMinute)) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static void setMinutes(long[] minutes, int startMinute, int finishMinute) {
+
+        if (finishMinute < startMinute) {
+            setMinutes(minutes, startMinute, MINUTES_PER_DAY);
+            setMinutes(minutes, 0, finishMinute);
+            return;
+        }
+        for (int word = startMinute >>> 6; word <= (finishMinute - 1) >>> 6 && finishMinute > startMinute; word++) {
+            minutes[word] |= maskOf(word, startMinute, finishMinute);
+        }
+    }
+
+    // the last minute of [startMinute, finishMinute) that is set, -1 if none is; the range does not wrap
+    static int lastMinuteSet(long[] minutes, int startMinute, int finishMinute) {
+
+        for (int word = (finishMinute - 1) >>> 6; word >= startMinute >>> 6 && finishMinute > startMinute; word--) {
+            long setBits = minutes[word] & maskOf(word, startMinute, finishMinute);
+            if (setBits != 0) {
+                return word * 64 + 63 - Long.numberOfLeadingZeros(setBits);
+            }
+        }
+        return -1;
+    }
+
+    // every minute set in any of the two, into the first
+    static void addAll(long[] minutes, long[] otherMinutes) {
+        for (int word = 0; word < WORDS_PER_DAY; word++) {
+            minutes[word] |= otherMinutes[word];
+        }
+    }
+
+    // the bits of the minutes of [startMinute, finishMinute) that fall into the word
+    private static long maskOf(int word, int startMinute, int finishMinute) {
+
+        int firstBit = Math.max(startMinute - word * 64, 0);
+        int endBit = Math.min(finishMinute - word * 64, 64);
+        return (endBit == 64 ? -1L : (1L << endBit) - 1) & -(1L << firstBit);
+    }
+}
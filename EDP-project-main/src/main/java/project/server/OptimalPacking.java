@@ -0,0 +1,525 @@
+package project.server;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+// IMPLEMENTATION OF THE OPTIMAL PACKING MODE OF 'EARLY MORNINGS'
+// 'Early Mornings' keeps every class on its day and in its order. Optimal Packing may also move classes to another day:
+// it looks for the week whose latest finish is as early as possible, then for the most even days, then for the fewest
+// classes moved off their day, and lays every day out back to back from 09:00, so no day has an idle gap.
+// Constraints: every day has to finish by 23:59, and no class may be laid out at a time its room is booked by another
+// schedule (the room occupancy index is read when the search starts; if a room is booked meanwhile, applyPlan() refuses
+// the plan). The classes of one schedule never overlap, so they cannot clash over a room with each other. The clashes
+// with other schedules count before anything else in the objective, so a start that has some (the week as it is, laid
+// out from 09:00, may have) is searched out of them, and a week that still has one is refused.
+// The solver is a local search: a greedy start (the longest class first, onto the emptiest day), then the best relocation
+// of a class to another day or swap of two classes of different days, step after step until none improves; then a few
+// random moves to leave that local optimum, and again. It stops when the time budget is spent, when the week can be proven optimal (no clash, and the latest
+// finish and the evenness have reached their lower bounds), or after KICKS_WITHOUT_IMPROVEMENT restarts that found nothing better.
+// The candidate moves of a step are evaluated on the fork-join pool once there are enough of them to share out.
+final class OptimalPacking {
+
+    static final int LATEST_FINISH_MINUTE = 23 * 60 + 59;
+    private static final int NUMBER_OF_DAYS = Schedule.DAYS_OF_WEEK.size();
+    private static final int MAX_MINUTES_PER_DAY = LATEST_FINISH_MINUTE - EarlyMorningsEngine.FIRST_START_MINUTE;
+    static final int MIN_MOVES_PER_TASK = 65_536; // evaluating a move takes a few nanoseconds
+    private static final int KICKS_WITHOUT_IMPROVEMENT = 200;
+
+    private final List<Class> classes;
+    private final int[] originalDay;
+    private final int[] duration;
+    private final int[] rank; // where the class comes in the order a day is laid out in: by its old start time, then by its old day
+    private final long[][][] minutesTakenElsewhere; // per class and day, the minutes other schedules book its room; null when they book none
+    private final boolean[] roomsAreTakenElsewhereOn; // whether any class could clash on the day, so the others skip the count
+    private final int totalDuration;
+    private final int longestDuration;
+
+    // the current week, changed by every move
+    private final int[] day;
+    private final int[] load = new int[NUMBER_OF_DAYS];
+    private final int[][] classesOfDay; // by rank, the first numberOfClassesOnDay of each
+    private final int[] numberOfClassesOnDay = new int[NUMBER_OF_DAYS];
+    private final int[] clashesOnDay = new int[NUMBER_OF_DAYS];
+    private long sumOfSquaredLoads;
+    private int numberOfMovedClasses;
+    private int numberOfClashes;
+
+    private final ForkJoinPool pool;
+    private final SplittableRandom random = new SplittableRandom(4076); // the same schedule and budget usually give the same week
+    private long numberOfMovesEvaluated;
+
+    // the rooms the tenant's classes are in are looked up in roomOccupancy, leaving out the tenant's own bookings
+    OptimalPacking(List<List<Class>> classesPerDay, RoomOccupancyIndex roomOccupancy, String tenantId, ForkJoinPool pool) {
+
+        this.pool = pool;
+        classes = new ArrayList<>();
+        List<Integer> dayOfClass = new ArrayList<>();
+        for (int dayIndex = 0; dayIndex < classesPerDay.size(); dayIndex++) {
+            for (Class aClass : classesPerDay.get(dayIndex)) {
+                classes.add(aClass);
+                dayOfClass.add(dayIndex);
+            }
+        }
+        int numberOfClasses = classes.size();
+        originalDay = new int[numberOfClasses];
+        duration = new int[numberOfClasses];
+        rank = new int[numberOfClasses];
+        day = new int[numberOfClasses];
+        minutesTakenElsewhere = new long[numberOfClasses][][];
+        roomsAreTakenElsewhereOn = new boolean[NUMBER_OF_DAYS];
+        Map<String, long[][]> minutesTakenInRoom = new HashMap<>();
+        int total = 0;
+        int longest = 0;
+        for (int i = 0; i < numberOfClasses; i++) {
+            Class aClass = classes.get(i);
+            originalDay[i] = dayOfClass.get(i);
+            duration[i] = durationOf(aClass);
+            minutesTakenElsewhere[i] = minutesTakenInRoom.computeIfAbsent(aClass.getRoom().trim().toLowerCase(Locale.ROOT), room -> {
+                long[][] minutesPerDay = new long[NUMBER_OF_DAYS][];
+                for (int d = 0; d < NUMBER_OF_DAYS; d++) {
+                    minutesPerDay[d] = roomOccupancy.occupiedMinutesOf(aClass.getRoom(), d, tenantId);
+                    roomsAreTakenElsewhereOn[d] |= minutesPerDay[d] != null;
+                }
+                return minutesPerDay;
+            });
+            total += duration[i];
+            longest = Math.max(longest, duration[i]);
+        }
+        totalDuration = total;
+        longestDuration = longest;
+        Integer[] inOrder = new Integer[numberOfClasses];
+        for (int i = 0; i < numberOfClasses; i++) {
+            inOrder[i] = i;
+        }
+        Arrays.sort(inOrder, Comparator.comparing((Integer i) -> classes.get(i).getStartTime()).thenComparingInt(i -> originalDay[i]).thenComparingInt(i -> i));
+        for (int position = 0; position < numberOfClasses; position++) {
+            rank[inOrder[position]] = position;
+        }
+        classesOfDay = new int[NUMBER_OF_DAYS][numberOfClasses];
+    }
+
+    // Finds the best week within the time budget and returns the operations that turn the schedule into it:
+    // every class that moves is removed and added again, the removals first.
+    List<ScheduleOperation> solve(Duration timeBudget) {
+
+        if (longestDuration > MAX_MINUTES_PER_DAY || lowerBoundOfLatestFinish() > LATEST_FINISH_MINUTE) {
+            throw new IncorrectActionException("The classes of this schedule do not fit between 09:00 and 23:59 on five days.");
+        }
+        long deadline = System.nanoTime() + timeBudget.toNanos();
+        long bestObjective = Long.MAX_VALUE;
+        int[] bestDays = null;
+        for (boolean keepOriginalDays : new boolean[] {true, false}) { // the week as it is, and the greedy one; the first moves fewer classes
+            start(keepOriginalDays);
+            long objective = descend(deadline);
+            if (objective < bestObjective) {
+                bestObjective = objective;
+                bestDays = day.clone();
+            }
+        }
+        restore(bestDays);
+        int kicksWithoutImprovement = 0;
+        while (!isProvenOptimal(bestObjective) && System.nanoTime() < deadline && kicksWithoutImprovement < KICKS_WITHOUT_IMPROVEMENT) {
+            kick();
+            long objective = descend(deadline);
+            if (objective < bestObjective) {
+                bestObjective = objective;
+                bestDays = day.clone();
+                kicksWithoutImprovement = 0;
+            } else {
+                kicksWithoutImprovement++;
+            }
+        }
+        restore(bestDays);
+        if (latestFinish() > LATEST_FINISH_MINUTE) {
+            throw new IncorrectActionException("No week was found within " + timeBudget.toMillis() + " ms in which every class finishes by 23:59.");
+        }
+        if (numberOfClashes > 0) {
+            throw new IncorrectActionException("No week was found within " + timeBudget.toMillis() + " ms in which no class is in a room another schedule has booked at that time.");
+        }
+        return operationsToReachCurrentWeek();
+    }
+
+    int latestFinishBefore() {
+
+        int latestFinish = 0;
+        for (Class aClass : classes) {
+            latestFinish = Math.max(latestFinish, CompactScheduleFile.minuteOf(aClass.getStartTime()) + durationOf(aClass));
+        }
+        return latestFinish;
+    }
+
+    int latestFinish() {
+        return EarlyMorningsEngine.FIRST_START_MINUTE + maxLoad();
+    }
+
+    int lowerBoundOfLatestFinish() {
+        return EarlyMorningsEngine.FIRST_START_MINUTE + Math.max((totalDuration + NUMBER_OF_DAYS - 1) / NUMBER_OF_DAYS, longestDuration);
+    }
+
+    boolean latestFinishIsProvenOptimal() {
+        return latestFinish() == lowerBoundOfLatestFinish();
+    }
+
+    int numberOfClasses() {
+        return classes.size();
+    }
+
+    int numberOfMovedClasses() {
+        return numberOfMovedClasses;
+    }
+
+    long numberOfMovesEvaluated() {
+        return numberOfMovesEvaluated;
+    }
+
+    // a class that wraps past midnight after 'Early Mornings' finishes before it starts
+    private static int durationOf(Class aClass) {
+        return Math.floorMod(CompactScheduleFile.minuteOf(aClass.getFinishTime()) - CompactScheduleFile.minuteOf(aClass.getStartTime()), 24 * 60);
+    }
+
+    // Longest first, each onto the emptiest day (its own day when that is as empty).
+    // With keepOriginalDays, every class stays on its own day.
+    private void start(boolean keepOriginalDays) {
+
+        clear();
+        Integer[] longestFirst = new Integer[classes.size()];
+        for (int i = 0; i < longestFirst.length; i++) {
+            longestFirst[i] = i;
+        }
+        Arrays.sort(longestFirst, Comparator.comparingInt((Integer i) -> -duration[i]).thenComparingInt(i -> i));
+        for (int i : longestFirst) {
+            if (keepOriginalDays) {
+                place(i, originalDay[i]);
+                continue;
+            }
+            int bestDay = 0;
+            for (int d = 1; d < NUMBER_OF_DAYS; d++) {
+                if (load[d] < load[bestDay] || (load[d] == load[bestDay] && d == originalDay[i])) {
+                    bestDay = d;
+                }
+            }
+            place(i, bestDay);
+        }
+    }
+
+    private void place(int i, int d) {
+
+        day[i] = d;
+        load[d] += duration[i];
+        int[] classesOfTheDay = classesOfDay[d];
+        int position = numberOfClassesOnDay[d]++;
+        for (; position > 0 && rank[classesOfTheDay[position - 1]] > rank[i]; position--) {
+            classesOfTheDay[position] = classesOfTheDay[position - 1];
+        }
+        classesOfTheDay[position] = i;
+        if (d != originalDay[i]) {
+            numberOfMovedClasses++;
+        }
+        sumOfSquaredLoads = sumOfSquares();
+        countClashesOn(d);
+    }
+
+    private void moveClass(int i, int d) {
+
+        int from = day[i];
+        load[from] -= duration[i];
+        int[] classesOfTheDay = classesOfDay[from];
+        int position = 0;
+        while (classesOfTheDay[position] != i) {
+            position++;
+        }
+        System.arraycopy(classesOfTheDay, position + 1, classesOfTheDay, position, --numberOfClassesOnDay[from] - position);
+        if (from != originalDay[i]) {
+            numberOfMovedClasses--;
+        }
+        countClashesOn(from);
+        place(i, d);
+    }
+
+    private void countClashesOn(int d) {
+        numberOfClashes -= clashesOnDay[d];
+        clashesOnDay[d] = clashesOn(d, -1, -1);
+        numberOfClashes += clashesOnDay[d];
+    }
+
+    // How many classes of day d would be in a room another schedule has booked at the time they would have, with the class
+    // removedClass taken off the day and addedClass put on it (each -1 for none). The day is laid out by rank from 09:00.
+    private int clashesOn(int d, int removedClass, int addedClass) {
+
+        if (!roomsAreTakenElsewhereOn[d]) {
+            return 0;
+        }
+        int clashes = 0;
+        int startMinute = EarlyMorningsEngine.FIRST_START_MINUTE;
+        boolean addedClassIsLaidOut = addedClass < 0;
+        for (int position = 0; position < numberOfClassesOnDay[d]; position++) {
+            int i = classesOfDay[d][position];
+            if (!addedClassIsLaidOut && rank[addedClass] < rank[i]) {
+                clashes += clashOf(addedClass, d, startMinute);
+                startMinute += duration[addedClass];
+                addedClassIsLaidOut = true;
+            }
+            if (i != removedClass) {
+                clashes += clashOf(i, d, startMinute);
+                startMinute += duration[i];
+            }
+        }
+        if (!addedClassIsLaidOut) {
+            clashes += clashOf(addedClass, d, startMinute);
+        }
+        return clashes;
+    }
+
+    // a day laid out past midnight is refused for its latest finish, so only the part before midnight is looked at
+    private int clashOf(int i, int d, int startMinute) {
+
+        long[] minutesTaken = minutesTakenElsewhere[i][d];
+        return minutesTaken != null && startMinute < MinuteBitmaps.MINUTES_PER_DAY
+                && MinuteBitmaps.anyMinuteSet(minutesTaken, startMinute, Math.min(startMinute + duration[i], MinuteBitmaps.MINUTES_PER_DAY)) ? 1 : 0;
+    }
+
+    private void restore(int[] days) {
+
+        clear();
+        for (int i = 0; i < days.length; i++) {
+            place(i, days[i]);
+        }
+    }
+
+    private void clear() {
+
+        Arrays.fill(load, 0);
+        Arrays.fill(numberOfClassesOnDay, 0);
+        Arrays.fill(clashesOnDay, 0);
+        numberOfMovedClasses = 0;
+        numberOfClashes = 0;
+        sumOfSquaredLoads = 0;
+    }
+
+    // steepest descent: applies the best improving move until there is none
+    private long descend(long deadline) {
+
+        long objective = objective();
+        while (System.nanoTime() < deadline) {
+            Move bestMove = findBestMove();
+            if (bestMove == null || bestMove.objective >= objective) {
+                break;
+            }
+            moveClass(bestMove.classIndex, bestMove.targetDay);
+            if (bestMove.otherClassIndex >= 0) {
+                moveClass(bestMove.otherClassIndex, bestMove.sourceDay);
+            }
+            objective = objective();
+        }
+        return objective;
+    }
+
+    // a few random moves, so the next descent starts somewhere else
+    private void kick() {
+
+        int numberOfMoves = Math.max(2, classes.size() / 50);
+        for (int attempt = 0; attempt < numberOfMoves * 10 && numberOfMoves > 0; attempt++) {
+            int i = random.nextInt(classes.size());
+            int d = random.nextInt(NUMBER_OF_DAYS);
+            if (d != day[i]) {
+                moveClass(i, d);
+                numberOfMoves--;
+            }
+        }
+    }
+
+    private Move findBestMove() {
+
+        int numberOfClasses = classes.size();
+        long numberOfMoves = (long) numberOfClasses * (NUMBER_OF_DAYS - 1) + (long) numberOfClasses * (numberOfClasses - 1) / 2;
+        numberOfMovesEvaluated += numberOfMoves;
+        MoveSearch search = new MoveSearch(this, 0, numberOfClasses);
+        if (numberOfMoves >= 2L * MIN_MOVES_PER_TASK && pool.getParallelism() > 1 && !ForkJoinTask.inForkJoinPool()) {
+            return pool.invoke(search);
+        }
+        return search.bestMoveInRange();
+    }
+
+    // Class i goes from sourceDay to targetDay; if otherClassIndex is not negative, that class goes the other way in exchange.
+    long objectiveAfterMove(int sourceDay, int i, int targetDay, int otherClassIndex) {
+
+        int movedMinutes = duration[i];
+        int movedClassesDelta = (targetDay == originalDay[i] ? -1 : 0) + (sourceDay == originalDay[i] ? 1 : 0);
+        if (otherClassIndex >= 0) {
+            int j = otherClassIndex;
+            movedMinutes -= duration[j];
+            movedClassesDelta += (sourceDay == originalDay[j] ? -1 : 0) + (targetDay == originalDay[j] ? 1 : 0);
+        }
+        int newSourceLoad = load[sourceDay] - movedMinutes;
+        int newTargetLoad = load[targetDay] + movedMinutes;
+        int newMaxLoad = Math.max(newSourceLoad, newTargetLoad);
+        for (int d = 0; d < NUMBER_OF_DAYS; d++) {
+            if (d != sourceDay && d != targetDay) {
+                newMaxLoad = Math.max(newMaxLoad, load[d]);
+            }
+        }
+        long newSumOfSquares = sumOfSquaredLoads - (long) load[sourceDay] * load[sourceDay] - (long) load[targetDay] * load[targetDay]
+                + (long) newSourceLoad * newSourceLoad + (long) newTargetLoad * newTargetLoad;
+        int newNumberOfClashes = numberOfClashes;
+        if (roomsAreTakenElsewhereOn[sourceDay] || roomsAreTakenElsewhereOn[targetDay]) { // the two days are laid out anew
+            newNumberOfClashes += clashesOn(sourceDay, i, otherClassIndex) + clashesOn(targetDay, otherClassIndex, i) - clashesOnDay[sourceDay] - clashesOnDay[targetDay];
+        }
+        return objectiveOf(newNumberOfClashes, newMaxLoad, newSumOfSquares, numberOfMovedClasses + movedClassesDelta);
+    }
+
+    int numberOfClassesToSearch() {
+        return classes.size();
+    }
+
+    int durationOf(int i) {
+        return duration[i];
+    }
+
+    int dayOf(int i) {
+        return day[i];
+    }
+
+    // the clashes over rooms, then the latest finish, then how uneven the days are, then how many classes left their day; smaller is better
+    private long objective() {
+        return objectiveOf(numberOfClashes, maxLoad(), sumOfSquaredLoads, numberOfMovedClasses);
+    }
+
+    // at most 3,600 classes and 7,200 minutes a week, so each part fits in its bits
+    private static long objectiveOf(int numberOfClashes, int maxLoad, long sumOfSquaredLoads, int numberOfMovedClasses) {
+        return (long) numberOfClashes << 51 | (long) maxLoad << 38 | sumOfSquaredLoads << 12 | numberOfMovedClasses;
+    }
+
+    private boolean isProvenOptimal(long objective) {
+
+        int lowerBoundOfMaxLoad = lowerBoundOfLatestFinish() - EarlyMorningsEngine.FIRST_START_MINUTE;
+        long evenShare = totalDuration / NUMBER_OF_DAYS;
+        long remainder = totalDuration % NUMBER_OF_DAYS;
+        long lowerBoundOfSumOfSquares = remainder * (evenShare + 1) * (evenShare + 1) + (NUMBER_OF_DAYS - remainder) * evenShare * evenShare;
+        return objective >>> 38 == lowerBoundOfMaxLoad && (objective >>> 12 & ((1L << 26) - 1)) == lowerBoundOfSumOfSquares; // and no clash
+    }
+
+    private int maxLoad() {
+        return Arrays.stream(load).max().orElse(0);
+    }
+
+    private long sumOfSquares() {
+
+        long sum = 0;
+        for (int dayLoad : load) {
+            sum += (long) dayLoad * dayLoad;
+        }
+        return sum;
+    }
+
+    // every day keeps its classes in the order of their old start times and is laid out back to back from 09:00
+    private List<ScheduleOperation> operationsToReachCurrentWeek() {
+
+        List<ScheduleOperation> removals = new ArrayList<>();
+        List<ScheduleOperation> additions = new ArrayList<>();
+        for (int d = 0; d < NUMBER_OF_DAYS; d++) {
+            int startMinute = EarlyMorningsEngine.FIRST_START_MINUTE;
+            for (int position = 0; position < numberOfClassesOnDay[d]; position++) {
+                int i = classesOfDay[d][position];
+                Class oldClass = classes.get(i);
+                Class newClass = new Class(CompactScheduleFile.timeOf(startMinute), CompactScheduleFile.timeOf(startMinute + duration[i]), oldClass.getName(), oldClass.getRoom());
+                if (d != originalDay[i] || !newClass.getStartTime().equals(oldClass.getStartTime()) || !newClass.getFinishTime().equals(oldClass.getFinishTime())) {
+                    removals.add(ScheduleOperation.remove(Schedule.DAYS_OF_WEEK.get(originalDay[i]), oldClass.getName(), oldClass.getStartTime()));
+                    additions.add(ScheduleOperation.add(Schedule.DAYS_OF_WEEK.get(d), newClass));
+                }
+                startMinute += duration[i];
+            }
+        }
+        removals.addAll(additions);
+        return removals;
+    }
+
+    static final class Move {
+
+        final long objective;
+        final int classIndex;
+        final int sourceDay;
+        final int targetDay;
+        final int otherClassIndex; // negative for a plain relocation
+
+        Move(long objective, int classIndex, int sourceDay, int targetDay, int otherClassIndex) {
+            this.objective = objective;
+            this.classIndex = classIndex;
+            this.sourceDay = sourceDay;
+            this.targetDay = targetDay;
+            this.otherClassIndex = otherClassIndex;
+        }
+
+        // the smaller objective wins; equal ones are decided by position, so the result does not depend on the split into tasks
+        boolean isBetterThan(Move other) {
+            return other == null || objective < other.objective || (objective == other.objective
+                    && (classIndex < other.classIndex || (classIndex == other.classIndex && otherClassIndex < other.otherClassIndex)));
+        }
+    }
+}
+
+// IMPLEMENTATION OF FORK-JOIN RULE USING DIVIDE AND CONQUER
+// the moves of the classes in [start, end): relocations to every other day, and swaps with the classes of other days that
+// are shorter (or as long and further on), so every pair of classes is tried once
+class MoveSearch extends RecursiveTask<OptimalPacking.Move> {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int MIN_CLASSES_PER_TASK = 8;
+
+    private final OptimalPacking packing;
+    private final int start;
+    private final int end;
+
+    MoveSearch(OptimalPacking packing, int start, int end) {
+        this.packing = packing;
+        this.start = start;
+        this.end = end;
+    }
+
+    @Override
+    protected OptimalPacking.Move compute() {
+
+        if (end - start <= MIN_CLASSES_PER_TASK || (long) (end - start) * packing.numberOfClassesToSearch() < 2L * OptimalPacking.MIN_MOVES_PER_TASK) {
+            return bestMoveInRange();
+        }
+        int middle = (start + end) / 2;
+        MoveSearch firstHalf = new MoveSearch(packing, start, middle);
+        MoveSearch secondHalf = new MoveSearch(packing, middle, end);
+        invokeAll(firstHalf, secondHalf);
+        OptimalPacking.Move firstBest = firstHalf.join();
+        OptimalPacking.Move secondBest = secondHalf.join();
+        return secondBest != null && secondBest.isBetterThan(firstBest) ? secondBest : firstBest;
+    }
+
+    OptimalPacking.Move bestMoveInRange() {
+
+        OptimalPacking.Move bestMove = null;
+        for (int i = start; i < end; i++) {
+            int sourceDay = packing.dayOf(i);
+            for (int targetDay = 0; targetDay < Schedule.DAYS_OF_WEEK.size(); targetDay++) {
+                if (targetDay != sourceDay) {
+                    bestMove = better(bestMove, i, sourceDay, targetDay, -1);
+                }
+            }
+            for (int j = 0; j < packing.numberOfClassesToSearch(); j++) {
+                if (packing.dayOf(j) != sourceDay && (packing.durationOf(j) < packing.durationOf(i) || (packing.durationOf(j) == packing.durationOf(i) && j > i))) {
+                    bestMove = better(bestMove, i, sourceDay, packing.dayOf(j), j);
+                }
+            }
+        }
+        return bestMove;
+    }
+
+    private OptimalPacking.Move better(OptimalPacking.Move bestMove, int i, int sourceDay, int targetDay, int otherClassIndex) {
+
+        long objective = packing.objectiveAfterMove(sourceDay, i, targetDay, otherClassIndex);
+        if (bestMove != null && objective > bestMove.objective) {
+            return bestMove;
+        }
+        OptimalPacking.Move move = new OptimalPacking.Move(objective, i, sourceDay, targetDay, otherClassIndex);
+        return move.isBetterThan(bestMove) ? move : bestMove;
+    }
+}
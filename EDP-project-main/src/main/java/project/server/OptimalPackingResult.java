@@ -0,0 +1,66 @@
+package project.server;
+
+import java.time.LocalTime;
+
+// what an Optimal Packing run found for one schedule and how long it searched
+public final class OptimalPackingResult {
+
+    private final LocalTime latestFinishBefore;
+    private final LocalTime latestFinishAfter;
+    private final LocalTime lowerBoundOfLatestFinish;
+    private final int numberOfClasses;
+    private final int numberOfClassesMovedToAnotherDay;
+    private final long numberOfMovesEvaluated;
+    private final long elapsedNanos;
+
+    OptimalPackingResult(LocalTime latestFinishBefore, LocalTime latestFinishAfter, LocalTime lowerBoundOfLatestFinish, int numberOfClasses,
+                         int numberOfClassesMovedToAnotherDay, long numberOfMovesEvaluated, long elapsedNanos) {
+        this.latestFinishBefore = latestFinishBefore;
+        this.latestFinishAfter = latestFinishAfter;
+        this.lowerBoundOfLatestFinish = lowerBoundOfLatestFinish;
+        this.numberOfClasses = numberOfClasses;
+        this.numberOfClassesMovedToAnotherDay = numberOfClassesMovedToAnotherDay;
+        this.numberOfMovesEvaluated = numberOfMovesEvaluated;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public LocalTime getLatestFinishBefore() {
+        return latestFinishBefore;
+    }
+
+    public LocalTime getLatestFinishAfter() {
+        return latestFinishAfter;
+    }
+
+    public LocalTime getLowerBoundOfLatestFinish() {
+        return lowerBoundOfLatestFinish;
+    }
+
+    public int getNumberOfClasses() {
+        return numberOfClasses;
+    }
+
+    public int getNumberOfClassesMovedToAnotherDay() {
+        return numberOfClassesMovedToAnotherDay;
+    }
+
+    public long getNumberOfMovesEvaluated() {
+        return numberOfMovesEvaluated;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    // no week can finish earlier than the lower bound, so reaching it proves the latest finish optimal
+    public boolean isLatestFinishProvenOptimal() {
+        return latestFinishAfter.equals(lowerBoundOfLatestFinish);
+    }
+
+    @Override
+    public String toString() {
+        return "latest finish " + latestFinishBefore + " -> " + latestFinishAfter + (isLatestFinishProvenOptimal() ? " (optimal)" : " (no earlier than " + lowerBoundOfLatestFinish + ")")
+                + ", " + numberOfClassesMovedToAnotherDay + " of " + numberOfClasses + " classes moved to another day, " + numberOfMovesEvaluated
+                + " moves evaluated in " + String.format("%.3f", elapsedNanos / 1_000_000.0) + " ms";
+    }
+}
@@ -0,0 +1,161 @@
+package project.server;
+
+import java.util.Arrays;
+
+// IMPLEMENTATION OF THE PACKED CLASS REPRESENTATION
+// Inside a Schedule a class is one long, the classes of a day one sorted long[]: conflict checks, lookups and 'Early Mornings'
+// work on primitives and allocate nothing. Class objects are only created as views for the protocol layer.
+//
+//   bits 52-62: start minute of the day   bits 41-51: finish minute of the day   bits 38-40: day of the week
+//   bits 22-37: id of the name            bits 0-21: id of the room
+// The start time is in the highest bits, so sorting the longs sorts the classes by start time.
+// Finding a class is a binary search, O(log n) like the TreeMap it replaced; an insert or a remove shifts the classes after it,
+// O(n). A day holds at most 720 checked classes (each takes a minute and may not touch the next), so the shift is one
+// System.arraycopy() of a few KB at worst, and every change copies the whole day anyway for the version it publishes
+// (see Schedule.makeVersionWhileLocked()). PackedDayBenchmark compares the two.
+final class PackedDay {
+
+    private static final int START_SHIFT = 52;
+    private static final int FINISH_SHIFT = 41;
+    private static final int DAY_SHIFT = 38;
+    private static final int NAME_SHIFT = 22;
+    private static final long MINUTE_MASK = (1L << 11) - 1;
+    static final int MAX_NUMBER_OF_NAMES = 1 << 16;
+    static final int MAX_NUMBER_OF_ROOMS = 1 << 22;
+    private static final int MINUTES_PER_DAY = 24 * 60;
+    private static final long[] NO_CLASSES = new long[0];
+    static final long NO_CLASS = -1; // bit 63 of a packed class is always 0
+
+    private long[] classes = NO_CLASSES; // sorted by start time, only the first size entries are used
+    private int size;
+
+    static long pack(int startMinute, int finishMinute, int dayIndex, int nameId, int roomId) {
+        return (long) startMinute << START_SHIFT | (long) finishMinute << FINISH_SHIFT | (long) dayIndex << DAY_SHIFT | (long) nameId << NAME_SHIFT | roomId;
+    }
+
+    static int startOf(long packedClass) {
+        return (int) (packedClass >>> START_SHIFT & MINUTE_MASK);
+    }
+
+    static int finishOf(long packedClass) {
+        return (int) (packedClass >>> FINISH_SHIFT & MINUTE_MASK);
+    }
+
+    static int dayOf(long packedClass) {
+        return (int) (packedClass >>> DAY_SHIFT & 0x7);
+    }
+
+    static int nameIdOf(long packedClass) {
+        return (int) (packedClass >>> NAME_SHIFT & (MAX_NUMBER_OF_NAMES - 1));
+    }
+
+    static int roomIdOf(long packedClass) {
+        return (int) (packedClass & (MAX_NUMBER_OF_ROOMS - 1));
+    }
+
+    int size() {
+        return size;
+    }
+
+    long get(int i) {
+        return classes[i];
+    }
+
+    // the index of the class starting at startMinute, or (-(insertion point) - 1) if there is none, like Arrays.binarySearch()
+    int indexOfStart(int startMinute) {
+
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int middleStart = startOf(classes[middle]);
+            if (middleStart < startMinute) {
+                low = middle + 1;
+            } else if (middleStart > startMinute) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -(low + 1);
+    }
+
+    // Classes of a day never overlap each other, so only the two neighbours of the new start time can clash with it: O(log n).
+    // Touching counts as overlapping, the same rule as Class.overlapsWith().
+    boolean overlapsNeighbours(int startMinute, int finishMinute) {
+
+        int index = indexOfStart(startMinute);
+        int classStartingBefore = index >= 0 ? index : -index - 2;
+        int classStartingAfter = index >= 0 ? index : -index - 1;
+        return (classStartingBefore >= 0 && overlaps(startMinute, finishMinute, classes[classStartingBefore]))
+                || (classStartingAfter < size && overlaps(startMinute, finishMinute, classes[classStartingAfter]));
+    }
+
+    // both sides are compared, a class that wraps past midnight after 'Early Mornings' finishes before it starts
+    private static boolean overlaps(int startMinute, int finishMinute, long otherClass) {
+        return finishMinute >= startOf(otherClass) && startMinute <= finishOf(otherClass);
+    }
+
+    // a class starting at the same time as an existing one replaces it; returns the class it replaced, or NO_CLASS
+    long insert(long packedClass) {
+
+        int index = indexOfStart(startOf(packedClass));
+        if (index >= 0) {
+            long replacedClass = classes[index];
+            classes[index] = packedClass;
+            return replacedClass;
+        }
+        int insertionPoint = -index - 1;
+        if (size == classes.length) {
+            classes = Arrays.copyOf(classes, Math.max(4, size * 2));
+        }
+        System.arraycopy(classes, insertionPoint, classes, insertionPoint + 1, size - insertionPoint);
+        classes[insertionPoint] = packedClass;
+        size++;
+        return NO_CLASS;
+    }
+
+    // the classes as they are now, for a version of the day that is published to readers
+    // a day of its own with the same classes, to work out a change before it is made
+    PackedDay copy() {
+
+        PackedDay copy = new PackedDay();
+        copy.classes = Arrays.copyOf(classes, size);
+        copy.size = size;
+        return copy;
+    }
+
+    long[] toArray() {
+        return Arrays.copyOf(classes, size);
+    }
+
+    long removeAt(int index) {
+
+        long removedClass = classes[index];
+        System.arraycopy(classes, index + 1, classes, index, size - index - 1);
+        size--;
+        return removedClass;
+    }
+
+    // 'Early Mornings' in place: the classes keep their order and length and follow each other from firstStartMinute on
+    void shiftToMorning(int firstStartMinute) {
+
+        int startMinute = firstStartMinute;
+        boolean wrappedPastMidnight = false;
+        for (int i = 0; i < size; i++) {
+            long aClass = classes[i];
+            // the same as LocalTime.plus(Duration.between()), which wraps around midnight; a class that already wraps has a negative length
+            int finishMinute = Math.floorMod(startMinute + finishOf(aClass) - startOf(aClass), MINUTES_PER_DAY);
+            wrappedPastMidnight |= finishMinute < startMinute;
+            classes[i] = pack(startMinute, finishMinute, dayOf(aClass), nameIdOf(aClass), roomIdOf(aClass));
+            startMinute = finishMinute;
+        }
+        if (wrappedPastMidnight) { // put back in order of start time; a later class that now starts with an earlier one replaces it, like a map would
+            long[] shiftedClasses = Arrays.copyOf(classes, size);
+            size = 0;
+            for (long shiftedClass : shiftedClasses) {
+                insert(shiftedClass);
+            }
+        }
+    }
+}
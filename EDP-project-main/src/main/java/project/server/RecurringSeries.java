@@ -0,0 +1,182 @@
+package project.server;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+
+// IMPLEMENTATION OF RECURRING CLASSES
+// A class held on one day of the week, every intervalInWeeks weeks from its first date, numberOfOccurrences times. Only the
+// rule and the dates on which it is cancelled are kept: an occurrence is found by arithmetic on week numbers, so a series
+// over a whole academic year costs as much as one over a single week, to store and to check for conflicts.
+// A one-off class is a series with one occurrence; a class moved for one week is a cancelled occurrence and a one-off class.
+final class RecurringSeries {
+
+    static final int MAX_NUMBER_OF_OCCURRENCES = 260; // five years of weekly classes
+    static final int MAX_INTERVAL_IN_WEEKS = 52;
+
+    final int id; // unique within its schedule, given by the schedule once the series is accepted
+    final String name;
+    final String room;
+    final LocalDate firstDate;
+    final int numberOfOccurrences;
+    final int intervalInWeeks;
+    final int startMinute;
+    final int finishMinute;
+    final int dayIndex; // the day of the week of every occurrence, as in Schedule.DAYS_OF_WEEK
+    final NavigableSet<LocalDate> cancelledDates = new TreeSet<>(); // filled while the series is made, never changed once it is in a schedule
+    private final long firstWeek;
+
+    RecurringSeries(int id, String name, String room, LocalDate firstDate, int numberOfOccurrences, int intervalInWeeks, int startMinute, int finishMinute) {
+        this.id = id;
+        this.name = name;
+        this.room = room;
+        this.firstDate = firstDate;
+        this.numberOfOccurrences = numberOfOccurrences;
+        this.intervalInWeeks = intervalInWeeks;
+        this.startMinute = startMinute;
+        this.finishMinute = finishMinute;
+        this.dayIndex = firstDate.getDayOfWeek().getValue() - 1;
+        this.firstWeek = weekOf(firstDate);
+    }
+
+    // the same series under the id it is given once it is accepted
+    RecurringSeries withId(int newId) {
+        return new RecurringSeries(newId, name, room, firstDate, numberOfOccurrences, intervalInWeeks, startMinute, finishMinute);
+    }
+
+    // A cancellation makes a new series that replaces this one: readers of the schedule may be holding this one.
+    RecurringSeries withCancelledDate(LocalDate date) {
+
+        RecurringSeries series = new RecurringSeries(id, name, room, firstDate, numberOfOccurrences, intervalInWeeks, startMinute, finishMinute);
+        series.cancelledDates.addAll(cancelledDates);
+        series.cancelledDates.add(date);
+        return series;
+    }
+
+    // the rules a new series has to follow, checked before anything is locked
+    static void validate(LocalDate firstDate, int numberOfOccurrences, int intervalInWeeks, int startMinute, int finishMinute) {
+
+        if (firstDate.getDayOfWeek() == DayOfWeek.SATURDAY || firstDate.getDayOfWeek() == DayOfWeek.SUNDAY) {
+            throw new IncorrectActionException(firstDate + " is not a day from Monday to Friday.");
+        }
+        if (numberOfOccurrences < 1 || numberOfOccurrences > MAX_NUMBER_OF_OCCURRENCES) {
+            throw new IncorrectActionException("A recurring class takes place from 1 to " + MAX_NUMBER_OF_OCCURRENCES + " times.");
+        }
+        if (intervalInWeeks < 1 || intervalInWeeks > MAX_INTERVAL_IN_WEEKS) {
+            throw new IncorrectActionException("A recurring class takes place every 1 to " + MAX_INTERVAL_IN_WEEKS + " weeks.");
+        }
+        if (startMinute >= finishMinute) {
+            throw new IncorrectActionException("Start time of a class cannot be after finish time.");
+        }
+    }
+
+    LocalDate lastDate() {
+        return firstDate.plusWeeks((long) (numberOfOccurrences - 1) * intervalInWeeks);
+    }
+
+    // on the series' day, between its first and last date, in one of its weeks; cancelled or not
+    boolean isScheduledOn(LocalDate date) {
+        long week = weekOf(date);
+        return date.getDayOfWeek().getValue() - 1 == dayIndex && week >= firstWeek && week <= lastWeek() && (week - firstWeek) % intervalInWeeks == 0;
+    }
+
+    // touching counts as overlapping, the same rule as for the classes held every week
+    boolean overlapsInTime(int otherStartMinute, int otherFinishMinute) {
+        return otherFinishMinute >= startMinute && otherStartMinute <= finishMinute;
+    }
+
+    // The first date on which both series take place, or null; the other series is on the same day of the week.
+    // The weeks of this series are firstWeek + k * intervalInWeeks: if none of intervalInWeeks of the other's consecutive
+    // weeks of this series is also a week of the other, none ever is. The weeks they share then repeat every lcm of the intervals.
+    LocalDate firstDateInCommonWith(RecurringSeries other) {
+
+        long fromWeek = Math.max(firstWeek, other.firstWeek);
+        long toWeek = Math.min(lastWeek(), other.lastWeek());
+        long week = firstWeek + ceilDiv(Math.max(0, fromWeek - firstWeek), intervalInWeeks) * intervalInWeeks;
+        for (int i = 0; i < other.intervalInWeeks && week <= toWeek; i++, week += intervalInWeeks) {
+            if (Math.floorMod(week - other.firstWeek, other.intervalInWeeks) == 0) {
+                long weeksBetweenCommonWeeks = (long) intervalInWeeks / gcd(intervalInWeeks, other.intervalInWeeks) * other.intervalInWeeks;
+                for (; week <= toWeek; week += weeksBetweenCommonWeeks) { // at most one step more than there are cancelled dates
+                    LocalDate date = dateInWeek(week);
+                    if (!cancelledDates.contains(date) && !other.cancelledDates.contains(date)) {
+                        return date;
+                    }
+                }
+                return null;
+            }
+        }
+        return null;
+    }
+
+    // the occurrences from 'from' to 'to', cancelled ones left out, in order; only those are computed
+    void forEachOccurrenceBetween(LocalDate from, LocalDate to, Consumer<LocalDate> action) {
+
+        long daysBetweenOccurrences = 7L * intervalInWeeks;
+        long firstOccurrence = Math.max(0, ceilDiv(from.toEpochDay() - firstDate.toEpochDay(), daysBetweenOccurrences));
+        for (long k = firstOccurrence; k < numberOfOccurrences; k++) {
+            LocalDate date = firstDate.plusDays(k * daysBetweenOccurrences);
+            if (date.isAfter(to)) {
+                return;
+            }
+            if (!cancelledDates.contains(date)) {
+                action.accept(date);
+            }
+        }
+    }
+
+    // the rule, not the cancellations: that is what adding the series means in the journal and in pushes
+    void writeTo(DataOutput out) throws IOException {
+        out.writeInt(id);
+        out.writeLong(firstDate.toEpochDay());
+        out.writeShort(numberOfOccurrences);
+        out.writeByte(intervalInWeeks);
+        out.writeShort(startMinute);
+        out.writeShort(finishMinute);
+        out.writeUTF(name);
+        out.writeUTF(room);
+    }
+
+    static RecurringSeries readFrom(DataInput in) throws IOException {
+        int id = in.readInt();
+        LocalDate firstDate = LocalDate.ofEpochDay(in.readLong());
+        int numberOfOccurrences = in.readShort();
+        int intervalInWeeks = in.readByte();
+        int startMinute = in.readShort();
+        int finishMinute = in.readShort();
+        return new RecurringSeries(id, in.readUTF(), in.readUTF(), firstDate, numberOfOccurrences, intervalInWeeks, startMinute, finishMinute);
+    }
+
+    // "3: CS101: from 09:00 to 10:00, in R1, on Mondays from 2026-09-07 to 2026-11-23, every week"
+    @Override
+    public String toString() {
+        return id + ": " + Class.describe(name, CompactScheduleFile.timeOf(startMinute), CompactScheduleFile.timeOf(finishMinute), room)
+                + ", on " + Schedule.DAYS_OF_WEEK.get(dayIndex) + "s from " + firstDate + " to " + lastDate()
+                + (intervalInWeeks == 1 ? ", every week" : ", every " + intervalInWeeks + " weeks");
+    }
+
+    private long lastWeek() {
+        return firstWeek + (long) (numberOfOccurrences - 1) * intervalInWeeks;
+    }
+
+    private LocalDate dateInWeek(long week) {
+        return LocalDate.ofEpochDay(week * 7 - 3 + dayIndex);
+    }
+
+    // weeks start on Monday; the week of 1970-01-01 (a Thursday) is week 0
+    private static long weekOf(LocalDate date) {
+        return Math.floorDiv(date.toEpochDay() + 3, 7);
+    }
+
+    private static long ceilDiv(long dividend, long divisor) {
+        return -Math.floorDiv(-dividend, divisor);
+    }
+
+    private static int gcd(int a, int b) {
+        return b == 0 ? a : gcd(b, a % b);
+    }
+}
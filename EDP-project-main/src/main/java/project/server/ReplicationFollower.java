@@ -0,0 +1,237 @@
+package project.server;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+// IMPLEMENTATION OF LOG-SHIPPING REPLICATION: A REPLICA
+// A replica (server.replicaOf) connects to the replication port of its primary (see ReplicationSource), takes the snapshot
+// it is sent in place of its own schedules, then applies the changes the primary streams, on one thread, in the order they
+// were made. Its clients read as they would from the primary, and subscribers are pushed the changes, but every change they
+// ask for is refused with the address of the primary.
+// The lag of every change, from the moment the primary made it to the moment it is applied here, goes to the metrics; on
+// two hosts it includes the difference between their clocks. When the connection breaks, or nothing was heard for three
+// heartbeats, the replica connects again and catches up from a new snapshot. Once the primary has not been heard from for
+// server.promoteAfterSeconds, or on 'Promote', the replica stops following and takes changes itself; other replicas are
+// pointed at it with 'Follow', which accepts only the primary and the servers listed in server.replicationPeers. Promotion
+// does not fence the old primary: it must be restarted as a replica of the new one.
+class ReplicationFollower implements Runnable {
+
+    private static final long RECONNECT_DELAY_MILLIS = 1_000;
+    private static final int MISSED_HEARTBEATS_BEFORE_RECONNECTING = 3;
+
+    private final ScheduleRegistry registry;
+    private final Set<String> peers; // host:port of the replication ports this replica may be pointed at, its first primary among them
+    private final Duration promoteAfter; // zero: only 'Promote' promotes
+    private final Runnable onPromotion; // opens the replication port of the new primary, if it has one
+    private volatile String primary; // host:port of the primary's replication port
+    private volatile boolean promoted;
+    private volatile Socket socket; // null while not connected
+    private volatile long lastHeardFromPrimaryNanos = System.nanoTime();
+    private volatile long numberOfAppliedChanges; // written by the following thread only
+    private volatile long lastLagMicros;
+
+    ReplicationFollower(ScheduleRegistry registry, String primary, Collection<String> peers, Duration promoteAfter, Runnable onPromotion) {
+        this.registry = registry;
+        this.primary = primary;
+        this.peers = new HashSet<>(peers);
+        this.peers.add(primary);
+        this.promoteAfter = promoteAfter;
+        this.onPromotion = onPromotion;
+    }
+
+    void start() {
+
+        Thread follower = new Thread(this, "replication-follower");
+        follower.setDaemon(true);
+        follower.start();
+    }
+
+    boolean isPromoted() {
+        return promoted;
+    }
+
+    String primary() {
+        return primary;
+    }
+
+    // returns false if the replica was promoted before
+    synchronized boolean promote() {
+
+        if (promoted) {
+            return false;
+        }
+        promoted = true;
+        closeConnection();
+        ServerLog.warn("This server no longer follows " + primary + ": it was promoted and takes changes itself.");
+        onPromotion.run();
+        return true;
+    }
+
+    boolean mayFollow(String hostAndPort) {
+        return peers.contains(hostAndPort);
+    }
+
+    // the connection to the old primary is dropped, the new one sends a snapshot
+    void follow(String newPrimary) {
+
+        primary = newPrimary;
+        closeConnection();
+        ServerLog.info("This server follows " + newPrimary + " from now on.");
+    }
+
+    @Override
+    public void run() {
+
+        while (!promoted) {
+            String primaryToFollow = primary;
+            try (Socket connection = connectTo(primaryToFollow)) {
+                socket = connection;
+                if (!promoted) {
+                    applyStreamFrom(connection);
+                }
+            } catch (IOException | RuntimeException e) { // a change out of step or a snapshot that cannot be applied: a new snapshot puts it right
+                if (!promoted && primaryToFollow.equals(primary)) {
+                    ServerLog.warn("Not connected to the primary " + primaryToFollow + ": " + (e instanceof EOFException ? "it closed the connection." : e.getMessage()));
+                }
+            } finally {
+                socket = null;
+            }
+            if (!promoted && !promoteAfter.isZero() && System.nanoTime() - lastHeardFromPrimaryNanos > promoteAfter.toNanos()) {
+                ServerLog.warn("The primary " + primary + " has not been heard from for " + promoteAfter.toSeconds() + " seconds.");
+                promote();
+            }
+            try {
+                Thread.sleep(promoted || !primaryToFollow.equals(primary) ? 0 : RECONNECT_DELAY_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    String describe() {
+
+        if (promoted) {
+            return "This server was a replica of " + primary + " and was promoted: it takes changes itself. " + numberOfAppliedChanges
+                    + " changes were replicated before.";
+        }
+        ServerMetrics metrics = registry.metrics();
+        return "This server is a read-only replica of " + primary + (socket != null ? ", connected." : ", trying to connect.")
+                + "\nChanges applied: " + numberOfAppliedChanges + ", snapshots taken: " + metrics.getReplicationSnapshots() + "."
+                + "\nReplication lag: " + String.format(Locale.ROOT, "%.3f", lastLagMicros / 1_000.0) + " ms for the last change, "
+                + String.format(Locale.ROOT, "%.3f", metrics.getReplicationLagP99Millis()) + " ms at p99, " + String.format(Locale.ROOT, "%.3f", metrics.getReplicationLagMaxMillis()) + " ms at most."
+                + "\nLast heard from the primary " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastHeardFromPrimaryNanos) + " ms ago.";
+    }
+
+    private static Socket connectTo(String hostAndPort) throws IOException {
+
+        int colon = hostAndPort.lastIndexOf(':');
+        Socket connection = new Socket();
+        try {
+            connection.connect(new InetSocketAddress(hostAndPort.substring(0, colon), Integer.parseInt(hostAndPort.substring(colon + 1))), (int) RECONNECT_DELAY_MILLIS);
+        } catch (IOException e) {
+            connection.close();
+            throw e;
+        }
+        return connection;
+    }
+
+    private void applyStreamFrom(Socket connection) throws IOException {
+
+        connection.setSoTimeout((int) (ReplicationSource.HEARTBEAT_INTERVAL_MILLIS * MISSED_HEARTBEATS_BEFORE_RECONNECTING));
+        connection.setTcpNoDelay(true);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(connection.getInputStream(), 64 * 1024));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream()));
+        out.writeInt(ReplicationSource.MAGIC);
+        out.flush();
+        ServerLog.info("Connected to the primary " + primary + ", waiting for its snapshot.");
+
+        Set<String> tenantsInSnapshot = new HashSet<>();
+        int numberOfReplacedSchedules = 0;
+        long numberOfChangesOnThisConnection = 0;
+        while (!promoted) {
+            byte type = in.readByte();
+            lastHeardFromPrimaryNanos = System.nanoTime();
+            registry.metrics().heardFromPrimary();
+            switch (type) {
+                case ReplicationSource.SCHEDULE -> {
+                    String tenantId = in.readUTF();
+                    int scheduleFileLength = in.readInt();
+                    if (scheduleFileLength < 0 || scheduleFileLength > CompactScheduleFile.MAX_LENGTH) {
+                        throw new IOException("The primary sent a schedule of " + scheduleFileLength + " bytes.");
+                    }
+                    byte[] scheduleFile = new byte[scheduleFileLength];
+                    in.readFully(scheduleFile);
+                    tenantsInSnapshot.add(tenantId);
+                    if (registry.replaceSchedule(tenantId, scheduleFile)) {
+                        numberOfReplacedSchedules++;
+                    }
+                }
+                case ReplicationSource.SNAPSHOT_END -> {
+                    dropSchedulesNotIn(tenantsInSnapshot, numberOfReplacedSchedules > 0);
+                    registry.metrics().replicationSnapshotApplied();
+                    ServerLog.info("Caught up with the primary " + primary + " from a snapshot of " + tenantsInSnapshot.size() + " schedules, "
+                            + numberOfReplacedSchedules + " of them differed from the copies here.");
+                    tenantsInSnapshot.clear();
+                    numberOfReplacedSchedules = 0;
+                }
+                case ReplicationSource.CHANGE -> {
+                    long madeAtEpochMicros = in.readLong();
+                    byte[] record = new byte[in.readInt()];
+                    in.readFully(record);
+                    ScheduleJournal.readRecord(new DataInputStream(new ByteArrayInputStream(record)), registry::applyReplicatedChange);
+                    long lagMicros = ScheduleChange.nowEpochMicros() - madeAtEpochMicros;
+                    registry.metrics().recordReplicatedChange(TimeUnit.MICROSECONDS.toNanos(lagMicros));
+                    lastLagMicros = lagMicros;
+                    numberOfAppliedChanges++;
+                    numberOfChangesOnThisConnection++;
+                }
+                case ReplicationSource.HEARTBEAT -> {
+                }
+                default -> throw new IOException("The primary sent a message of an unknown type " + type + ".");
+            }
+            if (in.available() == 0) { // caught up with what has arrived: confirmed once the journal has it, like a change made here
+                registry.awaitJournalOfCurrentThread();
+                out.writeLong(numberOfChangesOnThisConnection);
+                out.flush();
+            }
+        }
+    }
+
+    // schedules the primary no longer has, e.g. moved to another server of a cluster while this replica was away
+    private void dropSchedulesNotIn(Set<String> tenantsInSnapshot, boolean schedulesWereReplaced) {
+
+        List<String> tenantsNotInSnapshot = registry.tenantIds();
+        tenantsNotInSnapshot.removeAll(tenantsInSnapshot);
+        if (!tenantsNotInSnapshot.isEmpty()) {
+            try {
+                registry.dropSchedules(tenantsNotInSnapshot); // takes a checkpoint
+                return;
+            } catch (IncorrectActionException iae) {
+                ServerLog.warn("Schedules the primary does not have are kept until the next snapshot: " + iae.getMessage());
+            }
+        }
+        if (schedulesWereReplaced) {
+            registry.checkpoint(); // the journal written before the replaced schedules must not be replayed onto them
+        }
+    }
+
+    private void closeConnection() {
+
+        Socket connection = socket;
+        if (connection != null) {
+            try {
+                connection.close();
+            } catch (IOException e) {
+                ServerLog.warn("The connection to the primary could not be closed: " + e.getMessage());
+            }
+        }
+    }
+}
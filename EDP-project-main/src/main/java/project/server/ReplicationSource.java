@@ -0,0 +1,211 @@
+package project.server;
+
+import java.io.*;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// IMPLEMENTATION OF LOG-SHIPPING REPLICATION: THE PRIMARY
+// Replicas (see ReplicationFollower) connect to a port of their own, server.replicationPort, and are sent every change of
+// every schedule as a record of the journal, in the order each schedule was changed. They apply the changes to their own
+// copies and answer the reads, while only the primary takes changes.
+// A replica that connects is subscribed to the changes first and sent a snapshot of every schedule after: the changes made
+// while the snapshot is sent follow it, and the replica skips those the snapshot already contains by their version.
+// Changes wait in a bounded queue per replica; a replica that falls behind by more than the queue is sent a new snapshot
+// instead of the changes it lost, so a slow replica never holds up the clients that change things.
+// A heartbeat is sent every second nothing changes, so a replica can tell a quiet primary from a dead one, and a replica
+// tells how many changes it has applied, which is what 'Replication' reports it is behind by.
+class ReplicationSource implements Closeable {
+
+    static final int MAGIC = 0x5245504C; // "REPL", sent first by a replica, so a client that connects here by mistake is turned away
+    static final byte SCHEDULE = 1;     // a tenant id and a schedule in the format of CompactScheduleFile
+    static final byte SNAPSHOT_END = 2; // every schedule was sent, a replica drops the ones it was not sent
+    static final byte CHANGE = 3;       // when the change was made (epoch microseconds), then a record of the journal
+    static final byte HEARTBEAT = 4;
+    static final long HEARTBEAT_INTERVAL_MILLIS = 1_000;
+    static final int DEFAULT_QUEUE_CAPACITY = 100_000;
+
+    private final ScheduleRegistry registry;
+    private final ServerSocket serverSocket;
+    private final int queueCapacity;
+    private final Set<ReplicaLink> replicas = ConcurrentHashMap.newKeySet();
+
+    ReplicationSource(ScheduleRegistry registry, int port, int queueCapacity) throws IOException {
+
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("A replica must be able to queue at least one change.");
+        }
+        this.registry = registry;
+        this.queueCapacity = queueCapacity;
+        this.serverSocket = new ServerSocket(port);
+        Thread acceptor = new Thread(this::acceptReplicas, "replication-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    int port() {
+        return serverSocket.getLocalPort();
+    }
+
+    // a line per replica, for 'Replication'
+    String describe() {
+
+        StringBuilder description = new StringBuilder("Replicas following this server on port ").append(port()).append(": ").append(replicas.size());
+        for (ReplicaLink replica : replicas) {
+            description.append("\n").append(replica.describe());
+        }
+        return description.toString();
+    }
+
+    @Override
+    public void close() {
+
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            ServerLog.warn("The replication port could not be closed: " + e.getMessage());
+        }
+        replicas.forEach(ReplicaLink::close);
+    }
+
+    private void acceptReplicas() {
+
+        while (!serverSocket.isClosed()) {
+            try {
+                ReplicaLink replica = new ReplicaLink(serverSocket.accept());
+                replicas.add(replica);
+                Thread sender = new Thread(replica, "replication-to-" + replica.address);
+                sender.setDaemon(true);
+                sender.start();
+            } catch (IOException e) {
+                if (!serverSocket.isClosed()) {
+                    ServerLog.warn("A replica could not connect: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    // the connection of one replica; its thread sends, a second one reads what the replica has applied
+    private final class ReplicaLink implements Runnable {
+
+        private final Socket socket;
+        private final String address;
+        private final ChangeSubscription subscription;
+        private volatile long numberOfShippedChanges; // written by the sending thread only
+        private volatile long numberOfAcknowledgedChanges; // written by the reading thread only
+        private volatile int numberOfSnapshots;
+
+        ReplicaLink(Socket socket) {
+            this.socket = socket;
+            this.address = socket.getInetAddress().getHostAddress() + ":" + socket.getPort();
+            this.subscription = registry.changeFeed().newSubscription(queueCapacity, () -> {}); // the sending thread waits on the subscription itself
+        }
+
+        @Override
+        public void run() {
+
+            try (socket) {
+                socket.setTcpNoDelay(true);
+                DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 64 * 1024));
+                if (in.readInt() != MAGIC) {
+                    ServerLog.warn("A connection from " + address + " to the replication port was not a replica and was closed.");
+                    return;
+                }
+                startReadingAcknowledgements(in);
+                registry.changeFeed().subscribeToEverySchedule(subscription); // before the snapshot, so no change falls between the two
+                ServerLog.info("Replica " + address + " connected, a snapshot of every schedule is sent to it.");
+                sendSnapshot(out);
+                sendChanges(out);
+            } catch (IOException e) {
+                ServerLog.info("Replica " + address + " disconnected: " + e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                registry.changeFeed().unsubscribeFromEverySchedule(subscription);
+                replicas.remove(this);
+            }
+        }
+
+        private void sendSnapshot(DataOutputStream out) throws IOException {
+
+            for (String tenantId : registry.tenantIds()) {
+                byte[] scheduleFile = registry.exportSchedule(tenantId);
+                out.writeByte(SCHEDULE);
+                out.writeUTF(tenantId);
+                out.writeInt(scheduleFile.length);
+                out.write(scheduleFile);
+            }
+            out.writeByte(SNAPSHOT_END);
+            out.flush();
+            numberOfSnapshots++;
+        }
+
+        private void sendChanges(DataOutputStream out) throws IOException, InterruptedException {
+
+            ByteArrayOutputStream recordBytes = new ByteArrayOutputStream();
+            DataOutputStream recordOutput = new DataOutputStream(recordBytes);
+            while (true) {
+                ScheduleChange change = subscription.poll();
+                if (change == null) {
+                    out.flush(); // nothing more is queued: the changes taken so far go out in one write
+                    change = subscription.poll(HEARTBEAT_INTERVAL_MILLIS);
+                    if (change == null) {
+                        out.writeByte(HEARTBEAT);
+                        out.flush();
+                        continue;
+                    }
+                }
+                if (change == ScheduleChange.MISSED) {
+                    ServerLog.warn("Replica " + address + " fell behind by more than " + queueCapacity + " changes, a new snapshot is sent to it.");
+                    sendSnapshot(out);
+                    continue;
+                }
+                recordBytes.reset();
+                ScheduleJournal.writeRecord(recordOutput, change.tenantId, change.version, change.operations);
+                out.writeByte(CHANGE);
+                out.writeLong(change.madeAtEpochMicros);
+                out.writeInt(recordBytes.size());
+                recordBytes.writeTo(out);
+                numberOfShippedChanges++;
+                registry.metrics().changeShippedToReplica();
+            }
+        }
+
+        // the replica sends the number of changes it has applied whenever it has caught up with what it received
+        private void startReadingAcknowledgements(DataInputStream in) {
+
+            Thread reader = new Thread(() -> {
+                try {
+                    while (true) {
+                        long numberOfAppliedChanges = in.readLong();
+                        registry.metrics().changesAcknowledgedByReplica(numberOfAppliedChanges - numberOfAcknowledgedChanges);
+                        numberOfAcknowledgedChanges = numberOfAppliedChanges;
+                    }
+                } catch (IOException e) {
+                    close(); // the sending thread finds the socket closed at its next write
+                }
+            }, "replication-from-" + address);
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        String describe() {
+
+            long numberOfShipped = numberOfShippedChanges;
+            long numberOfAcknowledged = numberOfAcknowledgedChanges;
+            return address + ": " + numberOfSnapshots + " snapshot(s) and " + numberOfShipped + " changes sent, " + numberOfAcknowledged
+                    + " applied, " + (numberOfShipped - numberOfAcknowledged) + " on the way and " + subscription.numberOfQueuedChanges() + " waiting to be sent.";
+        }
+
+        void close() {
+
+            try {
+                socket.close();
+            } catch (IOException e) {
+                ServerLog.warn("The connection of replica " + address + " could not be closed: " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,811 @@
+package project.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.UncheckedIOException;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+
+// turns one message from a client into the response to send back; shared by every kind of connection handling
+// The text protocol is parsed here, the binary one in BinaryProtocol; both end up in the same typed operations below.
+class RequestProcessor {
+
+    private static final EncodedMessage EMPTY_SCHEDULE_MESSAGE = EncodedMessage.of("The schedule does not contain any classes so far.");
+    private static final int MAX_DAYS_IN_TERM_DISPLAYED = 366;
+    private static final Set<String> ACTIONS_THAT_CAN_BE_CONDITIONAL = Set.of("Add New Class", "Remove Class", "Batch",
+            "Add Recurring Class", "Remove Recurring Class", "Cancel Occurrence");
+    private static final long NO_EXPECTED_VERSION = -1;
+    // what the servers of a cluster are asked by their router, and what makes a replica change its primary: refused on the
+    // port of the clients, see Server.openAdministrationPort
+    private static final Set<String> ACTIONS_FOR_ADMINISTRATION_ONLY = Set.of("Schedules", "Export Schedule", "Import Schedule",
+            "Import Schedule Part", "Drop Schedules", "Promote", "Follow");
+
+    private final ScheduleRegistry scheduleRegistry;
+    private final boolean administration; // true on the administration port only
+    private String tenantId = ScheduleRegistry.DEFAULT_TENANT_ID; // the schedule this connection works with
+
+    // a text batch arrives as "Batch,<n>" followed by n lines, so the processor remembers where it is between messages
+    private List<ScheduleOperation> batchBeingCollected;
+    private int numberOfBatchLinesExpected;
+    private String batchError;
+
+    // set by "If Version" for the change it comes with, which is made only if the schedule is still at that version
+    private long expectedVersion = NO_EXPECTED_VERSION;
+
+    // the parts of a schedule moved here from another server of a cluster, until "Import Schedule" says it is complete
+    private ByteArrayOutputStream scheduleBeingImported;
+
+    // set by connections that can push changes: their subscription, made at the first Subscribe and kept until they close
+    private Runnable onChangeQueued;
+    private ChangeSubscription subscription;
+    private boolean subscribed;
+
+    public RequestProcessor(ScheduleRegistry scheduleRegistry) {
+        this(scheduleRegistry, false);
+    }
+
+    RequestProcessor(ScheduleRegistry scheduleRegistry, boolean administration) {
+        this.scheduleRegistry = scheduleRegistry;
+        this.administration = administration;
+    }
+
+    // onChangeQueued is called, from the thread that changed the schedule, when a change waits in an empty queue
+    void allowPushes(Runnable onChangeQueued) {
+        this.onChangeQueued = onChangeQueued;
+    }
+
+    // null until the client subscribes for the first time
+    ChangeSubscription subscription() {
+        return subscription;
+    }
+
+    // the connection is gone, nothing is queued for it any more
+    void close() {
+        unsubscribe();
+    }
+
+    // returns null while the lines of a batch are being collected, nothing has to be sent back then
+    public EncodedMessage processMessageFromClient(String messageFromClient) {
+
+        if (batchBeingCollected != null) {
+            String messageAboutBatch = collectBatchLine(messageFromClient);
+            return messageAboutBatch == null ? null : EncodedMessage.of(messageAboutBatch);
+        }
+
+        String messageToSendToClient = "";
+
+        try {
+
+            if (!administration && ACTIONS_FOR_ADMINISTRATION_ONLY.contains(messageFromClient.split(",", 2)[0])) {
+                throw new IncorrectActionException("The action '" + messageFromClient.split(",", 2)[0] + "' is only accepted on the administration port of the server.");
+            }
+            if (messageFromClient.equals("Early Mornings")) {
+                return EncodedMessage.of(performEarlyMornings());
+            }
+            if (messageFromClient.equals("Early Mornings For All Schedules")) {
+                return EncodedMessage.of(performEarlyMorningsForAllSchedules());
+            }
+            if (messageFromClient.equals("Optimal Packing")) {
+                return EncodedMessage.of(performOptimalPacking());
+            }
+            if (messageFromClient.equals("Subscribe")) {
+                return EncodedMessage.of(subscribe());
+            }
+            if (messageFromClient.equals("Unsubscribe")) {
+                return EncodedMessage.of(unsubscribe());
+            }
+            if (messageFromClient.equals("Recurring Classes")) {
+                return EncodedMessage.of(recurringClasses());
+            }
+            if (messageFromClient.equals("Version")) {
+                return EncodedMessage.of(version());
+            }
+            if (messageFromClient.equals("Schedules")) {
+                return EncodedMessage.of(schedules());
+            }
+            if (messageFromClient.equals("Export Schedule")) {
+                return EncodedMessage.of(exportSchedule());
+            }
+            if (messageFromClient.equals("Import Schedule")) {
+                return EncodedMessage.of(importSchedule());
+            }
+            if (messageFromClient.equals("Replication")) {
+                return EncodedMessage.of(replication());
+            }
+            if (messageFromClient.equals("Promote")) {
+                return EncodedMessage.of(promote());
+            }
+
+            String[] arguments = messageFromClient.split(",");
+            if (arguments.length == 0 || containsNullAsStringValue(arguments) || containsBlankString(arguments)) { // check if there is any null value provided
+                throw new IncorrectActionException("Please provide all the required information.");
+            }
+            String actionToPerform = arguments[0];
+            switch (actionToPerform) {
+                case "Display Schedule" -> {
+                    return displaySchedule(); // sent as cached, already encoded
+                }
+                case "Add New Class" -> {
+                    if (arguments.length != 8) {
+                        throw new IncorrectActionException();
+                    }
+                    String dayOfClass = arguments[1];
+
+                    Class classToAdd = createAClassUsingDataProvidedByClient(arguments);
+
+                    if (classToAdd == null) {
+                        throw new IncorrectActionException("Start time of a class cannot be after finish time.");
+                    }
+
+                    messageToSendToClient = addClass(dayOfClass, classToAdd);
+                }
+                case "Remove Class" -> {
+                    if (arguments.length != 5) {
+                        throw new IncorrectActionException();
+                    }
+                    String dayOfClassToRemove = arguments[1];
+                    int startHours = Integer.parseInt(arguments[2]);
+                    int startMinutes = Integer.parseInt(arguments[3]);
+                    String className = arguments[4];
+                    messageToSendToClient = removeClass(dayOfClassToRemove, className, LocalTime.of(startHours, startMinutes));
+                }
+                case "Count Of" -> {
+                    if (arguments.length != 2) {
+                        throw new IncorrectActionException();
+                    }
+                    messageToSendToClient = countOf(arguments[1]);
+                }
+                case "Is Room Free" -> {
+                    if (arguments.length != 7) {
+                        throw new IncorrectActionException();
+                    }
+                    messageToSendToClient = isRoomFree(arguments[1], LocalTime.of(Integer.parseInt(arguments[2]), Integer.parseInt(arguments[3])),
+                            LocalTime.of(Integer.parseInt(arguments[4]), Integer.parseInt(arguments[5])), arguments[6]);
+                }
+                case "Free Rooms" -> {
+                    if (arguments.length != 6) {
+                        throw new IncorrectActionException();
+                    }
+                    messageToSendToClient = freeRooms(arguments[1], LocalTime.of(Integer.parseInt(arguments[2]), Integer.parseInt(arguments[3])),
+                            LocalTime.of(Integer.parseInt(arguments[4]), Integer.parseInt(arguments[5])));
+                }
+                case "Add Recurring Class" -> { // first date, number of occurrences, every how many weeks, then as 'Add New Class' without the day
+                    if (arguments.length != 10) {
+                        throw new IncorrectActionException();
+                    }
+                    LocalTime startTime = LocalTime.of(Integer.parseInt(arguments[4]), Integer.parseInt(arguments[5]));
+                    LocalTime finishTime = LocalTime.of(Integer.parseInt(arguments[6]), Integer.parseInt(arguments[7]));
+                    messageToSendToClient = addRecurringClass(LocalDate.parse(arguments[1]), Integer.parseInt(arguments[2]), Integer.parseInt(arguments[3]),
+                            new Class(startTime, finishTime, arguments[8], arguments[9]));
+                }
+                case "Remove Recurring Class" -> {
+                    if (arguments.length != 2) {
+                        throw new IncorrectActionException();
+                    }
+                    messageToSendToClient = removeRecurringClass(Integer.parseInt(arguments[1]));
+                }
+                case "Cancel Occurrence" -> {
+                    if (arguments.length != 3) {
+                        throw new IncorrectActionException();
+                    }
+                    messageToSendToClient = cancelOccurrence(Integer.parseInt(arguments[1]), LocalDate.parse(arguments[2]));
+                }
+                case "Display Term" -> {
+                    if (arguments.length != 3) {
+                        throw new IncorrectActionException();
+                    }
+                    messageToSendToClient = displayTerm(LocalDate.parse(arguments[1]), LocalDate.parse(arguments[2]));
+                }
+                case "Find Free Slot", "Find Free Slot For All Schedules" -> { // minutes, first day, last day, earliest start, latest finish, optional room
+                    if (arguments.length != 8 && arguments.length != 9) {
+                        throw new IncorrectActionException();
+                    }
+                    int durationInMinutes = Integer.parseInt(arguments[1]);
+                    LocalTime earliestStartTime = LocalTime.of(Integer.parseInt(arguments[4]), Integer.parseInt(arguments[5]));
+                    LocalTime latestFinishTime = LocalTime.of(Integer.parseInt(arguments[6]), Integer.parseInt(arguments[7]));
+                    String room = arguments.length == 9 ? arguments[8] : null;
+                    messageToSendToClient = actionToPerform.equals("Find Free Slot")
+                            ? findFreeSlot(durationInMinutes, arguments[2], arguments[3], earliestStartTime, latestFinishTime, room)
+                            : findFreeSlotInAllSchedules(durationInMinutes, arguments[2], arguments[3], earliestStartTime, latestFinishTime, room);
+                }
+                case "Select Schedule" -> {
+                    if (arguments.length != 2) {
+                        throw new IncorrectActionException();
+                    }
+                    messageToSendToClient = selectSchedule(arguments[1]);
+                }
+                case "If Version" -> { // version, then any change that can be conditional, with its arguments
+                    if (arguments.length < 3) {
+                        throw new IncorrectActionException();
+                    }
+                    long version = versionOf(arguments[1]);
+                    if (!ACTIONS_THAT_CAN_BE_CONDITIONAL.contains(arguments[2])) {
+                        throw new IncorrectActionException("Only adding and removing classes, batches and recurring classes can be made conditional.");
+                    }
+                    expectedVersion = version;
+                    try {
+                        return processMessageFromClient(messageFromClient.split(",", 3)[2]);
+                    } finally {
+                        if (batchBeingCollected == null) { // a batch keeps it until its last line has arrived
+                            expectedVersion = NO_EXPECTED_VERSION;
+                        }
+                    }
+                }
+                case "Import Schedule Part" -> { // Base64, a whole number of 4-character groups; a schedule may not fit in one message
+                    if (arguments.length != 2) {
+                        throw new IncorrectActionException();
+                    }
+                    messageToSendToClient = importSchedulePart(arguments[1]);
+                }
+                case "Drop Schedules" -> {
+                    if (arguments.length < 2) {
+                        throw new IncorrectActionException();
+                    }
+                    messageToSendToClient = dropSchedules(Arrays.asList(arguments).subList(1, arguments.length));
+                }
+                case "Follow" -> { // the host and the replication port of the new primary
+                    if (arguments.length != 3) {
+                        throw new IncorrectActionException();
+                    }
+                    messageToSendToClient = follow(arguments[1].trim(), Integer.parseInt(arguments[2].trim()));
+                }
+                case "Batch" -> {
+                    if (arguments.length != 2) {
+                        throw new IncorrectActionException();
+                    }
+                    int numberOfOperations = Integer.parseInt(arguments[1]);
+                    if (numberOfOperations < 1 || numberOfOperations > BinaryProtocol.MAX_BATCH_SIZE) {
+                        throw new IncorrectActionException("A batch must contain from 1 to " + BinaryProtocol.MAX_BATCH_SIZE + " operations.");
+                    }
+                    batchBeingCollected = new ArrayList<>(numberOfOperations);
+                    numberOfBatchLinesExpected = numberOfOperations;
+                    batchError = null;
+                    messageToSendToClient = null;
+                }
+                default -> throw new IncorrectActionException("The action '" + actionToPerform + "' is not supported by the server.");
+            }
+
+        } catch (IncorrectActionException iae) {
+            messageToSendToClient = "ERROR MESSAGE: " + iae.getMessage();
+        } catch (DateTimeParseException e) {
+            messageToSendToClient = "ERROR MESSAGE: The date provided is not valid. Please write it as yyyy-mm-dd.";
+        } catch (NumberFormatException | DateTimeException e) { // a malformed time must not take the connection (or the whole event loop) down
+            messageToSendToClient = "ERROR MESSAGE: The time provided is not valid.";
+        } catch (UncheckedIOException e) { // the storage failed, e.g. the journal; a change that is not on disk was not made
+            messageToSendToClient = "ERROR MESSAGE: " + e.getMessage();
+        }
+
+        return messageToSendToClient == null ? null : EncodedMessage.of(messageToSendToClient);
+    }
+
+    public String selectSchedule(String tenantIdToSelect) {
+
+        ScheduleRegistry.validateTenantId(tenantIdToSelect);
+        if (subscribed) { // the subscription follows the selected schedule
+            scheduleRegistry.changeFeed().unsubscribe(tenantId, subscription);
+            scheduleRegistry.changeFeed().subscribe(tenantIdToSelect, subscription);
+        }
+        tenantId = tenantIdToSelect;
+        return "From now on, requests are applied to the schedule '" + tenantId + "'.";
+    }
+
+    public String subscribe() {
+
+        if (onChangeQueued == null) {
+            throw new IncorrectActionException("Changes cannot be pushed over this connection.");
+        }
+        if (subscription == null) {
+            subscription = scheduleRegistry.changeFeed().newSubscription(onChangeQueued);
+        }
+        if (!subscribed) {
+            scheduleRegistry.changeFeed().subscribe(tenantId, subscription);
+            subscribed = true;
+        }
+        return "Subscribed to the schedule '" + tenantId + "': its changes will be pushed to this connection.";
+    }
+
+    public String unsubscribe() {
+
+        if (subscribed) {
+            scheduleRegistry.changeFeed().unsubscribe(tenantId, subscription);
+            subscribed = false;
+        }
+        return "The changes of the schedule '" + tenantId + "' are no longer pushed to this connection.";
+    }
+
+    public EncodedMessage displaySchedule() {
+
+        EncodedMessage allClassesInfo = timed(ServerMetrics.Command.DISPLAY_SCHEDULE, () -> scheduleRegistry.withSchedule(tenantId, Schedule::getAllClassesInfoEncoded));
+        ServerLog.debug(() -> "The client's request to display the schedule has been processed.");
+        if (allClassesInfo == null) {
+            return EMPTY_SCHEDULE_MESSAGE;
+        }
+        return allClassesInfo;
+    }
+
+    public String addClass(String dayOfClass, Class classToAdd) {
+
+        timed(ServerMetrics.Command.ADD_NEW_CLASS, () -> changeSchedule(schedule -> schedule.addClass(dayOfClass, classToAdd)));
+        String message = "A new class " + classToAdd + " on " + dayOfClass + " was successfully added to the schedule.";
+        ServerLog.debug(() -> message);
+        return message;
+    }
+
+    public String removeClass(String dayOfClassToRemove, String className, LocalTime startTime) {
+
+        Class removedClass = timed(ServerMetrics.Command.REMOVE_CLASS, () -> changeSchedule(schedule -> schedule.removeClass(dayOfClassToRemove, className, startTime)));
+        String message = "The class " + removedClass + " was removed from the schedule.";
+        ServerLog.debug(() -> message);
+        return message;
+    }
+
+    public String addRecurringClass(LocalDate firstDate, int numberOfOccurrences, int intervalInWeeks, Class classToRepeat) {
+
+        RecurringSeries series = timed(ServerMetrics.Command.ADD_RECURRING_CLASS,
+                () -> changeSchedule(schedule -> schedule.addRecurringClass(firstDate, numberOfOccurrences, intervalInWeeks, classToRepeat)));
+        String message = "The recurring class " + series + " was successfully added to the schedule.";
+        ServerLog.debug(() -> message);
+        return message;
+    }
+
+    public String removeRecurringClass(int seriesId) {
+
+        RecurringSeries series = changeSchedule(schedule -> schedule.removeRecurringClass(seriesId));
+        return "The recurring class " + series + " was removed from the schedule.";
+    }
+
+    public String cancelOccurrence(int seriesId, LocalDate dateOfOccurrence) {
+
+        RecurringSeries series = changeSchedule(schedule -> schedule.cancelOccurrence(seriesId, dateOfOccurrence));
+        return "The recurring class " + series.id + " (" + series.name + ") will not take place on " + dateOfOccurrence + ".";
+    }
+
+    // the version a client can make its next change conditional on; Display Schedule shows this version or a newer one
+    public String version() {
+
+        long version = scheduleRegistry.withSchedule(tenantId, Schedule::getVersion);
+        return "The schedule '" + tenantId + "' is at version " + version + ".";
+    }
+
+    // for binary clients: the change is made only if the schedule is still at expectedVersion
+    public String ifVersionIs(long expectedVersion, Supplier<String> change) {
+
+        if (expectedVersion < 0) {
+            throw new IncorrectActionException("A version cannot be negative.");
+        }
+        this.expectedVersion = expectedVersion;
+        try {
+            return change.get();
+        } finally {
+            this.expectedVersion = NO_EXPECTED_VERSION;
+        }
+    }
+
+    // The commands below are sent by ClusterRouter to the servers of a cluster, to move schedules between them;
+    // the router does not let its own clients send them.
+    public String schedules() {
+
+        List<String> tenantIds = scheduleRegistry.tenantIds();
+        return "Schedules on this server: " + tenantIds.size() + (tenantIds.isEmpty() ? "" : "\n" + String.join("\n", tenantIds));
+    }
+
+    public String exportSchedule() {
+
+        byte[] scheduleFile = scheduleRegistry.exportSchedule(tenantId);
+        return "The schedule '" + tenantId + "' in Base64: " + Base64.getEncoder().encodeToString(scheduleFile);
+    }
+
+    public String importSchedulePart(String base64) {
+
+        byte[] part;
+        try {
+            part = Base64.getDecoder().decode(base64.trim());
+        } catch (IllegalArgumentException e) {
+            throw new IncorrectActionException("A part of a schedule must be written in Base64.");
+        }
+        if (scheduleBeingImported == null) {
+            scheduleBeingImported = new ByteArrayOutputStream();
+        }
+        if (scheduleBeingImported.size() + part.length > CompactScheduleFile.MAX_LENGTH) {
+            scheduleBeingImported = null;
+            throw new IncorrectActionException("A schedule sent to this server is at most " + CompactScheduleFile.MAX_LENGTH + " bytes long; the parts received so far are dropped.");
+        }
+        scheduleBeingImported.writeBytes(part);
+        return "Received " + scheduleBeingImported.size() + " bytes of the schedule '" + tenantId + "'.";
+    }
+
+    public String importSchedule() {
+
+        checkWritable();
+        if (scheduleBeingImported == null) {
+            throw new IncorrectActionException("No part of a schedule has been received. Please send it with 'Import Schedule Part' first.");
+        }
+        byte[] scheduleFile = scheduleBeingImported.toByteArray();
+        scheduleBeingImported = null; // used up whether or not it can be imported
+        long version = scheduleRegistry.importSchedule(tenantId, scheduleFile);
+        ServerLog.info("The schedule '" + tenantId + "' was moved to this server, at version " + version + ".");
+        return "The schedule '" + tenantId + "' was imported at version " + version + ".";
+    }
+
+    public String dropSchedules(List<String> tenantIds) {
+
+        checkWritable();
+        int numberOfDroppedSchedules = scheduleRegistry.dropSchedules(tenantIds);
+        ServerLog.info(numberOfDroppedSchedules + " schedules moved to other servers were dropped from this one.");
+        return numberOfDroppedSchedules + " of the " + tenantIds.size() + " schedules were dropped from this server.";
+    }
+
+    // what this server sends to its replicas and what it receives from its primary, and how far behind it is
+    public String replication() {
+
+        ReplicationFollower follower = scheduleRegistry.replicationFollower();
+        ReplicationSource source = scheduleRegistry.replicationSource();
+        if (follower == null && source == null) {
+            return "This server does not replicate its schedules.";
+        }
+        StringBuilder message = new StringBuilder();
+        if (follower != null) {
+            message.append(follower.describe());
+        }
+        if (source != null) {
+            message.append(message.length() > 0 ? "\n" : "").append(source.describe());
+        }
+        return message.toString();
+    }
+
+    // a replica whose primary is gone takes the changes from now on
+    public String promote() {
+
+        ReplicationFollower follower = scheduleRegistry.replicationFollower();
+        if (follower == null || !follower.promote()) {
+            throw new IncorrectActionException("Only a replica can be promoted, and this server is not one.");
+        }
+        ReplicationSource source = scheduleRegistry.replicationSource();
+        return "This server no longer follows " + follower.primary() + " and takes changes itself"
+                + (source != null ? "; replicas can follow it on port " + source.port() + "." : ".");
+    }
+
+    // points a replica at another primary, e.g. a replica promoted after the primary died; the replica catches up from its snapshot
+    public String follow(String host, int replicationPort) {
+
+        ReplicationFollower follower = scheduleRegistry.replicationFollower();
+        if (follower == null || follower.isPromoted()) {
+            throw new IncorrectActionException("Only a replica can follow another primary, and this server is not one.");
+        }
+        if (host.isEmpty() || replicationPort < 1 || replicationPort > 65_535) {
+            throw new IncorrectActionException("Please give the host and the replication port of the primary.");
+        }
+        if (!follower.mayFollow(host + ":" + replicationPort)) {
+            throw new IncorrectActionException(host + ":" + replicationPort + " is not one of the servers this replica may follow (server.replicationPeers).");
+        }
+        follower.follow(host + ":" + replicationPort);
+        return "This server follows " + host + ":" + replicationPort + " from now on.";
+    }
+
+    public String recurringClasses() {
+
+        String recurringClassesInfo = scheduleRegistry.withSchedule(tenantId, Schedule::getRecurringClassesInfoAsString);
+        return recurringClassesInfo == null ? "The schedule does not contain any recurring classes so far." : recurringClassesInfo;
+    }
+
+    // the classes held on every date of the range, at most a year of it
+    public String displayTerm(LocalDate from, LocalDate to) {
+
+        if (to.isBefore(from) || Schedule.numberOfDaysFrom(from, to) > MAX_DAYS_IN_TERM_DISPLAYED) {
+            throw new IncorrectActionException("Please choose a range of 1 to " + MAX_DAYS_IN_TERM_DISPLAYED + " days, the first date first.");
+        }
+        String classesInfo = timed(ServerMetrics.Command.DISPLAY_TERM, () -> scheduleRegistry.withSchedule(tenantId, schedule -> schedule.getClassesBetweenAsString(from, to)));
+        return classesInfo == null ? "There are no classes from " + from + " to " + to + "." : classesInfo;
+    }
+
+    public String performEarlyMornings() {
+
+        checkWritable();
+        EarlyMorningsStatistics statistics = timed(ServerMetrics.Command.EARLY_MORNINGS, () -> {
+            EarlyMorningsStatistics statisticsOfTheRun = scheduleRegistry.performEarlyMornings(List.of(tenantId));
+            if (statisticsOfTheRun.getNumberOfSchedulesLeftAsTheyWere() > 0) {
+                throw new IncorrectActionException(statisticsOfTheRun.getReasonAScheduleWasLeftAsItWas());
+            }
+            return statisticsOfTheRun;
+        });
+        ServerLog.debug(() -> "'Early Mornings': " + statistics + ".");
+        return "The 'Early Mornings' request has been processed. Classes are shifted to the morning time.";
+    }
+
+    public String performEarlyMorningsForAllSchedules() {
+
+        checkWritable();
+        EarlyMorningsStatistics statistics = timed(ServerMetrics.Command.EARLY_MORNINGS_FOR_ALL_SCHEDULES, () -> scheduleRegistry.performEarlyMornings(scheduleRegistry.tenantIds()));
+        String message = "The 'Early Mornings' request has been processed for every schedule: " + statistics + ".";
+        ServerLog.info(message);
+        return message;
+    }
+
+    public String performOptimalPacking() {
+
+        checkWritable();
+        OptimalPackingResult result = timed(ServerMetrics.Command.OPTIMAL_PACKING, () -> scheduleRegistry.performOptimalPacking(tenantId));
+        ServerLog.info("'Optimal Packing': " + result + ".");
+        return "The 'Optimal Packing' request has been processed. Classes are packed from the morning on, some of them on another day: " + result + ".";
+    }
+
+    // rooms are shared by every schedule, so the answer does not depend on the selected one
+    public String isRoomFree(String dayOfWeek, LocalTime startTime, LocalTime finishTime, String room) {
+
+        checkSlot(startTime, finishTime);
+        boolean free = scheduleRegistry.roomOccupancy().isFree(room, dayOfWeek, startTime, finishTime);
+        return "The room " + room + " is " + (free ? "free" : "taken") + " on " + dayOfWeek + " from " + startTime + " to " + finishTime + ".";
+    }
+
+    public String freeRooms(String dayOfWeek, LocalTime startTime, LocalTime finishTime) {
+
+        checkSlot(startTime, finishTime);
+        List<String> freeRooms = scheduleRegistry.roomOccupancy().freeRooms(dayOfWeek, startTime, finishTime);
+        if (freeRooms.isEmpty()) {
+            return "No known room is free on " + dayOfWeek + " from " + startTime + " to " + finishTime + ".";
+        }
+        return "Free rooms on " + dayOfWeek + " from " + startTime + " to " + finishTime + ": " + String.join(", ", freeRooms) + ".";
+    }
+
+    // the earliest slot of each day of the range, in the selected schedule; room may be null
+    public String findFreeSlot(int durationInMinutes, String firstDayOfWeek, String lastDayOfWeek, LocalTime earliestStartTime, LocalTime latestFinishTime, String room) {
+
+        checkFreeSlotQuery(durationInMinutes, firstDayOfWeek, lastDayOfWeek, earliestStartTime, latestFinishTime);
+        return timed(ServerMetrics.Command.FIND_FREE_SLOT, () -> scheduleRegistry.withSchedule(tenantId, schedule -> describeFreeSlots("Free slots",
+                schedule::blockedMinutesOn, durationInMinutes, firstDayOfWeek, lastDayOfWeek, earliestStartTime, latestFinishTime, room)));
+    }
+
+    // the earliest slot of each day of the range that is free in every schedule, for a class all of them can attend
+    public String findFreeSlotInAllSchedules(int durationInMinutes, String firstDayOfWeek, String lastDayOfWeek, LocalTime earliestStartTime, LocalTime latestFinishTime, String room) {
+
+        checkFreeSlotQuery(durationInMinutes, firstDayOfWeek, lastDayOfWeek, earliestStartTime, latestFinishTime);
+        return timed(ServerMetrics.Command.FIND_FREE_SLOT_FOR_ALL_SCHEDULES, () -> {
+            long[][] blockedMinutesPerDay = scheduleRegistry.blockedMinutesOfAllSchedules(Schedule.DAYS_OF_WEEK.indexOf(firstDayOfWeek), Schedule.DAYS_OF_WEEK.indexOf(lastDayOfWeek));
+            return describeFreeSlots("Free slots in every schedule", dayIndex -> blockedMinutesPerDay[dayIndex], durationInMinutes,
+                    firstDayOfWeek, lastDayOfWeek, earliestStartTime, latestFinishTime, room);
+        });
+    }
+
+    private String describeFreeSlots(String title, IntFunction<long[]> blockedMinutesOfDay, int durationInMinutes, String firstDayOfWeek, String lastDayOfWeek,
+                                     LocalTime earliestStartTime, LocalTime latestFinishTime, String room) {
+
+        List<String> freeSlots = new ArrayList<>();
+        for (int dayIndex = Schedule.DAYS_OF_WEEK.indexOf(firstDayOfWeek); dayIndex <= Schedule.DAYS_OF_WEEK.indexOf(lastDayOfWeek); dayIndex++) {
+            long[] roomMinutes = room == null ? null : scheduleRegistry.roomOccupancy().occupiedMinutesOf(room, dayIndex);
+            int startMinute = FreeSlotSearch.earliestFreeStart(blockedMinutesOfDay.apply(dayIndex), roomMinutes, durationInMinutes,
+                    CompactScheduleFile.minuteOf(earliestStartTime), CompactScheduleFile.minuteOf(latestFinishTime));
+            if (startMinute >= 0) {
+                freeSlots.add(Schedule.DAYS_OF_WEEK.get(dayIndex) + " from " + CompactScheduleFile.timeOf(startMinute) + " to " + CompactScheduleFile.timeOf(startMinute + durationInMinutes));
+            }
+        }
+        String slotDescription = durationInMinutes + " minutes" + (room == null ? "" : " in " + room);
+        if (freeSlots.isEmpty()) {
+            return "There is no free slot of " + slotDescription + " from " + firstDayOfWeek + " to " + lastDayOfWeek + " between " + earliestStartTime + " and " + latestFinishTime + ".";
+        }
+        return title + " of " + slotDescription + ": " + String.join(", ", freeSlots) + ".";
+    }
+
+    private static void checkFreeSlotQuery(int durationInMinutes, String firstDayOfWeek, String lastDayOfWeek, LocalTime earliestStartTime, LocalTime latestFinishTime) {
+
+        for (String dayOfWeek : List.of(firstDayOfWeek, lastDayOfWeek)) {
+            if (!Schedule.DAYS_OF_WEEK.contains(dayOfWeek)) {
+                throw new IncorrectActionException("There is no " + dayOfWeek + " in the schedule. Please choose a day from Monday to Friday.");
+            }
+        }
+        if (Schedule.DAYS_OF_WEEK.indexOf(firstDayOfWeek) > Schedule.DAYS_OF_WEEK.indexOf(lastDayOfWeek)) {
+            throw new IncorrectActionException("The first day of the search must not come after its last day.");
+        }
+        if (durationInMinutes < 1 || durationInMinutes >= 24 * 60) {
+            throw new IncorrectActionException("A class lasts from 1 minute to 23 hours and 59 minutes.");
+        }
+        checkSlot(earliestStartTime, latestFinishTime);
+    }
+
+    private static void checkSlot(LocalTime startTime, LocalTime finishTime) {
+        if (!startTime.isBefore(finishTime)) {
+            throw new IncorrectActionException("Start time of a slot must be before its finish time.");
+        }
+    }
+
+    public String countOf(String className) {
+
+        int numberOfClasses = scheduleRegistry.withSchedule(tenantId, schedule -> schedule.countOf(className));
+        return "There " + (numberOfClasses == 1 ? "is 1 class" : "are " + numberOfClasses + " classes") + " named " + className + " in the schedule.";
+    }
+
+    public String applyBatch(List<ScheduleOperation> operations) {
+
+        List<Class> affectedClasses = timed(ServerMetrics.Command.BATCH, () -> changeSchedule(schedule -> schedule.applyAll(operations)));
+
+        StringBuilder message = new StringBuilder("The batch of " + operations.size() + " operations has been applied.");
+        for (int i = 0; i < operations.size(); i++) {
+            ScheduleOperation operation = operations.get(i);
+            message.append("\n").append(i + 1).append(". ").append(affectedClasses.get(i))
+                    .append(operation.getType() == ScheduleOperation.Type.ADD ? " was added on " : " was removed from ")
+                    .append(operation.getDayOfWeek()).append(".");
+        }
+        ServerLog.debug(() -> "A batch of " + operations.size() + " operations has been applied.");
+        return message.toString();
+    }
+
+    // a change of the selected schedule, conditional if "If Version" came with it; the expected version is used up either way
+    private <T> T changeSchedule(Function<Schedule, T> change) {
+
+        long versionToExpect = expectedVersion;
+        expectedVersion = NO_EXPECTED_VERSION;
+        checkWritable();
+        if (versionToExpect == NO_EXPECTED_VERSION) {
+            return scheduleRegistry.withSchedule(tenantId, change);
+        }
+        return scheduleRegistry.withSchedule(tenantId, schedule -> schedule.changeIfVersionIs(versionToExpect, () -> change.apply(schedule)));
+    }
+
+    private void checkWritable() {
+
+        if (scheduleRegistry.isReadOnlyReplica()) {
+            throw new IncorrectActionException("This server is a read-only replica of " + scheduleRegistry.replicationFollower().primary()
+                    + ". Please make changes on the primary.");
+        }
+        if (scheduleRegistry.journalHasFailed()) {
+            throw new IncorrectActionException("The server could not write its journal and refuses changes until it is restarted.");
+        }
+    }
+
+    // how many lines without an answer follow the message, counted as processMessageFromClient() counts them; 0 if it starts no batch
+    // ClusterRouter forwards a text batch in one go, so it has to know where the batch ends
+    static int numberOfBatchLinesAnnouncedBy(String messageFromClient) {
+
+        String[] arguments = messageFromClient.split(",");
+        if (arguments.length == 0 || containsNullAsStringValue(arguments) || containsBlankString(arguments)) {
+            return 0;
+        }
+        if (arguments[0].equals("If Version") && arguments.length >= 3 && ACTIONS_THAT_CAN_BE_CONDITIONAL.contains(arguments[2])) {
+            try {
+                versionOf(arguments[1]);
+            } catch (IncorrectActionException iae) {
+                return 0;
+            }
+            return numberOfBatchLinesAnnouncedBy(messageFromClient.split(",", 3)[2]);
+        }
+        if (!arguments[0].equals("Batch") || arguments.length != 2) {
+            return 0;
+        }
+        try {
+            int numberOfOperations = Integer.parseInt(arguments[1]);
+            return numberOfOperations >= 1 && numberOfOperations <= BinaryProtocol.MAX_BATCH_SIZE ? numberOfOperations : 0;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static long versionOf(String version) {
+
+        long parsedVersion;
+        try {
+            parsedVersion = Long.parseLong(version.trim());
+        } catch (NumberFormatException e) {
+            parsedVersion = NO_EXPECTED_VERSION;
+        }
+        if (parsedVersion < 0) {
+            throw new IncorrectActionException("The version " + version + " is not valid. 'Version' tells the version of the schedule.");
+        }
+        return parsedVersion;
+    }
+
+    // the time includes waiting for the journal, since the client waits for it too; a request that throws counts as an error
+    private <T> T timed(ServerMetrics.Command command, Supplier<T> action) {
+
+        long start = System.nanoTime();
+        boolean succeeded = false;
+        try {
+            T result = action.get();
+            succeeded = true;
+            return result;
+        } finally {
+            scheduleRegistry.metrics().recordCommand(command, System.nanoTime() - start, succeeded);
+        }
+    }
+
+    private String collectBatchLine(String messageFromClient) {
+
+        int lineNumber = batchBeingCollected.size() + 1;
+        try {
+            if (batchError == null) {
+                batchBeingCollected.add(createScheduleOperationUsingDataProvidedByClient(messageFromClient.split(",")));
+            }
+        } catch (IncorrectActionException iae) {
+            batchError = "Operation " + lineNumber + " of the batch is not valid: " + iae.getMessage();
+        } catch (NumberFormatException | DateTimeException e) {
+            batchError = "Operation " + lineNumber + " of the batch is not valid: the time provided is not valid.";
+        }
+
+        if (--numberOfBatchLinesExpected > 0) {
+            return null;
+        }
+        List<ScheduleOperation> operations = batchBeingCollected;
+        batchBeingCollected = null;
+        if (batchError != null) {
+            expectedVersion = NO_EXPECTED_VERSION;
+            return "ERROR MESSAGE: " + batchError + " None of the operations were applied.";
+        }
+        try {
+            return applyBatch(operations);
+        } catch (IncorrectActionException iae) {
+            return "ERROR MESSAGE: " + iae.getMessage();
+        } catch (UncheckedIOException e) {
+            return "ERROR MESSAGE: " + e.getMessage();
+        }
+    }
+
+    private static ScheduleOperation createScheduleOperationUsingDataProvidedByClient(String[] arguments) {
+
+        if (containsNullAsStringValue(arguments) || containsBlankString(arguments)) {
+            throw new IncorrectActionException("Please provide all the required information.");
+        }
+        switch (arguments[0]) {
+            case "Add New Class" -> {
+                if (arguments.length != 8) {
+                    throw new IncorrectActionException();
+                }
+                Class classToAdd = createAClassUsingDataProvidedByClient(arguments);
+                if (classToAdd == null) {
+                    throw new IncorrectActionException("Start time of a class cannot be after finish time.");
+                }
+                return ScheduleOperation.add(arguments[1], classToAdd);
+            }
+            case "Remove Class" -> {
+                if (arguments.length != 5) {
+                    throw new IncorrectActionException();
+                }
+                LocalTime startTime = LocalTime.of(Integer.parseInt(arguments[2]), Integer.parseInt(arguments[3]));
+                return ScheduleOperation.remove(arguments[1], arguments[4], startTime);
+            }
+            default -> throw new IncorrectActionException("Only 'Add New Class' and 'Remove Class' can be part of a batch.");
+        }
+    }
+
+    static Class createAClassUsingDataProvidedByClient(String[] arguments) {
+
+        int startHours = Integer.parseInt(arguments[2]);
+        int startMinutes = Integer.parseInt(arguments[3]);
+        int finishHours = Integer.parseInt(arguments[4]);
+        int finishMinutes = Integer.parseInt(arguments[5]);
+        String className = arguments[6];
+        String roomNumber = arguments[7];
+
+        LocalTime providedStartTime = LocalTime.of(startHours, startMinutes);
+        LocalTime providedFinishTime = LocalTime.of(finishHours, finishMinutes);
+
+        if (providedStartTime.isAfter(providedFinishTime)) {
+            return null;
+        }
+        return new Class(providedStartTime, providedFinishTime, className, roomNumber);
+    }
+
+    private static boolean containsNullAsStringValue(String[] array) {
+        for (String element : array) {
+            if (element.equals("null")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean containsBlankString(String[] array) {
+        for (String element : array) {
+            if (element.isBlank()) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
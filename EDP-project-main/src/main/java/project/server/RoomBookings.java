@@ -0,0 +1,44 @@
+package project.server;
+
+import java.util.List;
+
+// what a schedule uses to book its rooms; a schedule without one (outside a registry) books nothing
+final class RoomBookings {
+
+    private final RoomOccupancyIndex index;
+    private final String tenantId;
+
+    RoomBookings(RoomOccupancyIndex index, String tenantId) {
+        this.index = index;
+        this.tenantId = tenantId;
+    }
+
+    void book(int dayIndex, int startMinute, int finishMinute, String room, boolean checkConflicts) {
+        index.book(tenantId, dayIndex, startMinute, finishMinute, room, checkConflicts);
+    }
+
+    void release(int dayIndex, int startMinute, int finishMinute, String room) {
+        index.release(tenantId, dayIndex, startMinute, finishMinute, room);
+    }
+
+    // classes that move give back releasedSlots and take bookedSlots, checked, in one step; on a conflict nothing changes
+    void rebook(List<Slot> releasedSlots, List<Slot> bookedSlots) {
+        index.rebook(tenantId, releasedSlots, bookedSlots);
+    }
+
+    // a room from a start to a finish minute on a day of the week
+    static final class Slot {
+
+        final int dayIndex;
+        final int startMinute;
+        final int finishMinute;
+        final String room;
+
+        Slot(int dayIndex, int startMinute, int finishMinute, String room) {
+            this.dayIndex = dayIndex;
+            this.startMinute = startMinute;
+            this.finishMinute = finishMinute;
+            this.room = room;
+        }
+    }
+}
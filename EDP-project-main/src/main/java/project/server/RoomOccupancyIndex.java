@@ -0,0 +1,254 @@
+package project.server;
+
+import java.io.IOException;
+import java.time.LocalTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+// IMPLEMENTATION OF THE ROOM OCCUPANCY INDEX
+// Every booked room of every schedule, in memory or stored, so two schedules cannot take the same room at the same time.
+// A room has a timetable of its own and its monitor is the only lock: a booking is checked and made under it, so of two
+// schedules adding the same room and slot at once exactly one succeeds, while different rooms never wait for each other.
+// Per day the timetable keeps the bookings (to know whose they are) and a bitmap of the occupied minutes, so asking whether
+// a slot is free reads at most 23 longs, and listing the free rooms of a slot costs that for every known room.
+// Rooms are told apart ignoring case and surrounding spaces, and back-to-back bookings of a room do not conflict.
+// Classes that were accepted before (read from storage, replayed, restored by an undo) are booked without the check: they keep
+// their room even if another schedule has it by then, which isFree() shows. Classes moved by 'Early Mornings' or Optimal
+// Packing are new bookings and are checked (see rebook()): a move that would take a room another schedule holds is refused.
+public class RoomOccupancyIndex {
+
+    private final ConcurrentHashMap<String, RoomTimetable> rooms = new ConcurrentHashMap<>();
+    private volatile RoomTimetable[] roomsByName = new RoomTimetable[0]; // for freeRooms(), sorted again only when there are new rooms
+
+    // the bookings one schedule makes
+    RoomBookings bookingsOf(String tenantId) {
+        return new RoomBookings(this, tenantId);
+    }
+
+    // a stored schedule is indexed once, when the registry starts; afterwards its changes book and release its rooms
+    void indexStoredSchedule(String tenantId, CompactScheduleFile storedSchedule) throws IOException {
+
+        for (int dayIndex = 0; dayIndex < Schedule.DAYS_OF_WEEK.size(); dayIndex++) {
+            for (int i = 0; i < storedSchedule.numberOfClassesOn(dayIndex); i++) {
+                book(tenantId, dayIndex, storedSchedule.startMinuteOf(dayIndex, i), storedSchedule.finishMinuteOf(dayIndex, i), storedSchedule.roomOf(dayIndex, i), false);
+            }
+        }
+        for (RecurringSeries series : storedSchedule.recurringSeries()) { // a recurring class holds its room on its day of every week
+            book(tenantId, series.dayIndex, series.startMinute, series.finishMinute, series.room, false);
+        }
+    }
+
+    // a schedule that has moved to another server gives its rooms back, whether it was in memory or not
+    void releaseStoredSchedule(String tenantId, CompactScheduleFile storedSchedule) throws IOException {
+
+        for (int dayIndex = 0; dayIndex < Schedule.DAYS_OF_WEEK.size(); dayIndex++) {
+            for (int i = 0; i < storedSchedule.numberOfClassesOn(dayIndex); i++) {
+                release(tenantId, dayIndex, storedSchedule.startMinuteOf(dayIndex, i), storedSchedule.finishMinuteOf(dayIndex, i), storedSchedule.roomOf(dayIndex, i));
+            }
+        }
+        for (RecurringSeries series : storedSchedule.recurringSeries()) {
+            release(tenantId, series.dayIndex, series.startMinute, series.finishMinute, series.room);
+        }
+    }
+
+    public boolean isFree(String room, String dayOfWeek, LocalTime startTime, LocalTime finishTime) {
+
+        int dayIndex = dayIndexOf(dayOfWeek);
+        RoomTimetable timetable = rooms.get(keyOf(room));
+        return timetable == null || timetable.isFree(dayIndex, CompactScheduleFile.minuteOf(startTime), CompactScheduleFile.minuteOf(finishTime));
+    }
+
+    // every room that has ever been booked and is free for the whole slot, by name
+    public List<String> freeRooms(String dayOfWeek, LocalTime startTime, LocalTime finishTime) {
+
+        int dayIndex = dayIndexOf(dayOfWeek);
+        int startMinute = CompactScheduleFile.minuteOf(startTime);
+        int finishMinute = CompactScheduleFile.minuteOf(finishTime);
+        RoomTimetable[] timetables = roomsByName;
+        if (timetables.length != rooms.size()) { // rooms are never removed, so a different size means new ones
+            timetables = rooms.values().stream().sorted(Comparator.comparing(timetable -> timetable.room, String.CASE_INSENSITIVE_ORDER)).toArray(RoomTimetable[]::new);
+            roomsByName = timetables;
+        }
+        List<String> freeRooms = new ArrayList<>();
+        for (RoomTimetable timetable : timetables) {
+            if (timetable.isFree(dayIndex, startMinute, finishMinute)) {
+                freeRooms.add(timetable.room);
+            }
+        }
+        return freeRooms;
+    }
+
+    // the minutes of the day the room is booked, by any schedule; null for a room that has never been booked
+    long[] occupiedMinutesOf(String room, int dayIndex) {
+
+        RoomTimetable timetable = rooms.get(keyOf(room));
+        return timetable == null ? null : timetable.occupiedMinutesOn(dayIndex);
+    }
+
+    // the same, leaving out the bookings of tenantIdLeftOut, which is moving its own classes; null when the others book none of it
+    long[] occupiedMinutesOf(String room, int dayIndex, String tenantIdLeftOut) {
+
+        RoomTimetable timetable = rooms.get(keyOf(room));
+        return timetable == null ? null : timetable.occupiedMinutesOn(dayIndex, tenantIdLeftOut);
+    }
+
+    public int numberOfRooms() {
+        return rooms.size();
+    }
+
+    void book(String tenantId, int dayIndex, int startMinute, int finishMinute, String room, boolean checkConflicts) {
+        rooms.computeIfAbsent(keyOf(room), key -> new RoomTimetable(room.trim())).book(tenantId, dayIndex, startMinute, finishMinute, checkConflicts);
+    }
+
+    // Gives back releasedSlots and books bookedSlots with the check as one step: the monitors of every room involved are held
+    // for all of it, taken in the order of their keys so two moves cannot deadlock, and no other schedule books in between.
+    // On a conflict the slots booked so far are given back and the released ones taken again, and the conflict is thrown.
+    void rebook(String tenantId, List<RoomBookings.Slot> releasedSlots, List<RoomBookings.Slot> bookedSlots) {
+
+        TreeMap<String, RoomTimetable> timetables = new TreeMap<>();
+        for (List<RoomBookings.Slot> slots : List.of(releasedSlots, bookedSlots)) {
+            for (RoomBookings.Slot slot : slots) {
+                timetables.computeIfAbsent(keyOf(slot.room), key -> rooms.computeIfAbsent(key, newKey -> new RoomTimetable(slot.room.trim())));
+            }
+        }
+        rebookHoldingMonitors(new ArrayList<>(timetables.values()), 0, tenantId, releasedSlots, bookedSlots);
+    }
+
+    // one frame per room, so a move holds as many monitors as it has different rooms
+    private void rebookHoldingMonitors(List<RoomTimetable> timetables, int firstNotHeld, String tenantId, List<RoomBookings.Slot> releasedSlots,
+                                       List<RoomBookings.Slot> bookedSlots) {
+
+        if (firstNotHeld < timetables.size()) {
+            synchronized (timetables.get(firstNotHeld)) {
+                rebookHoldingMonitors(timetables, firstNotHeld + 1, tenantId, releasedSlots, bookedSlots);
+            }
+            return;
+        }
+        for (RoomBookings.Slot slot : releasedSlots) {
+            rooms.get(keyOf(slot.room)).release(tenantId, slot.dayIndex, slot.startMinute, slot.finishMinute);
+        }
+        int numberOfBookedSlots = 0;
+        try {
+            for (RoomBookings.Slot slot : bookedSlots) {
+                rooms.get(keyOf(slot.room)).book(tenantId, slot.dayIndex, slot.startMinute, slot.finishMinute, true);
+                numberOfBookedSlots++;
+            }
+        } catch (IncorrectActionException conflict) {
+            for (RoomBookings.Slot slot : bookedSlots.subList(0, numberOfBookedSlots)) {
+                rooms.get(keyOf(slot.room)).release(tenantId, slot.dayIndex, slot.startMinute, slot.finishMinute);
+            }
+            for (RoomBookings.Slot slot : releasedSlots) {
+                rooms.get(keyOf(slot.room)).book(tenantId, slot.dayIndex, slot.startMinute, slot.finishMinute, false);
+            }
+            throw conflict;
+        }
+    }
+
+    void release(String tenantId, int dayIndex, int startMinute, int finishMinute, String room) {
+
+        RoomTimetable timetable = rooms.get(keyOf(room));
+        if (timetable != null) {
+            timetable.release(tenantId, dayIndex, startMinute, finishMinute);
+        }
+    }
+
+    private static String keyOf(String room) {
+        return room.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private static int dayIndexOf(String dayOfWeek) {
+
+        int dayIndex = Schedule.DAYS_OF_WEEK.indexOf(dayOfWeek);
+        if (dayIndex < 0) {
+            throw new IncorrectActionException("There is no " + dayOfWeek + " in the schedule. Please choose a day from Monday to Friday.");
+        }
+        return dayIndex;
+    }
+}
+
+// one room over the week; every method holds the room's monitor
+final class RoomTimetable {
+
+    final String room; // as it was first booked
+    private final List<List<Booking>> bookingsPerDay = new ArrayList<>();
+    private final long[][] occupiedMinutesPerDay = new long[Schedule.DAYS_OF_WEEK.size()][MinuteBitmaps.WORDS_PER_DAY]; // a bit for every minute covered by a booking
+
+    RoomTimetable(String room) {
+        this.room = room;
+        for (int dayIndex = 0; dayIndex < Schedule.DAYS_OF_WEEK.size(); dayIndex++) {
+            bookingsPerDay.add(new ArrayList<>());
+        }
+    }
+
+    synchronized boolean isFree(int dayIndex, int startMinute, int finishMinute) {
+        return !MinuteBitmaps.anyMinuteSet(occupiedMinutesPerDay[dayIndex], startMinute, finishMinute);
+    }
+
+    // a copy, [startMinute, finishMinute) of every booking set
+    synchronized long[] occupiedMinutesOn(int dayIndex) {
+        return occupiedMinutesPerDay[dayIndex].clone();
+    }
+
+    synchronized long[] occupiedMinutesOn(int dayIndex, String tenantIdLeftOut) {
+
+        long[] occupiedMinutes = null;
+        for (Booking booking : bookingsPerDay.get(dayIndex)) {
+            if (!booking.tenantId.equals(tenantIdLeftOut)) {
+                if (occupiedMinutes == null) {
+                    occupiedMinutes = MinuteBitmaps.newDay();
+                }
+                MinuteBitmaps.setMinutes(occupiedMinutes, booking.startMinute, booking.finishMinute);
+            }
+        }
+        return occupiedMinutes;
+    }
+
+    synchronized void book(String tenantId, int dayIndex, int startMinute, int finishMinute, boolean checkConflicts) {
+
+        long[] occupiedMinutes = occupiedMinutesPerDay[dayIndex];
+        if (checkConflicts && MinuteBitmaps.anyMinuteSet(occupiedMinutes, startMinute, finishMinute)) {
+            Booking conflictingBooking = bookingsPerDay.get(dayIndex).stream().filter(booking -> booking.overlaps(startMinute, finishMinute)).findFirst().orElseThrow();
+            throw new IncorrectActionException("The room " + room + " is already taken on " + Schedule.DAYS_OF_WEEK.get(dayIndex) + " from "
+                    + CompactScheduleFile.timeOf(conflictingBooking.startMinute) + " to " + CompactScheduleFile.timeOf(conflictingBooking.finishMinute)
+                    + (conflictingBooking.tenantId.equals(tenantId) ? " in this schedule." : " by another schedule."));
+        }
+        bookingsPerDay.get(dayIndex).add(new Booking(tenantId, startMinute, finishMinute));
+        MinuteBitmaps.setMinutes(occupiedMinutes, startMinute, finishMinute);
+    }
+
+    synchronized void release(String tenantId, int dayIndex, int startMinute, int finishMinute) {
+
+        List<Booking> bookings = bookingsPerDay.get(dayIndex);
+        for (int i = 0; i < bookings.size(); i++) {
+            Booking booking = bookings.get(i);
+            if (booking.startMinute == startMinute && booking.finishMinute == finishMinute && booking.tenantId.equals(tenantId)) {
+                bookings.remove(i);
+                // other bookings may cover the same minutes (see RoomOccupancyIndex), so the day's bitmap is drawn again
+                long[] occupiedMinutes = occupiedMinutesPerDay[dayIndex];
+                Arrays.fill(occupiedMinutes, 0);
+                bookings.forEach(remainingBooking -> MinuteBitmaps.setMinutes(occupiedMinutes, remainingBooking.startMinute, remainingBooking.finishMinute));
+                return;
+            }
+        }
+    }
+
+    private static final class Booking {
+
+        final String tenantId;
+        final int startMinute;
+        final int finishMinute;
+
+        Booking(String tenantId, int startMinute, int finishMinute) {
+            this.tenantId = tenantId;
+            this.startMinute = startMinute;
+            this.finishMinute = finishMinute;
+        }
+
+        boolean overlaps(int otherStartMinute, int otherFinishMinute) {
+
+            long[] minutes = MinuteBitmaps.newDay();
+            MinuteBitmaps.setMinutes(minutes, startMinute, finishMinute);
+            return MinuteBitmaps.anyMinuteSet(minutes, otherStartMinute, otherFinishMinute);
+        }
+    }
+}
@@ -1,157 +1,1118 @@
 package project.server;
 
-import java.time.Duration;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.LocalDate;
 import java.time.LocalTime;
+import java.time.temporal.ChronoUnit;
 import java.util.*;
-import java.util.concurrent.ForkJoinPool;
-import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
 
 public class Schedule {
 
-    private final Map<String, List<Class>> classes;
-    private final List<String> listOfClassNames;
+    static final List<String> DAYS_OF_WEEK = List.of("Monday", "Tuesday", "Wednesday", "Thursday", "Friday");
+    private static final long[] NO_CLASSES = new long[0]; // shared by the empty days of every new schedule
+
+    private final PackedDay[] days; // per day, the classes packed into longs and sorted by their start time
+    private final InternedStrings names = new InternedStrings(PackedDay.MAX_NUMBER_OF_NAMES, "class names");
+    private final InternedStrings rooms = new InternedStrings(PackedDay.MAX_NUMBER_OF_ROOMS, "rooms");
+    private final Map<String, ReentrantLock> dayLocks;
+    private final ClassNameRegistry classNameRegistry;
     private final int MAX_NUMBER_OF_CLASSES = 5;
+    private final List<ScheduleChangeListener> changeListeners = new CopyOnWriteArrayList<>();
+    private final TermCalendar termCalendar = new TermCalendar(); // the recurring classes, next to the classes held every week
+    // A schedule read from storage keeps its classes in the stored (usually memory-mapped) file and serves reads from there.
+    // A day is copied into its PackedDay only when it is changed for the first time; the flag of a day is guarded by its lock.
+    private CompactScheduleFile storedSchedule;
+    private final boolean[] dayIsInStoredSchedule = new boolean[DAYS_OF_WEEK.size()];
+    // IMPLEMENTATION OF COPY-ON-WRITE VERSIONS OF THE SCHEDULE
+    // The fields above are the working state, only writers use it, under the locks of their days. Once a change is
+    // made, the writer publishes the new version: a PublishedWeek that shares the unchanged days with the version before and
+    // copies the changed ones. Readers take the published week and never lock, so they do not wait even for 'Early Mornings'
+    // holding the whole week, and always see one whole version. The versions are numbered and published under the monitor
+    // that orders them (see notifyChangeListeners()), so the reference is set without a compare-and-set: nobody else can
+    // have published in between. With a journal, a version is published only once the journal has it on disk, so latestWeek,
+    // the last version made, may be ahead of the published one; writers compare versions against latestWeek.
+    private final AtomicReference<PublishedWeek> publishedWeek = new AtomicReference<>();
+    private volatile PublishedWeek latestWeek; // set under the monitor of changeListeners
+    private ChangeLog changeLog; // null outside a ScheduleRegistry with storage, then a version is published as soon as it is made
+    private volatile RenderedWeek renderedWeek; // Display Schedule reuses it as long as the published version has not moved
+    private RoomBookings roomBookings; // null outside a ScheduleRegistry, then rooms are not checked against other schedules
+    private ServerMetrics metrics; // null outside a ScheduleRegistry, then lock waits are not recorded
 
     public Schedule() {
-        classes = new LinkedHashMap<>(); // TreeMap maintains all the elements sorted by the value of keys (dates in this case)
-        classes.put("Monday", new ArrayList<>());
-        classes.put("Tuesday", new ArrayList<>());
-        classes.put("Wednesday", new ArrayList<>());
-        classes.put("Thursday", new ArrayList<>());
-        classes.put("Friday", new ArrayList<>());
-        listOfClassNames = new ArrayList<>();
+        days = new PackedDay[DAYS_OF_WEEK.size()];
+        dayLocks = new HashMap<>();
+        for (int dayIndex = 0; dayIndex < DAYS_OF_WEEK.size(); dayIndex++) {
+            days[dayIndex] = new PackedDay();
+            dayLocks.put(DAYS_OF_WEEK.get(dayIndex), new ReentrantLock());
+        }
+        classNameRegistry = new ClassNameRegistry(MAX_NUMBER_OF_CLASSES);
+        PublishedDay[] emptyDays = new PublishedDay[DAYS_OF_WEEK.size()];
+        for (int dayIndex = 0; dayIndex < DAYS_OF_WEEK.size(); dayIndex++) { // the gap indexes are drawn by the first search, most tenants never search
+            emptyDays[dayIndex] = new PublishedDay(dayIndex, NO_CLASSES, names.table(), rooms.table(), null, List.of(), null);
+        }
+        latestWeek = new PublishedWeek(0, emptyDays);
+        publishedWeek.set(latestWeek);
+    }
+
+    // set by the registry before anyone uses the schedule; the classes it already has are booked by the registry
+    void useRoomBookings(RoomBookings roomBookings) {
+        this.roomBookings = roomBookings;
+    }
+
+    void useMetrics(ServerMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    void useChangeLog(ChangeLog changeLog) {
+        this.changeLog = changeLog;
     }
 
     // IMPLEMENTATION OF SYNCHRONIZATION AND CONTROL ACCESS TO DATA AND (CODE) METHODS
-    public synchronized boolean addClass(String dayOfWeek, Class classToAdd) {
+    // Every day has its own lock, so a Monday insert does not wait for a Friday remove; readers take none (see publishedWeek).
+    // The name registry needs no lock of its own, so holding one day lock is enough for every mutation.
+    public boolean addClass(String dayOfWeek, Class classToAdd) {
 
-        boolean classWithSuchNameIsAlreadyInSchedule = findClassWithNameSpecified(classToAdd.getName());
-        if (!classWithSuchNameIsAlreadyInSchedule) { // check if the class specified is NOT in the schedule already
-            if (listOfClassNames.size() == MAX_NUMBER_OF_CLASSES) { // if the number of classes (modules) reached the limit
-                throw new IncorrectActionException("You have reached the limit (" + MAX_NUMBER_OF_CLASSES + ") of different classes (modules) you can have in your schedule. You cannot add more at the moment.");
-            }
+        Lock dayLock = lockForDay(dayOfWeek);
+        lockRecordingWait(dayLock);
+        try {
+            insertClassWhileLocked(dayOfWeek, classToAdd, true);
+            notifyChangeListeners(List.of(ScheduleOperation.add(dayOfWeek, classToAdd)));
+        } finally {
+            dayLock.unlock();
         }
 
-        List<Class> classesForTheDay = classes.get(dayOfWeek); // the list of classes for the specified date
+        return true;
+    }
+
+    public Class removeClass(String dayOfWeek, String nameOfClassToRemove, LocalTime startTimeOfClassToRemove) {
+
+        Lock dayLock = lockForDay(dayOfWeek);
+        lockRecordingWait(dayLock);
+        try {
+            Class removedClass = deleteClassWhileLocked(dayOfWeek, nameOfClassToRemove, startTimeOfClassToRemove);
+            notifyChangeListeners(List.of(ScheduleOperation.remove(dayOfWeek, removedClass.getName(), removedClass.getStartTime())));
+            return removedClass;
+        } finally {
+            dayLock.unlock();
+        }
+    }
+
+    // Applies every operation or none of them. The write locks of all the days involved are taken once, in week order,
+    // so the batch is atomic for other clients and costs one lock acquisition per day instead of one per operation.
+    // Returns, for each operation, the class that was added or removed.
+    public List<Class> applyAll(List<ScheduleOperation> operations) {
+
+        for (ScheduleOperation operation : operations) {
+            if (operation.getType() != ScheduleOperation.Type.ADD && operation.getType() != ScheduleOperation.Type.REMOVE) {
+                throw new IncorrectActionException("Only adding and removing classes can be part of a batch.");
+            }
+            lockForDay(operation.getDayOfWeek()); // reject unknown days before anything is locked or changed
+        }
 
-        if (classesForTheDay != null) { // if there is a key for the day specified
-            for (Class classToCheckAgainst : classesForTheDay) {
-                if (classToAdd.overlapsWith(classToCheckAgainst)) { // for every class for the specified date, check if the class we are trying to add overlaps with any of them
-                    throw new IncorrectActionException("The class " + classToAdd + " overlaps with some other class in the schedule.");
+        List<Lock> writeLocks = writeLocksOfDaysInvolvedIn(operations);
+        writeLocks.forEach(this::lockRecordingWait);
+        try {
+            List<Class> affectedClasses = new ArrayList<>(operations.size());
+            for (int i = 0; i < operations.size(); i++) {
+                ScheduleOperation operation = operations.get(i);
+                try {
+                    affectedClasses.add(switch (operation.getType()) {
+                        case ADD -> {
+                            insertClassWhileLocked(operation.getDayOfWeek(), operation.getClassToAdd(), true);
+                            yield operation.getClassToAdd();
+                        }
+                        case REMOVE -> deleteClassWhileLocked(operation.getDayOfWeek(), operation.getNameOfClassToRemove(), operation.getStartTimeOfClassToRemove());
+                        case EARLY_MORNINGS, ADD_RECURRING, REMOVE_RECURRING, CANCEL_OCCURRENCE -> throw new IllegalStateException(); // rejected above
+                    });
+                } catch (IncorrectActionException iae) {
+                    undo(operations.subList(0, i), affectedClasses);
+                    throw new IncorrectActionException("Operation " + (i + 1) + " of the batch failed: " + iae.getMessage() + " None of the operations were applied.");
                 }
             }
-            int positionWhereToAddClass = Collections.binarySearch(classesForTheDay, classToAdd) * -1 - 1; // guarantees that classes are sorted based on their starting time
-            classesForTheDay.add(positionWhereToAddClass, classToAdd); // add the class
+            notifyChangeListeners(operations);
+            return affectedClasses;
+        } finally {
+            writeLocks.forEach(Lock::unlock);
         }
-        if (!classWithSuchNameIsAlreadyInSchedule) {
-            listOfClassNames.add(classToAdd.getName().toLowerCase());
+    }
+
+    public boolean findClassWithNameSpecified(String className) {
+
+        return classNameRegistry.contains(className); // only names with at least one class scheduled (for any date) are kept
+    }
+
+    public int countOf(String className) {
+
+        return classNameRegistry.countOf(className); // how many classes (on any date) have this name, ignoring case
+    }
+
+    public String getAllClassesInfoAsString() {
+
+        EncodedMessage allClassesInfo = getAllClassesInfoEncoded();
+        return allClassesInfo == null ? null : allClassesInfo.toString();
+    }
+
+    // null when there are no classes at all
+    public EncodedMessage getAllClassesInfoEncoded() {
+
+        PublishedWeek week = publishedWeek.get(); // the whole week is rendered as one consistent picture, without any lock
+        RenderedWeek rendered = renderedWeek;
+        if (rendered != null && rendered.version == week.version) { // nothing changed since it was rendered: no formatting
+            return rendered.allClassesInfo;
         }
 
-        return true;
+        boolean scheduleIsEmpty = Arrays.stream(week.days).allMatch(day -> day.numberOfClasses() == 0);
+        if (scheduleIsEmpty) {
+            renderedWeek = new RenderedWeek(week.version, null);
+            return null;
+        }
+
+        ByteArrayOutputStream allClassesInfo = new ByteArrayOutputStream();
+        int length = 0;
+        for (PublishedDay publishedDay : week.days) {
+            EncodedMessage day = publishedDay.rendering;
+            if (day == null) { // only the days that changed since the last Display are formatted again
+                day = renderDay(publishedDay);
+                publishedDay.rendering = day;
+            }
+            allClassesInfo.writeBytes(day.bytes());
+            length += day.length();
+        }
+
+        byte[] bytes = allClassesInfo.toByteArray();
+        int end = bytes.length;
+        while (end > 0 && bytes[end - 1] <= ' ') { // same as String.trim() at the end; bytes of multi-byte characters are never <= ' '
+            end--;
+            length--;
+        }
+        EncodedMessage message = new EncodedMessage(Arrays.copyOf(bytes, end), length);
+        renderedWeek = new RenderedWeek(week.version, message);
+        return message;
+    }
+
+    // the whole week is shifted as one change, so a class added meanwhile is either shifted with the others or added afterwards
+    public void performEarlyMorningsOperation() {
+        performEarlyMorningsOperation(new EarlyMorningsRun());
+    }
+
+    // the run records what was done, for the statistics of a call over many schedules
+    void performEarlyMorningsOperation(EarlyMorningsRun run) {
+
+        List<Lock> writeLocks = writeLocksOfDaysInvolvedIn(List.of(ScheduleOperation.earlyMornings()));
+        writeLocks.forEach(this::lockRecordingWait);
+        try {
+            DAYS_OF_WEEK.forEach(this::takeDayOutOfStoredScheduleWhileLocked);
+            checkNoClassIsShiftedOntoARecurringClassWhileLocked();
+            rebookRoomsOfTheShiftWhileLocked();
+            shiftWhileLocked(run);
+            notifyChangeListeners(List.of(ScheduleOperation.earlyMornings()));
+        } finally {
+            writeLocks.forEach(Lock::unlock);
+        }
     }
 
-    public synchronized Class removeClass(String dayOfWeek, String nameOfClassToRemove, LocalTime startTimeOfClassToRemove) {
+    private void shiftWhileLocked(EarlyMorningsRun run) {
 
-        List<Class> classesForTheDay = classes.get(dayOfWeek); // get the list of classes for the specified date
+        int numberOfClassesBefore = Arrays.stream(days).mapToInt(PackedDay::size).sum();
+        run.shift(days);
+        if (Arrays.stream(days).mapToInt(PackedDay::size).sum() < numberOfClassesBefore) {
+            recountStringsWhileLocked();
+        }
+    }
 
-        for (Class aClass : classesForTheDay) { // check every class if there is a match in name and startTime values. If there is, remove the class and return true
-            if (aClass.getName().equalsIgnoreCase(nameOfClassToRemove) && aClass.getStartTime().equals(startTimeOfClassToRemove)) {
-                classesForTheDay.remove(aClass);
+    // the classes of every day and the version they belong to, for plans that are worked out without holding the locks
+    ScheduleSnapshot snapshot() {
 
-                String removedClassName = aClass.getName().toLowerCase();
-                if (!findClassWithNameSpecified(removedClassName)) {
-                    listOfClassNames.remove(removedClassName);
+        PublishedWeek week = publishedWeek.get();
+        List<List<Class>> classesPerDay = new ArrayList<>(DAYS_OF_WEEK.size());
+        for (PublishedDay day : week.days) {
+            classesPerDay.add(viewsOfClassesOn(day));
+        }
+        return new ScheduleSnapshot(week.version, classesPerDay);
+    }
+
+    // Applies a plan worked out from a snapshot as one change, unless the schedule has been changed since.
+    // Like 'Early Mornings', a plan may leave classes back to back, so its classes are inserted without the checks,
+    // except for their rooms, which are booked with the check before anything moves.
+    void applyPlan(long versionPlannedFrom, List<ScheduleOperation> operations) {
+
+        List<Lock> writeLocks = writeLocksOfDaysInvolvedIn(List.of(ScheduleOperation.earlyMornings()));
+        writeLocks.forEach(this::lockRecordingWait);
+        try {
+            if (latestWeek.version != versionPlannedFrom) { // exact, every version is made under the write lock of at least one day
+                throw new IncorrectActionException("The schedule was changed while the new timetable was being worked out. Please try again.");
+            }
+            for (ScheduleOperation operation : operations) { // the plan only moves the classes held every week, the recurring ones stay where they are
+                if (operation.getType() == ScheduleOperation.Type.ADD) {
+                    RecurringSeries overlappingSeries = termCalendar.firstSeriesOverlapping(DAYS_OF_WEEK.indexOf(operation.getDayOfWeek()),
+                            CompactScheduleFile.minuteOf(operation.getClassToAdd().getStartTime()), CompactScheduleFile.minuteOf(operation.getClassToAdd().getFinishTime()));
+                    if (overlappingSeries != null) {
+                        throw new IncorrectActionException("The new timetable would put the class " + operation.getClassToAdd().getName() + " on "
+                                + operation.getDayOfWeek() + " over the recurring class " + overlappingSeries.id + ", so it was not applied.");
+                    }
                 }
+            }
+            rebookRoomsOfThePlanWhileLocked(operations);
+            for (ScheduleOperation operation : operations) {
+                switch (operation.getType()) {
+                    case ADD -> insertClassWhileLocked(operation.getDayOfWeek(), operation.getClassToAdd(), false, false);
+                    case REMOVE -> deleteClassWhileLocked(operation.getDayOfWeek(), operation.getNameOfClassToRemove(), operation.getStartTimeOfClassToRemove(), false);
+                    case EARLY_MORNINGS, ADD_RECURRING, REMOVE_RECURRING, CANCEL_OCCURRENCE -> throw new IllegalArgumentException();
+                }
+            }
+            notifyChangeListeners(operations); // journaled as the plain additions and removals, so a replay does not run the solver again
+        } finally {
+            writeLocks.forEach(Lock::unlock);
+        }
+    }
 
-                if (classesForTheDay.isEmpty()) {
-                    classes.remove(dayOfWeek);
+    // IMPLEMENTATION OF RECURRING CLASSES IN THE SCHEDULE
+    // A series (see RecurringSeries) is kept as its rule under the lock of its day of the week. It may not overlap a class held
+    // every week on that day, whatever its dates, nor an occurrence of another series. Rooms are booked by the week, not by
+    // the date, so a series holds its room on its day of every week, like a class held every week.
+    public RecurringSeries addRecurringClass(LocalDate firstDate, int numberOfOccurrences, int intervalInWeeks, Class classToRepeat) {
+
+        int startMinute = CompactScheduleFile.minuteOf(classToRepeat.getStartTime());
+        int finishMinute = CompactScheduleFile.minuteOf(classToRepeat.getFinishTime());
+        RecurringSeries.validate(firstDate, numberOfOccurrences, intervalInWeeks, startMinute, finishMinute);
+        RecurringSeries seriesToAdd = new RecurringSeries(0, classToRepeat.getName(), classToRepeat.getRoom(), firstDate,
+                numberOfOccurrences, intervalInWeeks, startMinute, finishMinute);
+
+        Lock dayLock = lockForDay(DAYS_OF_WEEK.get(seriesToAdd.dayIndex));
+        lockRecordingWait(dayLock);
+        try {
+            RecurringSeries series = insertSeriesWhileLocked(seriesToAdd, true);
+            notifyChangeListeners(List.of(ScheduleOperation.addRecurring(series)));
+            return series;
+        } finally {
+            dayLock.unlock();
+        }
+    }
+
+    public RecurringSeries removeRecurringClass(int seriesId) {
+
+        RecurringSeries series = recurringClassWithId(seriesId);
+        String dayOfWeek = DAYS_OF_WEEK.get(series.dayIndex);
+        Lock dayLock = lockForDay(dayOfWeek);
+        lockRecordingWait(dayLock);
+        try {
+            if (termCalendar.withId(seriesId) != series) { // removed by someone else before the lock was taken
+                throw new IncorrectActionException("There is no recurring class " + seriesId + " in the schedule.");
+            }
+            deleteSeriesWhileLocked(series);
+            notifyChangeListeners(List.of(ScheduleOperation.removeRecurring(dayOfWeek, seriesId)));
+            return series;
+        } finally {
+            dayLock.unlock();
+        }
+    }
+
+    // an exception to the rule: the class does not take place on that date; to move it, cancel it and add a class that takes place once
+    public RecurringSeries cancelOccurrence(int seriesId, LocalDate dateOfOccurrence) {
+
+        RecurringSeries series = recurringClassWithId(seriesId);
+        Lock dayLock = lockForDay(DAYS_OF_WEEK.get(series.dayIndex));
+        lockRecordingWait(dayLock);
+        try {
+            if (termCalendar.withId(seriesId) != series) {
+                throw new IncorrectActionException("There is no recurring class " + seriesId + " in the schedule.");
+            }
+            if (!series.isScheduledOn(dateOfOccurrence)) {
+                throw new IncorrectActionException("The recurring class " + seriesId + " does not take place on " + dateOfOccurrence + ".");
+            }
+            if (series.cancelledDates.contains(dateOfOccurrence)) {
+                throw new IncorrectActionException("The recurring class " + seriesId + " is already cancelled on " + dateOfOccurrence + ".");
+            }
+            RecurringSeries changedSeries = series.withCancelledDate(dateOfOccurrence);
+            termCalendar.replace(series, changedSeries);
+            notifyChangeListeners(List.of(ScheduleOperation.cancelOccurrence(seriesId, dateOfOccurrence)));
+            return changedSeries;
+        } finally {
+            dayLock.unlock();
+        }
+    }
+
+    // null when there are no recurring classes
+    public String getRecurringClassesInfoAsString() {
+
+        StringBuilder stringBuilder = new StringBuilder();
+        for (PublishedDay day : publishedWeek.get().days) {
+            for (RecurringSeries series : day.series) {
+                stringBuilder.append(series);
+                if (!series.cancelledDates.isEmpty()) {
+                    stringBuilder.append(", cancelled on ").append(series.cancelledDates.stream().map(LocalDate::toString).reduce((a, b) -> a + ", " + b).orElseThrow());
                 }
+                stringBuilder.append("\n");
+            }
+        }
+        return stringBuilder.length() == 0 ? null : stringBuilder.toString().trim();
+    }
+
+    // Every date from 'from' to 'to' with the classes held on it: the classes held every week and the occurrences of the
+    // series, by start time. Only the occurrences inside the range are worked out, however long the series are.
+    // Null when there are no classes in the range.
+    public String getClassesBetweenAsString(LocalDate from, LocalDate to) {
+
+        PublishedWeek week = publishedWeek.get();
+        List<List<TermEntry>> weeklyEntriesPerDay = new ArrayList<>(DAYS_OF_WEEK.size());
+        Map<LocalDate, List<TermEntry>> occurrencesPerDate = new HashMap<>();
+        for (PublishedDay day : week.days) {
+            List<TermEntry> weeklyEntries = new ArrayList<>();
+            for (Class aClass : viewsOfClassesOn(day)) {
+                weeklyEntries.add(new TermEntry(CompactScheduleFile.minuteOf(aClass.getStartTime()), aClass.toString()));
+            }
+            weeklyEntriesPerDay.add(weeklyEntries);
+            for (RecurringSeries series : day.series) {
+                TermEntry occurrence = new TermEntry(series.startMinute, Class.describe(series.name, CompactScheduleFile.timeOf(series.startMinute),
+                        CompactScheduleFile.timeOf(series.finishMinute), series.room) + " (recurring class " + series.id + ")");
+                series.forEachOccurrenceBetween(from, to, date -> occurrencesPerDate.computeIfAbsent(date, d -> new ArrayList<>()).add(occurrence));
+            }
+        }
+
+        StringBuilder stringBuilder = new StringBuilder();
+        for (LocalDate date = from; !date.isAfter(to); date = date.plusDays(1)) {
+            int dayIndex = date.getDayOfWeek().getValue() - 1;
+            if (dayIndex >= DAYS_OF_WEEK.size()) {
+                continue;
+            }
+            List<TermEntry> entriesOfTheDate = new ArrayList<>(weeklyEntriesPerDay.get(dayIndex));
+            entriesOfTheDate.addAll(occurrencesPerDate.getOrDefault(date, List.of()));
+            if (entriesOfTheDate.isEmpty()) {
+                continue;
+            }
+            entriesOfTheDate.sort(Comparator.comparingInt(entry -> entry.startMinute));
+            stringBuilder.append(DAYS_OF_WEEK.get(dayIndex)).append(" ").append(date).append("\n");
+            entriesOfTheDate.forEach(entry -> stringBuilder.append(entry.description).append("\n"));
+            stringBuilder.append("\n");
+        }
+        return stringBuilder.length() == 0 ? null : stringBuilder.toString().trim();
+    }
+
+    static long numberOfDaysFrom(LocalDate from, LocalDate to) {
+        return ChronoUnit.DAYS.between(from, to) + 1;
+    }
+
+    // The minutes of the day a new class may not use; must not be modified. Each day is read from the version published
+    // when it is asked for, the days are not one picture of the week: a free slot is an answer to act on, checked again
+    // when the class is added.
+    long[] blockedMinutesOn(int dayIndex) {
+
+        PublishedDay day = publishedWeek.get().days[dayIndex];
+        long[] blockedMinutes = day.blockedMinutes;
+        if (blockedMinutes == null) {
+            blockedMinutes = drawBlockedMinutes(day);
+            day.blockedMinutes = blockedMinutes;
+        }
+        return blockedMinutes;
+    }
+
+    public long getVersion() {
+        return publishedWeek.get().version;
+    }
+
+    int numberOfClasses() {
 
-                return aClass;
+        int numberOfClasses = 0;
+        for (PublishedDay day : publishedWeek.get().days) {
+            numberOfClasses += day.numberOfClasses();
+        }
+        return numberOfClasses;
+    }
+
+    // IMPLEMENTATION OF CONDITIONAL UPDATES
+    // The change is made only if the schedule is still at the version the client saw, so two clients editing the same
+    // schedule do not overwrite each other's changes without noticing. Every write lock is held while the version is
+    // compared and the change is made, so no other change comes in between; the change takes its own locks again,
+    // which are reentrant.
+    public <T> T changeIfVersionIs(long expectedVersion, Supplier<T> change) {
+
+        List<Lock> writeLocks = writeLocksOfDaysInvolvedIn(List.of(ScheduleOperation.earlyMornings()));
+        writeLocks.forEach(this::lockRecordingWait);
+        try {
+            long currentVersion = latestWeek.version;
+            if (currentVersion != expectedVersion) {
+                throw new IncorrectActionException("The schedule is at version " + currentVersion + ", not " + expectedVersion
+                        + ": someone else has changed it. Nothing was changed, please look at the schedule again.");
             }
+            return change.get();
+        } finally {
+            writeLocks.forEach(Lock::unlock);
         }
-//        return null;
-        throw new IncorrectActionException("There is no class with specified name and start time on " + dayOfWeek + ".");
     }
 
-    public synchronized boolean findClassWithNameSpecified(String className) {
+    // listeners are called in version order, once the change is on disk (see notifyChangeListeners()), and must return quickly
+    public void addChangeListener(ScheduleChangeListener listener) {
+        changeListeners.add(listener);
+    }
 
-        for (List<Class> listOfClassesForSomeDay : classes.values()) {
-            for (Class aClass : listOfClassesForSomeDay) {
-                if (aClass.getName().equalsIgnoreCase(className)) {
-                    return true; // if there is at least one class at any day that has the same name as the value of className
+    // Re-applies a change read back from the write-ahead log. Changes the schedule already contains
+    // (because it was stored after they were made) are skipped, so replaying a log twice is harmless.
+    boolean replay(long versionOfChange, List<ScheduleOperation> operations) {
+        return applyLoggedChange(versionOfChange, operations, false);
+    }
+
+    // Applies a change made on the primary to the copy of a replica. Unlike a replay, the listeners are told as if the
+    // change had been made here, so the replica's subscribers are pushed it and its own journal keeps it. A change that
+    // is already applied is skipped; one that does not follow the current version means changes were lost on the way.
+    boolean applyReplicatedChange(long versionOfChange, List<ScheduleOperation> operations) {
+        return applyLoggedChange(versionOfChange, operations, true);
+    }
+
+    private boolean applyLoggedChange(long versionOfChange, List<ScheduleOperation> operations, boolean notifyListeners) {
+
+        List<Lock> writeLocks = writeLocksOfDaysInvolvedIn(operations);
+        writeLocks.forEach(this::lockRecordingWait);
+        try {
+            long currentVersion = latestWeek.version;
+            if (versionOfChange <= currentVersion) {
+                return false;
+            }
+            if (notifyListeners && versionOfChange != currentVersion + 1) {
+                throw new IllegalStateException("The change to version " + versionOfChange + " cannot follow version " + currentVersion + ".");
+            }
+            for (ScheduleOperation operation : operations) {
+                switch (operation.getType()) {
+                    case ADD -> insertClassWhileLocked(operation.getDayOfWeek(), operation.getClassToAdd(), false);
+                    case REMOVE -> deleteClassWhileLocked(operation.getDayOfWeek(), operation.getNameOfClassToRemove(), operation.getStartTimeOfClassToRemove());
+                    case EARLY_MORNINGS -> {
+                        DAYS_OF_WEEK.forEach(this::takeDayOutOfStoredScheduleWhileLocked);
+                        releaseRoomsOfTheWeekWhileLocked();
+                        shiftWhileLocked(new EarlyMorningsRun());
+                        bookRoomsOfTheWeekWhileLocked();
+                    }
+                    case ADD_RECURRING -> insertSeriesWhileLocked(operation.getSeriesToAdd(), false);
+                    case REMOVE_RECURRING -> {
+                        RecurringSeries series = termCalendar.withId(operation.getSeriesId());
+                        if (series != null) {
+                            deleteSeriesWhileLocked(series);
+                        }
+                    }
+                    case CANCEL_OCCURRENCE -> {
+                        RecurringSeries series = termCalendar.withId(operation.getSeriesId());
+                        if (series != null) {
+                            termCalendar.replace(series, series.withCancelledDate(operation.getDateOfOccurrence()));
+                        }
+                    }
                 }
             }
+            synchronized (changeListeners) {
+                makeVersionWhileLocked(versionOfChange, operations, notifyListeners);
+            }
+            return true;
+        } finally {
+            writeLocks.forEach(Lock::unlock);
         }
-        return false; // indicates that there is no class scheduled (for any date) with the name specified
     }
 
-    public synchronized String getAllClassesInfoAsString() {
+    // the whole schedule in the format of CompactScheduleFile
+    public void writeTo(DataOutput out) throws IOException {
 
-        if (classes.isEmpty()) {
-            return null;
+        PublishedWeek week = publishedWeek.get(); // one whole version, a change made meanwhile is in the journal
+        List<Collection<Class>> classesPerDay = new ArrayList<>(DAYS_OF_WEEK.size());
+        List<RecurringSeries> allSeries = new ArrayList<>();
+        for (PublishedDay day : week.days) {
+            classesPerDay.add(viewsOfClassesOn(day));
+            allSeries.addAll(day.series);
         }
+        CompactScheduleFile.write(out, week.version, classesPerDay, allSeries);
+    }
+
+    // The buffer, typically a file mapped with FileChannel.map(), is kept and read in place: loading costs the same
+    // for an empty schedule and a full one, and no class becomes an object until its day is changed.
+    public static Schedule readFrom(ByteBuffer buffer) throws IOException {
+
+        Schedule schedule = new Schedule();
+        schedule.storedSchedule = new CompactScheduleFile(buffer);
+        Arrays.fill(schedule.dayIsInStoredSchedule, true);
+        schedule.storedSchedule.numberOfClassesPerName().forEach(schedule.classNameRegistry::registerWithoutLimit);
+        for (RecurringSeries series : schedule.storedSchedule.recurringSeries()) { // a few dozen at most, unlike the classes
+            schedule.termCalendar.add(series);
+            schedule.classNameRegistry.registerWithoutLimit(series.name);
+        }
+        PublishedDay[] storedDays = new PublishedDay[DAYS_OF_WEEK.size()];
+        for (int dayIndex = 0; dayIndex < DAYS_OF_WEEK.size(); dayIndex++) {
+            storedDays[dayIndex] = new PublishedDay(dayIndex, null, null, null, schedule.storedSchedule, List.copyOf(schedule.termCalendar.seriesOn(dayIndex)), null);
+        }
+        schedule.latestWeek = new PublishedWeek(schedule.storedSchedule.scheduleVersion(), storedDays);
+        schedule.publishedWeek.set(schedule.latestWeek);
+        return schedule;
+    }
+
+    private EncodedMessage renderDay(PublishedDay day) {
 
         StringBuilder stringBuilder = new StringBuilder();
+        stringBuilder.append(DAYS_OF_WEEK.get(day.dayIndex)).append("\n");
+        if (day.storedSchedule != null) { // straight from the stored records, no Class objects are created
+            CompactScheduleFile storedSchedule = day.storedSchedule;
+            for (int i = 0; i < storedSchedule.numberOfClassesOn(day.dayIndex); i++) {
+                stringBuilder.append(Class.describe(storedSchedule.nameOf(day.dayIndex, i), CompactScheduleFile.timeOf(storedSchedule.startMinuteOf(day.dayIndex, i)),
+                        CompactScheduleFile.timeOf(storedSchedule.finishMinuteOf(day.dayIndex, i)), storedSchedule.roomOf(day.dayIndex, i))).append("\n");
+            }
+        } else {
+            for (long aClass : day.classes) {
+                stringBuilder.append(Class.describe(day.names[PackedDay.nameIdOf(aClass)], CompactScheduleFile.timeOf(PackedDay.startOf(aClass)),
+                        CompactScheduleFile.timeOf(PackedDay.finishOf(aClass)), day.rooms[PackedDay.roomIdOf(aClass)])).append("\n");
+            }
+        }
+        stringBuilder.append("\n");
+        return EncodedMessage.of(stringBuilder.toString());
+    }
 
-        classes.forEach((date, classesList) -> {
-            stringBuilder.append(date).append("\n");
-            classesList.forEach(aClass -> stringBuilder.append(aClass).append("\n"));
-            stringBuilder.append("\n");
-        });
+    private List<Class> viewsOfClassesOn(PublishedDay day) {
+
+        if (day.storedSchedule != null) {
+            return new ArrayList<>(day.storedSchedule.classesOn(day.dayIndex));
+        }
+        List<Class> classesOfTheDay = new ArrayList<>(day.classes.length);
+        for (long aClass : day.classes) {
+            classesOfTheDay.add(viewOf(aClass, day.names, day.rooms));
+        }
+        return classesOfTheDay;
+    }
+
+    private static Class viewOf(long packedClass, String[] names, String[] rooms) {
+        return new Class(CompactScheduleFile.timeOf(PackedDay.startOf(packedClass)), CompactScheduleFile.timeOf(PackedDay.finishOf(packedClass)),
+                names[PackedDay.nameIdOf(packedClass)], rooms[PackedDay.roomIdOf(packedClass)]);
+    }
 
-        return stringBuilder.toString().trim();
+    // called with the day's write lock held, before the day is changed; the names are already in the registry
+    private void takeDayOutOfStoredScheduleWhileLocked(String dayOfWeek) {
+
+        int dayIndex = DAYS_OF_WEEK.indexOf(dayOfWeek);
+        if (!dayIsInStoredSchedule[dayIndex]) {
+            return;
+        }
+        for (int i = 0; i < storedSchedule.numberOfClassesOn(dayIndex); i++) { // the records are sorted already, every insert is an append
+            days[dayIndex].insert(PackedDay.pack(storedSchedule.startMinuteOf(dayIndex, i), storedSchedule.finishMinuteOf(dayIndex, i), dayIndex,
+                    names.acquire(storedSchedule.nameOf(dayIndex, i)), rooms.acquire(storedSchedule.roomOf(dayIndex, i))));
+        }
+        dayIsInStoredSchedule[dayIndex] = false;
     }
 
-    public synchronized void performEarlyMorningsOperation() {
+    // The versions are made under one monitor, so they are numbered in the order the changes were made even when several
+    // days are changed at the same time. A version is published, and the listeners are told, once the journal has it on
+    // disk: no reader, subscriber or replica sees a change that a crash could still take back. The journal publishes in the
+    // order of its records, so every listener sees the changes of this schedule in version order.
+    private void notifyChangeListeners(List<ScheduleOperation> operations) {
 
-        ForkJoinPool.commonPool().invoke(new EarlyMorningsForkJoinTask(classes, 0, classes.size()));
+        synchronized (changeListeners) {
+            makeVersionWhileLocked(latestWeek.version + 1, operations, true);
+        }
     }
-}
 
-// IMPLEMENTATION OF FORK-JOIN RULE USING DIVIDE AND CONQUER
-class EarlyMorningsForkJoinTask extends RecursiveTask<Void> {
+    // called under the monitor of changeListeners, with the write locks of the days the operations changed
+    private void makeVersionWhileLocked(long newVersion, List<ScheduleOperation> operations, boolean notifyListeners) {
 
-    private final Map<String, List<Class>> classes;
-    private final List<String> daysOfWeek;
-    private final int start;
-    private final int end;
+        PublishedWeek previousWeek = latestWeek;
+        PublishedDay[] publishedDays = previousWeek.days.clone(); // the days that did not change are shared
+        for (int dayIndex = 0; dayIndex < DAYS_OF_WEEK.size(); dayIndex++) {
+            if (isInvolvedIn(DAYS_OF_WEEK.get(dayIndex), operations)) {
+                publishedDays[dayIndex] = dayIsInStoredSchedule[dayIndex]
+                        ? new PublishedDay(dayIndex, null, null, null, storedSchedule, List.copyOf(termCalendar.seriesOn(dayIndex)), blockedMinutesAfter(previousWeek.days[dayIndex], operations))
+                        : new PublishedDay(dayIndex, days[dayIndex].toArray(), names.table(), rooms.table(), null, List.copyOf(termCalendar.seriesOn(dayIndex)),
+                                blockedMinutesAfter(previousWeek.days[dayIndex], operations));
+            }
+        }
+        PublishedWeek newWeek = new PublishedWeek(newVersion, publishedDays);
+        if (!notifyListeners) { // a change replayed from the journal, it is on disk already
+            publishedWeek.set(newWeek);
+        } else if (changeLog == null) {
+            publish(newWeek, operations);
+        } else {
+            changeLog.append(newVersion, operations, () -> publish(newWeek, operations)); // throws once the journal cannot be written
+        }
+        latestWeek = newWeek;
+    }
 
-    public EarlyMorningsForkJoinTask(Map<String, List<Class>> classes, int start, int end) {
-        this.classes = classes;
-        daysOfWeek = new ArrayList<>(classes.keySet());
-        this.start = start;
-        this.end = end;
+    private void publish(PublishedWeek newWeek, List<ScheduleOperation> operations) {
+
+        publishedWeek.set(newWeek);
+        for (ScheduleChangeListener listener : changeListeners) {
+            listener.scheduleChanged(newWeek.version, operations);
+        }
+    }
+
+    // a version is on disk when there is no journal or every change made so far has been published
+    boolean hasChangesNotYetOnDisk() {
+        return latestWeek != publishedWeek.get();
+    }
+
+    // The gap index of the new version of a day, if it can be had without drawing it again: when nothing of the day was
+    // removed or moved, the minutes of the added classes are set in a copy of the previous version's index. Otherwise null,
+    // it is drawn by the first search that needs it.
+    private static long[] blockedMinutesAfter(PublishedDay previousDay, List<ScheduleOperation> operations) {
+
+        if (previousDay.blockedMinutes == null) {
+            return null;
+        }
+        long[] blockedMinutes = previousDay.blockedMinutes.clone();
+        for (ScheduleOperation operation : operations) {
+            if (!isInvolvedIn(DAYS_OF_WEEK.get(previousDay.dayIndex), List.of(operation))) {
+                continue;
+            }
+            switch (operation.getType()) {
+                case ADD -> blockMinutes(blockedMinutes, CompactScheduleFile.minuteOf(operation.getClassToAdd().getStartTime()),
+                        CompactScheduleFile.minuteOf(operation.getClassToAdd().getFinishTime()));
+                case ADD_RECURRING -> blockMinutes(blockedMinutes, operation.getSeriesToAdd().startMinute, operation.getSeriesToAdd().finishMinute);
+                case CANCEL_OCCURRENCE -> { // the series still holds its time on its day of the week
+                }
+                case REMOVE, EARLY_MORNINGS, REMOVE_RECURRING -> {
+                    return null;
+                }
+            }
+        }
+        return blockedMinutes;
     }
 
-    @Override
-    protected Void compute() {
+    private static long[] drawBlockedMinutes(PublishedDay day) {
 
-        if (end - start < 3) {
-            shiftAllClassesToMorningTime();
+        long[] blockedMinutes = MinuteBitmaps.newDay();
+        if (day.storedSchedule != null) {
+            for (int i = 0; i < day.storedSchedule.numberOfClassesOn(day.dayIndex); i++) {
+                blockMinutes(blockedMinutes, day.storedSchedule.startMinuteOf(day.dayIndex, i), day.storedSchedule.finishMinuteOf(day.dayIndex, i));
+            }
         } else {
-            int middle = (start + end) / 2;
-            EarlyMorningsForkJoinTask task1 = new EarlyMorningsForkJoinTask(classes, start, middle);
-            EarlyMorningsForkJoinTask task2 = new EarlyMorningsForkJoinTask(classes, middle, end);
-            invokeAll(task1, task2);
+            for (long aClass : day.classes) {
+                blockMinutes(blockedMinutes, PackedDay.startOf(aClass), PackedDay.finishOf(aClass));
+            }
+        }
+        for (RecurringSeries series : day.series) {
+            blockMinutes(blockedMinutes, series.startMinute, series.finishMinute);
+        }
+        return blockedMinutes;
+    }
+
+    // a class from startMinute to finishMinute blocks both ends too, a new class may not touch it
+    private static void blockMinutes(long[] blockedMinutes, int startMinute, int finishMinute) {
+        MinuteBitmaps.setMinutes(blockedMinutes, startMinute, (finishMinute + 1) % MinuteBitmaps.MINUTES_PER_DAY);
+    }
+
+    // write locks are always taken in week order, whoever takes them, so two multi-day changes cannot deadlock
+    private List<Lock> writeLocksOfDaysInvolvedIn(List<ScheduleOperation> operations) {
+
+        List<Lock> writeLocks = new ArrayList<>();
+        for (String dayOfWeek : DAYS_OF_WEEK) {
+            if (isInvolvedIn(dayOfWeek, operations)) {
+                writeLocks.add(dayLocks.get(dayOfWeek));
+            }
         }
-        return null;
+        return writeLocks;
     }
 
-    private void shiftAllClassesToMorningTime() {
+    private static boolean isInvolvedIn(String dayOfWeek, List<ScheduleOperation> operations) {
 
-        for (int i = start; i < end; i++) {
+        for (ScheduleOperation operation : operations) {
+            if (operation.getType() == ScheduleOperation.Type.EARLY_MORNINGS || dayOfWeek.equals(operation.getDayOfWeek())) {
+                return true;
+            }
+        }
+        return false;
+    }
 
-            String dayOfWeek = daysOfWeek.get(i);
-            List<Class> classesForTheDay = classes.get(dayOfWeek);
-            LocalTime startTime = LocalTime.of(9, 0);
-            for (Class aClass : classesForTheDay) {
-                Duration classDuration = aClass.getDuration();
-                aClass.setStartTime(startTime);
-                aClass.setFinishTime(startTime.plus(classDuration));
+    // A free lock is taken with tryLock() and costs no clock reads, only a wait is timed. The day locks are not fair,
+    // so a free lock is taken the same way lock() would take it.
+    private void lockRecordingWait(Lock lock) {
 
-                startTime = aClass.getFinishTime();
+        if (lock.tryLock()) {
+            if (metrics != null) {
+                metrics.recordLockAcquisition();
             }
+            return;
         }
+        lockAndRecordWait(lock);
     }
-}
\ No newline at end of file
+
+    private void lockAndRecordWait(Lock lock) {
+
+        long waitStart = System.nanoTime();
+        lock.lock();
+        if (metrics != null) {
+            metrics.recordLockAcquisitionAfterWaiting(System.nanoTime() - waitStart);
+        }
+    }
+
+    private ReentrantLock lockForDay(String dayOfWeek) {
+
+        ReentrantLock lock = dayLocks.get(dayOfWeek);
+        if (lock == null) {
+            throw new IncorrectActionException("There is no " + dayOfWeek + " in the schedule. Please choose a day from Monday to Friday.");
+        }
+        return lock;
+    }
+
+    private void insertClassWhileLocked(String dayOfWeek, Class classToAdd, boolean checkRules) {
+        insertClassWhileLocked(dayOfWeek, classToAdd, checkRules, true);
+    }
+
+    // Classes that were already accepted once (read from storage, replayed from the journal, restored by an undo) skip the checks:
+    // 'Early Mornings' leaves classes back to back, which a new class would count as an overlap. bookRoom is false for a class
+    // whose room the caller has booked already (see applyPlan()).
+    private void insertClassWhileLocked(String dayOfWeek, Class classToAdd, boolean checkRules, boolean bookRoom) {
+
+        takeDayOutOfStoredScheduleWhileLocked(dayOfWeek);
+        int dayIndex = DAYS_OF_WEEK.indexOf(dayOfWeek);
+        PackedDay classesForTheDay = days[dayIndex]; // the classes for the specified date
+        int startMinute = CompactScheduleFile.minuteOf(classToAdd.getStartTime());
+        int finishMinute = CompactScheduleFile.minuteOf(classToAdd.getFinishTime());
+        if (!checkRules) {
+            classNameRegistry.registerWithoutLimit(classToAdd.getName());
+            if (roomBookings != null && bookRoom) {
+                roomBookings.book(dayIndex, startMinute, finishMinute, classToAdd.getRoom(), false);
+            }
+            releaseStringsOf(classesForTheDay.insert(packWhileLocked(startMinute, finishMinute, dayIndex, classToAdd)));
+            return;
+        }
+
+        BinaryProtocol.checkLengthOf(classToAdd.getName());
+        BinaryProtocol.checkLengthOf(classToAdd.getRoom());
+        if (startMinute >= finishMinute) { // a class of zero length would share its start time (the index key) with its neighbour after 'Early Mornings'
+            throw new IncorrectActionException("The class " + classToAdd + " must finish after it starts.");
+        }
+
+        if (classesForTheDay.overlapsNeighbours(startMinute, finishMinute)) {
+            throw new IncorrectActionException("The class " + classToAdd + " overlaps with some other class in the schedule.");
+        }
+
+        RecurringSeries overlappingSeries = termCalendar.firstSeriesOverlapping(dayIndex, startMinute, finishMinute);
+        if (overlappingSeries != null) { // a class held every week meets every occurrence of the series
+            throw new IncorrectActionException("The class " + classToAdd + " overlaps with the recurring class " + overlappingSeries + ".");
+        }
+
+        if (roomBookings != null) {
+            roomBookings.book(dayIndex, startMinute, finishMinute, classToAdd.getRoom(), true); // the last check: once booked the class is added
+        }
+        long packedClass;
+        try {
+            classNameRegistry.register(classToAdd.getName()); // the module limit is checked for the whole week, not only for this day
+            try {
+                packedClass = packWhileLocked(startMinute, finishMinute, dayIndex, classToAdd); // last, a refused class takes no id
+            } catch (IncorrectActionException iae) {
+                classNameRegistry.unregister(classToAdd.getName());
+                throw iae;
+            }
+        } catch (IncorrectActionException iae) {
+            if (roomBookings != null) {
+                roomBookings.release(dayIndex, startMinute, finishMinute, classToAdd.getRoom());
+            }
+            throw iae;
+        }
+        classesForTheDay.insert(packedClass); // kept sorted based on the starting time
+    }
+
+    private long packWhileLocked(int startMinute, int finishMinute, int dayIndex, Class aClass) {
+
+        int nameId = names.acquire(aClass.getName());
+        try {
+            return PackedDay.pack(startMinute, finishMinute, dayIndex, nameId, rooms.acquire(aClass.getRoom()));
+        } catch (IncorrectActionException iae) {
+            names.release(nameId);
+            throw iae;
+        }
+    }
+
+    // a class that is no longer in any day gives its name and room back; NO_CLASS gives nothing back
+    private void releaseStringsOf(long packedClass) {
+
+        if (packedClass != PackedDay.NO_CLASS) {
+            names.release(PackedDay.nameIdOf(packedClass));
+            rooms.release(PackedDay.roomIdOf(packedClass));
+        }
+    }
+
+    // 'Early Mornings' drops a class that lands on the start time of another (see PackedDay.shiftToMorning()) without releasing it
+    private void recountStringsWhileLocked() {
+
+        names.recount(Arrays.stream(days).flatMapToInt(day -> IntStream.range(0, day.size()).map(i -> PackedDay.nameIdOf(day.get(i)))));
+        rooms.recount(Arrays.stream(days).flatMapToInt(day -> IntStream.range(0, day.size()).map(i -> PackedDay.roomIdOf(day.get(i)))));
+    }
+
+    // Series read back from storage or the journal skip the checks, like classes, and keep their id. A new one is checked
+    // against both kinds of class and is given its id once it is accepted, so a refused series leaves no gap in the ids.
+    private RecurringSeries insertSeriesWhileLocked(RecurringSeries series, boolean checkRules) {
+
+        if (!checkRules) {
+            classNameRegistry.registerWithoutLimit(series.name);
+            if (roomBookings != null) {
+                roomBookings.book(series.dayIndex, series.startMinute, series.finishMinute, series.room, false);
+            }
+            termCalendar.add(series);
+            return series;
+        }
+
+        BinaryProtocol.checkLengthOf(series.name);
+        BinaryProtocol.checkLengthOf(series.room);
+        String dayOfWeek = DAYS_OF_WEEK.get(series.dayIndex);
+        takeDayOutOfStoredScheduleWhileLocked(dayOfWeek);
+        if (days[series.dayIndex].overlapsNeighbours(series.startMinute, series.finishMinute)) {
+            throw new IncorrectActionException("The recurring class " + series.name + " overlaps with a class held every " + dayOfWeek + ".");
+        }
+        RecurringSeries seriesInConflict = termCalendar.firstSeriesInConflictWith(series);
+        if (seriesInConflict != null) {
+            throw new IncorrectActionException("The recurring class " + series.name + " overlaps with the recurring class " + seriesInConflict.id
+                    + " on " + series.firstDateInCommonWith(seriesInConflict) + ".");
+        }
+
+        if (roomBookings != null) {
+            roomBookings.book(series.dayIndex, series.startMinute, series.finishMinute, series.room, true);
+        }
+        try {
+            classNameRegistry.register(series.name); // a series counts as one class towards the module limit
+        } catch (IncorrectActionException iae) {
+            if (roomBookings != null) {
+                roomBookings.release(series.dayIndex, series.startMinute, series.finishMinute, series.room);
+            }
+            throw iae;
+        }
+        RecurringSeries acceptedSeries = series.withId(termCalendar.nextSeriesId());
+        termCalendar.add(acceptedSeries);
+        return acceptedSeries;
+    }
+
+    private void deleteSeriesWhileLocked(RecurringSeries series) {
+
+        termCalendar.remove(series);
+        classNameRegistry.unregister(series.name);
+        if (roomBookings != null) {
+            roomBookings.release(series.dayIndex, series.startMinute, series.finishMinute, series.room);
+        }
+    }
+
+    private RecurringSeries recurringClassWithId(int seriesId) {
+
+        RecurringSeries series = termCalendar.withId(seriesId);
+        if (series == null) {
+            throw new IncorrectActionException("There is no recurring class " + seriesId + " in the schedule.");
+        }
+        return series;
+    }
+
+    // 'Early Mornings' moves the classes held every week, not the recurring ones: it is refused if a class would land on one.
+    // Worked out the way PackedDay.shiftToMorning() moves the classes, before anything is changed.
+    private void checkNoClassIsShiftedOntoARecurringClassWhileLocked() {
+
+        if (termCalendar.isEmpty()) {
+            return;
+        }
+        for (int dayIndex = 0; dayIndex < days.length; dayIndex++) {
+            PackedDay day = days[dayIndex];
+            int startMinute = EarlyMorningsEngine.FIRST_START_MINUTE;
+            for (int i = 0; i < day.size(); i++) {
+                long aClass = day.get(i);
+                int finishMinute = Math.floorMod(startMinute + PackedDay.finishOf(aClass) - PackedDay.startOf(aClass), 24 * 60);
+                RecurringSeries overlappingSeries = finishMinute < startMinute
+                        ? Objects.requireNonNullElse(termCalendar.firstSeriesOverlapping(dayIndex, startMinute, 24 * 60 - 1), termCalendar.firstSeriesOverlapping(dayIndex, 0, finishMinute))
+                        : termCalendar.firstSeriesOverlapping(dayIndex, startMinute, finishMinute);
+                if (overlappingSeries != null) {
+                    throw new IncorrectActionException("'Early Mornings' would move the class " + names.get(PackedDay.nameIdOf(aClass)) + " on " + DAYS_OF_WEEK.get(dayIndex)
+                            + " over the recurring class " + overlappingSeries.id + ", so the schedule was left as it was.");
+                }
+                startMinute = finishMinute;
+            }
+        }
+    }
+
+    private Class deleteClassWhileLocked(String dayOfWeek, String nameOfClassToRemove, LocalTime startTimeOfClassToRemove) {
+        return deleteClassWhileLocked(dayOfWeek, nameOfClassToRemove, startTimeOfClassToRemove, true);
+    }
+
+    private Class deleteClassWhileLocked(String dayOfWeek, String nameOfClassToRemove, LocalTime startTimeOfClassToRemove, boolean releaseRoom) {
+
+        takeDayOutOfStoredScheduleWhileLocked(dayOfWeek);
+        PackedDay classesForTheDay = days[DAYS_OF_WEEK.indexOf(dayOfWeek)]; // get the classes for the specified date
+
+        int index = classesForTheDay.indexOfStart(CompactScheduleFile.minuteOf(startTimeOfClassToRemove)); // at most one class can start at a given time
+        if (index < 0 || !names.get(PackedDay.nameIdOf(classesForTheDay.get(index))).equalsIgnoreCase(nameOfClassToRemove)) {
+            throw new IncorrectActionException("There is no class with specified name and start time on " + dayOfWeek + ".");
+        }
+        long removedPackedClass = classesForTheDay.removeAt(index);
+        Class removedClass = viewOf(removedPackedClass, names.table(), rooms.table());
+        releaseStringsOf(removedPackedClass);
+        classNameRegistry.unregister(removedClass.getName());
+        if (roomBookings != null && releaseRoom) {
+            roomBookings.release(DAYS_OF_WEEK.indexOf(dayOfWeek), PackedDay.startOf(removedPackedClass), PackedDay.finishOf(removedPackedClass), removedClass.getRoom());
+        }
+        return removedClass;
+    }
+
+    // The rooms the classes will have after 'Early Mornings' are booked with the check before anything moves, like the room of a
+    // new class: a shift that would put a class in a room another schedule holds at that time leaves the schedule and all of its
+    // bookings as they were.
+    private void rebookRoomsOfTheShiftWhileLocked() {
+
+        if (roomBookings == null) {
+            return;
+        }
+        PackedDay[] shiftedDays = new PackedDay[days.length];
+        for (int dayIndex = 0; dayIndex < days.length; dayIndex++) {
+            shiftedDays[dayIndex] = days[dayIndex].copy();
+            shiftedDays[dayIndex].shiftToMorning(EarlyMorningsEngine.FIRST_START_MINUTE);
+        }
+        try {
+            roomBookings.rebook(roomSlotsOf(days), roomSlotsOf(shiftedDays));
+        } catch (IncorrectActionException conflict) {
+            throw new IncorrectActionException("'Early Mornings' would move a class into a room that is taken at that time, so the schedule was left as it was. "
+                    + conflict.getMessage());
+        }
+    }
+
+    // the same for the classes a plan moves; a plan that would remove a class the schedule does not have is refused here too
+    private void rebookRoomsOfThePlanWhileLocked(List<ScheduleOperation> operations) {
+
+        if (roomBookings == null) {
+            return;
+        }
+        List<RoomBookings.Slot> releasedSlots = new ArrayList<>();
+        List<RoomBookings.Slot> bookedSlots = new ArrayList<>();
+        for (ScheduleOperation operation : operations) {
+            int dayIndex = DAYS_OF_WEEK.indexOf(operation.getDayOfWeek());
+            if (operation.getType() == ScheduleOperation.Type.ADD) {
+                bookedSlots.add(new RoomBookings.Slot(dayIndex, CompactScheduleFile.minuteOf(operation.getClassToAdd().getStartTime()),
+                        CompactScheduleFile.minuteOf(operation.getClassToAdd().getFinishTime()), operation.getClassToAdd().getRoom()));
+                continue;
+            }
+            takeDayOutOfStoredScheduleWhileLocked(operation.getDayOfWeek());
+            int index = days[dayIndex].indexOfStart(CompactScheduleFile.minuteOf(operation.getStartTimeOfClassToRemove()));
+            if (index < 0 || !names.get(PackedDay.nameIdOf(days[dayIndex].get(index))).equalsIgnoreCase(operation.getNameOfClassToRemove())) {
+                throw new IncorrectActionException("There is no class with specified name and start time on " + operation.getDayOfWeek() + ".");
+            }
+            long aClass = days[dayIndex].get(index);
+            releasedSlots.add(new RoomBookings.Slot(dayIndex, PackedDay.startOf(aClass), PackedDay.finishOf(aClass), rooms.get(PackedDay.roomIdOf(aClass))));
+        }
+        try {
+            roomBookings.rebook(releasedSlots, bookedSlots);
+        } catch (IncorrectActionException conflict) {
+            throw new IncorrectActionException("The new timetable would put a class into a room that is taken at that time, so it was not applied. " + conflict.getMessage());
+        }
+    }
+
+    private List<RoomBookings.Slot> roomSlotsOf(PackedDay[] classesPerDay) {
+
+        List<RoomBookings.Slot> slots = new ArrayList<>();
+        for (int dayIndex = 0; dayIndex < classesPerDay.length; dayIndex++) {
+            for (int i = 0; i < classesPerDay[dayIndex].size(); i++) {
+                long aClass = classesPerDay[dayIndex].get(i);
+                slots.add(new RoomBookings.Slot(dayIndex, PackedDay.startOf(aClass), PackedDay.finishOf(aClass), rooms.get(PackedDay.roomIdOf(aClass))));
+            }
+        }
+        return slots;
+    }
+
+    // a shift replayed from the journal was accepted already, so the whole week gives its rooms back and books them again unchecked
+    private void releaseRoomsOfTheWeekWhileLocked() {
+
+        if (roomBookings == null) {
+            return;
+        }
+        for (int dayIndex = 0; dayIndex < days.length; dayIndex++) {
+            for (int i = 0; i < days[dayIndex].size(); i++) {
+                long aClass = days[dayIndex].get(i);
+                roomBookings.release(dayIndex, PackedDay.startOf(aClass), PackedDay.finishOf(aClass), rooms.get(PackedDay.roomIdOf(aClass)));
+            }
+        }
+    }
+
+    private void bookRoomsOfTheWeekWhileLocked() {
+
+        if (roomBookings == null) {
+            return;
+        }
+        for (int dayIndex = 0; dayIndex < days.length; dayIndex++) {
+            for (int i = 0; i < days[dayIndex].size(); i++) {
+                long aClass = days[dayIndex].get(i);
+                roomBookings.book(dayIndex, PackedDay.startOf(aClass), PackedDay.finishOf(aClass), rooms.get(PackedDay.roomIdOf(aClass)), false);
+            }
+        }
+    }
+
+    // reverts already applied operations, newest first, so every step sees exactly the state it was applied to
+    private void undo(List<ScheduleOperation> appliedOperations, List<Class> affectedClasses) {
+
+        for (int i = appliedOperations.size() - 1; i >= 0; i--) {
+            ScheduleOperation operation = appliedOperations.get(i);
+            Class affectedClass = affectedClasses.get(i);
+            switch (operation.getType()) {
+                case ADD -> deleteClassWhileLocked(operation.getDayOfWeek(), affectedClass.getName(), affectedClass.getStartTime());
+                case REMOVE -> insertClassWhileLocked(operation.getDayOfWeek(), affectedClass, false); // puts back exactly what was there
+                case EARLY_MORNINGS, ADD_RECURRING, REMOVE_RECURRING, CANCEL_OCCURRENCE -> throw new IllegalStateException();
+            }
+        }
+    }
+
+    // where the changes are made durable; onDurable is run once the change is on disk, for the changes in the order they were appended
+    interface ChangeLog {
+        void append(long version, List<ScheduleOperation> operations, Runnable onDurable);
+    }
+}
+
+// a rendering of the whole week and the version of the schedule it shows
+class RenderedWeek {
+
+    final long version;
+    final EncodedMessage allClassesInfo; // null for a schedule without classes
+
+    RenderedWeek(long version, EncodedMessage allClassesInfo) {
+        this.version = version;
+        this.allClassesInfo = allClassesInfo;
+    }
+}
+
+// one line of 'Display Term' and the minute it is sorted by
+class TermEntry {
+
+    final int startMinute;
+    final String description;
+
+    TermEntry(int startMinute, String description) {
+        this.startMinute = startMinute;
+        this.description = description;
+    }
+}
+
+// the schedule as it was at one version; never changed once it is published
+final class PublishedWeek {
+
+    final long version;
+    final PublishedDay[] days;
+
+    PublishedWeek(long version, PublishedDay[] days) {
+        this.version = version;
+        this.days = days;
+    }
+}
+
+// One day of a published version. Its rendering and its gap index are worked out by the first reader that needs them;
+// two readers may both do it, with the same result.
+final class PublishedDay {
+
+    final int dayIndex;
+    final long[] classes; // packed as in PackedDay and sorted by start time; null while the day is read from the stored schedule
+    final String[] names; // the tables the ids of the classes were given from (see InternedStrings), null with the classes
+    final String[] rooms;
+    final CompactScheduleFile storedSchedule; // null once the day has been changed
+    final List<RecurringSeries> series; // by start time
+    volatile EncodedMessage rendering;
+    volatile long[] blockedMinutes; // a bit for every minute a new class may not use, touching counts; must not be modified
+
+    PublishedDay(int dayIndex, long[] classes, String[] names, String[] rooms, CompactScheduleFile storedSchedule, List<RecurringSeries> series, long[] blockedMinutes) {
+        this.dayIndex = dayIndex;
+        this.classes = classes;
+        this.names = names;
+        this.rooms = rooms;
+        this.storedSchedule = storedSchedule;
+        this.series = series;
+        this.blockedMinutes = blockedMinutes;
+    }
+
+    int numberOfClasses() {
+        return storedSchedule != null ? storedSchedule.numberOfClassesOn(dayIndex) : classes.length;
+    }
+}
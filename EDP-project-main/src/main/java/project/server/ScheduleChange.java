@@ -0,0 +1,75 @@
+package project.server;
+
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.List;
+
+// one change as it is pushed; its encodings are made by the first connection that needs them and shared with the others
+final class ScheduleChange {
+
+    // queued instead of the changes a slow client lost
+    static final ScheduleChange MISSED = new ScheduleChange(null, -1, List.of());
+
+    final String tenantId;
+    final long version;
+    final List<ScheduleOperation> operations;
+    final long madeAtEpochMicros; // replicas measure their lag from it
+    private volatile ByteBuffer textFrame;
+    private volatile ByteBuffer binaryFrame;
+
+    ScheduleChange(String tenantId, long version, List<ScheduleOperation> operations) {
+        this.tenantId = tenantId;
+        this.version = version;
+        this.operations = operations;
+        this.madeAtEpochMicros = nowEpochMicros();
+    }
+
+    static long nowEpochMicros() {
+        Instant now = Instant.now();
+        return now.getEpochSecond() * 1_000_000 + now.getNano() / 1_000;
+    }
+
+    // two connections may encode it at the same time, which only costs the work twice
+    ByteBuffer toTextFrame() {
+
+        ByteBuffer frame = textFrame;
+        if (frame == null) {
+            frame = EncodedMessage.of(describe()).toTextFrame();
+            textFrame = frame;
+        }
+        return frame.duplicate();
+    }
+
+    ByteBuffer toBinaryFrame() {
+
+        ByteBuffer frame = binaryFrame;
+        if (frame == null) {
+            frame = BinaryProtocol.encodePush(this);
+            binaryFrame = frame;
+        }
+        return frame.duplicate();
+    }
+
+    // "UPDATE" and the schedule's version on the first line, then one line per class added, removed or shifted,
+    // and per recurring class added, removed or cancelled on a date
+    private String describe() {
+
+        if (this == MISSED) {
+            return "UPDATE MISSED\nSome changes could not be sent in time. Please display the schedule again.";
+        }
+        StringBuilder message = new StringBuilder("UPDATE ").append(tenantId).append(" ").append(version);
+        for (ScheduleOperation operation : operations) {
+            message.append("\n");
+            switch (operation.getType()) {
+                case ADD -> message.append("Added on ").append(operation.getDayOfWeek()).append(": ").append(operation.getClassToAdd());
+                case REMOVE -> message.append("Removed from ").append(operation.getDayOfWeek()).append(": ").append(operation.getNameOfClassToRemove())
+                        .append(" at ").append(operation.getStartTimeOfClassToRemove());
+                case EARLY_MORNINGS -> message.append("Shifted: the classes of every day now run back to back from 09:00, in the same order.");
+                case ADD_RECURRING -> message.append("Recurring class added: ").append(operation.getSeriesToAdd());
+                case REMOVE_RECURRING -> message.append("Recurring class removed: ").append(operation.getSeriesId());
+                case CANCEL_OCCURRENCE -> message.append("Recurring class cancelled on ").append(operation.getDateOfOccurrence()).append(": ").append(operation.getSeriesId());
+            }
+        }
+        return message.toString();
+    }
+}
@@ -0,0 +1,92 @@
+package project.server;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// IMPLEMENTATION OF SERVER PUSH: THE CHANGES OF A SCHEDULE ARE SENT TO THE CONNECTIONS THAT SUBSCRIBED TO IT
+// The feed is a ScheduleChangeListener of every schedule, so it is called by whoever publishes a change, often the journal's
+// writer thread: it never blocks and never writes to a socket. A change is put in the queue of every subscription and the connection is woken up to
+// send it; each change is encoded once per protocol, however many connections receive it.
+// A queue holds at most `capacity` changes. A client that does not keep up loses what is queued and is told to display the
+// schedule again instead, so a slow client costs a bounded amount of memory and never holds up the clients that change things.
+// A replica is a subscription to every schedule at once (see ReplicationSource), with a queue of its own size.
+class ScheduleChangeFeed {
+
+    static final int DEFAULT_QUEUE_CAPACITY = 256;
+
+    private final ConcurrentHashMap<String, Set<ChangeSubscription>> subscriptionsPerTenant = new ConcurrentHashMap<>();
+    private final Set<ChangeSubscription> subscriptionsToEverySchedule = ConcurrentHashMap.newKeySet();
+    private final int queueCapacity;
+
+    ScheduleChangeFeed(int queueCapacity) {
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("A subscription must be able to queue at least one change.");
+        }
+        this.queueCapacity = queueCapacity;
+    }
+
+    // onChangeQueued is called when a change is queued and the connection had nothing queued before; it must not block
+    ChangeSubscription newSubscription(Runnable onChangeQueued) {
+        return newSubscription(queueCapacity, onChangeQueued);
+    }
+
+    ChangeSubscription newSubscription(int capacity, Runnable onChangeQueued) {
+
+        if (capacity < 1) {
+            throw new IllegalArgumentException("A subscription must be able to queue at least one change.");
+        }
+        return new ChangeSubscription(capacity, onChangeQueued);
+    }
+
+    void subscribe(String tenantId, ChangeSubscription subscription) {
+        subscriptionsPerTenant.computeIfAbsent(tenantId, id -> ConcurrentHashMap.newKeySet()).add(subscription);
+    }
+
+    void unsubscribe(String tenantId, ChangeSubscription subscription) {
+
+        subscriptionsPerTenant.computeIfPresent(tenantId, (id, subscriptions) -> {
+            subscriptions.remove(subscription);
+            return subscriptions.isEmpty() ? null : subscriptions;
+        });
+    }
+
+    void subscribeToEverySchedule(ChangeSubscription subscription) {
+        subscriptionsToEverySchedule.add(subscription);
+    }
+
+    void unsubscribeFromEverySchedule(ChangeSubscription subscription) {
+        subscriptionsToEverySchedule.remove(subscription);
+    }
+
+    // the listener of the tenant's schedule; a schedule nobody subscribed to costs one map lookup per change
+    ScheduleChangeListener listenerFor(String tenantId) {
+
+        return (version, operations) -> {
+            Set<ChangeSubscription> subscriptions = subscriptionsPerTenant.get(tenantId);
+            boolean hasSubscriptions = subscriptions != null && !subscriptions.isEmpty();
+            if (!hasSubscriptions && subscriptionsToEverySchedule.isEmpty()) {
+                return;
+            }
+            ScheduleChange change = new ScheduleChange(tenantId, version, operations);
+            if (hasSubscriptions) {
+                for (ChangeSubscription subscription : subscriptions) {
+                    subscription.offer(change);
+                }
+            }
+            for (ChangeSubscription subscription : subscriptionsToEverySchedule) {
+                subscription.offer(change);
+            }
+        };
+    }
+
+    // the schedule was replaced as a whole, not changed (a replica catching up from a snapshot): its subscribers display it again
+    void scheduleReplaced(String tenantId) {
+
+        Set<ChangeSubscription> subscriptions = subscriptionsPerTenant.get(tenantId);
+        if (subscriptions != null) {
+            for (ChangeSubscription subscription : subscriptions) {
+                subscription.offer(ScheduleChange.MISSED);
+            }
+        }
+    }
+}
@@ -0,0 +1,9 @@
+package project.server;
+
+import java.util.List;
+
+// told about every change that was applied to a schedule, once it is on disk, in the order of the schedule's versions
+interface ScheduleChangeListener {
+
+    void scheduleChanged(long version, List<ScheduleOperation> operations); // version is the schedule's version after the change
+}
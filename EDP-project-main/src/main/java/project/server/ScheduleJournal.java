@@ -0,0 +1,358 @@
+package project.server;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+// IMPLEMENTATION OF THE WRITE-AHEAD LOG WITH GROUP COMMIT
+// Every change to any schedule is appended to one log file before the client hears that it succeeded.
+// Appending only copies the record into memory; a single writer thread writes everything appended so far with one
+// FileChannel.write() and makes it durable with one force(), so a thousand clients waiting together cost one fsync, not a thousand.
+// Only then does it publish the changes of the group (see Schedule.notifyChangeListeners()), in the order they were appended.
+// Once a write fails, no change is published or appended any more: the server refuses changes until it is restarted.
+// The log is split into segments; a checkpoint starts a new segment and the older ones are deleted once the schedules are stored.
+class ScheduleJournal implements Closeable {
+
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_RECORD_LENGTH = 1024 * 1024; // a batch of BinaryProtocol.MAX_BATCH_SIZE operations fits easily
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private final Path directory;
+    private final Object durabilityMonitor = new Object();
+    private final ThreadLocal<long[]> lastTicketOfThread = ThreadLocal.withInitial(() -> new long[1]); // what the current thread has to wait for
+    private final ByteArrayOutputStream recordBytes = new ByteArrayOutputStream(256); // guarded by this, like everything below
+    private final DataOutputStream recordOutput = new DataOutputStream(recordBytes);
+    private final CRC32 checksum = new CRC32();
+    private ByteBuffer pendingRecords = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+    private List<Runnable> pendingPublications = new ArrayList<>(); // one per pending record, in the same order
+    private long lastAppendedTicket;
+    private boolean segmentRotationRequested;
+    private long currentSegmentNumber;
+    private boolean closed;
+    private volatile long lastDurableTicket;
+    private volatile IOException writeFailure;
+    private FileChannel segment; // only used by the writer thread once it has started
+    private Thread writerThread;
+
+    public ScheduleJournal(Path directory) {
+        this.directory = directory;
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // reads back every record of every segment in the order they were appended; a record cut short by a crash ends its segment
+    public long replay(RecordHandler recordHandler) {
+
+        long numberOfRecords = 0;
+        for (Path segmentFile : segmentFiles()) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(segmentFile), INITIAL_BUFFER_SIZE))) {
+                while (true) {
+                    int recordLength;
+                    try {
+                        recordLength = in.readInt();
+                    } catch (EOFException endOfSegment) {
+                        break;
+                    }
+                    long expectedChecksum = in.readInt() & 0xFFFFFFFFL;
+                    if (recordLength <= 0 || recordLength > MAX_RECORD_LENGTH) {
+                        break;
+                    }
+                    byte[] record = new byte[recordLength];
+                    if (in.readNBytes(record, 0, recordLength) < recordLength) {
+                        break;
+                    }
+                    CRC32 recordChecksum = new CRC32();
+                    recordChecksum.update(record);
+                    if (recordChecksum.getValue() != expectedChecksum) {
+                        break;
+                    }
+
+                    readRecord(new DataInputStream(new ByteArrayInputStream(record)), recordHandler);
+                    numberOfRecords++;
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            currentSegmentNumber = Math.max(currentSegmentNumber, segmentNumberOf(segmentFile));
+        }
+        return numberOfRecords;
+    }
+
+    // appends go to a new segment, the ones found on disk are never written to again
+    public void start() {
+
+        try {
+            currentSegmentNumber++;
+            segment = openSegment(currentSegmentNumber);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        writerThread = new Thread(this::writePendingRecords, "schedule-journal-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    // Called by Schedule while the changed days are locked, so it only encodes the record and copies it into memory.
+    // onDurable publishes the change; it is run by the writer thread once the record is on disk.
+    public void append(String tenantId, long version, List<ScheduleOperation> operations, Runnable onDurable) {
+
+        long ticket;
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("The journal is closed.");
+            }
+            if (writeFailure != null) {
+                throw new UncheckedIOException("The journal could not be written, changes are refused until the server is restarted.", writeFailure);
+            }
+            try {
+                recordBytes.reset();
+                writeRecord(recordOutput, tenantId, version, operations);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e); // cannot happen, the record is written to memory
+            }
+            byte[] record = recordBytes.toByteArray();
+            checksum.reset();
+            checksum.update(record);
+
+            ensurePendingCapacity(8 + record.length);
+            pendingRecords.putInt(record.length);
+            pendingRecords.putInt((int) checksum.getValue());
+            pendingRecords.put(record);
+            pendingPublications.add(onDurable);
+
+            ticket = ++lastAppendedTicket;
+            notifyAll(); // wakes the writer thread if it is waiting for work
+        }
+        lastTicketOfThread.get()[0] = ticket;
+    }
+
+    // blocks until everything the current thread has appended is on disk; returns at once if it has appended nothing since
+    public void awaitDurabilityOfAppendsOfCurrentThread() {
+
+        long[] lastTicket = lastTicketOfThread.get();
+        long ticket = lastTicket[0];
+        if (lastDurableTicket >= ticket) {
+            return;
+        }
+        synchronized (durabilityMonitor) {
+            while (lastDurableTicket < ticket) {
+                if (writeFailure != null) {
+                    lastTicket[0] = 0; // reported once, the requests this thread handles next only read or are refused
+                    throw new UncheckedIOException("The change could not be written to the journal, changes are refused until the server is restarted.", writeFailure);
+                }
+                try {
+                    durabilityMonitor.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException(e);
+                }
+            }
+        }
+    }
+
+    boolean hasFailed() {
+        return writeFailure != null;
+    }
+
+    // Starts a new segment and returns its number. Every record appended before this call is in an older segment,
+    // and the change it describes has been published to its schedule.
+    public long startNewSegment() {
+
+        synchronized (this) {
+            segmentRotationRequested = true;
+            notifyAll();
+            while (segmentRotationRequested && writeFailure == null) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException(e);
+                }
+            }
+            if (writeFailure != null) {
+                throw new UncheckedIOException(writeFailure);
+            }
+            return currentSegmentNumber;
+        }
+    }
+
+    public int deleteSegmentsOlderThan(long segmentNumber) {
+
+        int numberOfDeletedSegments = 0;
+        for (Path segmentFile : segmentFiles()) {
+            if (segmentNumberOf(segmentFile) < segmentNumber) {
+                try {
+                    Files.delete(segmentFile);
+                    numberOfDeletedSegments++;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+        return numberOfDeletedSegments;
+    }
+
+    // everything appended so far is written before the writer thread stops
+    @Override
+    public void close() {
+
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        if (writerThread != null) {
+            try {
+                writerThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void writePendingRecords() {
+
+        ByteBuffer recordsToWrite = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+        try {
+            while (true) {
+                long lastTicketInGroup;
+                boolean rotateSegment;
+                List<Runnable> publications;
+                synchronized (this) {
+                    while (pendingRecords.position() == 0 && !segmentRotationRequested && !closed) {
+                        wait();
+                    }
+                    if (pendingRecords.position() == 0 && closed) {
+                        break;
+                    }
+                    ByteBuffer appendedRecords = pendingRecords; // the two buffers swap roles, appends continue while this group is written
+                    pendingRecords = recordsToWrite.clear();
+                    recordsToWrite = appendedRecords.flip();
+                    publications = pendingPublications;
+                    pendingPublications = new ArrayList<>();
+                    lastTicketInGroup = lastAppendedTicket;
+                    rotateSegment = segmentRotationRequested;
+                }
+
+                while (recordsToWrite.hasRemaining()) {
+                    segment.write(recordsToWrite);
+                }
+                segment.force(false); // one fsync for the whole group
+
+                for (Runnable publication : publications) { // before the rotation, a checkpoint stores these changes
+                    try {
+                        publication.run();
+                    } catch (RuntimeException e) { // a listener's bug must not stop the changes of every schedule
+                        ServerLog.error("A change could not be published", e);
+                    }
+                }
+
+                if (rotateSegment) {
+                    segment.close();
+                    synchronized (this) {
+                        currentSegmentNumber++;
+                        segment = openSegment(currentSegmentNumber);
+                        segmentRotationRequested = false;
+                        notifyAll();
+                    }
+                }
+                synchronized (durabilityMonitor) {
+                    lastDurableTicket = lastTicketInGroup;
+                    durabilityMonitor.notifyAll();
+                }
+            }
+            segment.close();
+        } catch (IOException e) {
+            writeFailure = e;
+            synchronized (this) {
+                notifyAll();
+            }
+            synchronized (durabilityMonitor) {
+                durabilityMonitor.notifyAll();
+            }
+            ServerLog.error("The journal could not be written, changes are refused until the server is restarted", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // the body of a record, without its length and checksum; replicas are sent the same records (see ReplicationSource)
+    static void writeRecord(DataOutput out, String tenantId, long version, List<ScheduleOperation> operations) throws IOException {
+
+        out.writeUTF(tenantId);
+        out.writeLong(version);
+        out.writeShort(operations.size());
+        for (ScheduleOperation operation : operations) {
+            operation.writeTo(out);
+        }
+    }
+
+    static void readRecord(DataInput in, RecordHandler recordHandler) throws IOException {
+
+        String tenantId = in.readUTF();
+        long version = in.readLong();
+        int numberOfOperations = in.readUnsignedShort();
+        List<ScheduleOperation> operations = new ArrayList<>(numberOfOperations);
+        for (int i = 0; i < numberOfOperations; i++) {
+            operations.add(ScheduleOperation.readFrom(in));
+        }
+        recordHandler.handle(tenantId, version, operations);
+    }
+
+    private void ensurePendingCapacity(int numberOfBytes) {
+
+        if (pendingRecords.remaining() < numberOfBytes) {
+            ByteBuffer largerBuffer = ByteBuffer.allocate(Math.max(pendingRecords.capacity() * 2, pendingRecords.position() + numberOfBytes));
+            pendingRecords.flip();
+            largerBuffer.put(pendingRecords);
+            pendingRecords = largerBuffer;
+        }
+    }
+
+    private FileChannel openSegment(long segmentNumber) throws IOException {
+
+        FileChannel channel = FileChannel.open(directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, segmentNumber, SEGMENT_SUFFIX)),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        forceDirectory(directory); // the new file name itself must survive a crash
+        return channel;
+    }
+
+    private List<Path> segmentFiles() {
+
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.getFileName().toString().startsWith(SEGMENT_PREFIX) && file.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+                    .sorted() // the numbers are zero-padded, so the names sort in the order the segments were created
+                    .toList();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static long segmentNumberOf(Path segmentFile) {
+        String fileName = segmentFile.getFileName().toString();
+        return Long.parseLong(fileName.substring(SEGMENT_PREFIX.length(), fileName.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    static void forceDirectory(Path directory) {
+
+        try (FileChannel directoryChannel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            directoryChannel.force(true);
+        } catch (IOException e) {
+            // not every file system lets a directory be opened; the data itself has already been forced
+        }
+    }
+
+    interface RecordHandler {
+        void handle(String tenantId, long version, List<ScheduleOperation> operations);
+    }
+}
@@ -0,0 +1,156 @@
+package project.server;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.LocalTime;
+
+// one change to a schedule, described as data so that several of them can be applied together
+public class ScheduleOperation {
+
+    public enum Type {
+        ADD, REMOVE, EARLY_MORNINGS, // Early Mornings concerns the whole week, so it has no day
+        ADD_RECURRING, REMOVE_RECURRING, CANCEL_OCCURRENCE // on the day of the week of the series
+    }
+
+    private final Type type;
+    private final String dayOfWeek;
+    private final Class classToAdd;
+    private final String nameOfClassToRemove;
+    private final LocalTime startTimeOfClassToRemove;
+    private final RecurringSeries seriesToAdd;
+    private final int seriesId;
+    private final LocalDate dateOfOccurrence;
+
+    private ScheduleOperation(Type type, String dayOfWeek, Class classToAdd, String nameOfClassToRemove, LocalTime startTimeOfClassToRemove) {
+        this(type, dayOfWeek, classToAdd, nameOfClassToRemove, startTimeOfClassToRemove, null, 0, null);
+    }
+
+    private ScheduleOperation(Type type, String dayOfWeek, Class classToAdd, String nameOfClassToRemove, LocalTime startTimeOfClassToRemove,
+                              RecurringSeries seriesToAdd, int seriesId, LocalDate dateOfOccurrence) {
+        this.type = type;
+        this.dayOfWeek = dayOfWeek;
+        this.classToAdd = classToAdd;
+        this.nameOfClassToRemove = nameOfClassToRemove;
+        this.startTimeOfClassToRemove = startTimeOfClassToRemove;
+        this.seriesToAdd = seriesToAdd;
+        this.seriesId = seriesId;
+        this.dateOfOccurrence = dateOfOccurrence;
+    }
+
+    public static ScheduleOperation add(String dayOfWeek, Class classToAdd) {
+        return new ScheduleOperation(Type.ADD, dayOfWeek, classToAdd, null, null);
+    }
+
+    public static ScheduleOperation remove(String dayOfWeek, String nameOfClassToRemove, LocalTime startTimeOfClassToRemove) {
+        return new ScheduleOperation(Type.REMOVE, dayOfWeek, null, nameOfClassToRemove, startTimeOfClassToRemove);
+    }
+
+    public static ScheduleOperation earlyMornings() {
+        return new ScheduleOperation(Type.EARLY_MORNINGS, null, null, null, null);
+    }
+
+    static ScheduleOperation addRecurring(RecurringSeries seriesToAdd) {
+        return new ScheduleOperation(Type.ADD_RECURRING, Schedule.DAYS_OF_WEEK.get(seriesToAdd.dayIndex), null, null, null, seriesToAdd, seriesToAdd.id, null);
+    }
+
+    static ScheduleOperation removeRecurring(String dayOfWeek, int seriesId) {
+        return new ScheduleOperation(Type.REMOVE_RECURRING, dayOfWeek, null, null, null, null, seriesId, null);
+    }
+
+    static ScheduleOperation cancelOccurrence(int seriesId, LocalDate dateOfOccurrence) {
+        return new ScheduleOperation(Type.CANCEL_OCCURRENCE, Schedule.DAYS_OF_WEEK.get(dateOfOccurrence.getDayOfWeek().getValue() - 1), null, null, null, null, seriesId, dateOfOccurrence);
+    }
+
+    // compact binary form used by the write-ahead log: type, then day, minutes of the day and names where they apply
+    public void writeTo(DataOutput out) throws IOException {
+
+        out.writeByte(type.ordinal());
+        switch (type) {
+            case ADD -> {
+                out.writeByte(Schedule.DAYS_OF_WEEK.indexOf(dayOfWeek));
+                out.writeShort(classToAdd.getStartTime().toSecondOfDay() / 60);
+                out.writeShort(classToAdd.getFinishTime().toSecondOfDay() / 60);
+                out.writeUTF(classToAdd.getName());
+                out.writeUTF(classToAdd.getRoom());
+            }
+            case REMOVE -> {
+                out.writeByte(Schedule.DAYS_OF_WEEK.indexOf(dayOfWeek));
+                out.writeShort(startTimeOfClassToRemove.toSecondOfDay() / 60);
+                out.writeUTF(nameOfClassToRemove);
+            }
+            case EARLY_MORNINGS -> {
+            }
+            case ADD_RECURRING -> seriesToAdd.writeTo(out);
+            case REMOVE_RECURRING -> {
+                out.writeByte(Schedule.DAYS_OF_WEEK.indexOf(dayOfWeek));
+                out.writeInt(seriesId);
+            }
+            case CANCEL_OCCURRENCE -> {
+                out.writeInt(seriesId);
+                out.writeLong(dateOfOccurrence.toEpochDay());
+            }
+        }
+    }
+
+    public static ScheduleOperation readFrom(DataInput in) throws IOException {
+
+        Type type = Type.values()[in.readByte()];
+        return switch (type) {
+            case ADD -> {
+                String dayOfWeek = Schedule.DAYS_OF_WEEK.get(in.readByte());
+                LocalTime startTime = LocalTime.ofSecondOfDay(in.readShort() * 60L);
+                LocalTime finishTime = LocalTime.ofSecondOfDay(in.readShort() * 60L);
+                yield add(dayOfWeek, new Class(startTime, finishTime, in.readUTF(), in.readUTF()));
+            }
+            case REMOVE -> {
+                String dayOfWeek = Schedule.DAYS_OF_WEEK.get(in.readByte());
+                LocalTime startTime = LocalTime.ofSecondOfDay(in.readShort() * 60L);
+                yield remove(dayOfWeek, in.readUTF(), startTime);
+            }
+            case EARLY_MORNINGS -> earlyMornings();
+            case ADD_RECURRING -> addRecurring(RecurringSeries.readFrom(in));
+            case REMOVE_RECURRING -> {
+                String dayOfWeek = Schedule.DAYS_OF_WEEK.get(in.readByte());
+                yield removeRecurring(dayOfWeek, in.readInt());
+            }
+            case CANCEL_OCCURRENCE -> {
+                int seriesId = in.readInt();
+                yield cancelOccurrence(seriesId, LocalDate.ofEpochDay(in.readLong()));
+            }
+        };
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getDayOfWeek() {
+        return dayOfWeek;
+    }
+
+    public Class getClassToAdd() {
+        return classToAdd;
+    }
+
+    public String getNameOfClassToRemove() {
+        return nameOfClassToRemove;
+    }
+
+    public LocalTime getStartTimeOfClassToRemove() {
+        return startTimeOfClassToRemove;
+    }
+
+    RecurringSeries getSeriesToAdd() {
+        return seriesToAdd;
+    }
+
+    int getSeriesId() {
+        return seriesId;
+    }
+
+    LocalDate getDateOfOccurrence() {
+        return dateOfOccurrence;
+    }
+}
@@ -0,0 +1,512 @@
+package project.server;
+
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.DateTimeException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+// IMPLEMENTATION OF MULTI-TENANCY: ONE SCHEDULE PER STUDENT OR GROUP
+// Schedules are created the first time a tenant uses them and, when a storage directory is configured,
+// written to disk and dropped from memory after they have not been used for a while.
+// There is no lock over the whole registry: every tenant is handled by its own ConcurrentHashMap entry.
+// With a storage directory every change is also written to a ScheduleJournal before it is confirmed, so nothing is lost on a restart:
+// the stored schedules are the snapshots and the journal holds what changed since each of them was written.
+public class ScheduleRegistry implements Closeable {
+
+    public static final String DEFAULT_TENANT_ID = "default"; // clients that never pick a schedule share this one, as before
+    private static final Pattern TENANT_ID_PATTERN = Pattern.compile("[A-Za-z0-9_-][A-Za-z0-9._-]{0,127}"); // safe to use as a file name
+    private static final String SCHEDULE_FILE_SUFFIX = ".schedule";
+
+    private final ConcurrentHashMap<String, Tenant> tenants = new ConcurrentHashMap<>();
+    private final Path storageDirectory; // null means schedules are only kept in memory and never evicted
+    private final ScheduleJournal journal; // null exactly when storageDirectory is
+    private final AtomicLong numberOfEvictions = new AtomicLong();
+    private final AtomicLong numberOfLoadsFromStorage = new AtomicLong();
+    private final long numberOfReplayedChanges;
+    private final EarlyMorningsEngine earlyMorningsEngine;
+    private final RoomOccupancyIndex roomOccupancy = new RoomOccupancyIndex(); // every schedule's rooms, whether the schedule is in memory or not
+    private final ScheduleChangeFeed changeFeed;
+    private final ServerMetrics metrics = new ServerMetrics();
+    private volatile ReplicationSource replicationSource; // null unless replicas follow this server
+    private volatile ReplicationFollower replicationFollower; // null unless this server is, or was until promoted, a replica
+
+    public ScheduleRegistry() {
+        this(null);
+    }
+
+    public ScheduleRegistry(Path storageDirectory) {
+        this(storageDirectory, new EarlyMorningsEngine(EarlyMorningsEngine.DEFAULT_PARALLELISM));
+    }
+
+    ScheduleRegistry(Path storageDirectory, EarlyMorningsEngine earlyMorningsEngine) {
+        this(storageDirectory, earlyMorningsEngine, new ScheduleChangeFeed(ScheduleChangeFeed.DEFAULT_QUEUE_CAPACITY));
+    }
+
+    // with a storage directory the journal is replayed here, so the constructor returns with every schedule as it was before the restart
+    ScheduleRegistry(Path storageDirectory, EarlyMorningsEngine earlyMorningsEngine, ScheduleChangeFeed changeFeed) {
+        this.storageDirectory = storageDirectory;
+        this.earlyMorningsEngine = earlyMorningsEngine;
+        this.changeFeed = changeFeed;
+        if (storageDirectory == null) {
+            journal = null;
+            numberOfReplayedChanges = 0;
+            return;
+        }
+        try {
+            Files.createDirectories(storageDirectory);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        tenantIds().forEach(this::indexRoomsOfStoredSchedule); // before the replay, which books and releases rooms as it changes the schedules
+        journal = new ScheduleJournal(storageDirectory.resolve("journal"));
+        numberOfReplayedChanges = journal.replay((tenantId, version, operations) -> {
+            try {
+                withSchedule(tenantId, schedule -> schedule.replay(version, operations));
+            } catch (IncorrectActionException iae) { // only possible if a schedule file was replaced by hand
+                ServerLog.warn("A logged change to the schedule '" + tenantId + "' could not be replayed: " + iae.getMessage());
+            }
+        });
+        journal.start();
+    }
+
+    // runs the action on the tenant's schedule; while it runs the schedule cannot be evicted
+    // If the action changed the schedule, this returns only once the change is in the journal on disk.
+    public <T> T withSchedule(String tenantId, Function<Schedule, T> action) {
+
+        try {
+            return withScheduleLeavingJournalToCaller(tenantId, action);
+        } finally {
+            awaitJournalOfCurrentThread(); // group commit: the writes of all waiting clients share one fsync
+        }
+    }
+
+    // for callers that change many schedules and wait for the journal once, with awaitJournalOfCurrentThread(), before they answer
+    <T> T withScheduleLeavingJournalToCaller(String tenantId, Function<Schedule, T> action) {
+
+        Tenant tenant = acquire(tenantId);
+        try {
+            return action.apply(tenant.schedule);
+        } finally {
+            tenant.numberOfUsers.decrementAndGet();
+        }
+    }
+
+    void awaitJournalOfCurrentThread() {
+        if (journal != null) {
+            journal.awaitDurabilityOfAppendsOfCurrentThread();
+        }
+    }
+
+    // once the journal could not be written, no change is accepted until the server is restarted
+    boolean journalHasFailed() {
+        return journal != null && journal.hasFailed();
+    }
+
+    // 'Early Mornings' for each of the tenants, in parallel on the engine's pool when there is enough work to share
+    public EarlyMorningsStatistics performEarlyMornings(List<String> tenantIds) {
+        tenantIds.forEach(ScheduleRegistry::validateTenantId);
+        return earlyMorningsEngine.shiftAll(this, tenantIds);
+    }
+
+    // moves classes between days too, for the earliest possible latest finish; see OptimalPacking
+    public OptimalPackingResult performOptimalPacking(String tenantId) {
+        validateTenantId(tenantId);
+        return earlyMorningsEngine.pack(this, tenantId);
+    }
+
+    // the gap indexes of every schedule merged, for a slot that is free in all of them
+    long[][] blockedMinutesOfAllSchedules(int firstDayIndex, int lastDayIndex) {
+        return earlyMorningsEngine.blockedMinutesOfAll(this, tenantIds(), firstDayIndex, lastDayIndex);
+    }
+
+    // every tenant with a schedule, in memory or in the storage directory
+    public List<String> tenantIds() {
+
+        Set<String> tenantIds = new TreeSet<>(tenants.keySet());
+        if (storageDirectory != null) {
+            try (Stream<Path> files = Files.list(storageDirectory)) {
+                files.map(file -> file.getFileName().toString())
+                        .filter(fileName -> fileName.endsWith(SCHEDULE_FILE_SUFFIX))
+                        .forEach(fileName -> tenantIds.add(fileName.substring(0, fileName.length() - SCHEDULE_FILE_SUFFIX.length())));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return new ArrayList<>(tenantIds);
+    }
+
+    // The schedule in the format of CompactScheduleFile, for moving it to another server of a cluster (see ClusterRouter).
+    // The router holds the requests for the schedule until it has moved, so nothing changes it meanwhile.
+    public byte[] exportSchedule(String tenantId) {
+        validateTenantId(tenantId);
+        return withSchedule(tenantId, ScheduleRegistry::bytesOf);
+    }
+
+    // a schedule moved here from another server; it is stored at once, so a restart finds it without any journal behind it
+    // Only a schedule that was never changed on this server can be replaced; returns the version of the imported one.
+    public long importSchedule(String tenantId, byte[] scheduleFile) {
+
+        validateTenantId(tenantId);
+        Schedule importedSchedule;
+        CompactScheduleFile importedRooms;
+        try {
+            importedRooms = new CompactScheduleFile(ByteBuffer.wrap(scheduleFile));
+            importedRooms.checkStructure();
+            importedSchedule = Schedule.readFrom(ByteBuffer.wrap(scheduleFile));
+        } catch (IOException | IndexOutOfBoundsException | BufferUnderflowException | IllegalArgumentException | DateTimeException e) {
+            throw new IncorrectActionException("The schedule sent is not a schedule stored by this version of the server: " + e.getMessage());
+        }
+        tenants.compute(tenantId, (id, tenant) -> {
+            if (tenant != null && tenant.numberOfUsers.get() > 0) {
+                throw new IncorrectActionException("The schedule '" + id + "' is in use, please try again.");
+            }
+            Schedule existingSchedule = tenant != null ? tenant.schedule : load(id);
+            if (existingSchedule.getVersion() > 0) {
+                throw new IncorrectActionException("The schedule '" + id + "' already exists on this server, at version " + existingSchedule.getVersion() + ".");
+            }
+            try {
+                roomOccupancy.indexStoredSchedule(id, importedRooms);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            if (storageDirectory != null) {
+                store(id, importedSchedule);
+            }
+            return newTenant(id, importedSchedule);
+        });
+        return importedSchedule.getVersion();
+    }
+
+    // A replica takes the primary's copy of a schedule from a snapshot (see ReplicationFollower), whatever it had before:
+    // its subscribers are told to display the schedule again. Returns false if it already had exactly this copy.
+    boolean replaceSchedule(String tenantId, byte[] scheduleFile) {
+
+        validateTenantId(tenantId);
+        Schedule replacingSchedule;
+        CompactScheduleFile replacingRooms;
+        try {
+            replacingRooms = new CompactScheduleFile(ByteBuffer.wrap(scheduleFile));
+            replacingRooms.checkStructure();
+            replacingSchedule = Schedule.readFrom(ByteBuffer.wrap(scheduleFile));
+        } catch (IOException | IndexOutOfBoundsException | BufferUnderflowException | IllegalArgumentException | DateTimeException e) {
+            throw new IncorrectActionException("The schedule sent is not a schedule stored by this version of the server: " + e.getMessage());
+        }
+        AtomicInteger numberOfReplacedSchedules = new AtomicInteger();
+        tenants.compute(tenantId, (id, tenant) -> {
+            byte[] existingFile = bytesOf(tenant != null ? tenant.schedule : load(id));
+            if (Arrays.equals(existingFile, scheduleFile)) {
+                return tenant;
+            }
+            try { // readers still holding the old schedule finish on it, as they would on an older version
+                roomOccupancy.releaseStoredSchedule(id, new CompactScheduleFile(ByteBuffer.wrap(existingFile)));
+                roomOccupancy.indexStoredSchedule(id, replacingRooms);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            if (storageDirectory != null) {
+                store(id, replacingSchedule);
+            }
+            numberOfReplacedSchedules.incrementAndGet();
+            return newTenant(id, replacingSchedule);
+        });
+        if (numberOfReplacedSchedules.get() == 0) {
+            return false;
+        }
+        changeFeed.scheduleReplaced(tenantId);
+        return true;
+    }
+
+    // a change made on the primary, in the order the primary made it; see Schedule.applyReplicatedChange()
+    // The replica waits for its journal once per group of changes, with awaitJournalOfCurrentThread(), before it confirms them.
+    boolean applyReplicatedChange(String tenantId, long version, List<ScheduleOperation> operations) {
+        validateTenantId(tenantId);
+        return withScheduleLeavingJournalToCaller(tenantId, schedule -> schedule.applyReplicatedChange(version, operations));
+    }
+
+    // Forgets schedules that have moved to another server of a cluster, with their rooms. One checkpoint afterwards
+    // drops the journal written before, so a restart cannot bring them back; returns how many of them were here.
+    public int dropSchedules(List<String> tenantIds) {
+
+        tenantIds.forEach(ScheduleRegistry::validateTenantId);
+        AtomicInteger numberOfDroppedSchedules = new AtomicInteger();
+        try {
+            for (String tenantId : tenantIds) {
+                tenants.compute(tenantId, (id, tenant) -> {
+                    if (tenant != null && tenant.numberOfUsers.get() > 0) {
+                        throw new IncorrectActionException("The schedule '" + id + "' is in use, please try again.");
+                    }
+                    if (tenant == null && (storageDirectory == null || !Files.exists(fileOf(id)))) {
+                        return null;
+                    }
+                    try {
+                        roomOccupancy.releaseStoredSchedule(id, new CompactScheduleFile(ByteBuffer.wrap(bytesOf(tenant != null ? tenant.schedule : load(id)))));
+                        if (storageDirectory != null) {
+                            Files.deleteIfExists(fileOf(id));
+                        }
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    numberOfDroppedSchedules.incrementAndGet();
+                    return null;
+                });
+            }
+        } finally {
+            checkpoint();
+        }
+        return numberOfDroppedSchedules.get();
+    }
+
+    // without loading anything: a schedule that is not in memory counts as empty
+    int estimatedNumberOfClassesOf(String tenantId) {
+        Tenant tenant = tenants.get(tenantId);
+        return tenant == null ? 0 : tenant.schedule.numberOfClasses();
+    }
+
+    // Stores every schedule in memory that changed since it was last stored and deletes the journal segments they make
+    // unnecessary, so the journal stays short and a restart replays only the changes made since the last checkpoint.
+    // A schedule is pinned like a request while it is written, outside the map's lock, so neither eviction nor the requests
+    // for other schedules of its bin wait for the disk.
+    public int checkpoint() {
+
+        if (journal == null) {
+            return 0;
+        }
+        long firstSegmentStillNeeded = journal.startNewSegment();
+        int numberOfStoredSchedules = 0;
+        for (String tenantId : tenants.keySet()) {
+            Tenant tenant = tenants.computeIfPresent(tenantId, (id, tenantInMemory) -> {
+                tenantInMemory.numberOfUsers.incrementAndGet(); // keeps eviction from storing and forgetting it meanwhile
+                return tenantInMemory;
+            });
+            if (tenant == null) {
+                continue;
+            }
+            try {
+                if (storeIfChanged(tenantId, tenant)) {
+                    numberOfStoredSchedules++;
+                }
+            } finally {
+                tenant.numberOfUsers.decrementAndGet();
+            }
+        }
+        journal.deleteSegmentsOlderThan(firstSegmentStillNeeded); // evicted schedules were stored when they were evicted
+        return numberOfStoredSchedules;
+    }
+
+    @Override
+    public void close() {
+        if (journal != null) {
+            journal.close();
+        }
+    }
+
+    // writes every schedule that has not been used for maxIdleTime to the storage directory and forgets it
+    public int evictIdleSchedules(Duration maxIdleTime) {
+
+        if (storageDirectory == null) {
+            return 0;
+        }
+        long lastAccessDeadline = System.nanoTime() - maxIdleTime.toNanos();
+        AtomicInteger numberOfEvictedSchedules = new AtomicInteger();
+        for (String tenantId : tenants.keySet()) {
+            // the decision and the write happen inside computeIfPresent, so no request can pick the schedule up half-way;
+            // a schedule whose last change is still on its way to the journal is stored without it, so it stays until the next round
+            tenants.computeIfPresent(tenantId, (id, tenant) -> {
+                if (tenant.numberOfUsers.get() > 0 || tenant.lastAccessNanos - lastAccessDeadline > 0 || tenant.schedule.hasChangesNotYetOnDisk()) {
+                    return tenant;
+                }
+                storeIfChanged(id, tenant);
+                numberOfEvictedSchedules.incrementAndGet();
+                return null;
+            });
+        }
+        numberOfEvictions.addAndGet(numberOfEvictedSchedules.get());
+        return numberOfEvictedSchedules.get();
+    }
+
+    public RoomOccupancyIndex roomOccupancy() {
+        return roomOccupancy;
+    }
+
+    ScheduleChangeFeed changeFeed() {
+        return changeFeed;
+    }
+
+    ReplicationSource replicationSource() {
+        return replicationSource;
+    }
+
+    void useReplicationSource(ReplicationSource replicationSource) {
+        this.replicationSource = replicationSource;
+    }
+
+    ReplicationFollower replicationFollower() {
+        return replicationFollower;
+    }
+
+    void useReplicationFollower(ReplicationFollower replicationFollower) {
+        this.replicationFollower = replicationFollower;
+    }
+
+    // changes are only made on the primary; a replica applies them as the primary sends them
+    boolean isReadOnlyReplica() {
+        ReplicationFollower follower = replicationFollower;
+        return follower != null && !follower.isPromoted();
+    }
+
+    public ServerMetrics metrics() {
+        return metrics;
+    }
+
+    public int numberOfSchedulesInMemory() {
+        return tenants.size();
+    }
+
+    public long numberOfEvictions() {
+        return numberOfEvictions.get();
+    }
+
+    public long numberOfLoadsFromStorage() {
+        return numberOfLoadsFromStorage.get();
+    }
+
+    public long numberOfReplayedChanges() {
+        return numberOfReplayedChanges;
+    }
+
+    public static void validateTenantId(String tenantId) {
+
+        if (tenantId == null || !TENANT_ID_PATTERN.matcher(tenantId).matches()) {
+            throw new IncorrectActionException("A schedule name must contain from 1 to 128 letters, digits, '.', '_' or '-' and must not start with '.'.");
+        }
+    }
+
+    private Tenant acquire(String tenantId) {
+
+        return tenants.compute(tenantId, (id, tenant) -> {
+            if (tenant == null) {
+                tenant = newTenant(id, load(id));
+            }
+            tenant.numberOfUsers.incrementAndGet();
+            tenant.lastAccessNanos = System.nanoTime();
+            return tenant;
+        });
+    }
+
+    private Tenant newTenant(String tenantId, Schedule schedule) {
+
+        Tenant tenant = new Tenant(schedule);
+        schedule.useRoomBookings(roomOccupancy.bookingsOf(tenantId));
+        schedule.useMetrics(metrics);
+        schedule.addChangeListener(changeFeed.listenerFor(tenantId));
+        if (journal != null) {
+            schedule.useChangeLog((version, operations, onDurable) -> journal.append(tenantId, version, operations, onDurable));
+        }
+        return tenant;
+    }
+
+    private Schedule load(String tenantId) {
+
+        if (storageDirectory == null) {
+            return new Schedule();
+        }
+        Path file = fileOf(tenantId);
+        if (!Files.exists(file)) {
+            return new Schedule();
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            // the mapping outlives the channel; the schedule reads its classes from the page cache, not from the heap
+            Schedule schedule = Schedule.readFrom(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            numberOfLoadsFromStorage.incrementAndGet();
+            return schedule;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void indexRoomsOfStoredSchedule(String tenantId) {
+
+        try (FileChannel channel = FileChannel.open(fileOf(tenantId), StandardOpenOption.READ)) {
+            roomOccupancy.indexStoredSchedule(tenantId, new CompactScheduleFile(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void store(String tenantId, Schedule schedule) {
+
+        Path file = fileOf(tenantId);
+        Path temporaryFile = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporaryFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+            schedule.writeTo(out);
+            out.flush();
+            channel.force(true); // the journal segments behind this schedule may be deleted as soon as this returns
+            Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE); // a crash never leaves half a schedule behind
+            ScheduleJournal.forceDirectory(storageDirectory);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // The version is taken before the schedule is written, so a change published meanwhile is at worst stored again next time.
+    // Two checkpoints at once (the periodic one and the one after dropSchedules(), say) write a schedule one after the other.
+    private boolean storeIfChanged(String tenantId, Tenant tenant) {
+
+        synchronized (tenant) {
+            long version = tenant.schedule.getVersion();
+            if (version == tenant.storedVersion) {
+                return false;
+            }
+            store(tenantId, tenant.schedule);
+            tenant.storedVersion = version;
+            return true;
+        }
+    }
+
+    private static byte[] bytesOf(Schedule schedule) {
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            schedule.writeTo(out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private Path fileOf(String tenantId) {
+        return storageDirectory.resolve(tenantId + SCHEDULE_FILE_SUFFIX); // validateTenantId() only lets through names that are safe on any file system
+    }
+
+    private static class Tenant {
+
+        private final Schedule schedule;
+        private final AtomicInteger numberOfUsers = new AtomicInteger();
+        private volatile long lastAccessNanos;
+        private long storedVersion; // guarded by the tenant; a schedule is new, loaded or stored at once when it gets here
+
+        Tenant(Schedule schedule) {
+            this.schedule = schedule;
+            this.storedVersion = schedule.getVersion();
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package project.server;
+
+import java.util.List;
+
+// the classes of the whole week as they were at one version
+class ScheduleSnapshot {
+
+    final long version;
+    final List<List<Class>> classesPerDay;
+
+    ScheduleSnapshot(long version, List<List<Class>> classesPerDay) {
+        this.version = version;
+        this.classesPerDay = classesPerDay;
+    }
+}
@@ -0,0 +1,473 @@
+package project.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+// IMPLEMENTATION OF NON-BLOCKING I/O: ONE THREAD SERVES EVERY CONNECTION
+// An idle connection costs a SelectionKey and a small Connection object, not a thread and its stack,
+// so tens of thousands of students can stay connected at the same time.
+// Changes pushed to subscribed connections are queued by the threads that make them (see ScheduleChangeFeed), which wake the
+// loop up; the loop takes them from a connection's queue only when everything before them has been written to its socket.
+// Requests are not handled on the loop's thread: waiting for the journal, 'Optimal Packing' and the requests about every
+// schedule would hold up every other connection. The loop parses them and hands the requests of a connection, in the order
+// they came, to a pool of request threads, one batch per connection at a time; the responses come back through a queue and
+// the loop writes them. While a connection's requests are being handled, nothing more is read from it.
+// A client that sends requests faster than it reads the responses is not read from while more than MAX_PENDING_WRITE_BYTES
+// wait for it: what it has sent meanwhile stays in the kernel's buffers, and in its Connection, until it catches up.
+class SelectorEventLoop implements Runnable {
+
+    private static final int MAX_MESSAGE_LENGTH = 64 * 1024; // a client that sends a longer line is dropped
+    static final int DEFAULT_NUMBER_OF_REQUEST_THREADS = 64; // most of them wait for an fsync of the journal, shared by all of them
+    private static final int MAX_PENDING_WRITE_BYTES = 1024 * 1024; // per connection; one response may go over it, the next request waits
+
+    private final Selector selector;
+    private final ServerSocketChannel serverSocketChannel;
+    private final SelectionKey acceptKey;
+    private final ScheduleRegistry scheduleRegistry;
+    private final int maxNumberOfConnections;
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(16 * 1024); // shared by all connections, the loop is single-threaded
+    private final ConcurrentLinkedQueue<SelectionKey> connectionsWithQueuedChanges = new ConcurrentLinkedQueue<>();
+    // at most one task per connection is queued or running, so the queue of the pool is bounded by the number of connections
+    private final ExecutorService requestExecutor;
+    private final ConcurrentLinkedQueue<HandledRequests> handledRequests = new ConcurrentLinkedQueue<>();
+    private int numberOfConnections;
+
+    public SelectorEventLoop(int port, int maxNumberOfConnections, ScheduleRegistry scheduleRegistry) throws IOException {
+        this(port, maxNumberOfConnections, scheduleRegistry, DEFAULT_NUMBER_OF_REQUEST_THREADS);
+    }
+
+    public SelectorEventLoop(int port, int maxNumberOfConnections, ScheduleRegistry scheduleRegistry, int numberOfRequestThreads) throws IOException {
+        if (numberOfRequestThreads < 1) {
+            throw new IllegalArgumentException("Requests must be handled by at least one thread.");
+        }
+        this.scheduleRegistry = scheduleRegistry;
+        this.maxNumberOfConnections = maxNumberOfConnections;
+        AtomicInteger numberOfThreadsStarted = new AtomicInteger();
+        requestExecutor = Executors.newFixedThreadPool(numberOfRequestThreads, runnable -> {
+            Thread thread = new Thread(runnable, "request-" + numberOfThreadsStarted.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        selector = Selector.open();
+        serverSocketChannel = ServerSocketChannel.open();
+        serverSocketChannel.bind(new InetSocketAddress(port));
+        serverSocketChannel.configureBlocking(false);
+        acceptKey = serverSocketChannel.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    // the port the loop listens on, chosen by the system when it was given 0
+    int port() {
+        return serverSocketChannel.socket().getLocalPort();
+    }
+
+    @Override
+    public void run() {
+
+        while (true) {
+            try {
+                selector.select();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+
+            HandledRequests handled;
+            while ((handled = handledRequests.poll()) != null) {
+                try {
+                    completeRequests(handled);
+                } catch (IOException e) {
+                    closeConnection(handled.key);
+                } catch (RuntimeException e) {
+                    ServerLog.error("A connection was closed after an unexpected error", e);
+                    closeConnection(handled.key);
+                }
+            }
+
+            SelectionKey keyWithQueuedChanges;
+            while ((keyWithQueuedChanges = connectionsWithQueuedChanges.poll()) != null) {
+                try {
+                    if (keyWithQueuedChanges.isValid()) {
+                        writeToConnection(keyWithQueuedChanges);
+                    }
+                } catch (IOException e) {
+                    closeConnection(keyWithQueuedChanges);
+                } catch (RuntimeException e) {
+                    ServerLog.error("A connection was closed after an unexpected error", e);
+                    closeConnection(keyWithQueuedChanges);
+                }
+            }
+
+            Iterator<SelectionKey> selectedKeys = selector.selectedKeys().iterator();
+            while (selectedKeys.hasNext()) {
+                SelectionKey key = selectedKeys.next();
+                selectedKeys.remove();
+
+                if (key == acceptKey) {
+                    try {
+                        acceptConnection();
+                    } catch (IOException e) { // e.g. out of file descriptors; the clients already connected go on
+                        ServerLog.warn("A connection could not be accepted: " + e.getMessage());
+                    }
+                    continue;
+                }
+                try {
+                    if (key.isReadable()) {
+                        readFromConnection(key);
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        writeToConnection(key);
+                    }
+                } catch (IOException e) { // the client reset the connection, the other clients are not affected
+                    closeConnection(key);
+                } catch (RuntimeException e) { // a bug in handling one request must not stop the loop that serves everyone
+                    ServerLog.error("A connection was closed after an unexpected error", e);
+                    closeConnection(key);
+                }
+            }
+        }
+    }
+
+    private void acceptConnection() throws IOException {
+
+        SocketChannel clientChannel = serverSocketChannel.accept();
+        if (clientChannel == null) {
+            return;
+        }
+        clientChannel.configureBlocking(false);
+        RequestProcessor requestProcessor = new RequestProcessor(scheduleRegistry);
+        SelectionKey key = clientChannel.register(selector, SelectionKey.OP_READ, new Connection(requestProcessor));
+        requestProcessor.allowPushes(() -> { // called by the thread that changed the schedule
+            connectionsWithQueuedChanges.add(key);
+            selector.wakeup();
+        });
+
+        numberOfConnections++;
+        scheduleRegistry.metrics().connectionOpened();
+        if (numberOfConnections >= maxNumberOfConnections) {
+            acceptKey.interestOps(0); // backpressure: stop accepting, new clients queue up in the OS backlog until someone leaves
+        }
+    }
+
+    private void readFromConnection(SelectionKey key) throws IOException {
+
+        SocketChannel clientChannel = (SocketChannel) key.channel();
+        Connection connection = (Connection) key.attachment();
+
+        readBuffer.clear();
+        int numberOfBytesRead = clientChannel.read(readBuffer);
+        if (numberOfBytesRead == -1) { // the client closed its side of the socket
+            closeConnection(key);
+            return;
+        }
+        readBuffer.flip();
+        scheduleRegistry.metrics().bytesReceived(numberOfBytesRead);
+
+        processInput(connection, readBuffer);
+        if (readBuffer.hasRemaining() && !connection.disconnectRequested) { // too much is waiting to be written, the rest is handled once it is
+            connection.unprocessedInput = ByteBuffer.allocate(readBuffer.remaining()).put(readBuffer).flip();
+        }
+        handRequestsToPool(key, connection);
+
+        writeToConnection(key);
+    }
+
+    // the requests parsed so far go to a request thread together, so pipelined requests still share a write
+    private void handRequestsToPool(SelectionKey key, Connection connection) {
+
+        if (connection.requestsBeingHandled || connection.parsedRequests.isEmpty()) {
+            return;
+        }
+        List<Supplier<ByteBuffer>> requests = connection.parsedRequests;
+        connection.parsedRequests = new ArrayList<>();
+        connection.requestsBeingHandled = true;
+        requestExecutor.execute(() -> {
+            List<ByteBuffer> responses = new ArrayList<>(requests.size());
+            RuntimeException failure = null;
+            try {
+                for (Supplier<ByteBuffer> request : requests) {
+                    ByteBuffer response = request.get();
+                    if (response != null) {
+                        responses.add(response);
+                    }
+                }
+            } catch (RuntimeException e) {
+                failure = e;
+            }
+            handledRequests.add(new HandledRequests(key, responses, failure));
+            selector.wakeup();
+        });
+    }
+
+    // back on the loop's thread: the responses are written, and the requests received meanwhile handed over
+    private void completeRequests(HandledRequests handled) throws IOException {
+
+        Connection connection = (Connection) handled.key.attachment();
+        connection.requestsBeingHandled = false;
+        if (!handled.key.isValid()) { // closed while its requests were handled
+            connection.requestProcessor.close();
+            return;
+        }
+        handled.responses.forEach(connection::queueWrite);
+        if (handled.failure != null) {
+            throw handled.failure;
+        }
+        handRequestsToPool(handled.key, connection);
+        writeToConnection(handled.key);
+    }
+
+    private void processInput(Connection connection, ByteBuffer input) throws IOException {
+
+        while (input.hasRemaining() && !connection.disconnectRequested && !connection.hasTooMuchToWrite()) {
+            switch (connection.protocol) {
+                case UNDECIDED -> { // the first byte of the connection decides the protocol, a text client's first byte is left in the buffer
+                    if (input.get(input.position()) == BinaryProtocol.MAGIC_BYTE) {
+                        input.get();
+                        connection.protocol = Protocol.BINARY_HANDSHAKE;
+                    } else {
+                        connection.protocol = Protocol.TEXT;
+                    }
+                }
+                case BINARY_HANDSHAKE -> {
+                    connection.binaryProtocolVersion = BinaryProtocol.negotiateVersion(input.get());
+                    connection.queueWrite(BinaryProtocol.createHandshake(connection.binaryProtocolVersion));
+                    connection.protocol = Protocol.BINARY;
+                }
+                case TEXT -> readLines(connection, input);
+                case BINARY -> readFrames(connection, input);
+            }
+        }
+    }
+
+    private void readLines(Connection connection, ByteBuffer input) throws IOException {
+
+        while (input.hasRemaining() && !connection.disconnectRequested && !connection.hasTooMuchToWrite()) {
+            byte b = input.get();
+            if (b != '\n') {
+                connection.appendToCurrentLine(b);
+                if (connection.currentLineLength() > MAX_MESSAGE_LENGTH) {
+                    throw new IOException("The client sent a message longer than " + MAX_MESSAGE_LENGTH + " bytes.");
+                }
+                continue;
+            }
+
+            String messageFromClient = connection.takeCurrentLine();
+            if (messageFromClient.equals("DISCONNECT")) {
+                connection.disconnectRequested = true;
+                return;
+            }
+            ServerLog.debug(() -> "Message from Client: " + messageFromClient);
+
+            connection.parsedRequests.add(() -> {
+                EncodedMessage messageToSendToClient = connection.requestProcessor.processMessageFromClient(messageFromClient);
+                return messageToSendToClient == null ? null : messageToSendToClient.toTextFrame(); // null while the lines of a batch are still coming
+            });
+        }
+    }
+
+    private void readFrames(Connection connection, ByteBuffer input) throws IOException {
+
+        while (input.hasRemaining() && !connection.disconnectRequested && !connection.hasTooMuchToWrite()) {
+            if (connection.currentFrame == null) {
+                connection.currentFrame = ByteBuffer.allocate(4); // the length prefix comes first
+            }
+            int numberOfBytesToCopy = Math.min(input.remaining(), connection.currentFrame.remaining());
+            connection.currentFrame.put(input.slice(input.position(), numberOfBytesToCopy));
+            input.position(input.position() + numberOfBytesToCopy);
+            if (connection.currentFrame.hasRemaining()) { // the rest is still on its way
+                return;
+            }
+
+            if (!connection.readingFrameBody) {
+                int frameLength = connection.currentFrame.getInt(0);
+                if (frameLength <= 0 || frameLength > BinaryProtocol.MAX_FRAME_LENGTH) {
+                    throw new IOException("The client sent a frame of " + frameLength + " bytes.");
+                }
+                connection.currentFrame = ByteBuffer.allocate(frameLength);
+                connection.readingFrameBody = true;
+                continue;
+            }
+
+            ByteBuffer frame = connection.currentFrame.flip();
+            connection.currentFrame = null;
+            connection.readingFrameBody = false;
+            if (BinaryProtocol.opcodeOf(frame, connection.binaryProtocolVersion) == BinaryProtocol.OPCODE_DISCONNECT) {
+                connection.disconnectRequested = true;
+                return;
+            }
+            byte version = connection.binaryProtocolVersion;
+            connection.parsedRequests.add(() -> BinaryProtocol.processRequestFrame(frame, connection.requestProcessor, version));
+        }
+    }
+
+    private void writeToConnection(SelectionKey key) throws IOException {
+
+        SocketChannel clientChannel = (SocketChannel) key.channel();
+        Connection connection = (Connection) key.attachment();
+
+        do {
+            if (!connection.pendingWrites.isEmpty()) {
+                long numberOfBytesWritten = clientChannel.write(connection.pendingWrites.toArray(new ByteBuffer[0])); // one gathering write for all the pipelined responses
+                scheduleRegistry.metrics().bytesSent(numberOfBytesWritten);
+                connection.pendingWriteBytes -= numberOfBytesWritten;
+                while (!connection.pendingWrites.isEmpty() && !connection.pendingWrites.peek().hasRemaining()) {
+                    connection.pendingWrites.poll();
+                }
+                if (!connection.pendingWrites.isEmpty()) { // the socket send buffer is full, wait until the selector says it is writable again
+                    key.interestOps(connection.interestOps());
+                    return; // meanwhile further changes wait in the subscription's bounded queue
+                }
+            }
+        } while (takeQueuedChanges(connection) || processUnprocessedInput(key, connection));
+
+        if (connection.disconnectRequested && !connection.requestsBeingHandled) {
+            closeConnection(key);
+        } else {
+            key.interestOps(connection.interestOps());
+        }
+    }
+
+    // the requests held back while too much was waiting to be written, or while earlier ones were handled; false if there were none
+    private boolean processUnprocessedInput(SelectionKey key, Connection connection) throws IOException {
+
+        ByteBuffer input = connection.unprocessedInput;
+        if (input == null || connection.requestsBeingHandled || connection.hasTooMuchToWrite()) {
+            return false;
+        }
+        processInput(connection, input);
+        if (!input.hasRemaining() || connection.disconnectRequested) {
+            connection.unprocessedInput = null;
+        }
+        handRequestsToPool(key, connection);
+        return true;
+    }
+
+    // the changes queued for a subscribed connection become writes, encoded for its protocol; false if there were none
+    private static boolean takeQueuedChanges(Connection connection) {
+
+        if (connection.requestsBeingHandled) { // they follow the responses, as they would if the loop had handled the requests itself
+            return false;
+        }
+        ChangeSubscription subscription = connection.requestProcessor.subscription();
+        if (subscription == null) {
+            return false;
+        }
+        boolean anyChange = false;
+        ScheduleChange change;
+        while ((change = subscription.poll()) != null) {
+            connection.queueWrite(connection.protocol == Protocol.TEXT ? change.toTextFrame() : change.toBinaryFrame());
+            anyChange = true;
+        }
+        return anyChange;
+    }
+
+    private void closeConnection(SelectionKey key) {
+
+        if (!key.isValid() || !(key.attachment() instanceof Connection)) {
+            return;
+        }
+        Connection connection = (Connection) key.attachment();
+        if (!connection.requestsBeingHandled) { // otherwise once they are, see completeRequests
+            connection.requestProcessor.close();
+        }
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            ServerLog.error("A connection could not be closed", e);
+        }
+
+        numberOfConnections--;
+        scheduleRegistry.metrics().connectionClosed();
+        if (numberOfConnections < maxNumberOfConnections && acceptKey.interestOps() == 0) {
+            acceptKey.interestOps(SelectionKey.OP_ACCEPT);
+        }
+    }
+
+    // the responses to a batch of requests of one connection, on their way back to the loop
+    private static final class HandledRequests {
+
+        private final SelectionKey key;
+        private final List<ByteBuffer> responses;
+        private final RuntimeException failure; // thrown by one of the requests; the ones after it were not handled
+
+        HandledRequests(SelectionKey key, List<ByteBuffer> responses, RuntimeException failure) {
+            this.key = key;
+            this.responses = responses;
+            this.failure = failure;
+        }
+    }
+
+    private enum Protocol {
+        UNDECIDED, TEXT, BINARY_HANDSHAKE, BINARY
+    }
+
+    // per-connection state; the line and frame buffers are only allocated while a message is partially received
+    private static class Connection {
+
+        private final RequestProcessor requestProcessor;
+        private final ArrayDeque<ByteBuffer> pendingWrites = new ArrayDeque<>(1);
+        private long pendingWriteBytes;
+        private ByteBuffer unprocessedInput; // received while too much was waiting to be written
+        private List<Supplier<ByteBuffer>> parsedRequests = new ArrayList<>(); // each returns its response, or null if it has none
+        private boolean requestsBeingHandled; // by a request thread; the loop reads nothing more from the connection meanwhile
+        private Protocol protocol = Protocol.UNDECIDED;
+        private ByteArrayOutputStream currentLine;
+        private ByteBuffer currentFrame;
+        private boolean readingFrameBody;
+        private byte binaryProtocolVersion;
+        private boolean disconnectRequested;
+
+        Connection(RequestProcessor requestProcessor) {
+            this.requestProcessor = requestProcessor;
+        }
+
+        void queueWrite(ByteBuffer buffer) {
+            pendingWrites.add(buffer);
+            pendingWriteBytes += buffer.remaining();
+        }
+
+        boolean hasTooMuchToWrite() {
+            return pendingWriteBytes > MAX_PENDING_WRITE_BYTES;
+        }
+
+        int interestOps() {
+            boolean mayRead = !requestsBeingHandled && unprocessedInput == null && !hasTooMuchToWrite();
+            return (mayRead ? SelectionKey.OP_READ : 0) | (pendingWrites.isEmpty() ? 0 : SelectionKey.OP_WRITE);
+        }
+
+        void appendToCurrentLine(byte b) {
+            if (currentLine == null) {
+                currentLine = new ByteArrayOutputStream(128);
+            }
+            currentLine.write(b);
+        }
+
+        int currentLineLength() {
+            return currentLine == null ? 0 : currentLine.size();
+        }
+
+        String takeCurrentLine() {
+            if (currentLine == null) {
+                return "";
+            }
+            String line = currentLine.toString(StandardCharsets.UTF_8);
+            currentLine = null;
+            return line.endsWith("\r") ? line.substring(0, line.length() - 1) : line;
+        }
+    }
+}
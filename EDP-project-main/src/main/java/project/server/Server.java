@@ -1,45 +1,240 @@
 package project.server;
 
 import java.io.*;
+import java.net.InetAddress;
+import java.net.ProtocolException;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.time.LocalTime;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 public class Server {
 
-    private final ServerSocket serverSocket;
-    private final int PORT = 1234;
-    private final Schedule schedule;
+    static final int DEFAULT_PORT = 1234;
+    private static final int DEFAULT_MAX_NUMBER_OF_CONNECTIONS = 10_000;
+    private static final int DEFAULT_TENANT_IDLE_MINUTES = 30;
+    private static final int DEFAULT_CHECKPOINT_MINUTES = 5;
+
+    private final int port;
+    private final ScheduleRegistry scheduleRegistry;
+    private final ConnectionMode connectionMode;
+    private final int maxNumberOfConnections;
+    private int numberOfRequestThreads = SelectorEventLoop.DEFAULT_NUMBER_OF_REQUEST_THREADS; // in the selector mode
+    // eviction and checkpoints share one background thread, so they never store the same schedule at the same time
+    private final ScheduledExecutorService maintenanceExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "schedule-maintenance");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public enum ConnectionMode {
+        THREAD_PER_CLIENT, // one platform thread blocks on every socket; fine for a classroom, not for a whole campus
+        SELECTOR           // a single thread multiplexes all the sockets through java.nio.channels.Selector
+    }
 
     public Server() {
-        try {
-            serverSocket = new ServerSocket(PORT);
-        } catch (IOException e) {
-            throw new RuntimeException();
+        this(ConnectionMode.THREAD_PER_CLIENT, DEFAULT_MAX_NUMBER_OF_CONNECTIONS, new ScheduleRegistry());
+    }
+
+    public Server(ConnectionMode connectionMode, int maxNumberOfConnections, ScheduleRegistry scheduleRegistry) {
+        this(DEFAULT_PORT, connectionMode, maxNumberOfConnections, scheduleRegistry);
+    }
+
+    // several servers on one host, e.g. the nodes of a cluster behind ClusterRouter, each listen on a port of their own
+    public Server(int port, ConnectionMode connectionMode, int maxNumberOfConnections, ScheduleRegistry scheduleRegistry) {
+        if (maxNumberOfConnections < 1) {
+            throw new IllegalArgumentException("The server must accept at least one connection.");
         }
-        schedule = new Schedule(); // one schedule is shared among all clients
+        this.port = port;
+        this.connectionMode = connectionMode;
+        this.maxNumberOfConnections = maxNumberOfConnections;
+        this.scheduleRegistry = scheduleRegistry; // clients share the default schedule unless they select their own
+    }
+
+    // idle schedules are written to storage in the background, so memory holds only the tenants that are actually in use
+    public void evictIdleSchedulesEvery(Duration maxIdleTime) {
+
+        long periodInSeconds = Math.max(1, maxIdleTime.toSeconds() / 2);
+        maintenanceExecutor.scheduleWithFixedDelay(() -> {
+            int numberOfEvictedSchedules = scheduleRegistry.evictIdleSchedules(maxIdleTime);
+            if (numberOfEvictedSchedules > 0) {
+                ServerLog.info(numberOfEvictedSchedules + " idle schedules were moved to storage, " + scheduleRegistry.numberOfSchedulesInMemory() + " remain in memory.");
+            }
+        }, periodInSeconds, periodInSeconds, TimeUnit.SECONDS);
+    }
+
+    // a checkpoint stores the schedules in memory and drops the journal written before it, which keeps restarts fast
+    public void checkpointEvery(Duration period) {
+
+        maintenanceExecutor.scheduleWithFixedDelay(() -> {
+            long checkpointStart = System.nanoTime();
+            int numberOfStoredSchedules = scheduleRegistry.checkpoint();
+            ServerLog.info("Checkpoint: " + numberOfStoredSchedules + " changed schedules stored in " + Duration.ofNanos(System.nanoTime() - checkpointStart).toMillis() + " ms.");
+        }, period.toSeconds(), period.toSeconds(), TimeUnit.SECONDS);
+    }
+
+    // the router of a cluster moves schedules between servers through this port, which takes every request of the clients'
+    // port as well; it is opened on an address of its own (loopback unless told otherwise) so the clients never reach it
+    public int openAdministrationPort(InetAddress address, int administrationPort) throws IOException {
+
+        ServerSocket serverSocket = new ServerSocket(administrationPort, 50, address);
+        Thread acceptor = new Thread(() -> {
+            while (true) {
+                try {
+                    Socket peerSocket = serverSocket.accept();
+                    new Thread(new ClientManager(peerSocket, scheduleRegistry, () -> {}, true), "administration-" + peerSocket.getRemoteSocketAddress()).start();
+                } catch (IOException e) {
+                    ServerLog.warn("A connection to the administration port could not be accepted: " + e.getMessage());
+                }
+            }
+        }, "administration-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return serverSocket.getLocalPort();
+    }
+
+    // the selector's thread only reads and writes, the requests are handled by these
+    public void handleRequestsOn(int numberOfRequestThreads) {
+        this.numberOfRequestThreads = numberOfRequestThreads;
     }
 
     public void launch() {
 
-        while (true) {
+        switch (connectionMode) {
+            case THREAD_PER_CLIENT -> launchThreadPerClient();
+            case SELECTOR -> {
+                try {
+                    new SelectorEventLoop(port, maxNumberOfConnections, scheduleRegistry, numberOfRequestThreads).run();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        }
+    }
 
-            try {
-                Socket clientSocket = serverSocket.accept();
-                // IMPLEMENTATION OF MULTI-THREADING FOR DEALING WITH MULTIPLE CLIENTS
-                new Thread(new ClientManager(clientSocket, schedule)).start();
-            } catch (IOException e) {
-                throw new RuntimeException(e);
+    private void launchThreadPerClient() {
+
+        // once the limit is reached the server stops calling accept(), so new clients wait in the OS backlog
+        Semaphore connectionPermits = new Semaphore(maxNumberOfConnections);
+
+        try (ServerSocket serverSocket = new ServerSocket(port)) {
+            while (true) {
+                connectionPermits.acquireUninterruptibly();
+                try {
+                    Socket clientSocket = serverSocket.accept();
+                    // IMPLEMENTATION OF MULTI-THREADING FOR DEALING WITH MULTIPLE CLIENTS
+                    new Thread(new ClientManager(clientSocket, scheduleRegistry, connectionPermits::release)).start();
+                } catch (IOException e) {
+                    connectionPermits.release();
+                    throw new RuntimeException(e);
+                }
             }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
         }
     }
 
     public static void main(String[] args) {
-        Server server = new Server();
-        System.out.println("Server is running.");
-        System.out.println("Server is ready to accept client requests.");
-        System.out.println("Server is listening on port " + server.PORT + "...");
-        System.out.println("To connect to the server, use the following IPv4 address: " + IPAddressUtil.getIPv4Address());
+        int port = Integer.getInteger("server.port", DEFAULT_PORT);
+        ConnectionMode connectionMode = ConnectionMode.valueOf(System.getProperty("server.connectionMode", ConnectionMode.THREAD_PER_CLIENT.name()).toUpperCase());
+        int maxNumberOfConnections = Integer.getInteger("server.maxConnections", DEFAULT_MAX_NUMBER_OF_CONNECTIONS);
+        int requestThreads = Integer.getInteger("server.requestThreads", SelectorEventLoop.DEFAULT_NUMBER_OF_REQUEST_THREADS);
+        String storageDirectory = System.getProperty("server.storageDirectory"); // without it every schedule stays in memory
+        int tenantIdleMinutes = Integer.getInteger("server.tenantIdleMinutes", DEFAULT_TENANT_IDLE_MINUTES);
+        int checkpointMinutes = Integer.getInteger("server.checkpointMinutes", DEFAULT_CHECKPOINT_MINUTES);
+        int earlyMorningsThreads = Integer.getInteger("server.earlyMorningsThreads", EarlyMorningsEngine.DEFAULT_PARALLELISM);
+        long packingTimeBudgetMillis = Long.getLong("server.packingTimeBudgetMillis", EarlyMorningsEngine.DEFAULT_PACKING_TIME_BUDGET.toMillis());
+        int pushQueueCapacity = Integer.getInteger("server.pushQueueCapacity", ScheduleChangeFeed.DEFAULT_QUEUE_CAPACITY);
+        int metricsPort = Integer.getInteger("server.metricsPort", 0); // 0 means no scrape endpoint, JMX is always there
+        int administrationPort = Integer.getInteger("server.adminPort", 0); // 0 means this server cannot be part of a cluster
+        String administrationAddress = System.getProperty("server.adminAddress", InetAddress.getLoopbackAddress().getHostAddress());
+        int replicationPort = Integer.getInteger("server.replicationPort", 0); // 0 means no replica can follow this server
+        int replicationQueueCapacity = Integer.getInteger("server.replicationQueueCapacity", ReplicationSource.DEFAULT_QUEUE_CAPACITY);
+        String replicaOf = System.getProperty("server.replicaOf"); // host:port of the primary's replication port; without it this server is a primary
+        String replicationPeers = System.getProperty("server.replicationPeers", ""); // host:port of the other replicas 'Follow' may point this one at
+        int promoteAfterSeconds = Integer.getInteger("server.promoteAfterSeconds", 0); // 0 means a replica is only promoted by 'Promote'
+        ServerLog.setLevel(ServerLog.Level.valueOf(System.getProperty("server.logLevel", ServerLog.Level.INFO.name()).toUpperCase()));
+
+        long recoveryStart = System.nanoTime();
+        EarlyMorningsEngine earlyMorningsEngine = new EarlyMorningsEngine(earlyMorningsThreads, Duration.ofMillis(packingTimeBudgetMillis));
+        ScheduleRegistry scheduleRegistry = new ScheduleRegistry(storageDirectory == null ? null : Path.of(storageDirectory), earlyMorningsEngine, new ScheduleChangeFeed(pushQueueCapacity));
+        Server server = new Server(port, connectionMode, maxNumberOfConnections, scheduleRegistry);
+        server.handleRequestsOn(requestThreads);
+        scheduleRegistry.metrics().registerWithJmx();
+        if (storageDirectory != null) {
+            ServerLog.info("Recovered the schedules in " + storageDirectory + " in " + Duration.ofNanos(System.nanoTime() - recoveryStart).toMillis()
+                    + " ms, " + scheduleRegistry.numberOfReplayedChanges() + " changes were replayed from the journal.");
+            Runtime.getRuntime().addShutdownHook(new Thread(scheduleRegistry::close)); // changes already confirmed are on disk, this writes the rest
+            server.evictIdleSchedulesEvery(Duration.ofMinutes(tenantIdleMinutes));
+            server.checkpointEvery(Duration.ofMinutes(checkpointMinutes));
+            ServerLog.info("Schedules unused for " + tenantIdleMinutes + " minutes are moved to " + storageDirectory + ", a checkpoint is taken every " + checkpointMinutes + " minutes.");
+        }
+        ServerLog.info("Server is running.");
+        ServerLog.info("Server is ready to accept client requests.");
+        ServerLog.info("Server is listening on port " + port + "...");
+        ServerLog.info("Connection mode: " + connectionMode + ", at most " + maxNumberOfConnections + " clients at the same time"
+                + (connectionMode == ConnectionMode.SELECTOR ? ", requests handled by " + requestThreads + " threads." : "."));
+        ServerLog.info("'Early Mornings' over many schedules uses up to " + earlyMorningsEngine.parallelism() + " thread(s), once there is enough work to share.");
+        ServerLog.info("'Optimal Packing' searches for up to " + earlyMorningsEngine.packingTimeBudget().toMillis() + " ms per schedule.");
+        ServerLog.info("Subscribed clients are pushed the changes of their schedule, up to " + pushQueueCapacity + " waiting per client.");
+        if (metricsPort > 0) {
+            try {
+                new MetricsEndpoint(metricsPort, scheduleRegistry.metrics());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            ServerLog.info("Metrics are served at http://localhost:" + metricsPort + "/metrics and through JMX under project.server.");
+        } else {
+            ServerLog.info("Metrics are available through JMX under project.server.");
+        }
+        if (administrationPort > 0) {
+            try {
+                server.openAdministrationPort(InetAddress.getByName(administrationAddress), administrationPort);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            ServerLog.info("The router of a cluster can move schedules through " + administrationAddress + ":" + administrationPort + ".");
+        }
+        Runnable openReplicationPort = () -> {
+            try {
+                scheduleRegistry.useReplicationSource(new ReplicationSource(scheduleRegistry, replicationPort, replicationQueueCapacity));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            ServerLog.info("Replicas can follow this server on port " + replicationPort + ", up to " + replicationQueueCapacity + " changes waiting per replica.");
+        };
+        if (replicaOf != null) {
+            if (!replicaOf.matches(".+:\\d+")) {
+                throw new IllegalArgumentException("server.replicaOf must be the host and the replication port of the primary, e.g. localhost:7001.");
+            }
+            List<String> peers = new ArrayList<>();
+            for (String peer : replicationPeers.split(",")) {
+                if (!peer.isBlank() && !peer.trim().matches(".+:\\d+")) {
+                    throw new IllegalArgumentException("server.replicationPeers must list the hosts and replication ports of the other replicas, e.g. localhost:7002,localhost:7003.");
+                }
+                if (!peer.isBlank()) {
+                    peers.add(peer.trim());
+                }
+            }
+            ReplicationFollower follower = new ReplicationFollower(scheduleRegistry, replicaOf, peers, Duration.ofSeconds(promoteAfterSeconds),
+                    replicationPort > 0 ? openReplicationPort : () -> {});
+            scheduleRegistry.useReplicationFollower(follower);
+            follower.start();
+            ServerLog.info("This server is a read-only replica of " + replicaOf + (promoteAfterSeconds > 0
+                    ? ", promoted if the primary is not heard from for " + promoteAfterSeconds + " seconds." : ", promoted only by 'Promote'."));
+        } else if (replicationPort > 0) {
+            openReplicationPort.run();
+        }
+        ServerLog.info("Log level: " + ServerLog.level() + ", a line per request is written at DEBUG.");
+        ServerLog.info("To connect to the server, use the following IPv4 address: " + IPAddressUtil.getIPv4Address());
         server.launch();
 
     }
@@ -48,142 +243,177 @@ public class Server {
 class ClientManager implements Runnable {
 
     private final Socket clientSocket;
-    private final BufferedReader in;
-    private final PrintWriter out;
-    private final Schedule schedule;
+    private final BufferedInputStream in;
+    // flushed only once the client has nothing more in flight, so pipelined requests share a write;
+    // the pusher thread writes to it too, so every write holds its monitor
+    private final BufferedOutputStream out;
+    private final RequestProcessor requestProcessor;
+    private final Runnable onDisconnect;
+    private final ServerMetrics metrics;
+    private Thread pusher; // started when the client subscribes; a slow client blocks only this thread, its queue stays bounded
+    private boolean textProtocol;
+
+    public ClientManager(Socket clientSocket, ScheduleRegistry scheduleRegistry, Runnable onDisconnect) {
+        this(clientSocket, scheduleRegistry, onDisconnect, false);
+    }
 
-    public ClientManager(Socket clientSocket, Schedule schedule) {
+    ClientManager(Socket clientSocket, ScheduleRegistry scheduleRegistry, Runnable onDisconnect, boolean administration) {
 
         this.clientSocket = clientSocket;
+        this.metrics = scheduleRegistry.metrics();
         try {
-            in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
-            out = new PrintWriter(clientSocket.getOutputStream(), true);
+            // counted below the buffers, so the counts are what went through the socket
+            in = new BufferedInputStream(new ByteCountingInputStream(clientSocket.getInputStream(), metrics));
+            out = new BufferedOutputStream(new ByteCountingOutputStream(clientSocket.getOutputStream(), metrics));
         } catch (IOException e) {
             throw new RuntimeException();
         }
-        this.schedule = schedule;
+        this.requestProcessor = new RequestProcessor(scheduleRegistry, administration);
+        this.requestProcessor.allowPushes(() -> {}); // the pusher waits on the subscription itself
+        this.onDisconnect = onDisconnect;
+        metrics.connectionOpened();
     }
 
     @Override
     public void run() {
 
-        processMessageFromClientAndRespond();
-        closeResources();
+        try {
+            byte binaryProtocolVersion = negotiateBinaryProtocol();
+            if (binaryProtocolVersion > 0) {
+                processFramesFromClientAndRespond(binaryProtocolVersion);
+            } else {
+                processMessageFromClientAndRespond();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            requestProcessor.close();
+            if (pusher != null) {
+                pusher.interrupt();
+            }
+            try {
+                closeResources();
+            } finally { // a push the client never read cannot be flushed any more; the client's slot is given back all the same
+                metrics.connectionClosed();
+                onDisconnect.run();
+            }
+        }
     }
 
+    // the first byte of the connection decides the protocol; a text client's first byte is left in the stream
+    // returns the binary protocol version agreed with the client, or 0 for the text protocol
+    private byte negotiateBinaryProtocol() throws IOException {
+
+        in.mark(1);
+        int firstByte = in.read();
+        if (firstByte != Byte.toUnsignedInt(BinaryProtocol.MAGIC_BYTE)) {
+            in.reset();
+            return 0;
+        }
+        byte version = BinaryProtocol.negotiateVersion(in.read());
+        out.write(BinaryProtocol.createHandshake(version).array());
+        out.flush();
+        return version;
+    }
 
     private void processMessageFromClientAndRespond() {
 
-        String messageFromClient = "";
-        String messageToSendToClient = "";
+        textProtocol = true;
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8)); // the same charset as the responses and as the selector mode
+        String messageFromClient;
 
-        while (!messageFromClient.equals("DISCONNECT")) {
+        while (true) {
 
             try {
+                messageFromClient = reader.readLine();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            if (messageFromClient == null || messageFromClient.equals("DISCONNECT")) { // null means the client went away without saying goodbye
+                return;
+            }
+            String messageToLog = messageFromClient;
+            ServerLog.debug(() -> "Message from Client: " + messageToLog);
 
-                messageFromClient = in.readLine();
-                System.out.println("Message from Client: " + messageFromClient);
-
-                if (messageFromClient.equals("Early Mornings")) {
-                    schedule.performEarlyMorningsOperation();
-                    messageToSendToClient = "The 'Early Mornings' request has been processed. Classes are shifted to the morning time.";
-                    continue;
-                }
-
-                String[] arguments = messageFromClient.split(",");
-                if (containsNullAsStringValue(arguments) || containsBlankString(arguments)) { // check if there is any null value provided
-                    throw new IncorrectActionException("Please provide all the required information.");
-                }
-                String actionToPerform = arguments[0];
-                switch (actionToPerform) {
-                    case "Display Schedule" -> {
-                        String scheduleAsString = schedule.getAllClassesInfoAsString();
-                        if (scheduleAsString == null) {
-                            messageToSendToClient = "The schedule does not contain any classes so far.";
-                        } else {
-                            messageToSendToClient = scheduleAsString;
-                        }
-                        System.out.println("The client's request to display the schedule has been processed.");
-                    }
-                    case "Add New Class" -> {
-                        if (arguments.length != 8) {
-                            throw new IncorrectActionException();
-                        }
-                        String dayOfClass = arguments[1];
-
-                        Class classToAdd = createAClassUsingDataProvidedByClient(arguments);
-
-                        if (classToAdd == null) {
-                            throw new IncorrectActionException("Start time of a class cannot be after finish time.");
-                        }
-
-                        if (schedule.addClass(dayOfClass, classToAdd)) {
-                            messageToSendToClient = "A new class " + classToAdd + " on " + dayOfClass + " was successfully added to the schedule.";
-                            System.out.println(messageToSendToClient);
-                        }
+            EncodedMessage messageToSendToClient = requestProcessor.processMessageFromClient(messageFromClient);
+            startPusherIfSubscribed();
+            try {
+                synchronized (out) {
+                    if (messageToSendToClient != null) { // null while the lines of a batch are still coming
+                        out.write((messageToSendToClient.length() + "\n").getBytes(StandardCharsets.US_ASCII));
+                        out.write(messageToSendToClient.bytes()); // already UTF-8, a cached schedule is not encoded again
+                        out.write('\n');
                     }
-                    case "Remove Class" -> {
-                        if (arguments.length != 5) {
-                            throw new IncorrectActionException();
-                        }
-                        String dayOfClassToRemove = arguments[1];
-                        int startHours = Integer.parseInt(arguments[2]);
-                        int startMinutes = Integer.parseInt(arguments[3]);
-                        String className = arguments[4];
-                        Class removedClass = schedule.removeClass(dayOfClassToRemove, className, LocalTime.of(startHours, startMinutes));
-                        if (removedClass != null) {
-                            messageToSendToClient = "The class " + removedClass + " was removed from the schedule.";
-                            System.out.println(messageToSendToClient);
-                        }
+                    if (!reader.ready()) {
+                        out.flush();
                     }
                 }
-
             } catch (IOException e) {
                 throw new RuntimeException(e);
-            } catch (IncorrectActionException iae) {
-                messageToSendToClient = "ERROR MESSAGE: " + iae.getMessage();
-            } finally {
-                out.println(messageToSendToClient.length());
-                out.println(messageToSendToClient);
             }
-
         }
     }
 
-    private static Class createAClassUsingDataProvidedByClient(String[] arguments) {
+    private void processFramesFromClientAndRespond(byte version) throws IOException {
 
-        int startHours = Integer.parseInt(arguments[2]);
-        int startMinutes = Integer.parseInt(arguments[3]);
-        int finishHours = Integer.parseInt(arguments[4]);
-        int finishMinutes = Integer.parseInt(arguments[5]);
-        String className = arguments[6];
-        String roomNumber = arguments[7];
+        DataInputStream dataIn = new DataInputStream(in);
 
-        LocalTime providedStartTime = LocalTime.of(startHours, startMinutes);
-        LocalTime providedFinishTime = LocalTime.of(finishHours, finishMinutes);
-
-        if (providedStartTime.isAfter(providedFinishTime)) {
-            return null;
-        }
-        return new Class(providedStartTime, providedFinishTime, className, roomNumber);
-    }
+        while (true) {
+            int frameLength;
+            try {
+                frameLength = dataIn.readInt();
+            } catch (EOFException e) { // the client went away without saying goodbye
+                return;
+            }
+            if (frameLength <= 0 || frameLength > BinaryProtocol.MAX_FRAME_LENGTH) { // not a frame we can trust, drop the client
+                return;
+            }
+            byte[] frame = new byte[frameLength];
+            dataIn.readFully(frame);
+            ByteBuffer request = ByteBuffer.wrap(frame);
+            byte opcode;
+            try {
+                opcode = BinaryProtocol.opcodeOf(request, version);
+            } catch (ProtocolException e) { // only this client is dropped
+                ServerLog.warn("A binary client was disconnected: " + e.getMessage());
+                return;
+            }
+            if (opcode == BinaryProtocol.OPCODE_DISCONNECT) {
+                out.flush();
+                return;
+            }
 
-    private static boolean containsNullAsStringValue(String[] array) {
-        for (String element : array) {
-            if (element.equals("null")) {
-                return true;
+            ByteBuffer response = BinaryProtocol.processRequestFrame(request, requestProcessor, version);
+            startPusherIfSubscribed();
+            synchronized (out) {
+                out.write(response.array(), 0, response.limit());
+                if (in.available() == 0) {
+                    out.flush();
+                }
             }
         }
-        return false;
     }
 
-    private static boolean containsBlankString(String[] array) {
-        for (String element : array) {
-            if (element.isBlank()) {
-                return true;
-            }
+    private void startPusherIfSubscribed() {
+
+        ChangeSubscription subscription = requestProcessor.subscription();
+        if (pusher != null || subscription == null) {
+            return;
         }
-        return false;
+        pusher = new Thread(() -> {
+            try {
+                while (true) {
+                    ByteBuffer frame = textProtocol ? subscription.take().toTextFrame() : subscription.take().toBinaryFrame();
+                    synchronized (out) {
+                        out.write(frame.array(), frame.arrayOffset() + frame.position(), frame.remaining());
+                        out.flush();
+                    }
+                }
+            } catch (InterruptedException | IOException e) { // the client is gone
+            }
+        }, "pusher-" + clientSocket.getRemoteSocketAddress());
+        pusher.setDaemon(true);
+        pusher.start();
     }
 
     private void closeResources() {
@@ -196,4 +426,54 @@ class ClientManager implements Runnable {
             throw new RuntimeException();
         }
     }
-}
\ No newline at end of file
+}
+
+class ByteCountingInputStream extends FilterInputStream {
+
+    private final ServerMetrics metrics;
+
+    ByteCountingInputStream(InputStream in, ServerMetrics metrics) {
+        super(in);
+        this.metrics = metrics;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b >= 0) {
+            metrics.bytesReceived(1);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+        int numberOfBytesRead = super.read(bytes, offset, length);
+        if (numberOfBytesRead > 0) {
+            metrics.bytesReceived(numberOfBytesRead);
+        }
+        return numberOfBytesRead;
+    }
+}
+
+class ByteCountingOutputStream extends FilterOutputStream {
+
+    private final ServerMetrics metrics;
+
+    ByteCountingOutputStream(OutputStream out, ServerMetrics metrics) {
+        super(out);
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+        metrics.bytesSent(1);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        out.write(bytes, offset, length); // FilterOutputStream would write them one by one
+        metrics.bytesSent(length);
+    }
+}
@@ -0,0 +1,132 @@
+package project.server;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+// IMPLEMENTATION OF ASYNCHRONOUS LOGGING
+// System.out locks itself for every line, so printing from every request made the clients wait for each other and for the
+// terminal. Here a request only checks the level and, if the line is wanted, puts it in a bounded queue; one daemon thread
+// writes the queued lines in batches. When the queue is full a line is dropped and counted rather than making a request wait,
+// and the writer says how many were lost. The lines of every request are DEBUG, so by default they are not even built.
+final class ServerLog {
+
+    enum Level {
+        DEBUG, INFO, WARN, ERROR, OFF
+    }
+
+    private static final int QUEUE_CAPACITY = 16 * 1024;
+    private static final int MAX_LINES_PER_WRITE = 512;
+
+    private static volatile Level level = Level.INFO;
+    private static final BlockingQueue<String> queuedLines = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private static final LongAdder numberOfDroppedLines = new LongAdder();
+    private static final PrintStream output = System.out;
+
+    static {
+        Thread writer = new Thread(ServerLog::writeQueuedLines, "server-log");
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(ServerLog::flush, "server-log-flush"));
+    }
+
+    private ServerLog() {
+    }
+
+    static void setLevel(Level newLevel) {
+        level = newLevel;
+    }
+
+    static Level level() {
+        return level;
+    }
+
+    static boolean isEnabled(Level lineLevel) {
+        return lineLevel.compareTo(level) >= 0 && lineLevel != Level.OFF;
+    }
+
+    // for the lines of every request: the message is only built if it is going to be written
+    static void debug(Supplier<String> message) {
+        if (isEnabled(Level.DEBUG)) {
+            enqueue(Level.DEBUG, message.get());
+        }
+    }
+
+    static void info(String message) {
+        if (isEnabled(Level.INFO)) {
+            enqueue(Level.INFO, message);
+        }
+    }
+
+    static void warn(String message) {
+        if (isEnabled(Level.WARN)) {
+            enqueue(Level.WARN, message);
+        }
+    }
+
+    static void error(String message, Throwable cause) {
+
+        if (isEnabled(Level.ERROR)) {
+            StringBuilder line = new StringBuilder(message).append(": ").append(cause);
+            for (StackTraceElement element : cause.getStackTrace()) {
+                line.append(System.lineSeparator()).append("\tat ").append(element);
+            }
+            enqueue(Level.ERROR, line.toString());
+        }
+    }
+
+    static long numberOfDroppedLines() {
+        return numberOfDroppedLines.sum();
+    }
+
+    // writes what is queued from the calling thread; at exit, so the last lines are not lost with the daemon thread
+    static void flush() {
+
+        List<String> lines = new ArrayList<>();
+        queuedLines.drainTo(lines);
+        synchronized (output) {
+            lines.forEach(output::println);
+            output.flush();
+        }
+    }
+
+    private static void enqueue(Level lineLevel, String message) {
+
+        String line = lineLevel == Level.INFO ? message : lineLevel + " " + message; // INFO lines read as they always have
+        if (!queuedLines.offer(line)) {
+            numberOfDroppedLines.increment();
+        }
+    }
+
+    private static void writeQueuedLines() {
+
+        List<String> lines = new ArrayList<>(MAX_LINES_PER_WRITE);
+        long numberOfDroppedLinesReported = 0;
+        while (true) {
+            try {
+                String firstLine = queuedLines.poll(1, TimeUnit.SECONDS);
+                if (firstLine != null) {
+                    lines.add(firstLine);
+                    queuedLines.drainTo(lines, MAX_LINES_PER_WRITE - 1);
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+            long numberOfDroppedLinesSoFar = numberOfDroppedLines();
+            synchronized (output) { // one lock and one flush for the whole batch
+                lines.forEach(output::println);
+                if (numberOfDroppedLinesSoFar > numberOfDroppedLinesReported) {
+                    output.println("WARN " + (numberOfDroppedLinesSoFar - numberOfDroppedLinesReported) + " log lines were dropped because the log could not keep up.");
+                    numberOfDroppedLinesReported = numberOfDroppedLinesSoFar;
+                }
+                output.flush();
+            }
+            lines.clear();
+        }
+    }
+}
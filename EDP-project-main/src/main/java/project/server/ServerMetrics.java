@@ -0,0 +1,338 @@
+package project.server;
+
+import project.server.metrics.CommandMetricsMXBean;
+import project.server.metrics.ServerMetricsMXBean;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// IMPLEMENTATION OF SERVER METRICS
+// Counters and latency histograms of the hot paths, recorded by the threads that serve the clients without taking any lock:
+// per command the number of requests, of errors and the distribution of their times; how long the day locks of the schedules
+// were waited for; the open connections and the bytes that went through them; how far the replicas are behind the primary.
+// They are read through JMX (registerWithJmx()) and, as plain text in the Prometheus format, through a MetricsEndpoint.
+public class ServerMetrics implements ServerMetricsMXBean {
+
+    public enum Command {
+        ADD_NEW_CLASS("Add New Class"),
+        REMOVE_CLASS("Remove Class"),
+        DISPLAY_SCHEDULE("Display Schedule"),
+        EARLY_MORNINGS("Early Mornings"),
+        EARLY_MORNINGS_FOR_ALL_SCHEDULES("Early Mornings For All Schedules"),
+        OPTIMAL_PACKING("Optimal Packing"),
+        BATCH("Batch"),
+        ADD_RECURRING_CLASS("Add Recurring Class"),
+        DISPLAY_TERM("Display Term"),
+        FIND_FREE_SLOT("Find Free Slot"),
+        FIND_FREE_SLOT_FOR_ALL_SCHEDULES("Find Free Slot For All Schedules");
+
+        final String label; // as the client sends it
+
+        Command(String label) {
+            this.label = label;
+        }
+    }
+
+    private static final String PREFIX = "class_scheduler_";
+
+    private final Map<Command, CommandMetrics> commands = new EnumMap<>(Command.class);
+    private final LongAdder lockAcquisitions = new LongAdder();
+    private final LatencyHistogram lockWaits = new LatencyHistogram(); // only the acquisitions that had to wait
+    private final AtomicInteger activeConnections = new AtomicInteger();
+    private final LongAdder acceptedConnections = new LongAdder();
+    private final LongAdder bytesReceived = new LongAdder();
+    private final LongAdder bytesSent = new LongAdder();
+    private final LongAdder changesShippedToReplicas = new LongAdder(); // on a primary
+    private final LongAdder changesAcknowledgedByReplicas = new LongAdder();
+    private final LatencyHistogram replicationLags = new LatencyHistogram(); // on a replica, from a change made on the primary to applied here
+    private final LongAdder replicationSnapshots = new LongAdder();
+    private volatile long lastHeardFromPrimaryNanos; // 0 until the primary was first heard from
+
+    public ServerMetrics() {
+        for (Command command : Command.values()) {
+            commands.put(command, new CommandMetrics());
+        }
+    }
+
+    void recordCommand(Command command, long nanos, boolean succeeded) {
+        commands.get(command).record(nanos, succeeded);
+    }
+
+    void recordLockAcquisition() {
+        lockAcquisitions.increment();
+    }
+
+    void recordLockAcquisitionAfterWaiting(long waitNanos) {
+        lockAcquisitions.increment();
+        lockWaits.record(waitNanos);
+    }
+
+    void connectionOpened() {
+        activeConnections.incrementAndGet();
+        acceptedConnections.increment();
+    }
+
+    void connectionClosed() {
+        activeConnections.decrementAndGet();
+    }
+
+    void bytesReceived(long numberOfBytes) {
+        bytesReceived.add(numberOfBytes);
+    }
+
+    void bytesSent(long numberOfBytes) {
+        bytesSent.add(numberOfBytes);
+    }
+
+    void changeShippedToReplica() {
+        changesShippedToReplicas.increment();
+    }
+
+    void changesAcknowledgedByReplica(long numberOfChanges) {
+        changesAcknowledgedByReplicas.add(numberOfChanges);
+    }
+
+    void recordReplicatedChange(long lagNanos) {
+        replicationLags.record(lagNanos);
+    }
+
+    void replicationSnapshotApplied() {
+        replicationSnapshots.increment();
+    }
+
+    void heardFromPrimary() {
+        lastHeardFromPrimaryNanos = System.nanoTime();
+    }
+
+    public CommandMetricsMXBean of(Command command) {
+        return commands.get(command);
+    }
+
+    @Override
+    public int getActiveConnections() {
+        return activeConnections.get();
+    }
+
+    @Override
+    public long getAcceptedConnections() {
+        return acceptedConnections.sum();
+    }
+
+    @Override
+    public long getBytesReceived() {
+        return bytesReceived.sum();
+    }
+
+    @Override
+    public long getBytesSent() {
+        return bytesSent.sum();
+    }
+
+    @Override
+    public long getLockAcquisitions() {
+        return lockAcquisitions.sum();
+    }
+
+    @Override
+    public long getContendedLockAcquisitions() {
+        return lockWaits.count();
+    }
+
+    @Override
+    public double getLockWaitMeanMicros() {
+        return lockWaits.mean() / 1_000;
+    }
+
+    @Override
+    public double getLockWaitP99Micros() {
+        return lockWaits.valueAtPercentile(99) / 1_000.0;
+    }
+
+    @Override
+    public double getLockWaitMaxMicros() {
+        return lockWaits.max() / 1_000.0;
+    }
+
+    @Override
+    public double getLockWaitTotalMillis() {
+        return lockWaits.sum() / 1_000_000.0;
+    }
+
+    @Override
+    public long getDroppedLogLines() {
+        return ServerLog.numberOfDroppedLines();
+    }
+
+    @Override
+    public long getChangesShippedToReplicas() {
+        return changesShippedToReplicas.sum();
+    }
+
+    @Override
+    public long getChangesAcknowledgedByReplicas() {
+        return changesAcknowledgedByReplicas.sum();
+    }
+
+    @Override
+    public long getReplicatedChanges() {
+        return replicationLags.count();
+    }
+
+    @Override
+    public double getReplicationLagP99Millis() {
+        return replicationLags.valueAtPercentile(99) / 1_000_000.0;
+    }
+
+    @Override
+    public double getReplicationLagMaxMillis() {
+        return replicationLags.max() / 1_000_000.0;
+    }
+
+    @Override
+    public long getReplicationSnapshots() {
+        return replicationSnapshots.sum();
+    }
+
+    @Override
+    public double getSecondsSinceHeardFromPrimary() {
+        long lastHeard = lastHeardFromPrimaryNanos;
+        return lastHeard == 0 ? -1 : (System.nanoTime() - lastHeard) / 1e9;
+    }
+
+    // under project.server:type=Server and project.server:type=Command,name="<the command>"
+    public void registerWithJmx() {
+
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        try {
+            mBeanServer.registerMBean(this, new ObjectName("project.server:type=Server"));
+            for (Command command : Command.values()) {
+                mBeanServer.registerMBean(commands.get(command), new ObjectName("project.server:type=Command,name=" + ObjectName.quote(command.label)));
+            }
+        } catch (JMException e) {
+            throw new IllegalStateException("The metrics could not be registered with JMX.", e);
+        }
+    }
+
+    // the text format of Prometheus 0.0.4; times in seconds, as Prometheus expects
+    public String toPrometheusText() {
+
+        StringBuilder text = new StringBuilder();
+        header(text, "command_seconds", "summary", "Time to process a command, from the parsed request to the answer.");
+        for (Command command : Command.values()) {
+            summary(text, "command_seconds", "command=\"" + command.label + "\",", commands.get(command).latencies);
+        }
+        header(text, "command_errors_total", "counter", "Commands that were answered with an error.");
+        for (Command command : Command.values()) {
+            sample(text, "command_errors_total{command=\"" + command.label + "\"}", commands.get(command).errors.sum());
+        }
+        header(text, "lock_acquisitions_total", "counter", "Day locks of the schedules taken, with or without waiting.");
+        sample(text, "lock_acquisitions_total", getLockAcquisitions());
+        header(text, "lock_wait_seconds", "summary", "Time spent waiting for a day lock that another thread held.");
+        summary(text, "lock_wait_seconds", "", lockWaits);
+        header(text, "active_connections", "gauge", "Clients connected now.");
+        sample(text, "active_connections", getActiveConnections());
+        header(text, "accepted_connections_total", "counter", "Clients connected since the server started.");
+        sample(text, "accepted_connections_total", getAcceptedConnections());
+        header(text, "received_bytes_total", "counter", "Bytes read from the clients.");
+        sample(text, "received_bytes_total", getBytesReceived());
+        header(text, "sent_bytes_total", "counter", "Bytes written to the clients.");
+        sample(text, "sent_bytes_total", getBytesSent());
+        header(text, "dropped_log_lines_total", "counter", "Log lines dropped because the log could not keep up.");
+        sample(text, "dropped_log_lines_total", getDroppedLogLines());
+        header(text, "replica_shipped_changes_total", "counter", "Changes sent to the replicas, counted once per replica.");
+        sample(text, "replica_shipped_changes_total", getChangesShippedToReplicas());
+        header(text, "replica_acknowledged_changes_total", "counter", "Changes the replicas confirmed they applied.");
+        sample(text, "replica_acknowledged_changes_total", getChangesAcknowledgedByReplicas());
+        header(text, "replication_lag_seconds", "summary", "On a replica, time from a change made on the primary to the change applied here.");
+        summary(text, "replication_lag_seconds", "", replicationLags);
+        header(text, "replication_snapshots_total", "counter", "On a replica, snapshots of all schedules received from the primary.");
+        sample(text, "replication_snapshots_total", getReplicationSnapshots());
+        return text.toString();
+    }
+
+    private static void header(StringBuilder text, String name, String type, String help) {
+        text.append("# HELP ").append(PREFIX).append(name).append(' ').append(help).append('\n');
+        text.append("# TYPE ").append(PREFIX).append(name).append(' ').append(type).append('\n');
+    }
+
+    // labels is empty or ends with a comma, the quantile is added after it
+    private static void summary(StringBuilder text, String name, String labels, LatencyHistogram histogram) {
+
+        for (double quantile : new double[]{0.5, 0.9, 0.99, 0.999}) {
+            text.append(PREFIX).append(name).append('{').append(labels).append("quantile=\"").append(quantile).append("\"} ")
+                    .append(seconds(histogram.valueAtPercentile(quantile * 100))).append('\n');
+        }
+        String labelsWithoutQuantile = labels.isEmpty() ? "" : "{" + labels.substring(0, labels.length() - 1) + "}";
+        text.append(PREFIX).append(name).append("_sum").append(labelsWithoutQuantile).append(' ').append(seconds(histogram.sum())).append('\n');
+        text.append(PREFIX).append(name).append("_count").append(labelsWithoutQuantile).append(' ').append(histogram.count()).append('\n');
+    }
+
+    private static void sample(StringBuilder text, String nameWithLabels, long value) {
+        text.append(PREFIX).append(nameWithLabels).append(' ').append(value).append('\n');
+    }
+
+    private static String seconds(long nanos) {
+        return String.format(Locale.ROOT, "%.9f", nanos / 1e9);
+    }
+}
+
+// the counters of one command; the JMX view reads them without stopping the threads that record
+final class CommandMetrics implements CommandMetricsMXBean {
+
+    final LatencyHistogram latencies = new LatencyHistogram();
+    final LongAdder errors = new LongAdder();
+
+    void record(long nanos, boolean succeeded) {
+        latencies.record(nanos);
+        if (!succeeded) {
+            errors.increment();
+        }
+    }
+
+    @Override
+    public long getCount() {
+        return latencies.count();
+    }
+
+    @Override
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    @Override
+    public double getMeanMicros() {
+        return latencies.mean() / 1_000;
+    }
+
+    @Override
+    public double getP50Micros() {
+        return latencies.valueAtPercentile(50) / 1_000.0;
+    }
+
+    @Override
+    public double getP90Micros() {
+        return latencies.valueAtPercentile(90) / 1_000.0;
+    }
+
+    @Override
+    public double getP99Micros() {
+        return latencies.valueAtPercentile(99) / 1_000.0;
+    }
+
+    @Override
+    public double getP999Micros() {
+        return latencies.valueAtPercentile(99.9) / 1_000.0;
+    }
+
+    @Override
+    public double getMaxMicros() {
+        return latencies.max() / 1_000.0;
+    }
+}
@@ -0,0 +1,96 @@
+package project.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// IMPLEMENTATION OF THE TERM CALENDAR
+// The recurring classes of a schedule, next to the classes held every week. Per day of the week the series are sorted by
+// start time, and the list of a day is guarded by that day's lock, like the day's weekly classes; only finding the day
+// of a series by its id needs no lock.
+final class TermCalendar {
+
+    private final List<List<RecurringSeries>> seriesPerDay = new ArrayList<>(Schedule.DAYS_OF_WEEK.size());
+    private final Map<Integer, RecurringSeries> seriesById = new ConcurrentHashMap<>();
+    private final AtomicInteger lastSeriesId = new AtomicInteger();
+
+    TermCalendar() {
+        for (int dayIndex = 0; dayIndex < Schedule.DAYS_OF_WEEK.size(); dayIndex++) {
+            seriesPerDay.add(new ArrayList<>());
+        }
+    }
+
+    int nextSeriesId() {
+        return lastSeriesId.incrementAndGet();
+    }
+
+    boolean isEmpty() {
+        return seriesById.isEmpty();
+    }
+
+    // null if there is none; read without the day's lock, so the caller checks again once it holds it
+    RecurringSeries withId(int seriesId) {
+        return seriesById.get(seriesId);
+    }
+
+    void add(RecurringSeries series) {
+
+        List<RecurringSeries> seriesOfTheDay = seriesPerDay.get(series.dayIndex);
+        int index = 0;
+        while (index < seriesOfTheDay.size() && seriesOfTheDay.get(index).startMinute <= series.startMinute) {
+            index++;
+        }
+        seriesOfTheDay.add(index, series);
+        seriesById.put(series.id, series);
+        lastSeriesId.accumulateAndGet(series.id, Math::max); // a series read back keeps its id, a new one never reuses it
+    }
+
+    void remove(RecurringSeries series) {
+        seriesPerDay.get(series.dayIndex).remove(series);
+        seriesById.remove(series.id);
+    }
+
+    // the same series with a change, in the same place
+    void replace(RecurringSeries series, RecurringSeries changedSeries) {
+
+        List<RecurringSeries> seriesOfTheDay = seriesPerDay.get(series.dayIndex);
+        seriesOfTheDay.set(seriesOfTheDay.indexOf(series), changedSeries);
+        seriesById.put(changedSeries.id, changedSeries);
+    }
+
+    // the series of one day, by start time
+    List<RecurringSeries> seriesOn(int dayIndex) {
+        return seriesPerDay.get(dayIndex);
+    }
+
+    // A class held every week meets every occurrence of a series at the same time, so only the times are compared.
+    // The series are sorted by start time: the ones starting after the slot finishes are not looked at.
+    RecurringSeries firstSeriesOverlapping(int dayIndex, int startMinute, int finishMinute) {
+
+        for (RecurringSeries series : seriesPerDay.get(dayIndex)) {
+            if (series.startMinute > finishMinute) {
+                return null;
+            }
+            if (series.overlapsInTime(startMinute, finishMinute)) {
+                return series;
+            }
+        }
+        return null;
+    }
+
+    // a series that has a date in common with the new one at an overlapping time, or null
+    RecurringSeries firstSeriesInConflictWith(RecurringSeries newSeries) {
+
+        for (RecurringSeries series : seriesPerDay.get(newSeries.dayIndex)) {
+            if (series.startMinute > newSeries.finishMinute) {
+                return null;
+            }
+            if (series.overlapsInTime(newSeries.startMinute, newSeries.finishMinute) && newSeries.firstDateInCommonWith(series) != null) {
+                return series;
+            }
+        }
+        return null;
+    }
+}
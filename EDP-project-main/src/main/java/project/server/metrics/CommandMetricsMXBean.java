@@ -0,0 +1,21 @@
+package project.server.metrics;
+
+// one command, under project.server:type=Command,name="<the command>"; times are from the parsed request to the answer
+public interface CommandMetricsMXBean {
+
+    long getCount();
+
+    long getErrors();
+
+    double getMeanMicros();
+
+    double getP50Micros();
+
+    double getP90Micros();
+
+    double getP99Micros();
+
+    double getP999Micros();
+
+    double getMaxMicros();
+}
@@ -0,0 +1,41 @@
+package project.server.metrics;
+
+// what JConsole and other JMX clients see of the server as a whole, under project.server:type=Server; see project.server.ServerMetrics
+public interface ServerMetricsMXBean {
+
+    int getActiveConnections();
+
+    long getAcceptedConnections();
+
+    long getBytesReceived();
+
+    long getBytesSent();
+
+    long getLockAcquisitions();
+
+    long getContendedLockAcquisitions();
+
+    double getLockWaitMeanMicros();
+
+    double getLockWaitP99Micros();
+
+    double getLockWaitMaxMicros();
+
+    double getLockWaitTotalMillis();
+
+    long getDroppedLogLines();
+
+    long getChangesShippedToReplicas();
+
+    long getChangesAcknowledgedByReplicas();
+
+    long getReplicatedChanges();
+
+    double getReplicationLagP99Millis();
+
+    double getReplicationLagMaxMillis();
+
+    long getReplicationSnapshots();
+
+    double getSecondsSinceHeardFromPrimary(); // -1 on a server that never followed a primary
+}
@@ -0,0 +1,60 @@
+package project.server;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// the requests that move schedules between the servers of a cluster are taken on the administration port only
+class AdministrationPortTest {
+
+    private final ScheduleRegistry registry = new ScheduleRegistry();
+
+    @AfterEach
+    void closeRegistry() {
+        registry.close();
+    }
+
+    @Test
+    void clientsCannotMoveOrDropSchedules() {
+
+        RequestProcessor client = new RequestProcessor(registry);
+        client.processMessageFromClient("Add New Class,Monday,9,0,10,0,CS4125,CS1-044");
+        for (String request : new String[]{"Schedules", "Export Schedule", "Import Schedule", "Import Schedule Part,AAAA",
+                "Drop Schedules,default", "Promote", "Follow,localhost,7002"}) {
+            String answer = answerOf(client, request);
+            assertTrue(answer.startsWith("ERROR MESSAGE: ") && answer.contains("administration port"), request + " was answered: " + answer);
+        }
+        assertEquals(1, registry.tenantIds().size());
+        assertTrue(answerOf(client, "Display Schedule").contains("CS4125"));
+    }
+
+    @Test
+    void theRouterCanMoveSchedules() {
+
+        RequestProcessor router = new RequestProcessor(registry, true);
+        router.processMessageFromClient("Add New Class,Monday,9,0,10,0,CS4125,CS1-044");
+        assertFalse(answerOf(router, "Schedules").startsWith("ERROR MESSAGE: "));
+        assertFalse(answerOf(router, "Export Schedule").startsWith("ERROR MESSAGE: "));
+    }
+
+    @Test
+    void aReplicaFollowsOnlyTheServersItWasGiven() {
+
+        ReplicationFollower follower = new ReplicationFollower(registry, "localhost:7001", List.of("localhost:7002"), Duration.ZERO, () -> {});
+        registry.useReplicationFollower(follower);
+        RequestProcessor administrator = new RequestProcessor(registry, true);
+        assertTrue(answerOf(administrator, "Follow,attacker.example,7001").startsWith("ERROR MESSAGE: "));
+        assertEquals("localhost:7001", follower.primary());
+        assertFalse(answerOf(administrator, "Follow,localhost,7002").startsWith("ERROR MESSAGE: "));
+        assertEquals("localhost:7002", follower.primary());
+        assertFalse(answerOf(administrator, "Follow,localhost,7001").startsWith("ERROR MESSAGE: "));
+    }
+
+    private static String answerOf(RequestProcessor processor, String request) {
+        return new String(processor.processMessageFromClient(request).bytes(), java.nio.charset.StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,156 @@
+package project.server;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// truncated frames must cost the client that sent them its connection, and nothing more; fields are held to the rules of the text protocol
+class BinaryProtocolTest {
+
+    private final ScheduleRegistry registry = new ScheduleRegistry();
+    private ServerSocket threadPerClientSocket;
+
+    @AfterEach
+    void closeServers() throws IOException {
+        if (threadPerClientSocket != null) {
+            threadPerClientSocket.close();
+        }
+        registry.close();
+    }
+
+    @Test
+    void opcodeOfRejectsFramesShorterThanTheirHeader() throws ProtocolException {
+
+        assertThrows(ProtocolException.class, () -> BinaryProtocol.opcodeOf(ByteBuffer.allocate(0), (byte) 1));
+        assertThrows(ProtocolException.class, () -> BinaryProtocol.opcodeOf(ByteBuffer.wrap(new byte[]{0, 0, 1}), (byte) 2));
+        assertThrows(ProtocolException.class, () -> BinaryProtocol.opcodeOf(ByteBuffer.wrap(new byte[]{0, 0, 0, 1}), (byte) 2));
+        assertEquals(BinaryProtocol.OPCODE_VERSION, BinaryProtocol.opcodeOf(ByteBuffer.wrap(new byte[]{BinaryProtocol.OPCODE_VERSION}), (byte) 1));
+        assertEquals(BinaryProtocol.OPCODE_VERSION, BinaryProtocol.opcodeOf(ByteBuffer.wrap(new byte[]{0, 0, 0, 7, BinaryProtocol.OPCODE_VERSION}), (byte) 2));
+    }
+
+    @Test
+    void stringsLongerThanTheProtocolAllowsAreRefused() {
+
+        assertThrows(IllegalArgumentException.class, () -> BinaryProtocol.encodeCountOfRequest(1, "x".repeat(BinaryProtocol.MAX_STRING_LENGTH + 1)));
+        assertDoesNotThrow(() -> BinaryProtocol.encodeCountOfRequest(1, "x".repeat(BinaryProtocol.MAX_STRING_LENGTH)));
+        Schedule schedule = new Schedule();
+        assertThrows(IncorrectActionException.class, () -> schedule.addClass("Monday",
+                new Class(java.time.LocalTime.of(9, 0), java.time.LocalTime.of(10, 0), "é".repeat(BinaryProtocol.MAX_STRING_LENGTH / 2 + 1), "CS1-044")));
+    }
+
+    @Test
+    void namesAndRoomsTheTextProtocolCannotCarryAreRefusedAsItRefusesThem() {
+
+        RequestProcessor processor = new RequestProcessor(registry);
+        String answerOfTheTextProtocol = new String(processor.processMessageFromClient("Add New Class,Monday,9,0,10,0,CS,4125,CS1-044").bytes(), StandardCharsets.UTF_8);
+        assertTrue(answerOfTheTextProtocol.startsWith("ERROR MESSAGE: "));
+        for (String[] nameAndRoom : new String[][]{{"CS,4125", "CS1-044"}, {"CS4125\n", "CS1-044"}, {"CS4125", "CS1\r044"}}) {
+            assertEquals(answerOfTheTextProtocol, answerOf(processor, BinaryProtocol.encodeAddClassRequest(1, 0, 9 * 60, 10 * 60, nameAndRoom[0], nameAndRoom[1])));
+            assertEquals(answerOfTheTextProtocol, answerOf(processor, BinaryProtocol.encodeAddRecurringClassRequest(2, LocalDate.of(2026, 9, 7), 12, 1,
+                    9 * 60, 10 * 60, nameAndRoom[0], nameAndRoom[1])));
+        }
+        assertEquals(0, registry.withSchedule(ScheduleRegistry.DEFAULT_TENANT_ID, Schedule::numberOfClasses));
+    }
+
+    @Test
+    void selectorLoopDropsOnlyTheClientThatSentATruncatedFrame() throws Exception {
+
+        SelectorEventLoop loop = new SelectorEventLoop(0, 10, registry);
+        Thread loopThread = new Thread(loop, "test-selector");
+        loopThread.setDaemon(true);
+        loopThread.start();
+        checkTruncatedFramesAreRejected(loop.port());
+        assertTrue(loopThread.isAlive());
+    }
+
+    @Test
+    void threadPerClientDropsOnlyTheClientThatSentATruncatedFrame() throws Exception {
+
+        threadPerClientSocket = new ServerSocket(0);
+        Thread acceptor = new Thread(() -> {
+            try {
+                while (true) {
+                    new Thread(new ClientManager(threadPerClientSocket.accept(), registry, () -> {})).start();
+                }
+            } catch (IOException e) { // closed by the test
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+        checkTruncatedFramesAreRejected(threadPerClientSocket.getLocalPort());
+    }
+
+    private static void checkTruncatedFramesAreRejected(int port) throws IOException {
+
+        try (Socket client = connect(port, 2)) { // 3 bytes, not even the correlation id and the opcode
+            DataOutputStream out = new DataOutputStream(client.getOutputStream());
+            out.writeInt(3);
+            out.write(new byte[]{0, 0, 1});
+            out.flush();
+            assertClosed(client);
+        }
+        try (Socket client = connect(port, 1)) { // an opcode without its fields is answered with an error, the connection stays
+            DataOutputStream out = new DataOutputStream(client.getOutputStream());
+            out.writeInt(1);
+            out.writeByte(BinaryProtocol.OPCODE_ADD_CLASS);
+            out.flush();
+            byte[] response = readFrame(client);
+            assertEquals(BinaryProtocol.STATUS_ERROR, response[0]);
+        }
+        try (Socket client = connect(port, 2)) { // the server still answers everybody else
+            ByteBuffer request = BinaryProtocol.encodeSimpleRequest(42, BinaryProtocol.OPCODE_VERSION);
+            client.getOutputStream().write(request.array(), 0, request.limit());
+            ByteBuffer response = ByteBuffer.wrap(readFrame(client));
+            assertEquals(42, BinaryProtocol.readResponseCorrelationId(response));
+            assertTrue(BinaryProtocol.isSuccessfulResponse(response));
+        }
+    }
+
+    // a request frame processed as a connection of version 2 would, its response put as the text protocol would answer
+    private static String answerOf(RequestProcessor processor, ByteBuffer request) {
+
+        request.getInt(); // the length prefix, which the connection reads before the frame
+        ByteBuffer response = BinaryProtocol.processRequestFrame(request, processor, (byte) 2);
+        response.getInt();
+        return (BinaryProtocol.isSuccessfulResponse(response) ? "" : "ERROR MESSAGE: ") + BinaryProtocol.readResponseMessage(response);
+    }
+
+    private static Socket connect(int port, int version) throws IOException {
+
+        Socket client = new Socket("localhost", port);
+        client.setSoTimeout(5_000);
+        client.getOutputStream().write(new byte[]{BinaryProtocol.MAGIC_BYTE, (byte) version});
+        byte[] handshake = new byte[2];
+        new DataInputStream(client.getInputStream()).readFully(handshake);
+        assertEquals(version, handshake[1]);
+        return client;
+    }
+
+    private static byte[] readFrame(Socket client) throws IOException {
+
+        DataInputStream in = new DataInputStream(client.getInputStream());
+        byte[] frame = new byte[in.readInt()];
+        in.readFully(frame);
+        return frame;
+    }
+
+    private static void assertClosed(Socket client) throws IOException {
+
+        try {
+            assertEquals(-1, client.getInputStream().read());
+        } catch (EOFException | java.net.SocketException e) { // a reset is as good as a close
+        }
+    }
+}
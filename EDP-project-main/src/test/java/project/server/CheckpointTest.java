@@ -0,0 +1,44 @@
+package project.server;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// a checkpoint writes only the schedules that changed since they were last stored, and a restart still finds every one
+class CheckpointTest {
+
+    @TempDir
+    Path storageDirectory;
+
+    @Test
+    void onlyChangedSchedulesAreStoredAgain() {
+
+        try (ScheduleRegistry registry = new ScheduleRegistry(storageDirectory)) {
+            RequestProcessor client = new RequestProcessor(registry);
+            client.processMessageFromClient("Select Schedule,first");
+            client.processMessageFromClient("Add New Class,Monday,9,0,10,0,CS4125,CS1-044");
+            client.processMessageFromClient("Select Schedule,second");
+            client.processMessageFromClient("Add New Class,Tuesday,9,0,10,0,CS4115,CS1-045");
+            assertEquals(2, registry.checkpoint());
+            assertEquals(0, registry.checkpoint());
+
+            client.processMessageFromClient("Add New Class,Friday,9,0,10,0,CS4076,CS1-046");
+            assertEquals(1, registry.checkpoint());
+            assertEquals(0, registry.checkpoint());
+        }
+
+        try (ScheduleRegistry registry = new ScheduleRegistry(storageDirectory)) {
+            assertEquals(0, registry.numberOfReplayedChanges());
+            assertTrue(displayed(registry, "first").contains("CS4125"));
+            assertTrue(displayed(registry, "second").contains("CS4076"));
+        }
+    }
+
+    private static String displayed(ScheduleRegistry registry, String tenantId) {
+        return new String(registry.withSchedule(tenantId, Schedule::getAllClassesInfoEncoded).bytes(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,96 @@
+package project.server;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// 'Early Mornings' over many schedules, forked on the engine's pool, leaves each of them as shifting it on its own does
+class EarlyMorningsEngineTest {
+
+    private static final int NUMBER_OF_SCHEDULES = 40;
+    private static final String[] MODULES = {"CS4125", "CS4115", "CS4076", "CS4006", "CS4178"};
+
+    private final ScheduleRegistry forkedRegistry = new ScheduleRegistry(null, new EarlyMorningsEngine(4));
+    private final ScheduleRegistry sequentialRegistry = new ScheduleRegistry(null, new EarlyMorningsEngine(1));
+
+    @AfterEach
+    void closeRegistries() {
+        forkedRegistry.close();
+        sequentialRegistry.close();
+    }
+
+    @Test
+    void forkedShiftMatchesTheSequentialOne() {
+
+        List<String> tenantIds = new ArrayList<>();
+        Random random = new Random(7);
+        for (int tenant = 0; tenant < NUMBER_OF_SCHEDULES; tenant++) {
+            String tenantId = "schedule-" + tenant;
+            tenantIds.add(tenantId);
+            for (String request : requestsFillingASchedule(tenant, random)) {
+                answerOf(new RequestProcessor(forkedRegistry), tenantId, request);
+                answerOf(new RequestProcessor(sequentialRegistry), tenantId, request);
+            }
+        }
+
+        EarlyMorningsStatistics statistics = forkedRegistry.performEarlyMornings(tenantIds);
+        int numberOfSchedulesLeftAsTheyWere = 0;
+        for (String tenantId : tenantIds) {
+            try {
+                sequentialRegistry.withSchedule(tenantId, schedule -> {
+                    schedule.performEarlyMorningsOperation();
+                    return null;
+                });
+            } catch (IncorrectActionException recurringClassInTheWay) {
+                numberOfSchedulesLeftAsTheyWere++;
+            }
+        }
+
+        assertTrue(statistics.getNumberOfTasks() > 1, "the run was not split, the test does not cover forking");
+        assertEquals(NUMBER_OF_SCHEDULES - numberOfSchedulesLeftAsTheyWere, statistics.getNumberOfSchedules());
+        assertEquals(numberOfSchedulesLeftAsTheyWere, statistics.getNumberOfSchedulesLeftAsTheyWere());
+        assertTrue(numberOfSchedulesLeftAsTheyWere > 0);
+        for (String tenantId : tenantIds) {
+            assertEquals(displayed(sequentialRegistry, tenantId), displayed(forkedRegistry, tenantId), tenantId);
+            assertEquals(sequentialRegistry.withSchedule(tenantId, Schedule::getVersion), forkedRegistry.withSchedule(tenantId, Schedule::getVersion), tenantId);
+        }
+    }
+
+    // Short classes all day long in rooms of the tenant's own. One schedule in five has classes so long that they wrap past
+    // midnight once shifted; another one in five has a recurring class on Tuesday morning that a shifted class would land on.
+    private static List<String> requestsFillingASchedule(int tenant, Random random) {
+
+        List<String> requests = new ArrayList<>();
+        for (String dayOfWeek : Schedule.DAYS_OF_WEEK) {
+            int lengthInMinutes = tenant % 5 == 0 ? 200 : 5;
+            int firstStartMinute = tenant % 5 == 1 && dayOfWeek.equals("Tuesday") ? 12 * 60 : random.nextInt(60);
+            for (int startMinute = firstStartMinute; startMinute + lengthInMinutes < 24 * 60; startMinute += lengthInMinutes + 1 + random.nextInt(10)) {
+                int finishMinute = startMinute + lengthInMinutes;
+                requests.add("Add New Class," + dayOfWeek + "," + startMinute / 60 + "," + startMinute % 60 + "," + finishMinute / 60 + "," + finishMinute % 60
+                        + "," + MODULES[random.nextInt(MODULES.length)] + ",R" + tenant + "-" + random.nextInt(10));
+            }
+        }
+        if (tenant % 5 == 1) {
+            requests.add("Add Recurring Class,2026-09-08,12,1,9,30,10,0," + MODULES[0] + ",R" + tenant + "-9"); // a Tuesday
+        }
+        return requests;
+    }
+
+    private static String answerOf(RequestProcessor processor, String tenantId, String request) {
+
+        processor.processMessageFromClient("Select Schedule," + tenantId);
+        String answer = new String(processor.processMessageFromClient(request).bytes(), StandardCharsets.UTF_8);
+        assertFalse(answer.startsWith("ERROR MESSAGE: "), request + " was answered: " + answer);
+        return answer;
+    }
+
+    private static String displayed(ScheduleRegistry registry, String tenantId) {
+        return new String(registry.withSchedule(tenantId, Schedule::getAllClassesInfoEncoded).bytes(), StandardCharsets.UTF_8);
+    }
+}
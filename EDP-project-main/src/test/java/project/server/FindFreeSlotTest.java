@@ -0,0 +1,135 @@
+package project.server;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// the slot Find Free Slot answers from the gap index is the earliest start at which adding the class is accepted, found by trying every minute
+class FindFreeSlotTest {
+
+    private static final String[] MODULES = {"CS4125", "CS4115", "CS4076", "CS4006", "CS4178"};
+    private static final int NUMBER_OF_SCHEDULES = 6;
+    private static final int NUMBER_OF_QUERIES = 40;
+    private static final String UNBOOKED_ROOM = "CS3-001";
+    private static final Pattern FREE_SLOT = Pattern.compile("(\\w+day) from (\\d\\d):(\\d\\d) to");
+
+    private final ScheduleRegistry registry = new ScheduleRegistry();
+
+    @AfterEach
+    void closeRegistry() {
+        registry.close();
+    }
+
+    @Test
+    void freeSlotsMatchABruteForceScan() {
+
+        Random random = new Random(3);
+        List<RequestProcessor> clients = new ArrayList<>();
+        for (int tenant = 0; tenant < NUMBER_OF_SCHEDULES; tenant++) {
+            RequestProcessor client = new RequestProcessor(registry);
+            answerOf(client, "Select Schedule,schedule-" + tenant);
+            fill(client, tenant, random);
+            clients.add(client);
+        }
+
+        for (int query = 0; query < NUMBER_OF_QUERIES; query++) {
+            int tenant = random.nextInt(NUMBER_OF_SCHEDULES);
+            int durationInMinutes = 10 + random.nextInt(170);
+            int firstDayIndex = random.nextInt(Schedule.DAYS_OF_WEEK.size());
+            int lastDayIndex = firstDayIndex + random.nextInt(Schedule.DAYS_OF_WEEK.size() - firstDayIndex);
+            int earliestStartMinute = random.nextInt(12 * 60);
+            List<Class> classesOfTheFirstDay = registry.withSchedule("schedule-" + tenant, Schedule::snapshot).classesPerDay.get(firstDayIndex);
+            if (query % 2 == 1 && !classesOfTheFirstDay.isEmpty()) { // a slot that would finish right on the start of a class, or a minute before it
+                int startMinuteOfAClass = CompactScheduleFile.minuteOf(classesOfTheFirstDay.get(random.nextInt(classesOfTheFirstDay.size())).getStartTime());
+                earliestStartMinute = Math.max(0, startMinuteOfAClass - durationInMinutes - random.nextInt(2));
+            }
+            int latestFinishMinute = earliestStartMinute + 1 + random.nextInt(24 * 60 - 1 - earliestStartMinute);
+            String room = random.nextBoolean() ? null : "R" + random.nextInt(4);
+            String arguments = durationInMinutes + "," + Schedule.DAYS_OF_WEEK.get(firstDayIndex) + "," + Schedule.DAYS_OF_WEEK.get(lastDayIndex) + ","
+                    + earliestStartMinute / 60 + "," + earliestStartMinute % 60 + "," + latestFinishMinute / 60 + "," + latestFinishMinute % 60 + (room == null ? "" : "," + room);
+
+            RequestProcessor client = clients.get(tenant);
+            assertEquals(bruteForceScan(List.of(client), durationInMinutes, firstDayIndex, lastDayIndex, earliestStartMinute, latestFinishMinute, room),
+                    freeSlotsIn(answerOf(client, "Find Free Slot," + arguments)), "Find Free Slot," + arguments);
+            assertEquals(bruteForceScan(clients, durationInMinutes, firstDayIndex, lastDayIndex, earliestStartMinute, latestFinishMinute, room),
+                    freeSlotsIn(answerOf(client, "Find Free Slot For All Schedules," + arguments)), "Find Free Slot For All Schedules," + arguments);
+        }
+    }
+
+    // Classes of ten minutes to two hours at random times, in four rooms the schedules share, so some of them are refused.
+    // Every other schedule is shifted by 'Early Mornings', which leaves classes back to back, and every third one has a recurring class.
+    private static void fill(RequestProcessor client, int tenant, Random random) {
+
+        for (int i = 0; i < 30; i++) {
+            int startMinute = random.nextInt(23 * 60);
+            int finishMinute = Math.min(startMinute + 10 + random.nextInt(111), 24 * 60 - 1);
+            client.processMessageFromClient("Add New Class," + Schedule.DAYS_OF_WEEK.get(random.nextInt(Schedule.DAYS_OF_WEEK.size())) + "," + startMinute / 60 + ","
+                    + startMinute % 60 + "," + finishMinute / 60 + "," + finishMinute % 60 + "," + MODULES[random.nextInt(MODULES.length)] + ",R" + random.nextInt(4));
+        }
+        if (tenant % 2 == 0) {
+            client.processMessageFromClient("Early Mornings");
+        }
+        if (tenant % 3 == 0) {
+            client.processMessageFromClient("Add Recurring Class,2026-09-08,12,1,20,0,21,30," + MODULES[0] + ",CS3-0" + tenant); // a Tuesday
+        }
+    }
+
+    // For each day, the first minute at which a class of MODULES[0] can be added to every one of the schedules, each added
+    // class taken out again straight away. Without a room the classes go to a room nobody books.
+    private static Map<String, Integer> bruteForceScan(List<RequestProcessor> clients, int durationInMinutes, int firstDayIndex, int lastDayIndex,
+                                                       int earliestStartMinute, int latestFinishMinute, String room) {
+
+        Map<String, Integer> freeSlots = new LinkedHashMap<>();
+        for (int dayIndex = firstDayIndex; dayIndex <= lastDayIndex; dayIndex++) {
+            String dayOfWeek = Schedule.DAYS_OF_WEEK.get(dayIndex);
+            for (int startMinute = earliestStartMinute; startMinute + durationInMinutes <= latestFinishMinute; startMinute++) {
+                if (canBeAddedToEveryOne(clients, dayOfWeek, startMinute, startMinute + durationInMinutes, room == null ? UNBOOKED_ROOM : room)) {
+                    freeSlots.put(dayOfWeek, startMinute);
+                    break;
+                }
+            }
+        }
+        return freeSlots;
+    }
+
+    private static boolean canBeAddedToEveryOne(List<RequestProcessor> clients, String dayOfWeek, int startMinute, int finishMinute, String room) {
+
+        String dayAndStart = dayOfWeek + "," + startMinute / 60 + "," + startMinute % 60;
+        for (RequestProcessor client : clients) { // the schedules share the room, so each class is taken out before the next one is tried
+            String answer = new String(client.processMessageFromClient("Add New Class," + dayAndStart + "," + finishMinute / 60 + "," + finishMinute % 60
+                    + "," + MODULES[0] + "," + room).bytes(), StandardCharsets.UTF_8);
+            if (answer.startsWith("ERROR MESSAGE: ")) {
+                return false;
+            }
+            answerOf(client, "Remove Class," + dayAndStart + "," + MODULES[0]);
+        }
+        return true;
+    }
+
+    private static Map<String, Integer> freeSlotsIn(String answer) {
+
+        Map<String, Integer> freeSlots = new LinkedHashMap<>();
+        Matcher freeSlot = FREE_SLOT.matcher(answer);
+        while (freeSlot.find()) {
+            freeSlots.put(freeSlot.group(1), Integer.parseInt(freeSlot.group(2)) * 60 + Integer.parseInt(freeSlot.group(3)));
+        }
+        return freeSlots;
+    }
+
+    private static String answerOf(RequestProcessor processor, String request) {
+
+        String answer = new String(processor.processMessageFromClient(request).bytes(), StandardCharsets.UTF_8);
+        assertFalse(answer.startsWith("ERROR MESSAGE: "), request + " was answered: " + answer);
+        return answer;
+    }
+}
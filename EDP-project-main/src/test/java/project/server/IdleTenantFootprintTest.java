@@ -0,0 +1,52 @@
+package project.server;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// a tenant that has selected its schedule and done nothing else keeps only a few kilobytes on the heap, none of them gap indexes
+class IdleTenantFootprintTest {
+
+    private static final int NUMBER_OF_TENANTS = 20_000;
+    private static final long MAX_BYTES_PER_IDLE_TENANT = 3 * 1024; // about 2.4 KB, and 1 KB more when the five gap indexes were made up front
+
+    private final ScheduleRegistry registry = new ScheduleRegistry();
+
+    @AfterEach
+    void closeRegistry() {
+        registry.close();
+    }
+
+    @Test
+    void idleTenantsRetainLittleMemory() throws InterruptedException {
+
+        registry.withSchedule("warm-up", Schedule::getVersion);
+        long usedBefore = usedHeapAfterCollection();
+        for (int tenant = 0; tenant < NUMBER_OF_TENANTS; tenant++) {
+            registry.withSchedule("tenant-" + tenant, Schedule::getVersion);
+        }
+        long usedAfter = usedHeapAfterCollection();
+        assertEquals(NUMBER_OF_TENANTS + 1, registry.numberOfSchedulesInMemory());
+
+        long bytesPerTenant = (usedAfter - usedBefore) / NUMBER_OF_TENANTS;
+        ServerLog.info("An idle tenant retains about " + bytesPerTenant + " bytes.");
+        assertTrue(bytesPerTenant < MAX_BYTES_PER_IDLE_TENANT, "an idle tenant retains about " + bytesPerTenant + " bytes");
+    }
+
+    // the heap in use once a collection has had the chance to take what is unreachable
+    private static long usedHeapAfterCollection() throws InterruptedException {
+
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        long used = Long.MAX_VALUE;
+        for (int attempt = 0; attempt < 5; attempt++) {
+            System.gc();
+            Thread.sleep(20);
+            used = Math.min(used, memory.getHeapMemoryUsage().getUsed());
+        }
+        return used;
+    }
+}
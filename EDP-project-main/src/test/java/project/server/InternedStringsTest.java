@@ -0,0 +1,55 @@
+package project.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalTime;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// the ids of names and rooms are given back with the last class that uses them, and a refused class takes none
+class InternedStringsTest {
+
+    private static final int MORE_THAN_THE_IDS = PackedDay.MAX_NUMBER_OF_NAMES + 10;
+
+    @Test
+    void aFreedIdIsGivenAgainInACopyOfTheTable() {
+
+        InternedStrings strings = new InternedStrings(4, "rooms");
+        int id = strings.acquire("CS1-044");
+        assertEquals(id, strings.acquire("CS1-044"));
+        String[] tableOfAnOldVersion = strings.table();
+        strings.release(id);
+        strings.release(id);
+        assertEquals(id, strings.acquire("CS1-045"));
+        assertEquals("CS1-044", tableOfAnOldVersion[id]);
+        assertEquals("CS1-045", strings.get(id));
+
+        strings.recount(IntStream.empty());
+        assertEquals(id, strings.acquire("CS1-046"));
+    }
+
+    @Test
+    void classesThatComeAndGoDoNotUseUpTheIds() {
+
+        Schedule schedule = new Schedule();
+        for (int i = 0; i < MORE_THAN_THE_IDS; i++) {
+            schedule.addClass("Monday", new Class(LocalTime.of(9, 0), LocalTime.of(10, 0), "CS" + i, "CS1-" + i));
+            schedule.removeClass("Monday", "CS" + i, LocalTime.of(9, 0));
+        }
+        assertTrue(schedule.addClass("Monday", new Class(LocalTime.of(9, 0), LocalTime.of(10, 0), "CS4125", "CS1-044")));
+    }
+
+    @Test
+    void refusedClassesTakeNoIds() {
+
+        Schedule schedule = new Schedule();
+        schedule.addClass("Monday", new Class(LocalTime.of(9, 0), LocalTime.of(10, 0), "CS4125", "CS1-044"));
+        for (int i = 0; i < MORE_THAN_THE_IDS; i++) {
+            Class overlappingClass = new Class(LocalTime.of(9, 30), LocalTime.of(10, 30), "CS" + i, "CS2-" + i);
+            assertThrows(IncorrectActionException.class, () -> schedule.addClass("Monday", overlappingClass));
+        }
+        assertTrue(schedule.addClass("Tuesday", new Class(LocalTime.of(9, 0), LocalTime.of(10, 0), "CS4115", "CS1-045")));
+        assertTrue(new String(schedule.getAllClassesInfoEncoded().bytes(), java.nio.charset.StandardCharsets.UTF_8).contains("CS1-045"));
+    }
+}
@@ -0,0 +1,59 @@
+package project.server;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+// a change the journal could not write is never seen, and no change is accepted after it
+class JournalFailureTest {
+
+    private static final Path FULL_DEVICE = Path.of("/dev/full"); // every write to it fails with "no space left on device"
+
+    @TempDir
+    Path storageDirectory;
+    private ScheduleRegistry registry;
+
+    @AfterEach
+    void closeRegistry() {
+        if (registry != null) {
+            registry.close();
+        }
+    }
+
+    @Test
+    void aChangeThatIsNotOnDiskIsNotMade() throws Exception {
+
+        assumeTrue(Files.isWritable(FULL_DEVICE));
+        registry = new ScheduleRegistry(storageDirectory);
+        RequestProcessor client = new RequestProcessor(registry);
+        RequestProcessor subscriber = new RequestProcessor(registry);
+        subscriber.allowPushes(() -> {});
+        subscriber.processMessageFromClient("Subscribe");
+        assertFalse(answerOf(client, "Add New Class,Monday,9,0,10,0,CS4125,CS1-044").startsWith("ERROR MESSAGE: "));
+        assertEquals(1, subscriber.subscription().poll().version);
+
+        // the segment the next checkpoint starts is the full device
+        Files.createSymbolicLink(storageDirectory.resolve("journal").resolve(String.format("journal-%020d.log", 2)), FULL_DEVICE);
+        registry.checkpoint();
+
+        assertTrue(answerOf(client, "Add New Class,Tuesday,9,0,10,0,CS4115,CS1-045").startsWith("ERROR MESSAGE: "));
+        assertFalse(answerOf(client, "Display Schedule").contains("CS4115"));
+        assertEquals("1", answerOf(client, "Version").replaceAll("\\D", ""));
+        assertNull(subscriber.subscription().poll());
+
+        String answer = answerOf(client, "Remove Class,Monday,9,0,CS4125");
+        assertTrue(answer.startsWith("ERROR MESSAGE: ") && answer.contains("restarted"), answer);
+        assertTrue(answerOf(client, "Display Schedule").contains("CS4125"));
+    }
+
+    private static String answerOf(RequestProcessor processor, String request) {
+        return new String(processor.processMessageFromClient(request).bytes(), StandardCharsets.UTF_8);
+    }
+}
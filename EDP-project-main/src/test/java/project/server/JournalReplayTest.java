@@ -0,0 +1,125 @@
+package project.server;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// a server that crashes comes back with every change it acknowledged, replayed from the journal over the stored schedules
+class JournalReplayTest {
+
+    @TempDir
+    Path storageDirectory;
+    @TempDir
+    Path directoryAfterTheCrash;
+    private ScheduleRegistry registry;
+    private ScheduleRegistry restartedRegistry;
+
+    @AfterEach
+    void closeRegistries() {
+        if (registry != null) {
+            registry.close();
+        }
+        if (restartedRegistry != null) {
+            restartedRegistry.close();
+        }
+    }
+
+    @Test
+    void acknowledgedChangesSurviveACrash() {
+
+        registry = new ScheduleRegistry(storageDirectory);
+        RequestProcessor client = new RequestProcessor(registry);
+        answerOf(client, "Select Schedule,first");
+        answerOf(client, "Add New Class,Monday,11,0,12,0,CS4125,CS1-044");
+        answerOf(client, "Select Schedule,second");
+        answerOf(client, "Add New Class,Tuesday,9,0,10,0,CS4115,CS1-045");
+        registry.checkpoint(); // what follows is only in the journal
+
+        answerOf(client, "Add New Class,Wednesday,14,0,15,30,CS4076,CS1-046");
+        answerOf(client, "Add Recurring Class,2026-09-08,12,1,11,0,12,0,CS4006,CS1-047");
+        answerOf(client, "Early Mornings");
+        answerOf(client, "Select Schedule,first");
+        answerOf(client, "Add New Class,Friday,13,0,14,0,CS4178,CS1-048");
+        answerOf(client, "Remove Class,Monday,11,0,CS4125");
+
+        restartAfterACrash(0);
+        RequestProcessor restartedClient = new RequestProcessor(restartedRegistry);
+        assertEquals(5, restartedRegistry.numberOfReplayedChanges());
+        for (String tenantId : List.of("first", "second")) {
+            answerOf(client, "Select Schedule," + tenantId);
+            answerOf(restartedClient, "Select Schedule," + tenantId);
+            assertEquals(answerOf(client, "Display Schedule"), answerOf(restartedClient, "Display Schedule"), tenantId);
+            assertEquals(answerOf(client, "Recurring Classes"), answerOf(restartedClient, "Recurring Classes"), tenantId);
+            assertEquals(answerOf(client, "Version"), answerOf(restartedClient, "Version"), tenantId);
+        }
+
+        // the replay booked the rooms again, and the schedules go on from where they were
+        answerOf(restartedClient, "Select Schedule,third");
+        assertTrue(textOf(restartedClient, "Add New Class,Friday,13,30,14,30,CS4125,CS1-048").startsWith("ERROR MESSAGE: "));
+        answerOf(restartedClient, "Select Schedule,first");
+        long versionBeforeTheCrash = registry.withSchedule("first", Schedule::getVersion);
+        answerOf(restartedClient, "Add New Class,Thursday,9,0,10,0,CS4125,CS1-044");
+        assertEquals(versionBeforeTheCrash + 1, restartedRegistry.withSchedule("first", Schedule::getVersion));
+    }
+
+    @Test
+    void aRecordCutShortByTheCrashIsDropped() {
+
+        registry = new ScheduleRegistry(storageDirectory);
+        RequestProcessor client = new RequestProcessor(registry);
+        answerOf(client, "Add New Class,Monday,9,0,10,0,CS4125,CS1-044");
+        answerOf(client, "Add New Class,Tuesday,9,0,10,0,CS4115,CS1-045");
+        String displayedBeforeTheLastChange = answerOf(client, "Display Schedule");
+        answerOf(client, "Add New Class,Wednesday,9,0,10,0,CS4076,CS1-046");
+
+        restartAfterACrash(3); // the crash came while the last record was being written
+        assertEquals(2, restartedRegistry.numberOfReplayedChanges());
+        assertEquals(displayedBeforeTheLastChange, answerOf(new RequestProcessor(restartedRegistry), "Display Schedule"));
+    }
+
+    // The storage directory as a crash would leave it: a copy taken while the server runs, after it acknowledged its last
+    // change, and without the end of the latest segment when bytesNotWritten is not 0. The server that crashed is closed with the test.
+    private void restartAfterACrash(int bytesNotWritten) {
+
+        try (Stream<Path> files = Files.walk(storageDirectory)) {
+            for (Path file : (Iterable<Path>) files.skip(1)::iterator) { // parents come before what they hold
+                Files.copy(file, directoryAfterTheCrash.resolve(storageDirectory.relativize(file).toString()));
+            }
+            if (bytesNotWritten > 0) {
+                Path latestSegment;
+                try (Stream<Path> segments = Files.list(directoryAfterTheCrash.resolve("journal"))) {
+                    latestSegment = segments.filter(segment -> segment.toFile().length() > 0).max(Path::compareTo).orElseThrow();
+                }
+                try (FileChannel segment = FileChannel.open(latestSegment, StandardOpenOption.WRITE)) {
+                    segment.truncate(segment.size() - bytesNotWritten);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        restartedRegistry = new ScheduleRegistry(directoryAfterTheCrash);
+    }
+
+    private static String answerOf(RequestProcessor processor, String request) {
+
+        String answer = textOf(processor, request);
+        assertFalse(answer.startsWith("ERROR MESSAGE: "), request + " was answered: " + answer);
+        return answer;
+    }
+
+    private static String textOf(RequestProcessor processor, String request) {
+        return new String(processor.processMessageFromClient(request).bytes(), StandardCharsets.UTF_8);
+    }
+}
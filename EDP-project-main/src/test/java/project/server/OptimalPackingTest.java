@@ -0,0 +1,133 @@
+package project.server;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// the week Optimal Packing leaves keeps every class, lays each day out from 09:00 without a gap and keeps clear of the rooms other schedules hold
+class OptimalPackingTest {
+
+    private static final String[] MODULES = {"CS4125", "CS4115", "CS4076", "CS4006", "CS4178"};
+    private static final int NUMBER_OF_SCHEDULES = 12;
+
+    private final ScheduleRegistry registry = new ScheduleRegistry(null, new EarlyMorningsEngine(2, Duration.ofMillis(200)));
+
+    @AfterEach
+    void closeRegistry() {
+        registry.close();
+    }
+
+    @Test
+    void packedWeeksAreValid() {
+
+        int numberOfClassesMovedToAnotherDay = 0;
+        for (int seed = 0; seed < NUMBER_OF_SCHEDULES; seed++) {
+            String tenantId = "schedule-" + seed;
+            fill(tenantId, seed);
+            List<List<Class>> classesBefore = registry.withSchedule(tenantId, Schedule::snapshot).classesPerDay;
+
+            OptimalPackingResult result = registry.performOptimalPacking(tenantId);
+            List<List<Class>> classesAfter = registry.withSchedule(tenantId, Schedule::snapshot).classesPerDay;
+
+            assertEquals(classesOf(classesBefore), classesOf(classesAfter), tenantId + " lost or changed a class");
+            assertEquals(numberOfClassesIn(classesBefore), result.getNumberOfClasses());
+            int latestFinishMinute = EarlyMorningsEngine.FIRST_START_MINUTE;
+            for (List<Class> classesOfTheDay : classesAfter) {
+                int startMinute = EarlyMorningsEngine.FIRST_START_MINUTE;
+                for (Class aClass : classesOfTheDay) { // back to back from 09:00
+                    assertEquals(startMinute, CompactScheduleFile.minuteOf(aClass.getStartTime()), tenantId + ": " + aClass);
+                    startMinute = CompactScheduleFile.minuteOf(aClass.getFinishTime());
+                }
+                assertTrue(startMinute <= OptimalPacking.LATEST_FINISH_MINUTE);
+                latestFinishMinute = Math.max(latestFinishMinute, startMinute);
+            }
+            assertEquals(CompactScheduleFile.timeOf(latestFinishMinute), result.getLatestFinishAfter());
+            assertFalse(result.getLatestFinishAfter().isAfter(result.getLatestFinishBefore()), tenantId + ": " + result);
+            assertFalse(result.getLatestFinishAfter().isBefore(result.getLowerBoundOfLatestFinish()), tenantId + ": " + result);
+            numberOfClassesMovedToAnotherDay += result.getNumberOfClassesMovedToAnotherDay();
+        }
+        assertTrue(numberOfClassesMovedToAnotherDay > 0, "no class was moved, the test does not cover the search");
+    }
+
+    // Every day the first class is in a room another schedule holds from 09:00 to 10:00, so laid out where it is it would
+    // clash; on Monday and Tuesday a class that started earlier comes first. The week has to bring those classes together there.
+    @Test
+    void classesAreNotPackedIntoARoomAnotherScheduleHolds() {
+
+        registry.withSchedule("other", schedule -> {
+            Schedule.DAYS_OF_WEEK.forEach(dayOfWeek -> schedule.addClass(dayOfWeek, new Class(LocalTime.of(9, 0), LocalTime.of(10, 0), MODULES[0], "CS1-044")));
+            return null;
+        });
+        registry.withSchedule("packed", schedule -> {
+            for (String dayOfWeek : Schedule.DAYS_OF_WEEK) {
+                schedule.addClass(dayOfWeek, new Class(LocalTime.of(8, 0), LocalTime.of(8, 50), MODULES[1], "CS1-044"));
+                schedule.addClass(dayOfWeek, new Class(LocalTime.of(11, 0), LocalTime.of(12, 0), MODULES[2], "CS1-045"));
+            }
+            schedule.addClass("Monday", new Class(LocalTime.of(7, 0), LocalTime.of(7, 50), MODULES[3], "CS1-046"));
+            schedule.addClass("Tuesday", new Class(LocalTime.of(7, 0), LocalTime.of(7, 50), MODULES[3], "CS1-046"));
+            return null;
+        });
+
+        OptimalPackingResult result = registry.performOptimalPacking("packed");
+        assertTrue(result.getNumberOfClassesMovedToAnotherDay() >= 3, result.toString());
+        for (List<Class> classesOfTheDay : registry.withSchedule("packed", Schedule::snapshot).classesPerDay) {
+            for (Class aClass : classesOfTheDay) {
+                assertTrue(!aClass.getRoom().equals("CS1-044") || !aClass.getStartTime().isBefore(LocalTime.of(10, 0)), aClass.toString());
+            }
+        }
+        for (String dayOfWeek : Schedule.DAYS_OF_WEEK) { // the other schedule keeps its room
+            assertFalse(registry.roomOccupancy().isFree("CS1-044", dayOfWeek, LocalTime.of(9, 0), LocalTime.of(10, 0)));
+        }
+    }
+
+    @Test
+    void aPlanIsDroppedIfTheScheduleChangedMeanwhile() {
+
+        fill("changed", 1);
+        ScheduleSnapshot snapshot = registry.withSchedule("changed", Schedule::snapshot);
+        registry.withSchedule("changed", schedule -> schedule.addClass("Friday", new Class(LocalTime.of(6, 0), LocalTime.of(6, 30), MODULES[0], "CS1-044")));
+        assertThrows(IncorrectActionException.class, () -> registry.withSchedule("changed", schedule -> {
+            schedule.applyPlan(snapshot.version, List.of(ScheduleOperation.remove("Friday", MODULES[0], LocalTime.of(6, 0))));
+            return null;
+        }));
+        assertEquals(numberOfClassesIn(snapshot.classesPerDay) + 1, numberOfClassesIn(registry.withSchedule("changed", Schedule::snapshot).classesPerDay));
+    }
+
+    // from three to six classes of half an hour to two hours a day, spread over the day with gaps, in rooms of the schedule's own
+    private void fill(String tenantId, int seed) {
+
+        Random random = new Random(seed);
+        registry.withSchedule(tenantId, schedule -> {
+            for (String dayOfWeek : Schedule.DAYS_OF_WEEK) {
+                int startMinute = 7 * 60 + random.nextInt(60);
+                for (int i = 3 + random.nextInt(4); i > 0; i--) {
+                    int finishMinute = startMinute + 30 + random.nextInt(91);
+                    schedule.addClass(dayOfWeek, new Class(CompactScheduleFile.timeOf(startMinute), CompactScheduleFile.timeOf(finishMinute),
+                            MODULES[random.nextInt(MODULES.length)], "R" + seed + "-" + random.nextInt(10)));
+                    startMinute = finishMinute + 1 + random.nextInt(60);
+                }
+            }
+            return null;
+        });
+    }
+
+    // name, room and length of every class, whatever its day and time
+    private static List<String> classesOf(List<List<Class>> classesPerDay) {
+
+        List<String> classes = new ArrayList<>();
+        classesPerDay.forEach(classesOfTheDay -> classesOfTheDay.forEach(aClass -> classes.add(aClass.getName() + " " + aClass.getRoom() + " " + aClass.getDuration())));
+        classes.sort(null);
+        return classes;
+    }
+
+    private static int numberOfClassesIn(List<List<Class>> classesPerDay) {
+        return classesPerDay.stream().mapToInt(List::size).sum();
+    }
+}
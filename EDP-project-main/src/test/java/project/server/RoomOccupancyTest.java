@@ -0,0 +1,65 @@
+package project.server;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// a class moved by 'Early Mornings' cannot take a room another schedule holds at that time; the move is refused and nothing changes
+class RoomOccupancyTest {
+
+    private final ScheduleRegistry registry = new ScheduleRegistry();
+
+    @AfterEach
+    void closeRegistry() {
+        registry.close();
+    }
+
+    @Test
+    void earlyMorningsDoesNotMoveAClassOntoAnotherSchedulesBooking() {
+
+        RequestProcessor client = new RequestProcessor(registry);
+        answerOf(client, "Select Schedule,second");
+        answerOf(client, "Add New Class,Monday,9,30,10,30,CS4115,CS1-044");
+        answerOf(client, "Select Schedule,first");
+        answerOf(client, "Add New Class,Monday,13,0,14,0,CS4125,CS1-044"); // 'Early Mornings' would move it to 9:00
+        answerOf(client, "Add New Class,Tuesday,13,0,14,0,CS4076,CS1-045");
+        String displayedBeforeTheShift = answerOf(client, "Display Schedule");
+        String versionBeforeTheShift = answerOf(client, "Version");
+
+        String answer = textOf(client, "Early Mornings");
+        assertTrue(answer.startsWith("ERROR MESSAGE: ") && answer.contains("CS1-044"), answer);
+        assertEquals(displayedBeforeTheShift, answerOf(client, "Display Schedule"));
+        assertEquals(versionBeforeTheShift, answerOf(client, "Version"));
+
+        // the bookings are as they were: the other schedule keeps its room, and this one's classes keep theirs where they are
+        RoomOccupancyIndex roomOccupancy = registry.roomOccupancy();
+        assertFalse(roomOccupancy.isFree("CS1-044", "Monday", LocalTime.of(9, 30), LocalTime.of(10, 30)));
+        assertFalse(roomOccupancy.isFree("CS1-044", "Monday", LocalTime.of(13, 0), LocalTime.of(14, 0)));
+        assertFalse(roomOccupancy.isFree("CS1-045", "Tuesday", LocalTime.of(13, 0), LocalTime.of(14, 0)));
+        assertTrue(roomOccupancy.isFree("CS1-045", "Tuesday", LocalTime.of(9, 0), LocalTime.of(10, 0)));
+
+        // once the other schedule gives the room back, the same shift goes through and the rooms move with the classes
+        answerOf(client, "Select Schedule,second");
+        answerOf(client, "Remove Class,Monday,9,30,CS4115");
+        answerOf(client, "Select Schedule,first");
+        answerOf(client, "Early Mornings");
+        assertFalse(roomOccupancy.isFree("CS1-044", "Monday", LocalTime.of(9, 0), LocalTime.of(10, 0)));
+        assertTrue(roomOccupancy.isFree("CS1-044", "Monday", LocalTime.of(13, 0), LocalTime.of(14, 0)));
+        assertFalse(roomOccupancy.isFree("CS1-045", "Tuesday", LocalTime.of(9, 0), LocalTime.of(10, 0)));
+    }
+
+    private static String answerOf(RequestProcessor processor, String request) {
+
+        String answer = textOf(processor, request);
+        assertFalse(answer.startsWith("ERROR MESSAGE: "), request + " was answered: " + answer);
+        return answer;
+    }
+
+    private static String textOf(RequestProcessor processor, String request) {
+        return new String(processor.processMessageFromClient(request).bytes(), StandardCharsets.UTF_8);
+    }
+}
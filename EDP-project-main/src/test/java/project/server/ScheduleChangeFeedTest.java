@@ -0,0 +1,156 @@
+package project.server;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// a subscriber gets every change of its schedule once and in version order, and one that falls behind is told what it missed
+class ScheduleChangeFeedTest {
+
+    private static final String[] MODULES = {"CS4125", "CS4115", "CS4076", "CS4006", "CS4178"};
+    private static final int NUMBER_OF_WRITERS = 8;
+    private static final int CHANGES_PER_WRITER = 400;
+
+    @TempDir
+    Path storageDirectory;
+    private ScheduleRegistry registry;
+
+    @AfterEach
+    void closeRegistry() {
+        if (registry != null) {
+            registry.close();
+        }
+    }
+
+    @Test
+    void changesOfConcurrentWritersArePushedInVersionOrder() throws Exception {
+
+        registry = new ScheduleRegistry(storageDirectory, new EarlyMorningsEngine(1), new ScheduleChangeFeed(NUMBER_OF_WRITERS * (CHANGES_PER_WRITER + 1)));
+        RequestProcessor subscriber = new RequestProcessor(registry);
+        subscriber.allowPushes(() -> {});
+        answerOf(subscriber, "Select Schedule,feed");
+        answerOf(subscriber, "Subscribe");
+
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> writers = new ArrayList<>();
+        for (int writer = 0; writer < NUMBER_OF_WRITERS; writer++) {
+            int hour = 9 + writer / Schedule.DAYS_OF_WEEK.size();
+            String dayAndStart = Schedule.DAYS_OF_WEEK.get(writer % Schedule.DAYS_OF_WEEK.size()) + "," + hour + ",0";
+            String addition = "Add New Class," + dayAndStart + "," + hour + ",50," + MODULES[writer % MODULES.length] + ",CS1-04" + writer;
+            String removal = "Remove Class," + dayAndStart + "," + MODULES[writer % MODULES.length];
+            Thread thread = new Thread(() -> {
+                try {
+                    RequestProcessor client = new RequestProcessor(registry);
+                    answerOf(client, "Select Schedule,feed");
+                    start.await();
+                    for (int i = 0; i < CHANGES_PER_WRITER / 2; i++) {
+                        answerOf(client, addition);
+                        answerOf(client, removal);
+                    }
+                    answerOf(client, addition); // each writer leaves one class behind
+                } catch (Throwable t) {
+                    failure.compareAndSet(null, t);
+                }
+            });
+            thread.start();
+            writers.add(thread);
+        }
+        start.countDown();
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        assertNull(failure.get(), () -> "a writer failed: " + failure.get());
+
+        Schedule replayedSchedule = new Schedule(); // the pushed changes alone rebuild the schedule
+        long expectedVersion = 1;
+        for (ScheduleChange change = subscriber.subscription().poll(); change != null; change = subscriber.subscription().poll()) {
+            assertNotSame(ScheduleChange.MISSED, change);
+            assertEquals("feed", change.tenantId);
+            assertEquals(expectedVersion++, change.version);
+            for (ScheduleOperation operation : change.operations) {
+                switch (operation.getType()) {
+                    case ADD -> replayedSchedule.addClass(operation.getDayOfWeek(), operation.getClassToAdd());
+                    case REMOVE -> replayedSchedule.removeClass(operation.getDayOfWeek(), operation.getNameOfClassToRemove(), operation.getStartTimeOfClassToRemove());
+                    default -> fail("unexpected " + operation.getType());
+                }
+            }
+        }
+        assertEquals(NUMBER_OF_WRITERS * (CHANGES_PER_WRITER + 1) + 1, expectedVersion);
+        assertEquals(NUMBER_OF_WRITERS, replayedSchedule.numberOfClasses());
+        assertEquals(displayed(replayedSchedule), answerOf(subscriber, "Display Schedule"));
+    }
+
+    @Test
+    void aSubscriberThatFallsBehindIsToldItMissedChanges() throws Exception {
+
+        registry = new ScheduleRegistry(null, new EarlyMorningsEngine(1), new ScheduleChangeFeed(4));
+        AtomicInteger numberOfWakeUps = new AtomicInteger();
+        RequestProcessor subscriber = new RequestProcessor(registry);
+        subscriber.allowPushes(numberOfWakeUps::incrementAndGet);
+        answerOf(subscriber, "Subscribe");
+        RequestProcessor client = new RequestProcessor(registry);
+        for (int hour = 9; hour < 19; hour++) {
+            answerOf(client, "Add New Class,Monday," + hour + ",0," + hour + ",50,CS4125,CS1-044");
+        }
+
+        // the queue of four overflowed twice: what is left is the mark and the changes made after the last overflow
+        ChangeSubscription subscription = subscriber.subscription();
+        assertEquals(1, numberOfWakeUps.get(), "the connection is woken up only when its queue stops being empty");
+        ScheduleChange missed = subscription.poll();
+        assertSame(ScheduleChange.MISSED, missed);
+        assertTrue(StandardCharsets.UTF_8.decode(missed.toTextFrame()).toString().contains("UPDATE MISSED"));
+        assertEquals(8, subscription.poll().version);
+        assertEquals(9, subscription.poll().version);
+        assertEquals(10, subscription.poll().version);
+        assertNull(subscription.poll());
+        assertEquals(7, subscription.numberOfMissedChanges());
+
+        answerOf(client, "Add New Class,Tuesday,9,0,9,50,CS4125,CS1-044");
+        assertEquals(2, numberOfWakeUps.get());
+        assertEquals(11, subscription.poll(1_000).version);
+    }
+
+    @Test
+    void theSubscriptionFollowsTheSelectedSchedule() {
+
+        registry = new ScheduleRegistry();
+        RequestProcessor subscriber = new RequestProcessor(registry);
+        subscriber.allowPushes(() -> {});
+        answerOf(subscriber, "Select Schedule,first");
+        answerOf(subscriber, "Subscribe");
+        answerOf(subscriber, "Select Schedule,second");
+        RequestProcessor client = new RequestProcessor(registry);
+        answerOf(client, "Select Schedule,first");
+        answerOf(client, "Add New Class,Monday,9,0,10,0,CS4125,CS1-044");
+        assertNull(subscriber.subscription().poll());
+
+        answerOf(client, "Select Schedule,second");
+        answerOf(client, "Add New Class,Monday,9,0,10,0,CS4125,CS1-045");
+        assertEquals("second", subscriber.subscription().poll().tenantId);
+        answerOf(subscriber, "Unsubscribe");
+        answerOf(client, "Remove Class,Monday,9,0,CS4125");
+        assertNull(subscriber.subscription().poll());
+    }
+
+    private static String answerOf(RequestProcessor processor, String request) {
+
+        String answer = new String(processor.processMessageFromClient(request).bytes(), StandardCharsets.UTF_8);
+        assertFalse(answer.startsWith("ERROR MESSAGE: "), request + " was answered: " + answer);
+        return answer;
+    }
+
+    private static String displayed(Schedule schedule) {
+        return new String(schedule.getAllClassesInfoEncoded().bytes(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,210 @@
+package project.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// many threads adding, removing and shifting classes in one schedule lose no class, never leave two overlapping and never pass the limit of modules
+class ScheduleConcurrencyTest {
+
+    private static final String[] MODULES = {"CS4125", "CS4115", "CS4076", "CS4006", "CS4178"}; // as many as a schedule may have
+    private static final int NUMBER_OF_WORKERS = 16;
+    private static final int CHANGES_PER_WORKER = 2_000;
+    private static final int NUMBER_OF_SHIFTERS = 2;
+    private static final int MAX_ATTEMPTS = 100_000;
+    private static final int NUMBER_OF_NEW_MODULES = 12; // racing for the five a schedule may have
+    private static final int NUMBER_OF_ROUNDS = 200;
+
+    @Test
+    void concurrentChangesEndWithTheClassesOfASequentialRun() throws Exception {
+
+        Schedule sequentialSchedule = filledSchedule();
+        Random random = new Random(1);
+        for (int i = 0; i < NUMBER_OF_WORKERS * CHANGES_PER_WORKER; i++) {
+            addAnywhere(sequentialSchedule, random);
+            removeAny(sequentialSchedule, random);
+            if (i % 50 == 0) {
+                sequentialSchedule.performEarlyMorningsOperation();
+            }
+        }
+        assertNoOverlaps(sequentialSchedule.snapshot());
+
+        Schedule concurrentSchedule = filledSchedule();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        AtomicBoolean workersAreDone = new AtomicBoolean();
+        AtomicLong numberOfShifts = new AtomicLong();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        for (int worker = 0; worker < NUMBER_OF_WORKERS; worker++) {
+            Random workerRandom = new Random(100 + worker);
+            workers.add(startThread(failure, start, () -> {
+                for (int i = 0; i < CHANGES_PER_WORKER; i++) {
+                    addAnywhere(concurrentSchedule, workerRandom);
+                    removeAny(concurrentSchedule, workerRandom);
+                }
+            }));
+        }
+        List<Thread> others = new ArrayList<>();
+        for (int shifter = 0; shifter < NUMBER_OF_SHIFTERS; shifter++) {
+            others.add(startThread(failure, start, () -> {
+                while (!workersAreDone.get()) {
+                    concurrentSchedule.performEarlyMorningsOperation();
+                    numberOfShifts.incrementAndGet();
+                }
+            }));
+        }
+        others.add(startThread(failure, start, () -> { // readers always see one whole version
+            while (!workersAreDone.get()) {
+                assertNoOverlaps(concurrentSchedule.snapshot());
+            }
+        }));
+
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        workersAreDone.set(true);
+        for (Thread other : others) {
+            other.join();
+        }
+        assertNull(failure.get(), () -> "a thread failed: " + failure.get());
+
+        assertNoOverlaps(concurrentSchedule.snapshot());
+        assertEquals(sequentialSchedule.numberOfClasses(), concurrentSchedule.numberOfClasses());
+        assertEquals(numberOfClassesIn(concurrentSchedule.snapshot()), concurrentSchedule.numberOfClasses());
+        assertEquals(filledSchedule().getVersion() + 2L * NUMBER_OF_WORKERS * CHANGES_PER_WORKER + numberOfShifts.get(), concurrentSchedule.getVersion());
+    }
+
+    // Threads racing to add classes of different modules on different days, so only the limit of modules can refuse them:
+    // exactly five are accepted every time, and the names the schedule keeps are those of the classes it holds.
+    @Test
+    void concurrentNewModulesStopAtTheLimit() throws Exception {
+
+        for (int round = 0; round < NUMBER_OF_ROUNDS; round++) {
+            Schedule schedule = new Schedule();
+            List<String> acceptedNames = Collections.synchronizedList(new ArrayList<>());
+            AtomicInteger numberOfRefusals = new AtomicInteger();
+            AtomicReference<Throwable> failure = new AtomicReference<>();
+            CountDownLatch start = new CountDownLatch(1);
+            List<Thread> threads = new ArrayList<>();
+            for (int thread = 0; thread < NUMBER_OF_NEW_MODULES; thread++) {
+                String name = "CS" + (4200 + thread);
+                String dayOfWeek = Schedule.DAYS_OF_WEEK.get(thread % Schedule.DAYS_OF_WEEK.size());
+                Class classToAdd = new Class(LocalTime.of(8 + thread, 0), LocalTime.of(8 + thread, 50), name, "CS1-0" + (10 + thread));
+                threads.add(startThread(failure, start, () -> {
+                    try {
+                        schedule.addClass(dayOfWeek, classToAdd);
+                        acceptedNames.add(name);
+                    } catch (IncorrectActionException tooManyModules) {
+                        numberOfRefusals.incrementAndGet();
+                    }
+                }));
+            }
+            start.countDown();
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            assertNull(failure.get(), () -> "a thread failed: " + failure.get());
+
+            assertEquals(MODULES.length, acceptedNames.size(), "round " + round);
+            assertEquals(NUMBER_OF_NEW_MODULES - MODULES.length, numberOfRefusals.get(), "round " + round);
+            assertEquals(MODULES.length, schedule.numberOfClasses());
+            Set<String> storedNames = new HashSet<>();
+            schedule.snapshot().classesPerDay.forEach(classesOfTheDay -> classesOfTheDay.forEach(aClass -> storedNames.add(aClass.getName())));
+            assertEquals(new HashSet<>(acceptedNames), storedNames);
+            for (int thread = 0; thread < NUMBER_OF_NEW_MODULES; thread++) {
+                String name = "CS" + (4200 + thread);
+                assertEquals(storedNames.contains(name), schedule.findClassWithNameSpecified(name), name);
+                assertEquals(storedNames.contains(name) ? 1 : 0, schedule.countOf(name), name);
+            }
+        }
+    }
+
+    // ten classes a day; every class is of one of the five modules, so no change runs into the limit of modules
+    private static Schedule filledSchedule() {
+
+        Schedule schedule = new Schedule();
+        for (String dayOfWeek : Schedule.DAYS_OF_WEEK) {
+            for (int i = 0; i < 2 * MODULES.length; i++) {
+                schedule.addClass(dayOfWeek, new Class(LocalTime.of(8 + i, 0), LocalTime.of(8 + i, 50), MODULES[i % MODULES.length], "CS1-04" + i));
+            }
+        }
+        return schedule;
+    }
+
+    // a class of ten minutes on a random day and time, tried again elsewhere until it fits
+    private static void addAnywhere(Schedule schedule, Random random) {
+
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            int startMinute = random.nextInt((24 * 60 - 11) / 5) * 5;
+            Class classToAdd = new Class(LocalTime.of(startMinute / 60, startMinute % 60), LocalTime.of((startMinute + 10) / 60, (startMinute + 10) % 60),
+                    MODULES[random.nextInt(MODULES.length)], "CS2-0" + random.nextInt(50));
+            try {
+                assertTrue(schedule.addClass(Schedule.DAYS_OF_WEEK.get(random.nextInt(Schedule.DAYS_OF_WEEK.size())), classToAdd));
+                return;
+            } catch (IncorrectActionException overlaps) {
+            }
+        }
+        fail("no free time was found for a class");
+    }
+
+    // a class picked from a version of the schedule, tried again if 'Early Mornings' moved it meanwhile
+    private static void removeAny(Schedule schedule, Random random) {
+
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            int dayIndex = random.nextInt(Schedule.DAYS_OF_WEEK.size());
+            List<Class> classesOfTheDay = schedule.snapshot().classesPerDay.get(dayIndex);
+            if (classesOfTheDay.size() <= 2 * MODULES.length) { // the class this thread added is over ten somewhere
+                continue;
+            }
+            Class classToRemove = classesOfTheDay.get(random.nextInt(classesOfTheDay.size()));
+            try {
+                schedule.removeClass(Schedule.DAYS_OF_WEEK.get(dayIndex), classToRemove.getName(), classToRemove.getStartTime());
+                return;
+            } catch (IncorrectActionException moved) {
+            }
+        }
+        fail("no class could be removed");
+    }
+
+    private static void assertNoOverlaps(ScheduleSnapshot snapshot) {
+
+        for (List<Class> classesOfTheDay : snapshot.classesPerDay) {
+            for (int i = 1; i < classesOfTheDay.size(); i++) { // back to back after 'Early Mornings', never one inside the other
+                assertFalse(classesOfTheDay.get(i).getStartTime().isBefore(classesOfTheDay.get(i - 1).getFinishTime()),
+                        classesOfTheDay.get(i - 1) + " overlaps " + classesOfTheDay.get(i));
+            }
+        }
+    }
+
+    private static int numberOfClassesIn(ScheduleSnapshot snapshot) {
+        return snapshot.classesPerDay.stream().mapToInt(List::size).sum();
+    }
+
+    private static Thread startThread(AtomicReference<Throwable> failure, CountDownLatch start, Runnable work) {
+
+        Thread thread = new Thread(() -> {
+            try {
+                start.await();
+                work.run();
+            } catch (Throwable t) {
+                failure.compareAndSet(null, t);
+            }
+        });
+        thread.start();
+        return thread;
+    }
+}
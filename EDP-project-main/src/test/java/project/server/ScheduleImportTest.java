@@ -0,0 +1,99 @@
+package project.server;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// a schedule sent by another server is refused with an error unless every count and offset in it stays inside it
+class ScheduleImportTest {
+
+    private final ScheduleRegistry registry = new ScheduleRegistry();
+
+    @AfterEach
+    void closeRegistry() {
+        registry.close();
+    }
+
+    @Test
+    void aValidScheduleIsImported() {
+
+        byte[] scheduleFile = exportedSchedule();
+        assertEquals(4, registry.importSchedule("copy", scheduleFile));
+        assertTrue(new String(registry.withSchedule("copy", Schedule::getAllClassesInfoEncoded).bytes(), java.nio.charset.StandardCharsets.UTF_8).contains("CS4125"));
+    }
+
+    @Test
+    void countsAndOffsetsOutsideTheFileAreRefused() {
+
+        byte[] scheduleFile = exportedSchedule();
+        int stringTableOffset = ByteBuffer.wrap(scheduleFile).getInt(20);
+        assertRefused(withInt(scheduleFile, stringTableOffset, -1));                // number of strings
+        assertRefused(withInt(scheduleFile, stringTableOffset, Integer.MAX_VALUE));
+        assertRefused(withInt(scheduleFile, 20, Integer.MAX_VALUE));                // offset of the string table
+        assertRefused(withInt(scheduleFile, 20, -8));
+        assertRefused(withInt(scheduleFile, 16, Integer.MAX_VALUE));                // number of classes
+        assertRefused(withInt(scheduleFile, 24, scheduleFile.length));              // offset of the name counts
+        assertRefused(withInt(scheduleFile, 28, scheduleFile.length - 2));          // offset of the recurring classes
+        assertRefused(withInt(scheduleFile, 36, 7));                                // first record of Tuesday
+        assertRefused(Arrays.copyOf(scheduleFile, 20));
+        assertRefused(Arrays.copyOf(scheduleFile, scheduleFile.length - 1));
+        assertEquals(1, registry.tenantIds().size());
+    }
+
+    @Test
+    void damagedSchedulesAreImportedOrRefusedWithAnError() {
+
+        byte[] scheduleFile = exportedSchedule();
+        Random random = new Random(42);
+        for (int attempt = 0; attempt < 2_000; attempt++) {
+            byte[] damagedFile = attempt % 2 == 0 ? scheduleFile.clone() : Arrays.copyOf(scheduleFile, random.nextInt(scheduleFile.length));
+            for (int i = 0; i < 1 + random.nextInt(4) && damagedFile.length > 0; i++) {
+                damagedFile[random.nextInt(damagedFile.length)] = (byte) random.nextInt();
+            }
+            try {
+                registry.importSchedule("damaged" + attempt, damagedFile);
+                registry.withSchedule("damaged" + attempt, Schedule::getAllClassesInfoEncoded);
+            } catch (IncorrectActionException expected) {
+            }
+        }
+    }
+
+    @Test
+    void theImportedPartsAreCapped() {
+
+        RequestProcessor router = new RequestProcessor(registry, true);
+        router.processMessageFromClient("Select Schedule,big");
+        String part = "A".repeat(4 * 1024 * 1024); // 3 MiB once decoded
+        String answer = "";
+        for (int i = 0; i < 6 && !answer.startsWith("ERROR MESSAGE: "); i++) {
+            answer = new String(router.processMessageFromClient("Import Schedule Part," + part).bytes(), java.nio.charset.StandardCharsets.UTF_8);
+        }
+        assertTrue(answer.startsWith("ERROR MESSAGE: A schedule sent to this server is at most"), answer);
+    }
+
+    private byte[] exportedSchedule() {
+
+        RequestProcessor client = new RequestProcessor(registry);
+        client.processMessageFromClient("Add New Class,Monday,9,0,10,0,CS4125,CS1-044");
+        client.processMessageFromClient("Add New Class,Monday,11,0,12,0,CS4115,CS1-045");
+        client.processMessageFromClient("Add New Class,Wednesday,9,0,10,0,CS4125,CS1-044");
+        client.processMessageFromClient("Add Recurring Class,2026-09-08,12,1,14,0,15,0,CS4076,CS1-046");
+        return registry.exportSchedule(ScheduleRegistry.DEFAULT_TENANT_ID);
+    }
+
+    private void assertRefused(byte[] scheduleFile) {
+        assertThrows(IncorrectActionException.class, () -> registry.importSchedule("refused", scheduleFile));
+    }
+
+    private static byte[] withInt(byte[] scheduleFile, int offset, int value) {
+
+        byte[] changedFile = scheduleFile.clone();
+        ByteBuffer.wrap(changedFile).putInt(offset, value);
+        return changedFile;
+    }
+}
@@ -0,0 +1,126 @@
+package project.server;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// a client that does not read its responses is not read from either, and gets every response once it reads again
+class SelectorEventLoopTest {
+
+    private static final byte[] REQUEST = "Display Schedule\n".getBytes(StandardCharsets.US_ASCII);
+    private static final String EMPTY_SCHEDULE = "The schedule does not contain any classes so far.";
+    private static final long MAX_BYTES_TRIED = 64L * 1024 * 1024;
+
+    private final CountDownLatch packingMayFinish = new CountDownLatch(1);
+    private final ScheduleRegistry registry = new ScheduleRegistry() {
+        @Override
+        public OptimalPackingResult performOptimalPacking(String tenantId) { // as slow as the test wants
+            try {
+                packingMayFinish.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return super.performOptimalPacking(tenantId);
+        }
+    };
+    private int port;
+
+    @BeforeEach
+    void startLoop() throws IOException {
+
+        SelectorEventLoop loop = new SelectorEventLoop(0, 10, registry);
+        Thread loopThread = new Thread(loop, "test-selector");
+        loopThread.setDaemon(true);
+        loopThread.start();
+        port = loop.port();
+    }
+
+    @AfterEach
+    void closeRegistry() {
+        packingMayFinish.countDown();
+        registry.close();
+    }
+
+    @Test
+    void aSlowRequestHoldsUpOnlyItsOwnConnection() throws Exception {
+
+        try (Socket slow = new Socket("localhost", port); Socket other = new Socket("localhost", port)) {
+            slow.setSoTimeout(5_000);
+            other.setSoTimeout(5_000);
+            BufferedReader slowIn = new BufferedReader(new InputStreamReader(slow.getInputStream(), StandardCharsets.UTF_8));
+            BufferedReader otherIn = new BufferedReader(new InputStreamReader(other.getInputStream(), StandardCharsets.UTF_8));
+            slow.getOutputStream().write("Optimal Packing\nVersion\n".getBytes(StandardCharsets.US_ASCII));
+            for (int i = 0; i < 10; i++) {
+                other.getOutputStream().write("Version\n".getBytes(StandardCharsets.US_ASCII));
+                assertTrue(responseFrom(otherIn).contains("version"));
+            }
+            assertFalse(slowIn.ready());
+
+            packingMayFinish.countDown(); // the responses of the slow connection follow, in the order of its requests
+            assertFalse(responseFrom(slowIn).startsWith("ERROR MESSAGE: "));
+            assertTrue(responseFrom(slowIn).contains("version"));
+        }
+    }
+
+    @Test
+    void aClientThatDoesNotReadIsNotReadFrom() throws Exception {
+
+        try (SocketChannel client = SocketChannel.open(new InetSocketAddress("localhost", port))) {
+            client.configureBlocking(false);
+            ByteBuffer requests = ByteBuffer.allocate(REQUEST.length * 4096);
+            while (requests.hasRemaining()) {
+                requests.put(REQUEST);
+            }
+            requests.flip();
+            long numberOfBytesSent = 0;
+            long lastProgress = System.nanoTime();
+            while (numberOfBytesSent < MAX_BYTES_TRIED && System.nanoTime() - lastProgress < 1_000_000_000L) {
+                if (!requests.hasRemaining()) {
+                    requests.rewind();
+                }
+                int numberOfBytesWritten = client.write(requests);
+                if (numberOfBytesWritten > 0) {
+                    numberOfBytesSent += numberOfBytesWritten;
+                    lastProgress = System.nanoTime();
+                } else {
+                    Thread.sleep(10);
+                }
+            }
+            assertTrue(numberOfBytesSent < MAX_BYTES_TRIED, "the server kept reading although its responses were not read");
+
+            client.configureBlocking(true); // every whole request is answered, in order, once the client reads
+            BufferedReader responses = new BufferedReader(new InputStreamReader(client.socket().getInputStream(), StandardCharsets.UTF_8));
+            for (long i = 0; i < numberOfBytesSent / REQUEST.length; i++) {
+                assertEquals(EMPTY_SCHEDULE.length(), Integer.parseInt(responses.readLine()));
+                assertEquals(EMPTY_SCHEDULE, responses.readLine());
+            }
+        }
+        try (Socket other = new Socket("localhost", port)) { // and the loop still serves everybody
+            other.getOutputStream().write("Version\n".getBytes(StandardCharsets.US_ASCII));
+            BufferedReader in = new BufferedReader(new InputStreamReader(other.getInputStream(), StandardCharsets.UTF_8));
+            assertTrue(Integer.parseInt(in.readLine()) > 0);
+        }
+    }
+
+    private static String responseFrom(BufferedReader in) throws IOException {
+
+        char[] response = new char[Integer.parseInt(in.readLine())]; // the responses of these tests are ASCII, a byte per char
+        for (int numberOfCharsRead = 0; numberOfCharsRead < response.length; ) {
+            numberOfCharsRead += in.read(response, numberOfCharsRead, response.length - numberOfCharsRead);
+        }
+        in.readLine();
+        return new String(response);
+    }
+}